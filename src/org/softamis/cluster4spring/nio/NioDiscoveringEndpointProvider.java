@@ -0,0 +1,46 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio;
+
+import org.softamis.cluster4spring.nio.support.NioEndpoint;
+import org.softamis.cluster4spring.support.ServiceMoniker;
+import org.softamis.cluster4spring.support.provider.DiscoveringEndpointProvider;
+
+/**
+ * Discovering endpoints provider for services published by <code>NioServicePublisher</code>
+ *
+ * @version 1.0
+ * @param <SI> type of data used to invoke remote service (such as remote service URL)
+ */
+
+public class NioDiscoveringEndpointProvider<SI extends ServiceMoniker>
+        extends DiscoveringEndpointProvider<NioEndpoint<SI>, SI> {
+    public NioDiscoveringEndpointProvider() {
+        super();
+    }
+
+    /**
+     * Returns name of protocol
+     *
+     * @return name of protocol
+     */
+    @Override
+    public String getProtocolName() {
+        return NioServicePublisher.PROTOCOL_NAME;
+    }
+}
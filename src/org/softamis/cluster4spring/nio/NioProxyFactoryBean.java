@@ -0,0 +1,130 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio;
+
+import java.util.*;
+
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.FactoryBean;
+
+import org.softamis.cluster4spring.nio.support.NioClientInterceptor;
+import org.softamis.cluster4spring.nio.support.NioEndpoint;
+import org.softamis.cluster4spring.support.AdvicesListProvidingUtils;
+import org.softamis.cluster4spring.support.ClientRemoteInvocationTraceInterceptor;
+import org.softamis.cluster4spring.support.EndpointFactory;
+import org.softamis.cluster4spring.support.EndpointProvider;
+import org.softamis.cluster4spring.support.ServiceMoniker;
+
+import org.aopalliance.aop.Advice;
+
+/**
+ * Proxy factory that creates proxies for remote services exported via NIO transport.
+ * Endpoint provider should be specified explicitly - any provider used with RMI proxies
+ * (single URL, URL list, discovering or ZooKeeper based) could be used, as long as it
+ * provides URLs of form <code>nio://host:port/serviceName</code>.
+ *
+ * @version 1.0
+ * @see NioServiceExporter
+ */
+
+public class NioProxyFactoryBean<SI extends ServiceMoniker>
+        extends NioClientInterceptor<SI>
+        implements FactoryBean,
+        BeanFactoryAware {
+    protected Object fServiceProxy = null;
+    protected BeanFactory fBeanFactory = null;
+    protected String[] fInterceptorNames = null;
+    protected boolean fRegisterTraceInterceptor = false;
+
+    public NioProxyFactoryBean() {
+    }
+
+    public void setBeanFactory(BeanFactory aBeanFactory)
+            throws BeansException {
+        fBeanFactory = aBeanFactory;
+    }
+
+    @SuppressWarnings({"ProhibitedExceptionDeclared"})
+    @Override
+    public void afterPropertiesSet()
+            throws Exception {
+        super.afterPropertiesSet();
+        if (getServiceInterface() == null) {
+            throw new IllegalArgumentException("serviceInterface is required");
+        }
+        ProxyFactory proxyFactory = new ProxyFactory();
+        List<Advice> advices = AdvicesListProvidingUtils.getAdvices(fBeanFactory, fInterceptorNames);
+        if (advices != null) {
+            for (Advice advice : advices) {
+                proxyFactory.addAdvice(advice);
+            }
+        }
+        if (fRegisterTraceInterceptor) {
+            proxyFactory.addAdvice(new ClientRemoteInvocationTraceInterceptor(getProtocol(), fBeanName));
+        }
+        proxyFactory.addInterface(getServiceInterface());
+        proxyFactory.addAdvice(this);
+        fServiceProxy = proxyFactory.getProxy();
+    }
+
+    public Object getObject() {
+        return fServiceProxy;
+    }
+
+    public Class getObjectType() {
+        return getServiceInterface();
+    }
+
+    public boolean isSingleton() {
+        return true;
+    }
+
+    @Override
+    public void setEndpointProvider(EndpointProvider<NioEndpoint<SI>, SI> aEndpointProvider) {
+        super.setEndpointProvider(aEndpointProvider);
+    }
+
+    @Override
+    public EndpointFactory<NioEndpoint<SI>, SI> getEndpointFactory() {
+        return super.getEndpointFactory();
+    }
+
+    @Override
+    public void setEndpointFactory(EndpointFactory<NioEndpoint<SI>, SI> aEndpointFactory) {
+        super.setEndpointFactory(aEndpointFactory);
+    }
+
+    public String[] getInterceptorNames() {
+        return fInterceptorNames;
+    }
+
+    public void setInterceptorNames(String[] aInterceptorNames) {
+        fInterceptorNames = aInterceptorNames;
+    }
+
+    public boolean isRegisterTraceInterceptor() {
+        return fRegisterTraceInterceptor;
+    }
+
+    public void setRegisterTraceInterceptor(boolean aRegisterTraceInterceptor) {
+        fRegisterTraceInterceptor = aRegisterTraceInterceptor;
+    }
+}
@@ -0,0 +1,390 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.*;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationBasedExporter;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+import org.softamis.net.localinfo.LocalNetworkInfoUtils;
+import org.softamis.cluster4spring.AutoDiscoveredServiceExporter;
+import org.softamis.cluster4spring.nio.shm.ShmServer;
+import org.softamis.cluster4spring.nio.support.NioEndpointFactory;
+import org.softamis.cluster4spring.nio.support.NioInvocationHandler;
+import org.softamis.cluster4spring.nio.support.NioServer;
+import org.softamis.cluster4spring.rmi.AbstractRmiServiceExporter;
+import org.softamis.cluster4spring.support.AdvicesListProvidingUtils;
+import org.softamis.cluster4spring.support.ServerRemoteInvocationTraceInterceptor;
+import org.softamis.cluster4spring.support.codec.CompactCodec;
+import org.softamis.cluster4spring.support.codec.CompressingCodec;
+import org.softamis.cluster4spring.support.codec.InvocationCodec;
+import org.softamis.cluster4spring.support.codec.JavaSerializationCodec;
+
+import org.aopalliance.aop.Advice;
+import org.aopalliance.intercept.MethodInterceptor;
+
+/**
+ * Exporter which exposes service via NIO transport. Service is registered in
+ * <code>NioServer</code> under its name and is accessible by URL
+ * <code>nio://host:port/serviceName</code>, which could be published for auto-discovering
+ * by <code>NioServicePublisher</code> or ZooKeeper publisher as URLs of RMI services.
+ * <p/>
+ * If server is not specified explicitly, exporter uses server shared by all exporters
+ * with the same port.
+ * <p/>
+ * If server accepts connections via Unix domain socket, path of socket is included into
+ * URL of service (<code>nio://host:port/serviceName?unixSocket=/path/to/socket</code>), so
+ * clients located on the same host use socket instead of TCP loopback.
+ * <p/>
+ * Service could also be exported via experimental shared memory transport; in this case
+ * mapping directory of shared memory server is included into URL as well.
+ *
+ * @version 1.0
+ * @see NioProxyFactoryBean
+ * @see NioServer
+ */
+
+public class NioServiceExporter
+        extends RemoteInvocationBasedExporter
+        implements InitializingBean,
+        DisposableBean,
+        BeanFactoryAware,
+        AutoDiscoveredServiceExporter,
+        NioInvocationHandler {
+    private static final Log fLog = LogFactory.getLog(NioServiceExporter.class);
+
+    public static final String NIO_PROTOCOL_PREFIX = "nio://";
+
+    protected String fServiceName = null;
+    protected String fServiceGroup = null;
+    protected boolean fAllowsAutoDiscovering = true;
+    protected int fPort = NioServer.DEFAULT_PORT;
+    protected String fServiceHost = null;
+    protected String fUnixSocketPath = null;
+    protected NioServer fServer = null;
+    protected ShmServer fShmServer = null;
+    protected BeanFactory fBeanFactory = null;
+    protected String[] fInterceptorNames = null;
+    protected boolean fRegisterTraceInterceptor = false;
+    protected MethodInterceptor fRemoteInvocationTraceInterceptor = null;
+    protected Map<String, InvocationCodec> fCodecs = createDefaultCodecs();
+
+    /**
+     * Server used by exporter
+     */
+    protected NioServer fUsedServer = null;
+
+    /**
+     * Proxy of service which invocations are applied to
+     */
+    protected Object fProxy = null;
+
+    public NioServiceExporter() {
+    }
+
+    public void setBeanFactory(BeanFactory aBeanFactory) throws BeansException {
+        fBeanFactory = aBeanFactory;
+    }
+
+    public void afterPropertiesSet() throws IOException {
+        checkService();
+        if (fServiceName == null) {
+            throw new IllegalArgumentException("serviceName is required");
+        }
+        fProxy = getProxyForService();
+        if (fServer == null) {
+            fUsedServer = NioServer.obtainShared(fPort, fUnixSocketPath);
+        } else {
+            fUsedServer = fServer;
+        }
+        fUsedServer.registerHandler(fServiceName, this);
+        if (fShmServer != null) {
+            fShmServer.registerHandler(fServiceName, this);
+        }
+        if (fLog.isInfoEnabled()) {
+            fLog.info(format("Service [{0}] exported via NIO on port [{1}]", fServiceName, fUsedServer.getPort()));
+        }
+    }
+
+    public void destroy() {
+        if (fShmServer != null) {
+            fShmServer.unregisterHandler(fServiceName);
+        }
+        if (fUsedServer != null) {
+            fUsedServer.unregisterHandler(fServiceName);
+            if (fServer == null) {
+                fUsedServer.releaseShared();
+            }
+            fUsedServer = null;
+        }
+    }
+
+    /**
+     * Get a proxy for the given service object, implementing the specified
+     * service interface, with interceptors specified for exporter.
+     *
+     * @return the proxy
+     */
+    @Override
+    protected Object getProxyForService() {
+        checkService();
+        checkServiceInterface();
+        ProxyFactory proxyFactory = new ProxyFactory();
+        proxyFactory.addInterface(getServiceInterface());
+
+        List<Advice> advices = AdvicesListProvidingUtils.getAdvices(fBeanFactory, fInterceptorNames);
+        if (advices != null) {
+            for (Advice advice : advices) {
+                proxyFactory.addAdvice(advice);
+            }
+        }
+        if (fRegisterTraceInterceptor) {
+            MethodInterceptor traceInterceptor = fRemoteInvocationTraceInterceptor == null ?
+                    new ServerRemoteInvocationTraceInterceptor(getExporterName(), fServiceName) :
+                    fRemoteInvocationTraceInterceptor;
+            proxyFactory.addAdvice(traceInterceptor);
+        }
+        proxyFactory.setTarget(getService());
+        Object result = proxyFactory.getProxy();
+        return result;
+    }
+
+    /**
+     * Decodes invocation received by server, performs it and encodes its result
+     *
+     * @param aCodecName name of codec used to encode invocation
+     * @param aPayload encoded invocation
+     * @return encoded result
+     * @throws IOException if codec is not supported or invocation could not be decoded
+     * @throws ClassNotFoundException if class of encoded invocation could not be found
+     */
+    public byte[] invoke(String aCodecName, byte[] aPayload)
+            throws IOException, ClassNotFoundException {
+        InvocationCodec codec = fCodecs.get(aCodecName);
+        if (codec == null) {
+            throw new IOException(format("Codec [{0}] is not supported by service [{1}]", aCodecName, fServiceName));
+        }
+        RemoteInvocation invocation = (RemoteInvocation) codec.decode(aPayload);
+        invocation.addAttribute(AbstractRmiServiceExporter.ATTRIBUTE_OWN_PROXY_SERVICE_NAME, fServiceName);
+        RemoteInvocationResult invocationResult = invokeAndCreateResult(invocation, fProxy);
+        byte[] result = null;
+        if (codec instanceof CompressingCodec) {
+            result = ((CompressingCodec) codec).encode(invocationResult, invocation.getMethodName());
+        } else {
+            result = codec.encode(invocationResult);
+        }
+        return result;
+    }
+
+    public List<String> provideExportedServiceURLs() {
+        String serviceHost = fServiceHost;
+        if (serviceHost == null) {
+            try {
+                serviceHost = LocalNetworkInfoUtils.getLocalHostAddress();
+            } catch (UnknownHostException e) {
+                String message = "Unable to determine local host address";
+                if (fLog.isErrorEnabled()) {
+                    fLog.error(message, e);
+                }
+                throw new IllegalStateException(message);
+            }
+        }
+        int port = fServer == null ? fPort : fServer.getPort();
+        StringBuilder url = new StringBuilder(80);
+        url.append(NIO_PROTOCOL_PREFIX).append(serviceHost).append(':').append(port).append('/').append(fServiceName);
+        char separator = '?';
+        NioServer server = fUsedServer;
+        if (server != null && server.isUnixSocketBound()) {
+            url.append(separator).append(NioEndpointFactory.UNIX_SOCKET_PARAMETER).append(server.getUnixSocketPath());
+            separator = '&';
+        }
+        if (fShmServer != null) {
+            url.append(separator).append(NioEndpointFactory.SHM_DIRECTORY_PARAMETER).append(fShmServer.getDirectory());
+        }
+        List<String> result = new ArrayList<String>(1);
+        result.add(url.toString());
+        return result;
+    }
+
+    /**
+     * Creates codecs supported by default
+     *
+     * @return codecs by name
+     */
+    protected Map<String, InvocationCodec> createDefaultCodecs() {
+        Map<String, InvocationCodec> result = new HashMap<String, InvocationCodec>();
+        result.put(JavaSerializationCodec.NAME, new JavaSerializationCodec());
+        result.put(CompactCodec.NAME, new CompactCodec());
+        for (InvocationCodec codec : new ArrayList<InvocationCodec>(result.values())) {
+            CompressingCodec compressingCodec = new CompressingCodec(codec);
+            result.put(compressingCodec.getName(), compressingCodec);
+        }
+        return result;
+    }
+
+    /**
+     * Sets additional codecs which may be used by clients to encode invocations. Codecs
+     * <code>java</code>, <code>compact</code> and their compressing variants are supported
+     * by default.
+     *
+     * @param aCodecs codecs
+     */
+    public void setCodecs(List<InvocationCodec> aCodecs) {
+        Map<String, InvocationCodec> codecs = createDefaultCodecs();
+        for (InvocationCodec codec : aCodecs) {
+            codecs.put(codec.getName(), codec);
+        }
+        fCodecs = codecs;
+    }
+
+    public String getServiceName() {
+        return fServiceName;
+    }
+
+    /**
+     * Sets name of exported service, i.e. <code>nio://host:port/NAME</code>
+     *
+     * @param aServiceName name of service
+     */
+    public void setServiceName(String aServiceName) {
+        fServiceName = aServiceName;
+    }
+
+    public String getServiceGroup() {
+        return fServiceGroup;
+    }
+
+    public void setServiceGroup(String aServiceGroup) {
+        fServiceGroup = aServiceGroup;
+    }
+
+    public boolean isAllowsAutoDiscovering() {
+        return fAllowsAutoDiscovering;
+    }
+
+    public void setAllowsAutoDiscovering(boolean aAllowsAutoDiscovering) {
+        fAllowsAutoDiscovering = aAllowsAutoDiscovering;
+    }
+
+    public int getPort() {
+        return fPort;
+    }
+
+    /**
+     * Sets port of shared server used if server is not specified explicitly
+     * <p/>
+     * Default is <code>1299</code>
+     *
+     * @param aPort port
+     */
+    public void setPort(int aPort) {
+        fPort = aPort;
+    }
+
+    public String getServiceHost() {
+        return fServiceHost;
+    }
+
+    /**
+     * Sets host used in URL of service
+     * <p/>
+     * Default is <code>null</code> (address of local host is used)
+     *
+     * @param aServiceHost host name or address
+     */
+    public void setServiceHost(String aServiceHost) {
+        fServiceHost = aServiceHost;
+    }
+
+    public String getUnixSocketPath() {
+        return fUnixSocketPath;
+    }
+
+    /**
+     * Sets path of Unix domain socket used by shared server (if it is started by this
+     * exporter). If server is specified explicitly, its own path is used.
+     * <p/>
+     * Default is <code>null</code> (only TCP is used)
+     *
+     * @param aUnixSocketPath path of socket file
+     * @see NioServer#setUnixSocketPath(String)
+     */
+    public void setUnixSocketPath(String aUnixSocketPath) {
+        fUnixSocketPath = aUnixSocketPath;
+    }
+
+    public ShmServer getShmServer() {
+        return fShmServer;
+    }
+
+    /**
+     * Sets shared memory server used to export service to clients located on the same host
+     * (in addition to socket transport)
+     * <p/>
+     * Default is <code>null</code> (shared memory is not used)
+     *
+     * @param aShmServer server
+     */
+    public void setShmServer(ShmServer aShmServer) {
+        fShmServer = aShmServer;
+    }
+
+    public NioServer getServer() {
+        return fServer;
+    }
+
+    /**
+     * Sets server used to export service
+     *
+     * @param aServer server
+     */
+    public void setServer(NioServer aServer) {
+        fServer = aServer;
+    }
+
+    public String[] getInterceptorNames() {
+        return fInterceptorNames;
+    }
+
+    public void setInterceptorNames(String[] aInterceptorNames) {
+        fInterceptorNames = aInterceptorNames;
+    }
+
+    public void setRegisterTraceInterceptor(boolean aRegisterTraceInterceptor) {
+        fRegisterTraceInterceptor = aRegisterTraceInterceptor;
+    }
+
+    public void setRemoteInvocationTraceInterceptor(MethodInterceptor aRemoteInvocationTraceInterceptor) {
+        fRemoteInvocationTraceInterceptor = aRemoteInvocationTraceInterceptor;
+    }
+}
@@ -0,0 +1,40 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio;
+
+import org.softamis.cluster4spring.support.context.GenericServicePublisher;
+
+/**
+ * Publisher of services exported via NIO transport.
+ *
+ * @version 1.0
+ * @see NioServiceExporter
+ */
+
+public class NioServicePublisher
+        extends GenericServicePublisher<NioServiceExporter> {
+    protected static final String PROTOCOL_NAME = "NioInvoker";
+
+    public NioServicePublisher()
+            throws Exception {
+        super();
+        fBeanName = PROTOCOL_NAME;
+        fProtocolName = PROTOCOL_NAME;
+        fAutodiscoveredExporterClass = NioServiceExporter.class;
+    }
+}
@@ -0,0 +1,220 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.shm;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+
+/**
+ * Ring buffer of frames located in memory shared by two processes (usually memory-mapped
+ * file). Buffer has single producer and single consumer; if several threads produce frames,
+ * they should synchronize on buffer externally.
+ * <p/>
+ * Layout of buffer: position of producer (<code>long</code> at offset 0), position of
+ * consumer (<code>long</code> at offset 64, in separate cache line) and data area. Positions
+ * grow monotonically; frame consists of <code>int</code> length and body and may wrap
+ * around end of data area. Since positions are written by other process, memory fences of
+ * <code>sun.misc.Unsafe</code> (obtained via reflection) are used to order accesses.
+ *
+ * @version 1.0
+ * @see ShmConnection
+ */
+
+public class MappedRingBuffer {
+    /**
+     * Size of header of ring buffer
+     */
+    public static final int HEADER_SIZE = 128;
+
+    protected static final int PRODUCER_OFFSET = 0;
+    protected static final int CONSUMER_OFFSET = 64;
+
+    protected static final MethodHandle fLoadFence;
+    protected static final MethodHandle fStoreFence;
+    protected static final MethodHandle fFullFence;
+
+    static {
+        MethodHandle loadFence = null;
+        MethodHandle storeFence = null;
+        MethodHandle fullFence = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            loadFence = lookup.unreflect(unsafeClass.getMethod("loadFence")).bindTo(unsafe);
+            storeFence = lookup.unreflect(unsafeClass.getMethod("storeFence")).bindTo(unsafe);
+            fullFence = lookup.unreflect(unsafeClass.getMethod("fullFence")).bindTo(unsafe);
+        } catch (Exception e) {
+            loadFence = null;
+        }
+        fLoadFence = loadFence;
+        fStoreFence = storeFence;
+        fFullFence = fullFence;
+    }
+
+    /**
+     * Buffer which contains header and data area
+     */
+    protected final ByteBuffer fBuffer;
+
+    /**
+     * Size of data area
+     */
+    protected final int fCapacity;
+
+    /**
+     * Creates ring buffer on given memory region
+     *
+     * @param aBuffer region of shared memory, its size should be <code>HEADER_SIZE</code> + capacity
+     */
+    public MappedRingBuffer(ByteBuffer aBuffer) {
+        fBuffer = aBuffer;
+        fCapacity = aBuffer.capacity() - HEADER_SIZE;
+        if (fCapacity <= 4) {
+            throw new IllegalArgumentException("Buffer is too small");
+        }
+    }
+
+    /**
+     * Checks whether memory fences required by ring buffer are available in JVM
+     *
+     * @return <code>true</code> if ring buffer could be used
+     */
+    public static boolean isSupported() {
+        return fLoadFence != null;
+    }
+
+    protected static void fence(MethodHandle aFence) {
+        try {
+            aFence.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Unable to perform memory fence", e);
+        }
+    }
+
+    /**
+     * Writes frame into buffer if there is enough free space
+     *
+     * @param aFrame frame including <code>int</code> length prefix
+     * @return <code>true</code> if frame was written, <code>false</code> if buffer is full
+     */
+    public boolean offer(ByteBuffer aFrame) {
+        int length = aFrame.remaining();
+        long producer = fBuffer.getLong(PRODUCER_OFFSET);
+        long consumer = fBuffer.getLong(CONSUMER_OFFSET);
+        fence(fLoadFence);
+        boolean result = fCapacity - (producer - consumer) >= length;
+        if (result) {
+            put(producer, aFrame);
+            // data should be visible before new position
+            fence(fStoreFence);
+            fBuffer.putLong(PRODUCER_OFFSET, producer + length);
+        }
+        return result;
+    }
+
+    /**
+     * Reads next frame from buffer. Since positions and length of frame are written by other
+     * process, they are validated before frame is read.
+     *
+     * @return frame without length prefix or <code>null</code> if buffer is empty
+     * @throws IOException if positions or length of frame are not valid
+     */
+    public ByteBuffer poll()
+            throws IOException {
+        long consumer = fBuffer.getLong(CONSUMER_OFFSET);
+        long producer = fBuffer.getLong(PRODUCER_OFFSET);
+        fence(fLoadFence);
+        ByteBuffer result = null;
+        if (producer != consumer) {
+            long available = producer - consumer;
+            if (available < 4 || available > fCapacity) {
+                throw new IOException("Invalid positions of ring buffer: " + producer + ", " + consumer);
+            }
+            ByteBuffer prefix = ByteBuffer.allocate(4);
+            get(consumer, prefix);
+            prefix.flip();
+            int length = prefix.getInt();
+            if (length < 0 || length > available - 4) {
+                throw new IOException("Invalid frame length: " + length);
+            }
+            result = ByteBuffer.allocate(length);
+            get(consumer + 4, result);
+            result.flip();
+            // data should be read before space is released for producer
+            fence(fFullFence);
+            fBuffer.putLong(CONSUMER_OFFSET, consumer + 4 + length);
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether buffer contains frames
+     *
+     * @return <code>true</code> if buffer is empty
+     */
+    public boolean isEmpty() {
+        long consumer = fBuffer.getLong(CONSUMER_OFFSET);
+        long producer = fBuffer.getLong(PRODUCER_OFFSET);
+        fence(fLoadFence);
+        return producer == consumer;
+    }
+
+    /**
+     * Returns maximal size of frame (including length prefix) which could be written into buffer
+     *
+     * @return size in bytes
+     */
+    public int getCapacity() {
+        return fCapacity;
+    }
+
+    protected void put(long aPosition, ByteBuffer aSource) {
+        ByteBuffer data = fBuffer.duplicate();
+        int offset = (int) (aPosition % fCapacity);
+        int first = Math.min(aSource.remaining(), fCapacity - offset);
+        int limit = aSource.limit();
+        aSource.limit(aSource.position() + first);
+        data.position(HEADER_SIZE + offset);
+        data.put(aSource);
+        aSource.limit(limit);
+        if (aSource.hasRemaining()) {
+            data.position(HEADER_SIZE);
+            data.put(aSource);
+        }
+    }
+
+    protected void get(long aPosition, ByteBuffer aTarget) {
+        ByteBuffer data = fBuffer.duplicate();
+        int offset = (int) (aPosition % fCapacity);
+        int first = Math.min(aTarget.remaining(), fCapacity - offset);
+        data.position(HEADER_SIZE + offset);
+        data.limit(HEADER_SIZE + offset + first);
+        aTarget.put(data);
+        if (aTarget.hasRemaining()) {
+            data.limit(HEADER_SIZE + aTarget.remaining());
+            data.position(HEADER_SIZE);
+            aTarget.put(data);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.shm;
+
+import java.io.IOException;
+
+/**
+ * Thrown if frame does not fit into ring buffer of shared memory connection. Such invocation
+ * should be sent via socket transport.
+ *
+ * @version 1.0
+ */
+
+public class ShmCapacityException
+        extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ShmCapacityException(String aMessage) {
+        super(aMessage);
+    }
+}
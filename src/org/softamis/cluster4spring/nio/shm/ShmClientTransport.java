@@ -0,0 +1,498 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.shm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+
+import org.softamis.cluster4spring.nio.support.NioFrames;
+
+/**
+ * Client side of experimental shared memory transport. Transport keeps one connection per
+ * mapping directory (i.e. per server); requests of all threads are written into request
+ * buffer of connection and responses are matched by correlation identifiers, as in NIO
+ * transport. Responses are read by one thread per connection.
+ * <p/>
+ * Transport could be defined as bean, otherwise endpoints use one shared by JVM
+ * (see {@link #getDefault()}).
+ *
+ * @version 1.0
+ * @see ShmServer
+ * @see ShmEndpoint
+ */
+
+public class ShmClientTransport
+        implements DisposableBean {
+    protected static final Log fLog = LogFactory.getLog(ShmClientTransport.class);
+
+    /**
+     * Transport shared by endpoints which do not have own one
+     */
+    protected static ShmClientTransport fDefault = null;
+
+    /**
+     * Invocation waiting for response
+     */
+    protected static class PendingCall {
+        protected final ClientConnection fConnection;
+        protected final CountDownLatch fDone = new CountDownLatch(1);
+        protected byte[] fResponse = null;
+        protected IOException fException = null;
+
+        protected PendingCall(ClientConnection aConnection) {
+            fConnection = aConnection;
+        }
+
+        protected void complete(byte[] aResponse, IOException aException) {
+            fResponse = aResponse;
+            fException = aException;
+            fDone.countDown();
+        }
+    }
+
+    /**
+     * Connection to one server
+     */
+    protected class ClientConnection
+            implements Runnable {
+        protected final String fDirectory;
+        protected final ShmConnection fConnection;
+        protected final ShmHeartbeat fHeartbeat;
+        protected volatile boolean fClosed = false;
+
+        /**
+         * Parts of response which did not fit into ring buffer, received so far
+         */
+        protected ByteArrayOutputStream fParts = null;
+
+        protected ClientConnection(String aDirectory, ShmConnection aConnection, ShmHeartbeat aHeartbeat) {
+            fDirectory = aDirectory;
+            fConnection = aConnection;
+            fHeartbeat = aHeartbeat;
+        }
+
+        public void run() {
+            MappedRingBuffer responses = fConnection.getResponses();
+            int idleCount = 0;
+            while (!fClosed) {
+                ByteBuffer frame = null;
+                try {
+                    frame = responses.poll();
+                    if (frame != null && frame.remaining() < NioFrames.HEADER_SIZE) {
+                        throw new IOException("Frame is truncated");
+                    }
+                } catch (IOException e) {
+                    frame = null;
+                    close(new IOException(format("Invalid response buffer of shared memory server in [{0}]",
+                            fDirectory), e));
+                }
+                if (frame != null) {
+                    idleCount = 0;
+                    frame = assemble(frame);
+                    if (frame != null) {
+                        responseReceived(frame);
+                    }
+                } else if (!fClosed) {
+                    idleCount++;
+                    if ((idleCount & 0xFF) == 0 && !isServerAlive()) {
+                        close(new IOException(format("Shared memory server in [{0}] is not available", fDirectory)));
+                    } else {
+                        fWaitStrategy.idle(idleCount);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Joins parts of response which did not fit into ring buffer. Server writes parts of
+         * response one after another, so they are not mixed with other responses.
+         *
+         * @param aFrame received frame
+         * @return complete frame or <code>null</code> if frame is not the last part of response
+         */
+        protected ByteBuffer assemble(ByteBuffer aFrame) {
+            ByteBuffer result = aFrame;
+            byte type = aFrame.get(8);
+            if (type == NioFrames.TYPE_PART || fParts != null) {
+                if (fParts == null) {
+                    fParts = new ByteArrayOutputStream();
+                    fParts.write(aFrame.array(), aFrame.arrayOffset(), NioFrames.HEADER_SIZE);
+                }
+                fParts.write(aFrame.array(), aFrame.arrayOffset() + NioFrames.HEADER_SIZE,
+                        aFrame.remaining() - NioFrames.HEADER_SIZE);
+                result = null;
+                if (type != NioFrames.TYPE_PART) {
+                    result = ByteBuffer.wrap(fParts.toByteArray());
+                    // the last part defines type of response
+                    result.put(8, type);
+                    fParts = null;
+                }
+            }
+            return result;
+        }
+
+        protected boolean isServerAlive() {
+            boolean result = fConnection.getState() == ShmConnection.STATE_ACCEPTED &&
+                    fHeartbeat.isAlive(fServerTimeout);
+            return result;
+        }
+
+        /**
+         * Writes request into ring buffer, waiting for free space if necessary
+         *
+         * @param aFrame request frame
+         * @param aDeadline time when waiting should be stopped, <code>0</code> if time is not limited
+         * @throws IOException if connection is closed
+         * @throws TimeoutException if there was no free space before deadline
+         */
+        protected void send(ByteBuffer aFrame, long aDeadline)
+                throws IOException, TimeoutException {
+            MappedRingBuffer requests = fConnection.getRequests();
+            synchronized (this) {
+                int idleCount = 0;
+                while (!requests.offer(aFrame)) {
+                    if (fClosed) {
+                        throw new IOException("Connection is closed");
+                    }
+                    if (aDeadline > 0 && System.currentTimeMillis() > aDeadline) {
+                        throw new TimeoutException("Request buffer of shared memory connection is full");
+                    }
+                    idleCount++;
+                    fWaitStrategy.idle(idleCount);
+                }
+            }
+        }
+
+        protected void close(IOException aCause) {
+            if (!fClosed) {
+                fClosed = true;
+                fConnection.setState(ShmConnection.STATE_CLOSED);
+                fConnections.remove(fDirectory, this);
+                Iterator<PendingCall> calls = fPendingCalls.values().iterator();
+                while (calls.hasNext()) {
+                    PendingCall call = calls.next();
+                    if (call.fConnection == this) {
+                        calls.remove();
+                        call.complete(null, aCause);
+                    }
+                }
+            }
+        }
+    }
+
+    protected int fCapacity = 1024 * 1024;
+    protected long fConnectTimeout = 5000;
+    protected long fServerTimeout = 3000;
+    protected ShmWaitStrategy fWaitStrategy = ShmWaitStrategy.PARK;
+
+    /**
+     * Connections by paths of mapping directories
+     */
+    protected final ConcurrentMap<String, ClientConnection> fConnections = new ConcurrentHashMap<String, ClientConnection>();
+    protected final ConcurrentMap<Long, PendingCall> fPendingCalls = new ConcurrentHashMap<Long, PendingCall>();
+    protected final AtomicLong fLastCorrelationId = new AtomicLong();
+
+    public ShmClientTransport() {
+    }
+
+    /**
+     * Returns transport shared by JVM
+     *
+     * @return shared transport
+     */
+    public static synchronized ShmClientTransport getDefault() {
+        if (fDefault == null) {
+            fDefault = new ShmClientTransport();
+        }
+        return fDefault;
+    }
+
+    /**
+     * Checks whether server which uses given mapping directory is alive, so transport could
+     * be used to connect to it
+     *
+     * @param aDirectory mapping directory of server
+     * @return <code>true</code> if server is available
+     */
+    public boolean isAvailable(String aDirectory) {
+        boolean result = false;
+        File directory = new File(aDirectory);
+        if (MappedRingBuffer.isSupported() && ShmHeartbeat.exists(directory)) {
+            try {
+                result = ShmHeartbeat.open(directory).isAlive(fServerTimeout);
+            } catch (IOException e) {
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug(format("Unable to read heartbeat in [{0}]", aDirectory), e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sends request and waits for response
+     *
+     * @param aDirectory mapping directory of server
+     * @param aServiceName name of service
+     * @param aCodecName name of codec used to encode invocation
+     * @param aPayload encoded invocation
+     * @param aTimeout maximal time (in milliseconds) to wait for response, <code>0</code> if time is not limited
+     * @return encoded result of invocation
+     * @throws ShmCapacityException if request does not fit into ring buffer
+     * @throws ConnectException if connection to server could not be established
+     * @throws TimeoutException if response was not received within timeout
+     * @throws IOException if connection was lost or server could not process request
+     */
+    public byte[] call(String aDirectory, String aServiceName, String aCodecName, byte[] aPayload, long aTimeout)
+            throws IOException, TimeoutException {
+        long deadline = aTimeout > 0 ? System.currentTimeMillis() + aTimeout : 0;
+        ClientConnection connection = obtainConnection(aDirectory);
+        long correlationId = fLastCorrelationId.incrementAndGet();
+        ByteBuffer frame = NioFrames.createRequest(correlationId, aServiceName, aCodecName, aPayload);
+        if (frame.remaining() > connection.fConnection.getRequests().getCapacity()) {
+            throw new ShmCapacityException(format("Request does not fit into shared memory buffer of [{0}] bytes",
+                    connection.fConnection.getRequests().getCapacity()));
+        }
+        PendingCall call = new PendingCall(connection);
+        fPendingCalls.put(correlationId, call);
+        boolean completed = false;
+        try {
+            connection.send(frame, deadline);
+            completed = await(call, deadline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for response");
+        } finally {
+            if (!completed) {
+                fPendingCalls.remove(correlationId);
+            }
+        }
+        if (!completed) {
+            throw new TimeoutException(format("Response from [{0}] was not received within [{1}] ms", aDirectory, aTimeout));
+        }
+        if (call.fException != null) {
+            throw call.fException;
+        }
+        return call.fResponse;
+    }
+
+    /**
+     * Waits for response according to wait strategy
+     *
+     * @param aCall invocation
+     * @param aDeadline time when waiting should be stopped, <code>0</code> if time is not limited
+     * @return <code>true</code> if response was received
+     * @throws InterruptedException if thread was interrupted
+     */
+    protected boolean await(PendingCall aCall, long aDeadline)
+            throws InterruptedException {
+        boolean result = false;
+        if (fWaitStrategy == ShmWaitStrategy.BUSY_SPIN) {
+            int idleCount = 0;
+            result = aCall.fDone.getCount() == 0;
+            while (!result && (aDeadline == 0 || System.currentTimeMillis() < aDeadline)) {
+                idleCount++;
+                fWaitStrategy.idle(idleCount);
+                result = aCall.fDone.getCount() == 0;
+            }
+        } else if (aDeadline > 0) {
+            result = aCall.fDone.await(Math.max(0, aDeadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } else {
+            aCall.fDone.await();
+            result = true;
+        }
+        return result;
+    }
+
+    protected void responseReceived(ByteBuffer aFrame) {
+        long correlationId = aFrame.getLong();
+        byte type = aFrame.get();
+        PendingCall call = fPendingCalls.remove(correlationId);
+        if (call != null) {
+            if (type == NioFrames.TYPE_RESPONSE) {
+                call.complete(NioFrames.readRemaining(aFrame), null);
+            } else if (type == NioFrames.TYPE_ERROR) {
+                call.complete(null, NioFrames.readError(aFrame));
+            } else {
+                call.complete(null, new IOException("Unexpected frame type: " + type));
+            }
+        }
+    }
+
+    /**
+     * Returns connection to server, establishing it if necessary
+     *
+     * @param aDirectory mapping directory of server
+     * @return connection
+     * @throws ConnectException if connection could not be established
+     */
+    protected ClientConnection obtainConnection(String aDirectory)
+            throws ConnectException {
+        ClientConnection result = fConnections.get(aDirectory);
+        if (result == null || result.fClosed) {
+            synchronized (fConnections) {
+                result = fConnections.get(aDirectory);
+                if (result == null || result.fClosed) {
+                    result = connect(aDirectory);
+                    fConnections.put(aDirectory, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    protected ClientConnection connect(String aDirectory)
+            throws ConnectException {
+        File directory = new File(aDirectory);
+        ShmConnection connection = null;
+        ClientConnection result = null;
+        try {
+            if (!isAvailable(aDirectory)) {
+                throw new IOException("Server is not running");
+            }
+            ShmHeartbeat heartbeat = ShmHeartbeat.open(directory);
+            connection = ShmConnection.create(directory, "client-" + UUID.randomUUID(), fCapacity);
+            long deadline = System.currentTimeMillis() + fConnectTimeout;
+            while (connection.getState() == ShmConnection.STATE_CONNECTING && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            if (connection.getState() != ShmConnection.STATE_ACCEPTED) {
+                throw new IOException("Connection was not accepted by server");
+            }
+            result = new ClientConnection(aDirectory, connection, heartbeat);
+            Thread reader = new Thread(result, "cluster4spring-shm-client-" + connection.getFile().getName());
+            reader.setDaemon(true);
+            reader.start();
+            if (fLog.isDebugEnabled()) {
+                fLog.debug(format("Shared memory connection established. Directory: [{0}]", aDirectory));
+            }
+        } catch (Exception e) {
+            if (connection != null) {
+                connection.setState(ShmConnection.STATE_CLOSED);
+                connection.getFile().delete();
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            ConnectException exception = new ConnectException(format("Unable to connect to shared memory server in [{0}]",
+                    aDirectory));
+            exception.initCause(e);
+            throw exception;
+        }
+        return result;
+    }
+
+    /**
+     * Closes all connections of transport
+     */
+    public void destroy() {
+        for (ClientConnection connection : fConnections.values()) {
+            connection.close(new IOException("Transport is closed"));
+        }
+    }
+
+    /**
+     * Returns amount of invocations waiting for response
+     *
+     * @return amount of invocations
+     */
+    public int getPendingCalls() {
+        return fPendingCalls.size();
+    }
+
+    public int getCapacity() {
+        return fCapacity;
+    }
+
+    /**
+     * Sets capacity (in bytes) of request and response buffers of every connection.
+     * Invocations which do not fit into buffer are sent via socket transport.
+     * <p/>
+     * Default is 1 MB
+     *
+     * @param aCapacity capacity in bytes
+     */
+    public void setCapacity(int aCapacity) {
+        fCapacity = aCapacity;
+    }
+
+    public long getConnectTimeout() {
+        return fConnectTimeout;
+    }
+
+    /**
+     * Sets time (in milliseconds) client waits for server to accept connection
+     * <p/>
+     * Default is <code>5000</code>
+     *
+     * @param aConnectTimeout timeout
+     */
+    public void setConnectTimeout(long aConnectTimeout) {
+        fConnectTimeout = aConnectTimeout;
+    }
+
+    public long getServerTimeout() {
+        return fServerTimeout;
+    }
+
+    /**
+     * Sets maximal age (in milliseconds) of heartbeat of server after which server is
+     * considered dead and its connection is closed
+     * <p/>
+     * Default is <code>3000</code>
+     *
+     * @param aServerTimeout timeout
+     */
+    public void setServerTimeout(long aServerTimeout) {
+        fServerTimeout = aServerTimeout;
+    }
+
+    public ShmWaitStrategy getWaitStrategy() {
+        return fWaitStrategy;
+    }
+
+    /**
+     * Sets strategy used by threads waiting for responses or for free space in request buffer
+     * <p/>
+     * Default is <code>PARK</code>
+     *
+     * @param aWaitStrategy wait strategy
+     */
+    public void setWaitStrategy(ShmWaitStrategy aWaitStrategy) {
+        fWaitStrategy = aWaitStrategy;
+    }
+}
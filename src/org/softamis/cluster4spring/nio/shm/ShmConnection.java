@@ -0,0 +1,189 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Connection of shared memory transport. Connection is memory-mapped file created by client
+ * in mapping directory of server; it contains header, ring buffer of requests and ring
+ * buffer of responses. Server finds new connection files by scanning directory.
+ * <p/>
+ * Layout of header: magic number, state of connection and capacity of ring buffers.
+ * Client creates file under temporary name and renames it when file is initialized, so
+ * server never sees partially initialized connection.
+ *
+ * @version 1.0
+ * @see MappedRingBuffer
+ */
+
+public class ShmConnection {
+    /**
+     * Suffix of connection files
+     */
+    public static final String FILE_SUFFIX = ".shm";
+
+    /**
+     * Suffix of connection files which are not initialized yet
+     */
+    protected static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Connection is created by client and waits for server
+     */
+    public static final int STATE_CONNECTING = 1;
+
+    /**
+     * Connection is accepted by server
+     */
+    public static final int STATE_ACCEPTED = 2;
+
+    /**
+     * Connection is closed by one of sides
+     */
+    public static final int STATE_CLOSED = 3;
+
+    protected static final int MAGIC = 0x43345348;
+    protected static final int HEADER_SIZE = 128;
+    protected static final int MAGIC_OFFSET = 0;
+    protected static final int STATE_OFFSET = 4;
+    protected static final int CAPACITY_OFFSET = 8;
+
+    protected final File fFile;
+    protected final MappedByteBuffer fMapping;
+    protected final MappedRingBuffer fRequests;
+    protected final MappedRingBuffer fResponses;
+
+    protected ShmConnection(File aFile, MappedByteBuffer aMapping, int aCapacity) {
+        fFile = aFile;
+        fMapping = aMapping;
+        fRequests = new MappedRingBuffer(slice(aMapping, HEADER_SIZE, MappedRingBuffer.HEADER_SIZE + aCapacity));
+        fResponses = new MappedRingBuffer(slice(aMapping, HEADER_SIZE + MappedRingBuffer.HEADER_SIZE + aCapacity,
+                MappedRingBuffer.HEADER_SIZE + aCapacity));
+    }
+
+    /**
+     * Creates connection file in mapping directory of server (called by client)
+     *
+     * @param aDirectory mapping directory of server
+     * @param aName name of connection (unique within directory)
+     * @param aCapacity capacity of every ring buffer
+     * @return created connection in <code>STATE_CONNECTING</code>
+     * @throws IOException if file could not be created
+     */
+    public static ShmConnection create(File aDirectory, String aName, int aCapacity)
+            throws IOException {
+        File tempFile = new File(aDirectory, aName + TEMP_SUFFIX);
+        File file = new File(aDirectory, aName + FILE_SUFFIX);
+        MappedByteBuffer mapping = map(tempFile, HEADER_SIZE + 2 * (MappedRingBuffer.HEADER_SIZE + aCapacity));
+        mapping.putInt(CAPACITY_OFFSET, aCapacity);
+        mapping.putInt(STATE_OFFSET, STATE_CONNECTING);
+        mapping.putInt(MAGIC_OFFSET, MAGIC);
+        mapping.force();
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Unable to create connection file " + file);
+        }
+        ShmConnection result = new ShmConnection(file, mapping, aCapacity);
+        return result;
+    }
+
+    /**
+     * Opens connection file created by client (called by server)
+     *
+     * @param aFile connection file
+     * @return connection or <code>null</code> if file is not valid connection file
+     * @throws IOException if file could not be mapped
+     */
+    public static ShmConnection open(File aFile)
+            throws IOException {
+        ShmConnection result = null;
+        long length = aFile.length();
+        if (length > HEADER_SIZE) {
+            MappedByteBuffer mapping = map(aFile, length);
+            int capacity = mapping.getInt(CAPACITY_OFFSET);
+            if (mapping.getInt(MAGIC_OFFSET) == MAGIC && capacity > 0 &&
+                    length == HEADER_SIZE + 2 * (MappedRingBuffer.HEADER_SIZE + (long) capacity)) {
+                result = new ShmConnection(aFile, mapping, capacity);
+            }
+        }
+        return result;
+    }
+
+    protected static MappedByteBuffer map(File aFile, long aSize)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(aFile, "rw");
+        MappedByteBuffer result = null;
+        try {
+            if (file.length() != aSize) {
+                file.setLength(aSize);
+            }
+            result = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, aSize);
+        } finally {
+            // mapping remains valid after file is closed
+            file.close();
+        }
+        return result;
+    }
+
+    protected static ByteBuffer slice(ByteBuffer aBuffer, int aOffset, int aSize) {
+        ByteBuffer buffer = aBuffer.duplicate();
+        buffer.position(aOffset);
+        buffer.limit(aOffset + aSize);
+        ByteBuffer result = buffer.slice();
+        return result;
+    }
+
+    public int getState() {
+        int result = fMapping.getInt(STATE_OFFSET);
+        MappedRingBuffer.fence(MappedRingBuffer.fLoadFence);
+        return result;
+    }
+
+    public void setState(int aState) {
+        MappedRingBuffer.fence(MappedRingBuffer.fFullFence);
+        fMapping.putInt(STATE_OFFSET, aState);
+    }
+
+    /**
+     * Returns ring buffer of requests (written by client, read by server)
+     *
+     * @return ring buffer
+     */
+    public MappedRingBuffer getRequests() {
+        return fRequests;
+    }
+
+    /**
+     * Returns ring buffer of responses (written by server, read by client)
+     *
+     * @return ring buffer
+     */
+    public MappedRingBuffer getResponses() {
+        return fResponses;
+    }
+
+    public File getFile() {
+        return fFile;
+    }
+}
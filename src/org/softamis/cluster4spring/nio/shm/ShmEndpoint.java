@@ -0,0 +1,124 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.shm;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.TimeoutException;
+
+import static java.text.MessageFormat.format;
+
+import org.springframework.remoting.support.RemoteInvocationFactory;
+
+import org.softamis.cluster4spring.nio.support.NioClientTransport;
+import org.softamis.cluster4spring.nio.support.NioEndpoint;
+import org.softamis.cluster4spring.support.codec.InvocationCodec;
+
+/**
+ * Endpoint of NIO service located on the same host which sends invocations via shared
+ * memory transport. Invocations which do not fit into ring buffers, as well as all
+ * invocations after shared memory server became unavailable, are sent via socket.
+ *
+ * @version 1.0
+ * @param <SI> type of data used to invoke remote service (such as remote service URL)
+ * @see org.softamis.cluster4spring.nio.support.NioEndpointFactory#setPreferSharedMemory(boolean)
+ */
+
+public class ShmEndpoint<SI extends Serializable>
+        extends NioEndpoint<SI> {
+    /**
+     * Shared memory transport used to send invocations
+     */
+    protected final ShmClientTransport fShmTransport;
+
+    /**
+     * Mapping directory of server
+     */
+    protected final String fShmDirectory;
+
+    /**
+     * Indicates whether connecting via shared memory failed, so socket should be used
+     */
+    protected volatile boolean fShmFailed = false;
+
+    /**
+     * Creates endpoint
+     *
+     * @param aRemoteInvocationFactory factory used to create remote invocations
+     * @param aEndpointKey key of endpoint
+     * @param aServiceInfo information about service
+     * @param aTransport socket transport
+     * @param aAddress TCP address of server
+     * @param aUnixAddress address of Unix domain socket of server, <code>null</code> if only TCP should be used
+     * @param aShmTransport shared memory transport
+     * @param aShmDirectory mapping directory of server
+     * @param aServiceName name of service on server
+     * @param aCodec codec used to encode invocations
+     */
+    public ShmEndpoint(RemoteInvocationFactory aRemoteInvocationFactory, String aEndpointKey, SI aServiceInfo,
+                       NioClientTransport aTransport, InetSocketAddress aAddress, SocketAddress aUnixAddress,
+                       ShmClientTransport aShmTransport, String aShmDirectory, String aServiceName,
+                       InvocationCodec aCodec) {
+        super(aRemoteInvocationFactory, aEndpointKey, aServiceInfo, aTransport, aAddress, aUnixAddress, aServiceName,
+                aCodec);
+        fShmTransport = aShmTransport;
+        fShmDirectory = aShmDirectory;
+    }
+
+    @Override
+    protected byte[] call(byte[] aPayload, long aTimeout)
+            throws IOException, TimeoutException {
+        byte[] result = null;
+        if (!fShmFailed) {
+            try {
+                result = fShmTransport.call(fShmDirectory, fServiceName, fCodec.getName(), aPayload, aTimeout);
+            } catch (ShmCapacityException e) {
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug(format("Invocation does not fit into shared memory, socket is used. Endpoint: [{0}]",
+                            getEndpointKey()));
+                }
+            } catch (ConnectException e) {
+                fShmFailed = true;
+                if (fLog.isInfoEnabled()) {
+                    fLog.info(format("Unable to connect to shared memory server in [{0}], socket is used. Endpoint: [{1}]",
+                            fShmDirectory, getEndpointKey()));
+                }
+            }
+        }
+        if (result == null) {
+            result = super.call(aPayload, aTimeout);
+        }
+        return result;
+    }
+
+    public String getShmDirectory() {
+        return fShmDirectory;
+    }
+
+    /**
+     * Checks whether invocations are sent via shared memory
+     *
+     * @return <code>true</code> if shared memory is used
+     */
+    public boolean isShmUsed() {
+        return !fShmFailed;
+    }
+}
@@ -0,0 +1,98 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Heartbeat of shared memory server. Server periodically writes current time into small
+ * memory-mapped file of mapping directory; clients use it to check whether server is
+ * alive before connecting and while waiting for responses.
+ *
+ * @version 1.0
+ * @see ShmServer
+ */
+
+public class ShmHeartbeat {
+    /**
+     * Name of heartbeat file in mapping directory
+     */
+    public static final String FILE_NAME = "server.heartbeat";
+
+    protected static final int SIZE = 64;
+    protected static final int TIME_OFFSET = 0;
+
+    protected final MappedByteBuffer fMapping;
+
+    protected ShmHeartbeat(MappedByteBuffer aMapping) {
+        fMapping = aMapping;
+    }
+
+    /**
+     * Maps heartbeat file of given mapping directory, creating it if necessary
+     *
+     * @param aDirectory mapping directory
+     * @return heartbeat
+     * @throws IOException if file could not be mapped
+     */
+    public static ShmHeartbeat open(File aDirectory)
+            throws IOException {
+        ShmHeartbeat result = new ShmHeartbeat(ShmConnection.map(new File(aDirectory, FILE_NAME), SIZE));
+        return result;
+    }
+
+    /**
+     * Checks whether mapping directory contains heartbeat file
+     *
+     * @param aDirectory mapping directory
+     * @return <code>true</code> if file exists
+     */
+    public static boolean exists(File aDirectory) {
+        File file = new File(aDirectory, FILE_NAME);
+        boolean result = file.isFile() && file.length() == SIZE;
+        return result;
+    }
+
+    /**
+     * Writes current time (called by server)
+     */
+    public void beat() {
+        fMapping.putLong(TIME_OFFSET, System.currentTimeMillis());
+    }
+
+    /**
+     * Marks server as stopped
+     */
+    public void stop() {
+        fMapping.putLong(TIME_OFFSET, 0);
+    }
+
+    /**
+     * Checks whether server wrote heartbeat recently
+     *
+     * @param aTimeout maximal age of heartbeat in milliseconds
+     * @return <code>true</code> if server is alive
+     */
+    public boolean isAlive(long aTimeout) {
+        long time = fMapping.getLong(TIME_OFFSET);
+        boolean result = time != 0 && System.currentTimeMillis() - time < aTimeout;
+        return result;
+    }
+}
@@ -0,0 +1,525 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.shm;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import org.softamis.cluster4spring.nio.support.NioFrames;
+import org.softamis.cluster4spring.nio.support.NioInvocationHandler;
+
+/**
+ * Server of experimental shared memory transport. Server owns mapping directory (which
+ * should be located on memory based file system, such as <code>/dev/shm</code>); clients
+ * located on the same host create connection files there and exchange frames of NIO
+ * transport via ring buffers of these files.
+ * <p/>
+ * Acceptor thread writes heartbeat and finds new connections; every connection is read by
+ * own thread, which passes requests to pool of workers. Threads wait for frames according
+ * to wait strategy.
+ * <p/>
+ * Requests which do not fit into ring buffers are sent by clients via socket transport;
+ * results which are too large are sent in several parts, so client receives result of
+ * every performed invocation. If client does not consume responses during send timeout
+ * (for example, client process died), its connection is closed.
+ *
+ * @version 1.0
+ * @see ShmClientTransport
+ * @see org.softamis.cluster4spring.nio.NioServiceExporter#setShmServer(ShmServer)
+ */
+
+public class ShmServer
+        implements InitializingBean,
+        DisposableBean {
+    protected static final Log fLog = LogFactory.getLog(ShmServer.class);
+
+    /**
+     * Connection accepted by server
+     */
+    protected class ServerConnection
+            implements Runnable {
+        protected final ShmConnection fConnection;
+        protected volatile boolean fClosed = false;
+
+        protected ServerConnection(ShmConnection aConnection) {
+            fConnection = aConnection;
+        }
+
+        public void run() {
+            MappedRingBuffer requests = fConnection.getRequests();
+            int idleCount = 0;
+            while (!fClosed) {
+                ByteBuffer frame = null;
+                try {
+                    frame = requests.poll();
+                } catch (IOException e) {
+                    if (fLog.isWarnEnabled()) {
+                        fLog.warn(format("Invalid request buffer, connection is closed. File: [{0}]",
+                                fConnection.getFile()), e);
+                    }
+                    close();
+                }
+                if (frame != null) {
+                    idleCount = 0;
+                    requestReceived(this, frame);
+                } else {
+                    idleCount++;
+                    if ((idleCount & 0xFF) == 0 && fConnection.getState() == ShmConnection.STATE_CLOSED) {
+                        close();
+                    } else {
+                        fWaitStrategy.idle(idleCount);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes response into ring buffer, waiting for free space if necessary. Response which
+         * does not fit into ring buffer is written in several parts.
+         *
+         * @param aFrame response frame
+         */
+        protected void send(ByteBuffer aFrame) {
+            MappedRingBuffer responses = fConnection.getResponses();
+            synchronized (this) {
+                if (aFrame.remaining() <= responses.getCapacity()) {
+                    write(responses, aFrame);
+                } else {
+                    // parts of response are written one after another, since lock is held
+                    long correlationId = aFrame.getLong(4);
+                    byte type = aFrame.get(12);
+                    int maxPart = responses.getCapacity() / 2 - 4 - NioFrames.HEADER_SIZE;
+                    aFrame.position(4 + NioFrames.HEADER_SIZE);
+                    while (!fClosed && aFrame.hasRemaining()) {
+                        int length = Math.min(maxPart, aFrame.remaining());
+                        byte partType = length == aFrame.remaining() ? type : NioFrames.TYPE_PART;
+                        ByteBuffer part = ByteBuffer.allocate(4 + NioFrames.HEADER_SIZE + length);
+                        part.putInt(NioFrames.HEADER_SIZE + length);
+                        part.putLong(correlationId);
+                        part.put(partType);
+                        int limit = aFrame.limit();
+                        aFrame.limit(aFrame.position() + length);
+                        part.put(aFrame);
+                        aFrame.limit(limit);
+                        part.flip();
+                        write(responses, part);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes frame into ring buffer, waiting for free space. If client does not free
+         * space during send timeout or closes connection, connection is closed.
+         *
+         * @param aResponses ring buffer of responses
+         * @param aFrame frame which fits into ring buffer
+         */
+        protected void write(MappedRingBuffer aResponses, ByteBuffer aFrame) {
+            int idleCount = 0;
+            long deadline = 0;
+            while (!fClosed && !aResponses.offer(aFrame)) {
+                idleCount++;
+                if ((idleCount & 0xFF) == 0) {
+                    long now = System.currentTimeMillis();
+                    if (deadline == 0) {
+                        deadline = now + fSendTimeout;
+                    }
+                    if (fConnection.getState() == ShmConnection.STATE_CLOSED) {
+                        close();
+                    } else if (now > deadline) {
+                        if (fLog.isWarnEnabled()) {
+                            fLog.warn(format("Client does not consume responses within [{0}] ms, connection is closed. File: [{1}]",
+                                    fSendTimeout, fConnection.getFile()));
+                        }
+                        close();
+                    }
+                }
+                fWaitStrategy.idle(idleCount);
+            }
+        }
+
+        protected void close() {
+            if (!fClosed) {
+                fClosed = true;
+                fConnection.setState(ShmConnection.STATE_CLOSED);
+                fConnections.remove(fConnection.getFile().getName());
+                if (!fConnection.getFile().delete() && fLog.isDebugEnabled()) {
+                    fLog.debug(format("Unable to delete connection file [{0}]", fConnection.getFile()));
+                }
+            }
+        }
+    }
+
+    protected String fDirectory = null;
+    protected int fWorkerThreads = 32;
+    protected int fWorkerQueueCapacity = 10000;
+    protected ShmWaitStrategy fWaitStrategy = ShmWaitStrategy.PARK;
+    protected long fHeartbeatInterval = 100;
+    protected long fSendTimeout = 10000;
+
+    /**
+     * Handlers of services by service names
+     */
+    protected final ConcurrentMap<String, NioInvocationHandler> fHandlers =
+            new ConcurrentHashMap<String, NioInvocationHandler>();
+
+    /**
+     * Accepted connections by names of their files
+     */
+    protected final ConcurrentMap<String, ServerConnection> fConnections =
+            new ConcurrentHashMap<String, ServerConnection>();
+
+    /**
+     * Names of files which are not valid connection files
+     */
+    protected final Set<String> fIgnoredFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    protected File fDirectoryFile = null;
+    protected ShmHeartbeat fHeartbeat = null;
+    protected ThreadPoolExecutor fWorkers = null;
+    protected Thread fAcceptor = null;
+    protected volatile boolean fStopped = true;
+
+    public ShmServer() {
+    }
+
+    public void afterPropertiesSet()
+            throws IOException {
+        start();
+    }
+
+    public void destroy() {
+        stop();
+    }
+
+    /**
+     * Starts server
+     *
+     * @throws IOException if mapping directory could not be used
+     */
+    public synchronized void start()
+            throws IOException {
+        if (!fStopped) {
+            return;
+        }
+        if (fDirectory == null) {
+            throw new IllegalArgumentException("directory is required");
+        }
+        if (!MappedRingBuffer.isSupported()) {
+            throw new IOException("Shared memory transport is not supported by JVM");
+        }
+        fDirectoryFile = new File(fDirectory);
+        if (!fDirectoryFile.isDirectory() && !fDirectoryFile.mkdirs()) {
+            throw new IOException(format("Unable to create mapping directory [{0}]", fDirectory));
+        }
+        // connection files left by previous server are useless
+        for (File file : listConnectionFiles()) {
+            file.delete();
+        }
+        fHeartbeat = ShmHeartbeat.open(fDirectoryFile);
+        fHeartbeat.beat();
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cluster4spring-shm-worker-");
+        threadFactory.setDaemon(true);
+        fWorkers = new ThreadPoolExecutor(fWorkerThreads, fWorkerThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(fWorkerQueueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        fWorkers.allowCoreThreadTimeOut(true);
+
+        fStopped = false;
+        fAcceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "cluster4spring-shm-acceptor");
+        fAcceptor.setDaemon(true);
+        fAcceptor.start();
+        if (fLog.isInfoEnabled()) {
+            fLog.info(format("Shared memory server started. Directory: [{0}]", fDirectory));
+        }
+    }
+
+    /**
+     * Stops server and closes all connections
+     */
+    public synchronized void stop() {
+        if (fStopped) {
+            return;
+        }
+        fStopped = true;
+        fAcceptor.interrupt();
+        fHeartbeat.stop();
+        for (ServerConnection connection : fConnections.values()) {
+            connection.close();
+        }
+        fWorkers.shutdown();
+        if (fLog.isInfoEnabled()) {
+            fLog.info(format("Shared memory server stopped. Directory: [{0}]", fDirectory));
+        }
+    }
+
+    protected void accept() {
+        while (!fStopped) {
+            fHeartbeat.beat();
+            for (File file : listConnectionFiles()) {
+                String name = file.getName();
+                if (!fConnections.containsKey(name) && !fIgnoredFiles.contains(name)) {
+                    accept(file);
+                }
+            }
+            try {
+                Thread.sleep(fHeartbeatInterval);
+            } catch (InterruptedException e) {
+                // server is stopped
+            }
+        }
+    }
+
+    protected void accept(File aFile) {
+        try {
+            ShmConnection shmConnection = ShmConnection.open(aFile);
+            if (shmConnection == null || shmConnection.getState() != ShmConnection.STATE_CONNECTING) {
+                fIgnoredFiles.add(aFile.getName());
+            } else {
+                ServerConnection connection = new ServerConnection(shmConnection);
+                fConnections.put(aFile.getName(), connection);
+                Thread reader = new Thread(connection, "cluster4spring-shm-reader-" + aFile.getName());
+                reader.setDaemon(true);
+                reader.start();
+                shmConnection.setState(ShmConnection.STATE_ACCEPTED);
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug(format("Shared memory connection accepted. File: [{0}]", aFile));
+                }
+            }
+        } catch (IOException e) {
+            fIgnoredFiles.add(aFile.getName());
+            if (fLog.isWarnEnabled()) {
+                fLog.warn(format("Unable to accept shared memory connection. File: [{0}]", aFile), e);
+            }
+        }
+    }
+
+    protected File[] listConnectionFiles() {
+        File[] result = fDirectoryFile.listFiles(new FileFilter() {
+            public boolean accept(File aFile) {
+                return aFile.getName().endsWith(ShmConnection.FILE_SUFFIX);
+            }
+        });
+        return result == null ? new File[0] : result;
+    }
+
+    protected void requestReceived(ServerConnection aConnection, ByteBuffer aFrame) {
+        if (aFrame.remaining() < NioFrames.HEADER_SIZE) {
+            if (fLog.isWarnEnabled()) {
+                fLog.warn(format("Truncated frame received, connection is closed. File: [{0}]",
+                        aConnection.fConnection.getFile()));
+            }
+            aConnection.close();
+            return;
+        }
+        long correlationId = aFrame.getLong();
+        byte type = aFrame.get();
+        try {
+            if (type != NioFrames.TYPE_REQUEST) {
+                throw new IOException("Unexpected frame type: " + type);
+            }
+            String serviceName = NioFrames.readString(aFrame);
+            String codecName = NioFrames.readString(aFrame);
+            NioInvocationHandler handler = fHandlers.get(serviceName);
+            if (handler == null) {
+                aConnection.send(NioFrames.createError(correlationId, NioFrames.ERROR_NOT_EXPORTED, format(
+                        "Service [{0}] is not exported via shared memory in [{1}]", serviceName, fDirectory)));
+            } else {
+                byte[] payload = NioFrames.readRemaining(aFrame);
+                fWorkers.execute(createRequestTask(aConnection, correlationId, handler, codecName, payload));
+            }
+        } catch (RejectedExecutionException e) {
+            aConnection.send(NioFrames.createError(correlationId, NioFrames.ERROR_OVERLOADED, format(
+                    "Shared memory server in [{0}] is overloaded", fDirectory)));
+        } catch (IOException e) {
+            if (fLog.isWarnEnabled()) {
+                fLog.warn(format("Invalid frame received, connection is closed. File: [{0}]",
+                        aConnection.fConnection.getFile()), e);
+            }
+            aConnection.close();
+        }
+    }
+
+    protected Runnable createRequestTask(final ServerConnection aConnection, final long aCorrelationId,
+                                         final NioInvocationHandler aHandler, final String aCodecName,
+                                         final byte[] aPayload) {
+        return new Runnable() {
+            public void run() {
+                ByteBuffer response = null;
+                try {
+                    response = NioFrames.createResponse(aCorrelationId, aHandler.invoke(aCodecName, aPayload));
+                } catch (Throwable e) {
+                    // any failure should be reported, otherwise client waits for response forever
+                    if (fLog.isWarnEnabled()) {
+                        fLog.warn("Unable to process shared memory request", e);
+                    }
+                    response = NioFrames.createError(aCorrelationId, e.toString());
+                }
+                aConnection.send(response);
+            }
+        };
+    }
+
+    /**
+     * Registers handler of service
+     *
+     * @param aServiceName name of service
+     * @param aHandler handler of requests to service
+     */
+    public void registerHandler(String aServiceName, NioInvocationHandler aHandler) {
+        NioInvocationHandler existing = fHandlers.putIfAbsent(aServiceName, aHandler);
+        if (existing != null && existing != aHandler) {
+            throw new IllegalStateException(format("Service [{0}] is already registered in [{1}]",
+                    aServiceName, fDirectory));
+        }
+    }
+
+    /**
+     * Unregisters handler of service
+     *
+     * @param aServiceName name of service
+     */
+    public void unregisterHandler(String aServiceName) {
+        fHandlers.remove(aServiceName);
+    }
+
+    /**
+     * Returns amount of open connections
+     *
+     * @return amount of connections
+     */
+    public int getConnectionCount() {
+        return fConnections.size();
+    }
+
+    public String getDirectory() {
+        return fDirectory;
+    }
+
+    /**
+     * Sets mapping directory of server. Directory should be used by one server only and
+     * should be located on memory based file system (such as <code>/dev/shm</code>),
+     * otherwise data of connections could be written to disk.
+     *
+     * @param aDirectory path of directory
+     */
+    public void setDirectory(String aDirectory) {
+        fDirectory = aDirectory;
+    }
+
+    public int getWorkerThreads() {
+        return fWorkerThreads;
+    }
+
+    /**
+     * Sets amount of threads which perform invocations
+     * <p/>
+     * Default is <code>32</code>
+     *
+     * @param aWorkerThreads amount of threads
+     */
+    public void setWorkerThreads(int aWorkerThreads) {
+        fWorkerThreads = aWorkerThreads;
+    }
+
+    public int getWorkerQueueCapacity() {
+        return fWorkerQueueCapacity;
+    }
+
+    /**
+     * Sets maximal amount of requests waiting for free worker
+     * <p/>
+     * Default is <code>10000</code>
+     *
+     * @param aWorkerQueueCapacity amount of requests
+     */
+    public void setWorkerQueueCapacity(int aWorkerQueueCapacity) {
+        fWorkerQueueCapacity = aWorkerQueueCapacity;
+    }
+
+    public ShmWaitStrategy getWaitStrategy() {
+        return fWaitStrategy;
+    }
+
+    /**
+     * Sets strategy used by reader threads while waiting for requests
+     * <p/>
+     * Default is <code>PARK</code>
+     *
+     * @param aWaitStrategy wait strategy
+     */
+    public void setWaitStrategy(ShmWaitStrategy aWaitStrategy) {
+        fWaitStrategy = aWaitStrategy;
+    }
+
+    public long getHeartbeatInterval() {
+        return fHeartbeatInterval;
+    }
+
+    /**
+     * Sets interval (in milliseconds) of writing heartbeat and looking for new connections
+     * <p/>
+     * Default is <code>100</code>
+     *
+     * @param aHeartbeatInterval interval
+     */
+    public void setHeartbeatInterval(long aHeartbeatInterval) {
+        fHeartbeatInterval = aHeartbeatInterval;
+    }
+
+    public long getSendTimeout() {
+        return fSendTimeout;
+    }
+
+    /**
+     * Sets maximal time (in milliseconds) response waits for free space in ring buffer of
+     * connection. If client does not consume responses during this time (for example, its
+     * process died without closing connection), connection is closed.
+     * <p/>
+     * Default is <code>10000</code>
+     *
+     * @param aSendTimeout timeout
+     */
+    public void setSendTimeout(long aSendTimeout) {
+        fSendTimeout = aSendTimeout;
+    }
+}
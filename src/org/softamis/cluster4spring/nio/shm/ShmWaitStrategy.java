@@ -0,0 +1,74 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.shm;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Strategy used by threads of shared memory transport which wait for frames or for free
+ * space in ring buffer.
+ *
+ * @version 1.0
+ * @see ShmServer#setWaitStrategy(ShmWaitStrategy)
+ * @see ShmClientTransport#setWaitStrategy(ShmWaitStrategy)
+ */
+
+public enum ShmWaitStrategy {
+    /**
+     * Thread spins constantly. Gives the lowest latency, but every waiting thread occupies
+     * CPU core, so should be used only if host has enough free cores (otherwise latency is
+     * much worse than with <code>PARK</code>).
+     */
+    BUSY_SPIN {
+        @Override
+        public void idle(int aIdleCount) {
+            if ((aIdleCount & 0xFFFF) == 0xFFFF) {
+                // lets thread notice interruption and gives chance to other threads on overloaded host
+                Thread.yield();
+            }
+        }
+    },
+
+    /**
+     * Thread spins for a short time and then parks for increasing periods (up to
+     * 100 microseconds). Adds some latency to the first frame after idle period, but
+     * does not occupy CPU.
+     */
+    PARK {
+        @Override
+        public void idle(int aIdleCount) {
+            if (aIdleCount > SPIN_COUNT + YIELD_COUNT) {
+                long nanos = Math.min(MAX_PARK_NANOS, 1000L << Math.min(7, (aIdleCount - SPIN_COUNT - YIELD_COUNT) / 16));
+                LockSupport.parkNanos(nanos);
+            } else if (aIdleCount > SPIN_COUNT) {
+                Thread.yield();
+            }
+        }
+    };
+
+    protected static final int SPIN_COUNT = 1000;
+    protected static final int YIELD_COUNT = 100;
+    protected static final long MAX_PARK_NANOS = 100000;
+
+    /**
+     * Called by thread when there is nothing to do
+     *
+     * @param aIdleCount amount of consecutive idle iterations
+     */
+    public abstract void idle(int aIdleCount);
+}
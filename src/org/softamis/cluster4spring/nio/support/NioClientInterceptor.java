@@ -0,0 +1,91 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.support;
+
+import org.springframework.remoting.RemoteAccessException;
+import org.springframework.remoting.RemoteConnectFailureException;
+
+import org.softamis.cluster4spring.rmi.support.CallDeadline;
+import org.softamis.cluster4spring.support.EndpointFactory;
+import org.softamis.cluster4spring.support.RemoteClientInterceptor;
+import org.softamis.cluster4spring.support.ServiceMoniker;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Interceptor for accessing remote services via NIO transport. Endpoints are provided by
+ * the same providers as RMI ones (single URL, URL list, discovering or ZooKeeper based
+ * providers), only URLs of services have form <code>nio://host:port/serviceName</code>.
+ *
+ * @version 1.0
+ * @param <SI> type of data used to invoke remote service (such as remote service URL)
+ * @see NioEndpoint
+ */
+
+@SuppressWarnings({"ProhibitedExceptionDeclared"})
+public class NioClientInterceptor<SI extends ServiceMoniker>
+        extends RemoteClientInterceptor<NioEndpoint<SI>, SI> {
+    public static final String PROTOCOL_NIO = "NIO";
+
+    public NioClientInterceptor() {
+        super();
+    }
+
+    @Override
+    protected String getProtocol() {
+        return PROTOCOL_NIO;
+    }
+
+    @Override
+    protected EndpointFactory<NioEndpoint<SI>, SI> createDefaultEndpointFactory() {
+        EndpointFactory<NioEndpoint<SI>, SI> result = new NioEndpointFactory<SI>();
+        return result;
+    }
+
+    @Override
+    protected boolean isConnectFailure(RemoteAccessException aException) {
+        return aException instanceof RemoteConnectFailureException;
+    }
+
+    /**
+     * Performs invocation via given endpoint. If attempt has timeout, it is performed within
+     * <code>CallDeadline</code>, so endpoint waits for response not longer than deadline.
+     *
+     * @param aInvocation the AOP method invocation
+     * @param aServiceEndpoint endpoint used for invocation
+     * @return the invocation result, if any
+     * @throws Throwable in case of invocation failure
+     */
+    @Override
+    protected Object doInvoke(MethodInvocation aInvocation, NioEndpoint<SI> aServiceEndpoint)
+            throws Throwable {
+        long timeout = getAttemptTimeout(aInvocation.getMethod());
+        Object result = null;
+        if (timeout <= 0) {
+            result = aServiceEndpoint.invoke(aInvocation);
+        } else {
+            CallDeadline deadline = CallDeadline.begin(timeout);
+            try {
+                result = aServiceEndpoint.invoke(aInvocation);
+            } finally {
+                deadline.end();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,353 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.support;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Client side of NIO transport. Keeps small amount of connections per server and sends
+ * requests of all endpoints of that server via them. Requests are pipelined - thread which
+ * performs invocation writes request and waits for response, which is matched by
+ * correlation identifier, while other threads use the same connection.
+ * <p/>
+ * All connections of transport are served by single selector thread. Transport could be
+ * defined as bean, otherwise endpoints use one shared by JVM (see {@link #getDefault()}).
+ *
+ * @version 1.0
+ * @see NioEndpoint
+ */
+
+public class NioClientTransport
+        implements NioConnection.Listener,
+        DisposableBean {
+    protected static final Log fLog = LogFactory.getLog(NioClientTransport.class);
+
+    /**
+     * Transport shared by endpoints which do not have own one
+     */
+    protected static NioClientTransport fDefault = null;
+
+    /**
+     * Invocation waiting for response
+     */
+    protected static class PendingCall {
+        protected final NioConnection fConnection;
+        protected final CountDownLatch fDone = new CountDownLatch(1);
+        protected byte[] fResponse = null;
+        protected IOException fException = null;
+
+        protected PendingCall(NioConnection aConnection) {
+            fConnection = aConnection;
+        }
+
+        protected void complete(byte[] aResponse, IOException aException) {
+            fResponse = aResponse;
+            fException = aException;
+            fDone.countDown();
+        }
+    }
+
+    /**
+     * Connections to one server
+     */
+    protected static class ServerConnections {
+        protected final NioConnection[] fConnections;
+        protected final AtomicInteger fNext = new AtomicInteger();
+
+        protected ServerConnections(int aSize) {
+            fConnections = new NioConnection[aSize];
+        }
+    }
+
+    protected int fConnectionsPerServer = 2;
+    protected int fConnectTimeout = 5000;
+    protected int fMaxFrameSize = NioServer.DEFAULT_MAX_FRAME_SIZE;
+
+    protected final ConcurrentMap<SocketAddress, ServerConnections> fServers =
+            new ConcurrentHashMap<SocketAddress, ServerConnections>();
+    protected final ConcurrentMap<Long, PendingCall> fPendingCalls = new ConcurrentHashMap<Long, PendingCall>();
+    protected final AtomicLong fLastCorrelationId = new AtomicLong();
+    protected NioSelectorLoop fLoop = null;
+
+    public NioClientTransport() {
+    }
+
+    /**
+     * Returns transport shared by JVM
+     *
+     * @return shared transport
+     */
+    public static synchronized NioClientTransport getDefault() {
+        if (fDefault == null) {
+            fDefault = new NioClientTransport();
+        }
+        return fDefault;
+    }
+
+    /**
+     * Sends request and waits for response
+     *
+     * @param aAddress address of server
+     * @param aServiceName name of service
+     * @param aCodecName name of codec used to encode invocation
+     * @param aPayload encoded invocation
+     * @param aTimeout maximal time (in milliseconds) to wait for response, <code>0</code> if time is not limited
+     * @return encoded result of invocation
+     * @throws ConnectException if connection to server could not be established
+     * @throws TimeoutException if response was not received within timeout
+     * @throws IOException if connection was lost or server could not process request
+     */
+    public byte[] call(SocketAddress aAddress, String aServiceName, String aCodecName, byte[] aPayload, long aTimeout)
+            throws IOException, TimeoutException {
+        NioConnection connection = obtainConnection(aAddress);
+        long correlationId = fLastCorrelationId.incrementAndGet();
+        PendingCall call = new PendingCall(connection);
+        fPendingCalls.put(correlationId, call);
+        boolean completed = false;
+        try {
+            connection.send(NioFrames.createRequest(correlationId, aServiceName, aCodecName, aPayload));
+            if (aTimeout > 0) {
+                completed = call.fDone.await(aTimeout, TimeUnit.MILLISECONDS);
+            } else {
+                call.fDone.await();
+                completed = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for response");
+        } finally {
+            if (!completed) {
+                fPendingCalls.remove(correlationId);
+            }
+        }
+        if (!completed) {
+            throw new TimeoutException(format("Response from [{0}] was not received within [{1}] ms", aAddress, aTimeout));
+        }
+        if (call.fException != null) {
+            throw call.fException;
+        }
+        return call.fResponse;
+    }
+
+    /**
+     * Returns connection to server, establishing it if necessary. Connections to server are
+     * used in turn.
+     *
+     * @param aAddress address of server
+     * @return connection
+     * @throws ConnectException if connection could not be established
+     */
+    protected NioConnection obtainConnection(SocketAddress aAddress)
+            throws ConnectException {
+        ServerConnections connections = fServers.get(aAddress);
+        if (connections == null) {
+            ServerConnections created = new ServerConnections(Math.max(1, fConnectionsPerServer));
+            connections = fServers.putIfAbsent(aAddress, created);
+            if (connections == null) {
+                connections = created;
+            }
+        }
+        int index = (connections.fNext.getAndIncrement() & Integer.MAX_VALUE) % connections.fConnections.length;
+        NioConnection result = null;
+        synchronized (connections) {
+            result = connections.fConnections[index];
+            if (result == null || result.isClosed()) {
+                result = connect(aAddress);
+                connections.fConnections[index] = result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Establishes connection to server. Address of server is either TCP address or address
+     * of Unix domain socket.
+     *
+     * @param aAddress address of server
+     * @return connection
+     * @throws ConnectException if connection could not be established
+     */
+    protected NioConnection connect(SocketAddress aAddress)
+            throws ConnectException {
+        SocketChannel channel = null;
+        try {
+            if (aAddress instanceof InetSocketAddress) {
+                channel = SocketChannel.open();
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().connect(aAddress, fConnectTimeout);
+            } else {
+                channel = UnixDomainSockets.openChannel(aAddress);
+            }
+        } catch (IOException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // nothing to do
+                }
+            }
+            ConnectException exception = new ConnectException(format("Unable to connect to [{0}]", aAddress));
+            exception.initCause(e);
+            throw exception;
+        }
+        NioConnection result = new NioConnection(channel, obtainLoop(), this, fMaxFrameSize);
+        obtainLoop().registerConnection(result);
+        if (fLog.isDebugEnabled()) {
+            fLog.debug(format("NIO connection established. Address: [{0}]", aAddress));
+        }
+        return result;
+    }
+
+    protected synchronized NioSelectorLoop obtainLoop() {
+        if (fLoop == null) {
+            try {
+                fLoop = new NioSelectorLoop("cluster4spring-nio-client");
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open selector", e);
+            }
+        }
+        return fLoop;
+    }
+
+    public void frameReceived(NioConnection aConnection, ByteBuffer aFrame) {
+        long correlationId = aFrame.getLong();
+        byte type = aFrame.get();
+        PendingCall call = fPendingCalls.remove(correlationId);
+        if (call != null) {
+            if (type == NioFrames.TYPE_RESPONSE) {
+                call.complete(NioFrames.readRemaining(aFrame), null);
+            } else if (type == NioFrames.TYPE_ERROR) {
+                call.complete(null, NioFrames.readError(aFrame));
+            } else {
+                call.complete(null, new IOException("Unexpected frame type: " + type));
+            }
+        }
+    }
+
+    public void connectionClosed(NioConnection aConnection, IOException aCause) {
+        IOException exception = new IOException(format("Connection to [{0}] closed", aConnection.getRemoteAddress()));
+        if (aCause != null) {
+            exception.initCause(aCause);
+        }
+        Iterator<PendingCall> calls = fPendingCalls.values().iterator();
+        while (calls.hasNext()) {
+            PendingCall call = calls.next();
+            if (call.fConnection == aConnection) {
+                calls.remove();
+                call.complete(null, exception);
+            }
+        }
+    }
+
+    /**
+     * Closes all connections of transport
+     */
+    public void destroy() {
+        for (ServerConnections connections : fServers.values()) {
+            synchronized (connections) {
+                for (NioConnection connection : connections.fConnections) {
+                    if (connection != null) {
+                        connection.close(null);
+                    }
+                }
+            }
+        }
+        fServers.clear();
+        synchronized (this) {
+            if (fLoop != null) {
+                fLoop.stop();
+                fLoop = null;
+            }
+        }
+    }
+
+    /**
+     * Returns amount of invocations waiting for response
+     *
+     * @return amount of invocations
+     */
+    public int getPendingCalls() {
+        return fPendingCalls.size();
+    }
+
+    public int getConnectionsPerServer() {
+        return fConnectionsPerServer;
+    }
+
+    /**
+     * Sets amount of connections established to every server
+     * <p/>
+     * Default is <code>2</code>
+     *
+     * @param aConnectionsPerServer amount of connections
+     */
+    public void setConnectionsPerServer(int aConnectionsPerServer) {
+        fConnectionsPerServer = aConnectionsPerServer;
+    }
+
+    public int getConnectTimeout() {
+        return fConnectTimeout;
+    }
+
+    /**
+     * Sets timeout (in milliseconds) of establishing connection
+     * <p/>
+     * Default is <code>5000</code>
+     *
+     * @param aConnectTimeout timeout
+     */
+    public void setConnectTimeout(int aConnectTimeout) {
+        fConnectTimeout = aConnectTimeout;
+    }
+
+    public int getMaxFrameSize() {
+        return fMaxFrameSize;
+    }
+
+    /**
+     * Sets maximal size of response frame in bytes
+     * <p/>
+     * Default is 64 MB
+     *
+     * @param aMaxFrameSize size in bytes
+     */
+    public void setMaxFrameSize(int aMaxFrameSize) {
+        fMaxFrameSize = aMaxFrameSize;
+    }
+}
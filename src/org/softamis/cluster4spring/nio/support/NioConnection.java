@@ -0,0 +1,254 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.support;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Connection of NIO transport. Connection exchanges length-prefixed frames; any amount
+ * of frames could be sent without waiting for answers (frames are matched by correlation
+ * identifiers, see {@link NioFrames}), so one connection serves many concurrent invocations.
+ * <p/>
+ * Reading and writing are performed by selector thread; <code>send()</code> could be
+ * called by any thread.
+ *
+ * @version 1.0
+ * @see NioSelectorLoop
+ */
+
+public class NioConnection {
+    protected static final Log fLog = LogFactory.getLog(NioConnection.class);
+
+    /**
+     * Size of buffer used to read data from channel
+     */
+    protected static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Listener notified about frames received by connection
+     */
+    public interface Listener {
+        /**
+         * Called by selector thread when frame is received
+         *
+         * @param aConnection connection which received frame
+         * @param aFrame frame without length prefix
+         */
+        public void frameReceived(NioConnection aConnection, ByteBuffer aFrame);
+
+        /**
+         * Called when connection is closed
+         *
+         * @param aConnection closed connection
+         * @param aCause cause of closing or <code>null</code> if connection was closed normally
+         */
+        public void connectionClosed(NioConnection aConnection, IOException aCause);
+    }
+
+    protected final SocketChannel fChannel;
+    protected final NioSelectorLoop fLoop;
+    protected final Listener fListener;
+
+    /**
+     * Maximal size of frame accepted by connection
+     */
+    protected final int fMaxFrameSize;
+
+    /**
+     * Frames waiting to be written
+     */
+    protected final ConcurrentLinkedQueue<ByteBuffer> fWriteQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /**
+     * Indicates whether selector thread was asked to write frames
+     */
+    protected final AtomicBoolean fWriteRequested = new AtomicBoolean();
+
+    /**
+     * Indicates whether connection is closed
+     */
+    protected final AtomicBoolean fClosed = new AtomicBoolean();
+
+    protected final ByteBuffer fReadBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    protected ByteBuffer fFrame = null;
+    protected SelectionKey fKey = null;
+
+    /**
+     * Task which writes queued frames
+     */
+    protected final Runnable fWriteTask = new Runnable() {
+        public void run() {
+            fWriteRequested.set(false);
+            handleWrite();
+        }
+    };
+
+    public NioConnection(SocketChannel aChannel, NioSelectorLoop aLoop, Listener aListener, int aMaxFrameSize) {
+        fChannel = aChannel;
+        fLoop = aLoop;
+        fListener = aListener;
+        fMaxFrameSize = aMaxFrameSize;
+    }
+
+    /**
+     * Queues frame for sending
+     *
+     * @param aFrame frame including length prefix
+     * @throws IOException if connection is already closed
+     */
+    public void send(ByteBuffer aFrame)
+            throws IOException {
+        if (fClosed.get()) {
+            throw new IOException("Connection is closed");
+        }
+        fWriteQueue.add(aFrame);
+        if (fWriteRequested.compareAndSet(false, true)) {
+            fLoop.execute(fWriteTask);
+        }
+    }
+
+    protected void registered(SelectionKey aKey) {
+        fKey = aKey;
+        if (fClosed.get()) {
+            aKey.cancel();
+        } else if (!fWriteQueue.isEmpty()) {
+            handleWrite();
+        }
+    }
+
+    protected void handleRead() {
+        try {
+            int count = fChannel.read(fReadBuffer);
+            if (count < 0) {
+                throw new EOFException("Connection closed by peer");
+            }
+            fReadBuffer.flip();
+            boolean complete = true;
+            while (complete) {
+                if (fFrame == null) {
+                    if (fReadBuffer.remaining() < 4) {
+                        complete = false;
+                    } else {
+                        int length = fReadBuffer.getInt();
+                        if (length < NioFrames.HEADER_SIZE || length > fMaxFrameSize) {
+                            throw new IOException("Invalid frame length: " + length);
+                        }
+                        fFrame = ByteBuffer.allocate(length);
+                    }
+                }
+                if (fFrame != null) {
+                    int chunk = Math.min(fFrame.remaining(), fReadBuffer.remaining());
+                    int limit = fReadBuffer.limit();
+                    fReadBuffer.limit(fReadBuffer.position() + chunk);
+                    fFrame.put(fReadBuffer);
+                    fReadBuffer.limit(limit);
+                    if (fFrame.hasRemaining()) {
+                        complete = false;
+                    } else {
+                        ByteBuffer frame = fFrame;
+                        fFrame = null;
+                        frame.flip();
+                        fListener.frameReceived(this, frame);
+                    }
+                }
+            }
+            fReadBuffer.compact();
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    protected void handleWrite() {
+        if (fKey == null || !fKey.isValid()) {
+            return;
+        }
+        try {
+            ByteBuffer frame = fWriteQueue.peek();
+            while (frame != null) {
+                fChannel.write(frame);
+                if (frame.hasRemaining()) {
+                    break;
+                }
+                fWriteQueue.poll();
+                frame = fWriteQueue.peek();
+            }
+            if (frame == null) {
+                fKey.interestOps(SelectionKey.OP_READ);
+            } else {
+                fKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    /**
+     * Closes connection
+     *
+     * @param aCause cause of closing or <code>null</code> if connection is closed normally
+     */
+    public void close(IOException aCause) {
+        if (fClosed.compareAndSet(false, true)) {
+            if (fKey != null) {
+                fKey.cancel();
+            }
+            try {
+                fChannel.close();
+            } catch (IOException e) {
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug("Unable to close channel", e);
+                }
+            }
+            fWriteQueue.clear();
+            fListener.connectionClosed(this, aCause);
+        }
+    }
+
+    public boolean isClosed() {
+        return fClosed.get();
+    }
+
+    public SocketChannel getChannel() {
+        return fChannel;
+    }
+
+    /**
+     * Returns address of peer
+     *
+     * @return address or <code>null</code> if it is not known
+     */
+    public SocketAddress getRemoteAddress() {
+        SocketAddress result = null;
+        try {
+            result = fChannel.getRemoteAddress();
+        } catch (IOException e) {
+            // channel is closed, address is not known
+        }
+        return result;
+    }
+}
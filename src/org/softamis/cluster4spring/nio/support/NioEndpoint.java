@@ -0,0 +1,245 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.support;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.TimeoutException;
+
+import static java.text.MessageFormat.format;
+
+import org.springframework.remoting.RemoteAccessException;
+import org.springframework.remoting.RemoteConnectFailureException;
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationFactory;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+import org.softamis.cluster4spring.rmi.support.CallDeadline;
+import org.softamis.cluster4spring.support.Endpoint;
+import org.softamis.cluster4spring.support.EndpointOverloadedException;
+import org.softamis.cluster4spring.support.RemoteInvocationTimeoutException;
+import org.softamis.cluster4spring.support.codec.InvocationCodec;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Endpoint of NIO transport. Invocation is encoded by codec and sent via connection of
+ * <code>NioClientTransport</code> shared with other endpoints of the same server.
+ * <p/>
+ * Failures of transport are reported as <code>RemoteAccessException</code>:
+ * <code>RemoteConnectFailureException</code> if connection could not be established,
+ * <code>RemoteInvocationTimeoutException</code> if response was not received before
+ * deadline of invocation.
+ * <p/>
+ * If service is located on the same host and its server accepts connections via Unix
+ * domain socket, endpoint uses socket and falls back to TCP if socket could not be connected.
+ *
+ * @version 1.0
+ * @param <SI> type of data used to invoke remote service (such as remote service URL)
+ */
+
+@SuppressWarnings({"ProhibitedExceptionDeclared"})
+public class NioEndpoint<SI extends Serializable>
+        extends Endpoint<SI> {
+    /**
+     * Transport used to send invocations
+     */
+    protected final NioClientTransport fTransport;
+
+    /**
+     * Address of server
+     */
+    protected final InetSocketAddress fAddress;
+
+    /**
+     * Address of Unix domain socket of server, <code>null</code> if only TCP should be used
+     */
+    protected final SocketAddress fUnixAddress;
+
+    /**
+     * Indicates whether connecting via Unix domain socket failed, so TCP should be used
+     */
+    protected volatile boolean fUnixSocketFailed = false;
+
+    /**
+     * Name of service on server
+     */
+    protected final String fServiceName;
+
+    /**
+     * Codec used to encode invocations
+     */
+    protected final InvocationCodec fCodec;
+
+    /**
+     * Creates endpoint
+     *
+     * @param aRemoteInvocationFactory factory used to create remote invocations
+     * @param aEndpointKey key of endpoint
+     * @param aServiceInfo information about service
+     * @param aTransport transport used to send invocations
+     * @param aAddress address of server
+     * @param aServiceName name of service on server
+     * @param aCodec codec used to encode invocations
+     */
+    public NioEndpoint(RemoteInvocationFactory aRemoteInvocationFactory, String aEndpointKey, SI aServiceInfo,
+                       NioClientTransport aTransport, InetSocketAddress aAddress, String aServiceName,
+                       InvocationCodec aCodec) {
+        this(aRemoteInvocationFactory, aEndpointKey, aServiceInfo, aTransport, aAddress, null, aServiceName, aCodec);
+    }
+
+    /**
+     * Creates endpoint which prefers Unix domain socket of server
+     *
+     * @param aRemoteInvocationFactory factory used to create remote invocations
+     * @param aEndpointKey key of endpoint
+     * @param aServiceInfo information about service
+     * @param aTransport transport used to send invocations
+     * @param aAddress TCP address of server
+     * @param aUnixAddress address of Unix domain socket of server, <code>null</code> if only TCP should be used
+     * @param aServiceName name of service on server
+     * @param aCodec codec used to encode invocations
+     */
+    public NioEndpoint(RemoteInvocationFactory aRemoteInvocationFactory, String aEndpointKey, SI aServiceInfo,
+                       NioClientTransport aTransport, InetSocketAddress aAddress, SocketAddress aUnixAddress,
+                       String aServiceName, InvocationCodec aCodec) {
+        super(aRemoteInvocationFactory, aEndpointKey, aServiceInfo);
+        fTransport = aTransport;
+        fAddress = aAddress;
+        fUnixAddress = aUnixAddress;
+        fServiceName = aServiceName;
+        fCodec = aCodec;
+    }
+
+    /**
+     * Sends invocation and returns its result or throws exception thrown by remote method
+     *
+     * @param aMethodInvocation method invocation to invoke
+     * @return result of invocation, if any
+     * @throws Throwable exception thrown by remote method or <code>RemoteAccessException</code>
+     */
+    @Override
+    protected Object doInvoke(MethodInvocation aMethodInvocation)
+            throws Throwable {
+        RemoteInvocation invocation = createRemoteInvocation(aMethodInvocation);
+        CallDeadline deadline = CallDeadline.current();
+        long timeout = 0;
+        if (deadline != null) {
+            timeout = deadline.getRemainingTime();
+            if (timeout <= 0) {
+                throw new RemoteInvocationTimeoutException(format("Deadline of invocation of [{0}] expired", fServiceInfo));
+            }
+        }
+
+        RemoteInvocationResult invocationResult = null;
+        try {
+            byte[] response = call(fCodec.encode(invocation), timeout);
+            invocationResult = (RemoteInvocationResult) fCodec.decode(response);
+        } catch (ConnectException e) {
+            throw new RemoteConnectFailureException(format("Cannot connect to remote service [{0}]", fServiceInfo), e);
+        } catch (TimeoutException e) {
+            throw new RemoteInvocationTimeoutException(format("Invocation of remote service [{0}] timed out", fServiceInfo), e);
+        } catch (NioServerException e) {
+            throw convertServerException(e);
+        } catch (IOException e) {
+            throw new RemoteAccessException(format("Cannot access remote service [{0}]", fServiceInfo), e);
+        } catch (ClassNotFoundException e) {
+            throw new RemoteAccessException(format("Unable to decode result of remote service [{0}]", fServiceInfo), e);
+        }
+        return invocationResult.recreate();
+    }
+
+    /**
+     * Converts error reported by server. Requests rejected due to overload or since service
+     * is not exported were not performed, so they are reported in a way that allows client
+     * to send them to another server.
+     *
+     * @param aException error reported by server
+     * @return exception to throw
+     */
+    protected RemoteAccessException convertServerException(NioServerException aException) {
+        RemoteAccessException result = null;
+        if (aException.isOverloaded()) {
+            result = new EndpointOverloadedException(format("Remote service [{0}] is overloaded", fServiceInfo),
+                    aException);
+        } else if (aException.isServiceNotExported()) {
+            result = new RemoteConnectFailureException(format("Remote service [{0}] is not exported", fServiceInfo),
+                    aException);
+        } else {
+            result = new RemoteAccessException(format("Cannot access remote service [{0}]", fServiceInfo), aException);
+        }
+        return result;
+    }
+
+    /**
+     * Sends encoded invocation via Unix domain socket, if it is available, or via TCP
+     *
+     * @param aPayload encoded invocation
+     * @param aTimeout maximal time (in milliseconds) to wait for response
+     * @return encoded result
+     * @throws IOException if invocation could not be sent
+     * @throws TimeoutException if response was not received within timeout
+     */
+    protected byte[] call(byte[] aPayload, long aTimeout)
+            throws IOException, TimeoutException {
+        byte[] result = null;
+        if (fUnixAddress != null && !fUnixSocketFailed) {
+            try {
+                result = fTransport.call(fUnixAddress, fServiceName, fCodec.getName(), aPayload, aTimeout);
+            } catch (ConnectException e) {
+                fUnixSocketFailed = true;
+                if (fLog.isInfoEnabled()) {
+                    fLog.info(format("Unable to connect to Unix domain socket [{0}], TCP is used. Endpoint: [{1}]",
+                            fUnixAddress, getEndpointKey()));
+                }
+            }
+        }
+        if (result == null) {
+            result = fTransport.call(fAddress, fServiceName, fCodec.getName(), aPayload, aTimeout);
+        }
+        return result;
+    }
+
+    public InetSocketAddress getAddress() {
+        return fAddress;
+    }
+
+    public SocketAddress getUnixAddress() {
+        return fUnixAddress;
+    }
+
+    /**
+     * Checks whether invocations are sent via Unix domain socket
+     *
+     * @return <code>true</code> if Unix domain socket is used
+     */
+    public boolean isUnixSocketUsed() {
+        return fUnixAddress != null && !fUnixSocketFailed;
+    }
+
+    public String getServiceName() {
+        return fServiceName;
+    }
+
+    public InvocationCodec getCodec() {
+        return fCodec;
+    }
+}
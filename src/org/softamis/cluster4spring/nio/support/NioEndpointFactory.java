@@ -0,0 +1,269 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.support;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.remoting.RemoteAccessException;
+import org.springframework.remoting.support.RemoteInvocationFactory;
+
+import org.softamis.cluster4spring.nio.shm.ShmClientTransport;
+import org.softamis.cluster4spring.nio.shm.ShmEndpoint;
+import org.softamis.cluster4spring.support.EndpointFactory;
+import org.softamis.cluster4spring.support.ServiceMoniker;
+import org.softamis.cluster4spring.support.codec.InvocationCodec;
+import org.softamis.cluster4spring.support.codec.JavaSerializationCodec;
+
+/**
+ * Endpoint factory used to create NIO endpoints. URL of service has form
+ * <code>nio://host:port/serviceName</code>. Endpoints are created without connecting to
+ * server; connection is established by transport on first invocation.
+ * <p/>
+ * If server accepts connections via Unix domain socket, URL contains path of socket:
+ * <code>nio://host:port/serviceName?unixSocket=/path/to/socket</code>. If host of such URL
+ * is local, created endpoint uses socket instead of TCP.
+ * <p/>
+ * If server is also available via experimental shared memory transport, URL contains mapping
+ * directory of server (<code>shmDirectory=/dev/shm/server</code>). Shared memory is used
+ * only if it is enabled explicitly, host is local and server is alive.
+ *
+ * @version 1.0
+ * @param <SI> type of data used to invoke remote service (such as remote service URL)
+ */
+
+public class NioEndpointFactory<SI extends ServiceMoniker>
+        implements EndpointFactory<NioEndpoint<SI>, SI> {
+    protected static final Log fLog = LogFactory.getLog(NioEndpointFactory.class);
+
+    public static final String NIO_PROTOCOL_PREFIX = "nio://";
+
+    /**
+     * Parameter of URL which contains path of Unix domain socket of server
+     */
+    public static final String UNIX_SOCKET_PARAMETER = "unixSocket=";
+
+    /**
+     * Parameter of URL which contains mapping directory of shared memory server
+     */
+    public static final String SHM_DIRECTORY_PARAMETER = "shmDirectory=";
+
+    /**
+     * Transport used by endpoints, if not specified - one shared by JVM
+     */
+    protected NioClientTransport fTransport = null;
+
+    /**
+     * Codec used by endpoints to encode invocations
+     */
+    protected InvocationCodec fCodec = new JavaSerializationCodec();
+
+    /**
+     * Indicates whether Unix domain sockets should be used for local servers
+     */
+    protected boolean fPreferUnixSockets = true;
+
+    /**
+     * Indicates whether shared memory transport should be used for local servers
+     */
+    protected boolean fPreferSharedMemory = false;
+
+    /**
+     * Shared memory transport used by endpoints, if not specified - one shared by JVM
+     */
+    protected ShmClientTransport fShmTransport = null;
+
+    public NioEndpointFactory() {
+    }
+
+    public NioEndpoint<SI> createServiceEndpoint(RemoteInvocationFactory aFactory, String aBeanName, SI aServiceInfo)
+            throws RemoteAccessException {
+        String serviceURL = aServiceInfo.getServiceURL();
+        String location = serviceURL.startsWith(NIO_PROTOCOL_PREFIX) ?
+                serviceURL.substring(NIO_PROTOCOL_PREFIX.length()) : serviceURL;
+        String unixSocketPath = null;
+        String shmDirectory = null;
+        int query = location.indexOf('?');
+        if (query >= 0) {
+            for (String parameter : location.substring(query + 1).split("&")) {
+                if (parameter.startsWith(UNIX_SOCKET_PARAMETER)) {
+                    unixSocketPath = parameter.substring(UNIX_SOCKET_PARAMETER.length());
+                } else if (parameter.startsWith(SHM_DIRECTORY_PARAMETER)) {
+                    shmDirectory = parameter.substring(SHM_DIRECTORY_PARAMETER.length());
+                }
+            }
+            location = location.substring(0, query);
+        }
+        int slash = location.indexOf('/');
+        int colon = slash < 0 ? -1 : location.lastIndexOf(':', slash);
+        if (slash < 0 || colon < 0 || slash == location.length() - 1) {
+            throw new RemoteAccessException(format("Invalid URL of NIO service [{0}] for bean [{1}]", serviceURL, aBeanName));
+        }
+        InetSocketAddress address = null;
+        try {
+            int port = Integer.parseInt(location.substring(colon + 1, slash));
+            address = new InetSocketAddress(location.substring(0, colon), port);
+        } catch (IllegalArgumentException e) {
+            throw new RemoteAccessException(format("Invalid URL of NIO service [{0}] for bean [{1}]", serviceURL, aBeanName), e);
+        }
+        String serviceName = location.substring(slash + 1);
+        SocketAddress unixAddress = obtainUnixAddress(unixSocketPath, address);
+        NioClientTransport transport = fTransport == null ? NioClientTransport.getDefault() : fTransport;
+        ShmClientTransport shmTransport = fShmTransport == null ? ShmClientTransport.getDefault() : fShmTransport;
+        NioEndpoint<SI> result = null;
+        if (fPreferSharedMemory && shmDirectory != null && isLocalAddress(address.getAddress()) &&
+                shmTransport.isAvailable(shmDirectory)) {
+            result = new ShmEndpoint<SI>(aFactory, aBeanName, aServiceInfo, transport, address, unixAddress,
+                    shmTransport, shmDirectory, serviceName, fCodec);
+        } else {
+            result = new NioEndpoint<SI>(aFactory, aBeanName, aServiceInfo, transport, address, unixAddress,
+                    serviceName, fCodec);
+        }
+        return result;
+    }
+
+    /**
+     * Returns address of Unix domain socket which should be used to connect to server
+     *
+     * @param aUnixSocketPath path of socket advertised by server, <code>null</code> if server does not have socket
+     * @param aAddress TCP address of server
+     * @return address of socket or <code>null</code> if TCP should be used
+     */
+    protected SocketAddress obtainUnixAddress(String aUnixSocketPath, InetSocketAddress aAddress) {
+        SocketAddress result = null;
+        if (fPreferUnixSockets && aUnixSocketPath != null && aUnixSocketPath.length() > 0 &&
+                UnixDomainSockets.isSupported() && isLocalAddress(aAddress.getAddress())) {
+            try {
+                result = UnixDomainSockets.createAddress(aUnixSocketPath);
+            } catch (IOException e) {
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug(format("Unable to use Unix domain socket [{0}]", aUnixSocketPath), e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether given address belongs to current host
+     *
+     * @param aAddress address
+     * @return <code>true</code> if address is local
+     */
+    protected boolean isLocalAddress(InetAddress aAddress) {
+        boolean result = false;
+        if (aAddress != null) {
+            try {
+                result = aAddress.isLoopbackAddress() || aAddress.isAnyLocalAddress() ||
+                        NetworkInterface.getByInetAddress(aAddress) != null;
+            } catch (IOException e) {
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug(format("Unable to check whether address [{0}] is local", aAddress), e);
+                }
+            }
+        }
+        return result;
+    }
+
+    public NioClientTransport getTransport() {
+        return fTransport;
+    }
+
+    /**
+     * Sets transport used by created endpoints
+     * <p/>
+     * Default is <code>null</code> (transport shared by JVM is used)
+     *
+     * @param aTransport transport
+     */
+    public void setTransport(NioClientTransport aTransport) {
+        fTransport = aTransport;
+    }
+
+    public boolean isPreferUnixSockets() {
+        return fPreferUnixSockets;
+    }
+
+    /**
+     * Sets whether Unix domain socket advertised by server located on the same host should
+     * be used instead of TCP
+     * <p/>
+     * Default is <code>true</code>
+     *
+     * @param aPreferUnixSockets <code>true</code> if Unix domain sockets should be used
+     */
+    public void setPreferUnixSockets(boolean aPreferUnixSockets) {
+        fPreferUnixSockets = aPreferUnixSockets;
+    }
+
+    public boolean isPreferSharedMemory() {
+        return fPreferSharedMemory;
+    }
+
+    /**
+     * Sets whether experimental shared memory transport should be used for services located
+     * on the same host, if their servers advertise mapping directory
+     * <p/>
+     * Default is <code>false</code>
+     *
+     * @param aPreferSharedMemory <code>true</code> if shared memory should be used
+     * @see org.softamis.cluster4spring.nio.shm.ShmServer
+     */
+    public void setPreferSharedMemory(boolean aPreferSharedMemory) {
+        fPreferSharedMemory = aPreferSharedMemory;
+    }
+
+    public ShmClientTransport getShmTransport() {
+        return fShmTransport;
+    }
+
+    /**
+     * Sets shared memory transport used by created endpoints
+     * <p/>
+     * Default is <code>null</code> (transport shared by JVM is used)
+     *
+     * @param aShmTransport transport
+     */
+    public void setShmTransport(ShmClientTransport aShmTransport) {
+        fShmTransport = aShmTransport;
+    }
+
+    public InvocationCodec getCodec() {
+        return fCodec;
+    }
+
+    /**
+     * Sets codec used by created endpoints to encode invocations. Exporter of the service
+     * should support codec with the same name.
+     * <p/>
+     * Default is <code>JavaSerializationCodec</code>
+     *
+     * @param aCodec codec
+     */
+    public void setCodec(InvocationCodec aCodec) {
+        fCodec = aCodec;
+    }
+}
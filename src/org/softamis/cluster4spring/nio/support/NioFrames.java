@@ -0,0 +1,206 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.support;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Format of frames exchanged by NIO transport. Every frame starts with its length (not
+ * including the length itself), followed by correlation identifier and type of frame:
+ * <pre>
+ * int length | long correlationId | byte type | body
+ * </pre>
+ * Body of request contains name of service, name of codec and invocation encoded by that
+ * codec. Body of response contains result of invocation encoded by the same codec. Body of
+ * error contains code of error followed by message describing why request could not be
+ * processed; code allows client to distinguish requests which were not performed at all.
+ *
+ * @version 1.0
+ */
+
+public class NioFrames {
+    public static final byte TYPE_REQUEST = 1;
+    public static final byte TYPE_RESPONSE = 2;
+    public static final byte TYPE_ERROR = 3;
+
+    /**
+     * Part of frame which does not fit into transport buffer (used by shared memory transport).
+     * Parts of frame are sent one after another and are followed by the last part, which has
+     * type of the original frame.
+     */
+    public static final byte TYPE_PART = 4;
+
+    /**
+     * Request could not be processed, it could be performed partially
+     */
+    public static final byte ERROR_FAILED = 0;
+
+    /**
+     * Request was rejected since server is overloaded, it was not performed
+     */
+    public static final byte ERROR_OVERLOADED = 1;
+
+    /**
+     * Requested service is not exported by server, request was not performed
+     */
+    public static final byte ERROR_NOT_EXPORTED = 2;
+
+    /**
+     * Size of frame header (correlation identifier and type)
+     */
+    public static final int HEADER_SIZE = 9;
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    protected NioFrames() {
+    }
+
+    /**
+     * Creates request frame
+     *
+     * @param aCorrelationId identifier used to match response
+     * @param aServiceName name of invoked service
+     * @param aCodecName name of codec used to encode invocation
+     * @param aPayload encoded invocation
+     * @return frame ready to be sent
+     */
+    public static ByteBuffer createRequest(long aCorrelationId, String aServiceName, String aCodecName, byte[] aPayload) {
+        byte[] serviceName = aServiceName.getBytes(UTF8);
+        byte[] codecName = aCodecName.getBytes(UTF8);
+        int length = HEADER_SIZE + 2 + serviceName.length + 2 + codecName.length + aPayload.length;
+        ByteBuffer result = ByteBuffer.allocate(4 + length);
+        result.putInt(length);
+        result.putLong(aCorrelationId);
+        result.put(TYPE_REQUEST);
+        result.putShort((short) serviceName.length);
+        result.put(serviceName);
+        result.putShort((short) codecName.length);
+        result.put(codecName);
+        result.put(aPayload);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Creates response frame
+     *
+     * @param aCorrelationId identifier of request
+     * @param aPayload encoded result of invocation
+     * @return frame ready to be sent
+     */
+    public static ByteBuffer createResponse(long aCorrelationId, byte[] aPayload) {
+        int length = HEADER_SIZE + aPayload.length;
+        ByteBuffer result = ByteBuffer.allocate(4 + length);
+        result.putInt(length);
+        result.putLong(aCorrelationId);
+        result.put(TYPE_RESPONSE);
+        result.put(aPayload);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Creates error frame of request which could not be processed
+     *
+     * @param aCorrelationId identifier of request
+     * @param aMessage description of error
+     * @return frame ready to be sent
+     */
+    public static ByteBuffer createError(long aCorrelationId, String aMessage) {
+        return createError(aCorrelationId, ERROR_FAILED, aMessage);
+    }
+
+    /**
+     * Creates error frame
+     *
+     * @param aCorrelationId identifier of request
+     * @param aErrorCode code of error
+     * @param aMessage description of error
+     * @return frame ready to be sent
+     */
+    public static ByteBuffer createError(long aCorrelationId, byte aErrorCode, String aMessage) {
+        byte[] message = String.valueOf(aMessage).getBytes(UTF8);
+        int length = HEADER_SIZE + 1 + message.length;
+        ByteBuffer result = ByteBuffer.allocate(4 + length);
+        result.putInt(length);
+        result.putLong(aCorrelationId);
+        result.put(TYPE_ERROR);
+        result.put(aErrorCode);
+        result.put(message);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Reads string written by <code>createRequest()</code>
+     *
+     * @param aFrame frame positioned at string
+     * @return string
+     * @throws IOException if frame is truncated
+     */
+    public static String readString(ByteBuffer aFrame)
+            throws IOException {
+        if (aFrame.remaining() < 2) {
+            throw new IOException("Frame is truncated");
+        }
+        int length = aFrame.getShort() & 0xFFFF;
+        if (aFrame.remaining() < length) {
+            throw new IOException("Frame is truncated");
+        }
+        String result = new String(aFrame.array(), aFrame.arrayOffset() + aFrame.position(), length, UTF8);
+        aFrame.position(aFrame.position() + length);
+        return result;
+    }
+
+    /**
+     * Reads rest of frame
+     *
+     * @param aFrame frame
+     * @return remaining bytes
+     */
+    public static byte[] readRemaining(ByteBuffer aFrame) {
+        byte[] result = new byte[aFrame.remaining()];
+        aFrame.get(result);
+        return result;
+    }
+
+    /**
+     * Reads error from rest of frame
+     *
+     * @param aFrame frame positioned at body of error
+     * @return exception describing error
+     */
+    public static NioServerException readError(ByteBuffer aFrame) {
+        byte code = aFrame.hasRemaining() ? aFrame.get() : ERROR_FAILED;
+        NioServerException result = new NioServerException(code, readMessage(aFrame));
+        return result;
+    }
+
+    /**
+     * Reads error message from rest of frame
+     *
+     * @param aFrame frame positioned at body of error
+     * @return message
+     */
+    public static String readMessage(ByteBuffer aFrame) {
+        String result = new String(readRemaining(aFrame), UTF8);
+        return result;
+    }
+}
@@ -0,0 +1,42 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.support;
+
+import java.io.IOException;
+
+/**
+ * Handler of requests received by <code>NioServer</code> for one service. Usually implemented
+ * by service exporter.
+ *
+ * @version 1.0
+ * @see org.softamis.cluster4spring.nio.NioServiceExporter
+ */
+
+public interface NioInvocationHandler {
+    /**
+     * Decodes invocation, performs it and returns encoded result
+     *
+     * @param aCodecName name of codec used to encode invocation
+     * @param aPayload encoded invocation
+     * @return result of invocation encoded by the same codec
+     * @throws IOException if invocation could not be decoded or result could not be encoded
+     * @throws ClassNotFoundException if class of encoded invocation could not be found
+     */
+    public byte[] invoke(String aCodecName, byte[] aPayload)
+            throws IOException, ClassNotFoundException;
+}
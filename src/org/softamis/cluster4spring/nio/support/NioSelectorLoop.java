@@ -0,0 +1,258 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.support;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Thread which serves selector used by NIO transport. All operations with selection keys
+ * are performed by this thread; other threads submit them as tasks via {@link #execute(Runnable)}.
+ * <p/>
+ * Selector serves both connections (reading and writing of frames) and server channels
+ * (accepting of new connections).
+ *
+ * @version 1.0
+ * @see NioConnection
+ */
+
+public class NioSelectorLoop
+        implements Runnable {
+    protected static final Log fLog = LogFactory.getLog(NioSelectorLoop.class);
+
+    /**
+     * Callback notified about connections accepted by server channel
+     */
+    public interface AcceptHandler {
+        /**
+         * Called by selector thread when new connection is accepted
+         *
+         * @param aChannel accepted channel (in non-blocking mode)
+         */
+        public void accepted(SocketChannel aChannel);
+    }
+
+    /**
+     * Selector served by loop
+     */
+    protected final Selector fSelector;
+
+    /**
+     * Tasks to be performed by selector thread
+     */
+    protected final ConcurrentLinkedQueue<Runnable> fTasks = new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * Thread which serves selector
+     */
+    protected final Thread fThread;
+
+    /**
+     * Indicates whether loop is stopped
+     */
+    protected volatile boolean fStopped = false;
+
+    /**
+     * Creates and starts loop
+     *
+     * @param aName name of thread
+     * @throws IOException if selector could not be opened
+     */
+    public NioSelectorLoop(String aName)
+            throws IOException {
+        fSelector = Selector.open();
+        fThread = new Thread(this, aName);
+        fThread.setDaemon(true);
+        fThread.start();
+    }
+
+    /**
+     * Submits task to be performed by selector thread
+     *
+     * @param aTask task
+     */
+    public void execute(Runnable aTask) {
+        fTasks.add(aTask);
+        if (Thread.currentThread() != fThread) {
+            fSelector.wakeup();
+        }
+    }
+
+    /**
+     * Registers server channel, so connections accepted by it are passed to given handler
+     *
+     * @param aChannel server channel
+     * @param aHandler handler of accepted connections
+     */
+    public void registerServer(final ServerSocketChannel aChannel, final AcceptHandler aHandler) {
+        execute(new Runnable() {
+            public void run() {
+                try {
+                    aChannel.configureBlocking(false);
+                    aChannel.register(fSelector, SelectionKey.OP_ACCEPT, aHandler);
+                } catch (IOException e) {
+                    if (fLog.isErrorEnabled()) {
+                        fLog.error("Unable to register server channel", e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Registers connection, so frames received by it are read by selector thread
+     *
+     * @param aConnection connection
+     */
+    public void registerConnection(final NioConnection aConnection) {
+        execute(new Runnable() {
+            public void run() {
+                try {
+                    SocketChannel channel = aConnection.getChannel();
+                    channel.configureBlocking(false);
+                    SelectionKey key = channel.register(fSelector, SelectionKey.OP_READ, aConnection);
+                    aConnection.registered(key);
+                } catch (IOException e) {
+                    aConnection.close(e);
+                }
+            }
+        });
+    }
+
+    public void run() {
+        while (!fStopped) {
+            try {
+                fSelector.select();
+                Iterator<SelectionKey> keys = fSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    processKey(key);
+                }
+                // tasks are performed after keys, since processing of keys may submit new ones
+                // (selector is not woken up by tasks submitted from selector thread)
+                runTasks();
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (fLog.isErrorEnabled()) {
+                    fLog.error(format("Selector failure in thread [{0}]", fThread.getName()), e);
+                }
+            }
+        }
+    }
+
+    protected void runTasks() {
+        Runnable task = fTasks.poll();
+        while (task != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                if (fLog.isErrorEnabled()) {
+                    fLog.error("Exception in selector task", e);
+                }
+            }
+            task = fTasks.poll();
+        }
+    }
+
+    /**
+     * Processes selected key. Unexpected failure while processing key closes its connection,
+     * but does not stop the loop, so other connections served by it are not affected.
+     *
+     * @param aKey selected key
+     */
+    protected void processKey(SelectionKey aKey) {
+        Object attachment = aKey.attachment();
+        try {
+            if (!aKey.isValid()) {
+                if (attachment instanceof NioConnection) {
+                    ((NioConnection) attachment).close(null);
+                }
+            } else if (attachment instanceof AcceptHandler) {
+                if (aKey.isAcceptable()) {
+                    accept(aKey, (AcceptHandler) attachment);
+                }
+            } else {
+                NioConnection connection = (NioConnection) attachment;
+                if (aKey.isReadable()) {
+                    connection.handleRead();
+                }
+                if (aKey.isValid() && aKey.isWritable()) {
+                    connection.handleWrite();
+                }
+            }
+        } catch (RuntimeException e) {
+            if (fLog.isErrorEnabled()) {
+                fLog.error(format("Unexpected failure of selected key in thread [{0}]", fThread.getName()), e);
+            }
+            if (attachment instanceof NioConnection) {
+                ((NioConnection) attachment).close(new IOException("Unexpected failure of connection", e));
+            }
+        }
+    }
+
+    protected void accept(SelectionKey aKey, AcceptHandler aHandler) {
+        try {
+            SocketChannel channel = ((ServerSocketChannel) aKey.channel()).accept();
+            while (channel != null) {
+                channel.configureBlocking(false);
+                aHandler.accepted(channel);
+                channel = ((ServerSocketChannel) aKey.channel()).accept();
+            }
+        } catch (IOException e) {
+            if (fLog.isWarnEnabled()) {
+                fLog.warn("Unable to accept connection", e);
+            }
+        }
+    }
+
+    /**
+     * Stops the loop and closes selector (channels registered in it are not closed)
+     */
+    public void stop() {
+        fStopped = true;
+        try {
+            fSelector.close();
+        } catch (IOException e) {
+            if (fLog.isDebugEnabled()) {
+                fLog.debug("Unable to close selector", e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether current thread is selector thread
+     *
+     * @return <code>true</code> if called by selector thread
+     */
+    public boolean inLoop() {
+        return Thread.currentThread() == fThread;
+    }
+}
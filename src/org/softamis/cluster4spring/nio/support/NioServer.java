@@ -0,0 +1,516 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Server of NIO transport. Connections are served by single selector thread which reads
+ * request frames and passes them to pool of worker threads; workers perform invocations
+ * and queue response frames. Since responses are matched by correlation identifiers,
+ * client may send many requests via the same connection without waiting for responses,
+ * so amount of connections and threads does not depend on amount of concurrent invocations.
+ * <p/>
+ * Several services could be served by one server. Server could be defined as bean and
+ * passed to exporters explicitly, or shared server could be obtained by port via
+ * {@link #obtainShared(int)}.
+ *
+ * @version 1.0
+ * @see org.softamis.cluster4spring.nio.NioServiceExporter
+ */
+
+public class NioServer
+        implements InitializingBean,
+        DisposableBean,
+        NioSelectorLoop.AcceptHandler,
+        NioConnection.Listener {
+    protected static final Log fLog = LogFactory.getLog(NioServer.class);
+
+    /**
+     * Default port of server
+     */
+    public static final int DEFAULT_PORT = 1299;
+
+    /**
+     * Default maximal size of frame
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Servers shared by port
+     */
+    protected static final Map<Integer, NioServer> fSharedServers = new HashMap<Integer, NioServer>();
+
+    protected int fPort = DEFAULT_PORT;
+    protected String fBindAddress = null;
+    protected int fWorkerThreads = 32;
+    protected int fWorkerQueueCapacity = 10000;
+    protected int fMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    protected String fUnixSocketPath = null;
+
+    /**
+     * Handlers of services by service names
+     */
+    protected final ConcurrentMap<String, NioInvocationHandler> fHandlers =
+            new ConcurrentHashMap<String, NioInvocationHandler>();
+
+    /**
+     * Connections currently open
+     */
+    protected final Set<NioConnection> fConnections =
+            Collections.newSetFromMap(new ConcurrentHashMap<NioConnection, Boolean>());
+
+    protected NioSelectorLoop fLoop = null;
+    protected ServerSocketChannel fServerChannel = null;
+
+    /**
+     * Channel bound to Unix domain socket, <code>null</code> if server accepts only TCP connections
+     */
+    protected ServerSocketChannel fUnixServerChannel = null;
+    protected ThreadPoolExecutor fWorkers = null;
+
+    /**
+     * Amount of exporters which use shared server
+     */
+    protected int fReferences = 0;
+
+    public NioServer() {
+    }
+
+    /**
+     * Returns server shared by all exporters which use given port, starting it if necessary.
+     * Every call should be followed by <code>releaseShared()</code>.
+     *
+     * @param aPort port of server
+     * @return started server
+     * @throws IOException if server could not be started
+     */
+    public static NioServer obtainShared(int aPort)
+            throws IOException {
+        NioServer result = obtainShared(aPort, null);
+        return result;
+    }
+
+    /**
+     * Returns server shared by all exporters which use given port, starting it if necessary.
+     * If server is started by this call, it also accepts connections via Unix domain socket
+     * with given path; if server is already started with another path, its own path is used
+     * and warning is logged. Every call should be followed by <code>releaseShared()</code>.
+     *
+     * @param aPort port of server
+     * @param aUnixSocketPath path of Unix domain socket, <code>null</code> if server should accept only TCP connections
+     * @return started server
+     * @throws IOException if server could not be started
+     */
+    public static NioServer obtainShared(int aPort, String aUnixSocketPath)
+            throws IOException {
+        synchronized (fSharedServers) {
+            NioServer result = fSharedServers.get(aPort);
+            if (result == null) {
+                result = new NioServer();
+                result.setPort(aPort);
+                result.setUnixSocketPath(aUnixSocketPath);
+                result.start();
+                fSharedServers.put(aPort, result);
+            } else if (aUnixSocketPath != null && !aUnixSocketPath.equals(result.getUnixSocketPath())) {
+                if (fLog.isWarnEnabled()) {
+                    fLog.warn(format("Shared NIO server on port [{0}] is already started with Unix domain socket [{1}], " +
+                            "socket [{2}] is not used", aPort, result.getUnixSocketPath(), aUnixSocketPath));
+                }
+            }
+            result.fReferences++;
+            return result;
+        }
+    }
+
+    /**
+     * Releases server obtained by <code>obtainShared()</code>. Server is stopped when it is
+     * released by all exporters.
+     */
+    public void releaseShared() {
+        synchronized (fSharedServers) {
+            fReferences--;
+            if (fReferences <= 0) {
+                fSharedServers.remove(fPort);
+                stop();
+            }
+        }
+    }
+
+    public void afterPropertiesSet()
+            throws IOException {
+        start();
+    }
+
+    public void destroy() {
+        stop();
+    }
+
+    /**
+     * Starts server
+     *
+     * @throws IOException if server could not be bound to port
+     */
+    public synchronized void start()
+            throws IOException {
+        if (fLoop != null) {
+            return;
+        }
+        InetSocketAddress address = fBindAddress == null ? new InetSocketAddress(fPort) :
+                new InetSocketAddress(fBindAddress, fPort);
+        fServerChannel = ServerSocketChannel.open();
+        fServerChannel.socket().setReuseAddress(true);
+        fServerChannel.socket().bind(address);
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cluster4spring-nio-worker-" + fPort + "-");
+        threadFactory.setDaemon(true);
+        fWorkers = new ThreadPoolExecutor(fWorkerThreads, fWorkerThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(fWorkerQueueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        fWorkers.allowCoreThreadTimeOut(true);
+
+        fLoop = new NioSelectorLoop("cluster4spring-nio-server-" + fPort);
+        fLoop.registerServer(fServerChannel, this);
+        if (fLog.isInfoEnabled()) {
+            fLog.info(format("NIO server started. Address: [{0}]", address));
+        }
+        if (fUnixSocketPath != null) {
+            startUnixSocket();
+        }
+    }
+
+    /**
+     * Binds server to Unix domain socket. If socket could not be used, server accepts only
+     * TCP connections (clients fall back to TCP as well).
+     */
+    protected void startUnixSocket() {
+        if (!UnixDomainSockets.isSupported()) {
+            if (fLog.isWarnEnabled()) {
+                fLog.warn(format("Unix domain sockets are not supported by JVM, socket [{0}] is not used", fUnixSocketPath));
+            }
+        } else {
+            try {
+                fUnixServerChannel = UnixDomainSockets.openServerChannel(fUnixSocketPath);
+                fLoop.registerServer(fUnixServerChannel, this);
+                if (fLog.isInfoEnabled()) {
+                    fLog.info(format("NIO server accepts connections via Unix domain socket [{0}]", fUnixSocketPath));
+                }
+            } catch (IOException e) {
+                if (fLog.isWarnEnabled()) {
+                    fLog.warn(format("Unable to bind NIO server to Unix domain socket [{0}]", fUnixSocketPath), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops server and closes all connections
+     */
+    public synchronized void stop() {
+        if (fLoop == null) {
+            return;
+        }
+        fLoop.stop();
+        fLoop = null;
+        try {
+            fServerChannel.close();
+        } catch (IOException e) {
+            if (fLog.isDebugEnabled()) {
+                fLog.debug("Unable to close server channel", e);
+            }
+        }
+        if (fUnixServerChannel != null) {
+            try {
+                fUnixServerChannel.close();
+            } catch (IOException e) {
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug("Unable to close Unix domain socket channel", e);
+                }
+            }
+            fUnixServerChannel = null;
+            new File(fUnixSocketPath).delete();
+        }
+        for (NioConnection connection : fConnections) {
+            connection.close(null);
+        }
+        fWorkers.shutdown();
+        if (fLog.isInfoEnabled()) {
+            fLog.info(format("NIO server stopped. Port: [{0}]", fPort));
+        }
+    }
+
+    /**
+     * Registers handler of service
+     *
+     * @param aServiceName name of service
+     * @param aHandler handler of requests to service
+     */
+    public void registerHandler(String aServiceName, NioInvocationHandler aHandler) {
+        NioInvocationHandler existing = fHandlers.putIfAbsent(aServiceName, aHandler);
+        if (existing != null && existing != aHandler) {
+            throw new IllegalStateException(format("Service [{0}] is already registered on port [{1}]",
+                    aServiceName, fPort));
+        }
+    }
+
+    /**
+     * Unregisters handler of service
+     *
+     * @param aServiceName name of service
+     */
+    public void unregisterHandler(String aServiceName) {
+        fHandlers.remove(aServiceName);
+    }
+
+    public void accepted(SocketChannel aChannel) {
+        try {
+            if (aChannel.getLocalAddress() instanceof InetSocketAddress) {
+                aChannel.socket().setTcpNoDelay(true);
+            }
+        } catch (IOException e) {
+            if (fLog.isDebugEnabled()) {
+                fLog.debug("Unable to set TCP_NODELAY", e);
+            }
+        }
+        NioConnection connection = new NioConnection(aChannel, fLoop, this, fMaxFrameSize);
+        fConnections.add(connection);
+        fLoop.registerConnection(connection);
+    }
+
+    public void frameReceived(NioConnection aConnection, ByteBuffer aFrame) {
+        long correlationId = aFrame.getLong();
+        byte type = aFrame.get();
+        try {
+            if (type != NioFrames.TYPE_REQUEST) {
+                throw new IOException("Unexpected frame type: " + type);
+            }
+            String serviceName = NioFrames.readString(aFrame);
+            String codecName = NioFrames.readString(aFrame);
+            NioInvocationHandler handler = fHandlers.get(serviceName);
+            if (handler == null) {
+                sendError(aConnection, correlationId, NioFrames.ERROR_NOT_EXPORTED,
+                        format("Service [{0}] is not exported on port [{1}]", serviceName, fPort));
+            } else {
+                byte[] payload = NioFrames.readRemaining(aFrame);
+                fWorkers.execute(createRequestTask(aConnection, correlationId, handler, codecName, payload));
+            }
+        } catch (RejectedExecutionException e) {
+            sendError(aConnection, correlationId, NioFrames.ERROR_OVERLOADED,
+                    format("Server on port [{0}] is overloaded", fPort));
+        } catch (IOException e) {
+            aConnection.close(e);
+        }
+    }
+
+    /**
+     * Creates task which performs request in worker thread and sends response
+     *
+     * @param aConnection connection which received request
+     * @param aCorrelationId identifier of request
+     * @param aHandler handler of service
+     * @param aCodecName name of codec used to encode invocation
+     * @param aPayload encoded invocation
+     * @return task
+     */
+    protected Runnable createRequestTask(final NioConnection aConnection, final long aCorrelationId,
+                                         final NioInvocationHandler aHandler, final String aCodecName,
+                                         final byte[] aPayload) {
+        return new Runnable() {
+            public void run() {
+                ByteBuffer response = null;
+                try {
+                    response = NioFrames.createResponse(aCorrelationId, aHandler.invoke(aCodecName, aPayload));
+                } catch (Throwable e) {
+                    // any failure should be reported, otherwise client waits for response forever
+                    if (fLog.isWarnEnabled()) {
+                        fLog.warn(format("Unable to process request from [{0}]", aConnection.getRemoteAddress()), e);
+                    }
+                    response = NioFrames.createError(aCorrelationId, e.toString());
+                }
+                try {
+                    aConnection.send(response);
+                } catch (IOException e) {
+                    if (fLog.isDebugEnabled()) {
+                        fLog.debug("Unable to send response, connection is closed", e);
+                    }
+                }
+            }
+        };
+    }
+
+    protected void sendError(NioConnection aConnection, long aCorrelationId, byte aErrorCode, String aMessage) {
+        try {
+            aConnection.send(NioFrames.createError(aCorrelationId, aErrorCode, aMessage));
+        } catch (IOException e) {
+            if (fLog.isDebugEnabled()) {
+                fLog.debug("Unable to send error, connection is closed", e);
+            }
+        }
+    }
+
+    public void connectionClosed(NioConnection aConnection, IOException aCause) {
+        fConnections.remove(aConnection);
+        if (aCause != null && fLog.isDebugEnabled()) {
+            fLog.debug(format("Connection from [{0}] closed", aConnection.getRemoteAddress()), aCause);
+        }
+    }
+
+    /**
+     * Returns amount of open connections
+     *
+     * @return amount of connections
+     */
+    public int getConnectionCount() {
+        return fConnections.size();
+    }
+
+    /**
+     * Returns amount of requests waiting for free worker
+     *
+     * @return amount of requests
+     */
+    public int getQueuedRequests() {
+        ThreadPoolExecutor workers = fWorkers;
+        return workers == null ? 0 : workers.getQueue().size();
+    }
+
+    public int getPort() {
+        return fPort;
+    }
+
+    public String getUnixSocketPath() {
+        return fUnixSocketPath;
+    }
+
+    /**
+     * Sets path of Unix domain socket server accepts connections via (in addition to TCP).
+     * Clients located on the same host use socket instead of TCP loopback. Socket is
+     * used only if JVM supports Unix domain socket channels (Java 16 or later).
+     * <p/>
+     * Default is <code>null</code> (only TCP connections are accepted)
+     *
+     * @param aUnixSocketPath path of socket file
+     */
+    public void setUnixSocketPath(String aUnixSocketPath) {
+        fUnixSocketPath = aUnixSocketPath;
+    }
+
+    /**
+     * Checks whether server accepts connections via Unix domain socket
+     *
+     * @return <code>true</code> if server is bound to Unix domain socket
+     */
+    public boolean isUnixSocketBound() {
+        return fUnixServerChannel != null;
+    }
+
+    /**
+     * Sets port server listens on
+     * <p/>
+     * Default is <code>1299</code>
+     *
+     * @param aPort port
+     */
+    public void setPort(int aPort) {
+        fPort = aPort;
+    }
+
+    public String getBindAddress() {
+        return fBindAddress;
+    }
+
+    /**
+     * Sets address server is bound to
+     * <p/>
+     * Default is <code>null</code> (all local addresses)
+     *
+     * @param aBindAddress address
+     */
+    public void setBindAddress(String aBindAddress) {
+        fBindAddress = aBindAddress;
+    }
+
+    public int getWorkerThreads() {
+        return fWorkerThreads;
+    }
+
+    /**
+     * Sets amount of threads which perform invocations
+     * <p/>
+     * Default is <code>32</code>
+     *
+     * @param aWorkerThreads amount of threads
+     */
+    public void setWorkerThreads(int aWorkerThreads) {
+        fWorkerThreads = aWorkerThreads;
+    }
+
+    public int getWorkerQueueCapacity() {
+        return fWorkerQueueCapacity;
+    }
+
+    /**
+     * Sets maximal amount of requests waiting for free worker. If queue is full, request is
+     * rejected with error.
+     * <p/>
+     * Default is <code>10000</code>
+     *
+     * @param aWorkerQueueCapacity amount of requests
+     */
+    public void setWorkerQueueCapacity(int aWorkerQueueCapacity) {
+        fWorkerQueueCapacity = aWorkerQueueCapacity;
+    }
+
+    public int getMaxFrameSize() {
+        return fMaxFrameSize;
+    }
+
+    /**
+     * Sets maximal size of request frame in bytes
+     * <p/>
+     * Default is 64 MB
+     *
+     * @param aMaxFrameSize size in bytes
+     */
+    public void setMaxFrameSize(int aMaxFrameSize) {
+        fMaxFrameSize = aMaxFrameSize;
+    }
+}
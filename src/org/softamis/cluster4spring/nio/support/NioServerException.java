@@ -0,0 +1,69 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.support;
+
+import java.io.IOException;
+
+/**
+ * Thrown on client if server reported that it was unable to process request (for example,
+ * service or codec is unknown).
+ *
+ * @version 1.0
+ * @see NioFrames#createError(long, byte, String)
+ */
+
+public class NioServerException
+        extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Code of error reported by server
+     */
+    protected final byte fErrorCode;
+
+    public NioServerException(String aMessage) {
+        this(NioFrames.ERROR_FAILED, aMessage);
+    }
+
+    public NioServerException(byte aErrorCode, String aMessage) {
+        super(aMessage);
+        fErrorCode = aErrorCode;
+    }
+
+    public byte getErrorCode() {
+        return fErrorCode;
+    }
+
+    /**
+     * Checks whether request was rejected since server is overloaded
+     *
+     * @return <code>true</code> if request was not performed due to overload
+     */
+    public boolean isOverloaded() {
+        return fErrorCode == NioFrames.ERROR_OVERLOADED;
+    }
+
+    /**
+     * Checks whether request was rejected since service is not exported by server
+     *
+     * @return <code>true</code> if service is not known to server
+     */
+    public boolean isServiceNotExported() {
+        return fErrorCode == NioFrames.ERROR_NOT_EXPORTED;
+    }
+}
@@ -0,0 +1,190 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Support of Unix domain sockets used by NIO transport for services located on the same
+ * host. Unix domain socket channels are available since Java 16, so they are accessed via
+ * reflection; on older JVM {@link #isSupported()} returns <code>false</code> and transport
+ * uses TCP.
+ *
+ * @version 1.0
+ * @see NioServer#setUnixSocketPath(String)
+ */
+
+public class UnixDomainSockets {
+    protected static final Log fLog = LogFactory.getLog(UnixDomainSockets.class);
+
+    protected static final ProtocolFamily fUnixFamily;
+    protected static final Method fCreateAddress;
+    protected static final Method fOpenServerChannel;
+    protected static final Method fOpenChannel;
+
+    static {
+        ProtocolFamily family = null;
+        Method createAddress = null;
+        Method openServerChannel = null;
+        Method openChannel = null;
+        try {
+            family = Enum.valueOf(StandardProtocolFamily.class, "UNIX");
+            Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+            createAddress = addressClass.getMethod("of", String.class);
+            openServerChannel = ServerSocketChannel.class.getMethod("open", ProtocolFamily.class);
+            openChannel = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+        } catch (Exception e) {
+            family = null;
+            if (fLog.isDebugEnabled()) {
+                fLog.debug("Unix domain sockets are not supported by JVM");
+            }
+        }
+        fUnixFamily = family;
+        fCreateAddress = createAddress;
+        fOpenServerChannel = openServerChannel;
+        fOpenChannel = openChannel;
+    }
+
+    protected UnixDomainSockets() {
+    }
+
+    /**
+     * Checks whether Unix domain sockets are supported by JVM
+     *
+     * @return <code>true</code> if sockets are supported
+     */
+    public static boolean isSupported() {
+        return fUnixFamily != null;
+    }
+
+    /**
+     * Creates address of Unix domain socket
+     *
+     * @param aPath path of socket file
+     * @return address
+     * @throws IOException if sockets are not supported
+     */
+    public static SocketAddress createAddress(String aPath)
+            throws IOException {
+        SocketAddress result = (SocketAddress) invoke(fCreateAddress, aPath);
+        return result;
+    }
+
+    /**
+     * Opens server channel bound to given path. Stale socket file left by previous process
+     * is removed; file is considered stale only if connection to it is refused, so socket
+     * of another live process is never removed.
+     *
+     * @param aPath path of socket file
+     * @return bound channel
+     * @throws IOException if channel could not be opened or bound
+     */
+    public static ServerSocketChannel openServerChannel(String aPath)
+            throws IOException {
+        SocketAddress address = createAddress(aPath);
+        File file = new File(aPath);
+        if (file.exists() && isStale(address) && !file.delete()) {
+            throw new IOException("Unable to remove stale socket file " + aPath);
+        }
+        ServerSocketChannel result = (ServerSocketChannel) invoke(fOpenServerChannel, fUnixFamily);
+        try {
+            result.bind(address);
+        } catch (IOException e) {
+            result.close();
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether existing socket file is not used by any process
+     *
+     * @param aAddress address of socket
+     * @return <code>true</code> if connection to socket is refused
+     * @throws IOException if socket is used by another process or could not be checked
+     */
+    protected static boolean isStale(SocketAddress aAddress)
+            throws IOException {
+        boolean result = false;
+        try {
+            openChannel(aAddress).close();
+        } catch (ConnectException e) {
+            result = true;
+        }
+        if (!result) {
+            throw new BindException("Socket " + aAddress + " is used by another process");
+        }
+        return result;
+    }
+
+    /**
+     * Opens channel connected to given path
+     *
+     * @param aAddress address of socket created by <code>createAddress()</code>
+     * @return connected channel (in blocking mode)
+     * @throws IOException if channel could not be connected
+     */
+    public static SocketChannel openChannel(SocketAddress aAddress)
+            throws IOException {
+        SocketChannel result = (SocketChannel) invoke(fOpenChannel, fUnixFamily);
+        try {
+            result.connect(aAddress);
+        } catch (IOException e) {
+            result.close();
+            throw e;
+        }
+        return result;
+    }
+
+    protected static Object invoke(Method aMethod, Object aArgument)
+            throws IOException {
+        if (!isSupported()) {
+            throw new IOException("Unix domain sockets are not supported by JVM");
+        }
+        Object result = null;
+        try {
+            result = aMethod.invoke(null, aArgument);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getTargetException();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            IOException exception = new IOException("Unable to use Unix domain socket");
+            exception.initCause(cause);
+            throw exception;
+        } catch (IllegalAccessException e) {
+            IOException exception = new IOException("Unable to use Unix domain socket");
+            exception.initCause(e);
+            throw exception;
+        }
+        return result;
+    }
+}
@@ -18,6 +18,11 @@
 package org.softamis.cluster4spring.rmi;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -27,14 +32,18 @@ import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.BeansException;
 import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.util.ClassUtils;
 
 import org.softamis.cluster4spring.rmi.support.RmiClientInterceptor;
 import org.softamis.cluster4spring.rmi.support.RmiEndpoint;
 import org.softamis.cluster4spring.support.ServiceMoniker;
 import org.softamis.cluster4spring.support.AdvicesListProvidingUtils;
+import org.softamis.cluster4spring.support.AsyncInvocationInterceptor;
 import org.softamis.cluster4spring.support.ClientRemoteInvocationTraceInterceptor;
 import org.softamis.cluster4spring.support.EndpointFactory;
+import org.softamis.cluster4spring.support.SingleFlightInterceptor;
+import org.softamis.cluster4spring.support.cache.NearCacheInterceptor;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.aop.Advice;
@@ -70,6 +79,39 @@ public abstract class AbstractRmiProxyFactoryBean<SI extends ServiceMoniker>
      * Interceptor that should be registered to trace remote calls
      */
     protected MethodInterceptor fRemoteInvocationTraceInterceptor = null;
+    /**
+     * Interceptor used to cache results of remote calls on client side (optional)
+     */
+    protected NearCacheInterceptor fNearCacheInterceptor = null;
+    /**
+     * Interceptor used to deduplicate identical concurrent remote calls (optional)
+     */
+    protected SingleFlightInterceptor fSingleFlightInterceptor = null;
+    /**
+     * Interface of asynchronous view of the service (optional)
+     */
+    protected Class fAsyncServiceInterface = null;
+    /**
+     * Proxy that implements asynchronous interface of the service
+     */
+    protected Object fAsyncServiceProxy = null;
+    /**
+     * Executor used to perform asynchronous invocations. If not specified, bounded
+     * thread pool is created.
+     */
+    protected Executor fAsyncExecutor = null;
+    /**
+     * Executor created by this factory (if any) that should be shut down on context close
+     */
+    protected ExecutorService fOwnAsyncExecutor = null;
+    /**
+     * Amount of threads in default executor used for asynchronous invocations
+     */
+    protected int fAsyncThreadPoolSize = 10;
+    /**
+     * Capacity of the queue of default executor used for asynchronous invocations
+     */
+    protected int fAsyncQueueCapacity = 1000;
 
     public AbstractRmiProxyFactoryBean() {
     }
@@ -109,6 +151,16 @@ public abstract class AbstractRmiProxyFactoryBean<SI extends ServiceMoniker>
         // check and add advices specified for proxy
         addSpecifiedAdvices(proxyFactory);
 
+        // if near cache is specified, it should answer before remote call is traced or performed
+        if (fNearCacheInterceptor != null) {
+            proxyFactory.addAdvice(fNearCacheInterceptor);
+        }
+
+        // identical invocations which are missed by cache are sent only once
+        if (fSingleFlightInterceptor != null) {
+            proxyFactory.addAdvice(fSingleFlightInterceptor);
+        }
+
         // if necessary, we register trace interceptor
         if (fRegisterTraceInterceptor) {
             MethodInterceptor traceInterceptor = obtainRemoteInvocationTraceInterceptor();
@@ -119,6 +171,84 @@ public abstract class AbstractRmiProxyFactoryBean<SI extends ServiceMoniker>
         proxyFactory.addInterface(serviceInterface);
         proxyFactory.addAdvice(this);
         fServiceProxy = proxyFactory.getProxy();
+
+        // if asynchronous view is requested, we create it on top of synchronous proxy
+        if (fAsyncServiceInterface != null) {
+            fAsyncServiceProxy = createAsyncServiceProxy(serviceInterface);
+        }
+    }
+
+    /**
+     * Creates proxy that implements asynchronous interface of the service. Invocations
+     * of that proxy are performed by executor via synchronous proxy, so endpoint selection,
+     * failover and retry are the same as for synchronous calls.
+     *
+     * @param aServiceInterface interface of the service
+     * @return proxy for asynchronous interface
+     * @see #setAsyncServiceInterface(Class)
+     * @see org.softamis.cluster4spring.support.AsyncInvocationInterceptor
+     */
+    protected Object createAsyncServiceProxy(Class aServiceInterface) {
+        Executor executor = obtainAsyncExecutor();
+        AsyncInvocationInterceptor interceptor = new AsyncInvocationInterceptor(fServiceProxy, aServiceInterface, executor);
+        interceptor.checkAsyncInterface(fAsyncServiceInterface);
+
+        ProxyFactory proxyFactory = new ProxyFactory();
+        proxyFactory.addInterface(fAsyncServiceInterface);
+        proxyFactory.addAdvice(interceptor);
+        Object result = proxyFactory.getProxy();
+        return result;
+    }
+
+    /**
+     * Returns executor used for asynchronous invocations. If executor is specified
+     * explicitely, returns it. Otherwise, creates default one.
+     *
+     * @return executor used for asynchronous invocations
+     * @see #createDefaultAsyncExecutor()
+     */
+    protected Executor obtainAsyncExecutor() {
+        Executor result = null;
+        if (fAsyncExecutor == null) {
+            fOwnAsyncExecutor = createDefaultAsyncExecutor();
+            result = fOwnAsyncExecutor;
+        } else {
+            result = fAsyncExecutor;
+        }
+        return result;
+    }
+
+    /**
+     * Creates default executor for asynchronous invocations. Both amount of threads
+     * and size of queue are bounded, so if too many invocations are pending, new ones
+     * are completed with <code>RemoteAccessException</code> instead of accumulating
+     * in memory.
+     *
+     * @return created executor
+     * @see #setAsyncThreadPoolSize(int)
+     * @see #setAsyncQueueCapacity(int)
+     */
+    protected ExecutorService createDefaultAsyncExecutor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+                (fBeanName == null ? getProxyName() : fBeanName) + "-async-");
+        threadFactory.setDaemon(true);
+        ThreadPoolExecutor result = new ThreadPoolExecutor(fAsyncThreadPoolSize, fAsyncThreadPoolSize, 60L,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(fAsyncQueueCapacity), threadFactory,
+                new ThreadPoolExecutor.AbortPolicy());
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
+    /**
+     * Shuts down executor used for asynchronous invocations if it was created by this factory.
+     */
+    @Override
+    protected void onContextClosed() {
+        super.onContextClosed();
+        if (fOwnAsyncExecutor != null) {
+            fOwnAsyncExecutor.shutdown();
+            fOwnAsyncExecutor = null;
+        }
     }
 
     /**
@@ -196,6 +326,16 @@ public abstract class AbstractRmiProxyFactoryBean<SI extends ServiceMoniker>
         return getServiceInterface();
     }
 
+    /**
+     * Returns proxy that implements asynchronous interface of the service.
+     *
+     * @return asynchronous proxy or <code>null</code> if asynchronous interface is not specified
+     * @see #setAsyncServiceInterface(Class)
+     */
+    public Object getAsyncObject() {
+        return fAsyncServiceProxy;
+    }
+
     /**
      * Is the bean managed by this factory a singleton or a prototype?
      * That is, will getObject() always return the same object?
@@ -270,6 +410,123 @@ public abstract class AbstractRmiProxyFactoryBean<SI extends ServiceMoniker>
         fRemoteInvocationTraceInterceptor = aRemoteInvocationTraceInterceptor;
     }
 
+    /**
+     * Returns interceptor used to cache results of remote calls on client side
+     *
+     * @return near cache interceptor
+     */
+    public NearCacheInterceptor getNearCacheInterceptor() {
+        return fNearCacheInterceptor;
+    }
+
+    /**
+     * Sets interceptor used to cache results of remote calls on client side. Only
+     * results of methods marked by <code>NearCacheable</code> or configured in
+     * interceptor are cached.
+     *
+     * @param aNearCacheInterceptor near cache interceptor
+     * @see org.softamis.cluster4spring.support.cache.NearCacheable
+     */
+    public void setNearCacheInterceptor(NearCacheInterceptor aNearCacheInterceptor) {
+        fNearCacheInterceptor = aNearCacheInterceptor;
+    }
+
+    /**
+     * Returns interceptor used to deduplicate identical concurrent remote calls
+     *
+     * @return single flight interceptor
+     */
+    public SingleFlightInterceptor getSingleFlightInterceptor() {
+        return fSingleFlightInterceptor;
+    }
+
+    /**
+     * Sets interceptor used to deduplicate identical concurrent remote calls
+     *
+     * @param aSingleFlightInterceptor single flight interceptor
+     */
+    public void setSingleFlightInterceptor(SingleFlightInterceptor aSingleFlightInterceptor) {
+        fSingleFlightInterceptor = aSingleFlightInterceptor;
+    }
+
+    /**
+     * Returns interface of asynchronous view of the service
+     *
+     * @return interface of asynchronous view of the service
+     */
+    public Class getAsyncServiceInterface() {
+        return fAsyncServiceInterface;
+    }
+
+    /**
+     * Sets interface of asynchronous view of the service. Every method of this interface
+     * should return <code>CompletableFuture</code> and correspond to the method of service
+     * interface with the same name (optionally, with <code>Async</code> suffix) and parameters.
+     * Proxy that implements this interface is available via {@link #getAsyncObject()}.
+     *
+     * @param aAsyncServiceInterface interface of asynchronous view of the service
+     * @see org.softamis.cluster4spring.support.AsyncInvocationInterceptor
+     */
+    public void setAsyncServiceInterface(Class aAsyncServiceInterface) {
+        fAsyncServiceInterface = aAsyncServiceInterface;
+    }
+
+    /**
+     * Returns executor used to perform asynchronous invocations
+     *
+     * @return executor used to perform asynchronous invocations
+     */
+    public Executor getAsyncExecutor() {
+        return fAsyncExecutor;
+    }
+
+    /**
+     * Sets executor used to perform asynchronous invocations. Any executor could be used
+     * there, including one that starts virtual thread per task on JVM which supports them.
+     * If executor is specified, it is not shut down by this factory.
+     *
+     * @param aAsyncExecutor executor used to perform asynchronous invocations
+     */
+    public void setAsyncExecutor(Executor aAsyncExecutor) {
+        fAsyncExecutor = aAsyncExecutor;
+    }
+
+    /**
+     * Returns amount of threads in default executor used for asynchronous invocations
+     *
+     * @return amount of threads
+     */
+    public int getAsyncThreadPoolSize() {
+        return fAsyncThreadPoolSize;
+    }
+
+    /**
+     * Sets amount of threads in default executor used for asynchronous invocations
+     *
+     * @param aAsyncThreadPoolSize amount of threads
+     */
+    public void setAsyncThreadPoolSize(int aAsyncThreadPoolSize) {
+        fAsyncThreadPoolSize = aAsyncThreadPoolSize;
+    }
+
+    /**
+     * Returns capacity of the queue of default executor used for asynchronous invocations
+     *
+     * @return queue capacity
+     */
+    public int getAsyncQueueCapacity() {
+        return fAsyncQueueCapacity;
+    }
+
+    /**
+     * Sets capacity of the queue of default executor used for asynchronous invocations
+     *
+     * @param aAsyncQueueCapacity queue capacity
+     */
+    public void setAsyncQueueCapacity(int aAsyncQueueCapacity) {
+        fAsyncQueueCapacity = aAsyncQueueCapacity;
+    }
+
     @Override
     public EndpointFactory<RmiEndpoint<SI>, SI> getEndpointFactory() {
         return super.getEndpointFactory();
@@ -17,11 +17,14 @@
 
 package org.softamis.cluster4spring.rmi;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.rmi.ConnectException;
 import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.RMIClientSocketFactory;
@@ -29,6 +32,7 @@ import java.rmi.server.RMIServerSocketFactory;
 import java.rmi.server.UnicastRemoteObject;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -42,10 +46,26 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.remoting.rmi.RmiInvocationHandler;
 import org.springframework.remoting.support.RemoteInvocation;
 import org.springframework.remoting.support.RemoteInvocationBasedExporter;
+import org.springframework.remoting.support.RemoteInvocationResult;
 
 import org.softamis.cluster4spring.AutoDiscoveredServiceExporter;
+import org.softamis.cluster4spring.rmi.stream.RemoteStreams;
+import org.softamis.cluster4spring.rmi.support.LocalServiceRegistry;
+import org.softamis.cluster4spring.rmi.support.RmiInvocationExecutor;
 import org.softamis.cluster4spring.support.AdvicesListProvidingUtils;
+import org.softamis.cluster4spring.support.BatchRemoteInvocation;
+import org.softamis.cluster4spring.support.PriorityRemoteInvocationFactory;
 import org.softamis.cluster4spring.support.ServerRemoteInvocationTraceInterceptor;
+import org.softamis.cluster4spring.support.codec.CompactCodec;
+import org.softamis.cluster4spring.support.codec.CompressingCodec;
+import org.softamis.cluster4spring.support.codec.EncodedInvocationResult;
+import org.softamis.cluster4spring.support.codec.EncodedRemoteInvocation;
+import org.softamis.cluster4spring.support.codec.InvocationCodec;
+import org.softamis.cluster4spring.support.codec.JavaSerializationCodec;
+import org.softamis.cluster4spring.support.compact.CompactInvocationDispatcher;
+import org.softamis.cluster4spring.support.compact.CompactRemoteInvocation;
+import org.softamis.cluster4spring.support.compact.NegotiatedSession;
+import org.softamis.cluster4spring.support.compact.NegotiationRemoteInvocation;
 
 import org.aopalliance.aop.Advice;
 import org.aopalliance.intercept.MethodInterceptor;
@@ -73,11 +93,27 @@ public abstract class AbstractRmiServiceExporter extends
     protected MethodInterceptor fRemoteInvocationTraceInterceptor = null;
     protected RMIServerSocketFactory fRegistryServerSocketFactory = null;
     protected int fServicePort = 0; // anonymous port
+    protected int fStreamChunkSize = RemoteStreams.DEFAULT_CHUNK_SIZE;
+    protected int fStreamCredits = RemoteStreams.DEFAULT_CREDITS;
+    protected Map<String, InvocationCodec> fCodecs = createDefaultCodecs();
+    protected long fCompactSessionTimeout = 3600000;
+    protected CompactInvocationDispatcher fCompactDispatcher = null;
     protected int fRegistryPort = Registry.REGISTRY_PORT;
     protected Registry fRegistry = null;
     protected String fRegistryHost = null;
     protected Remote fExportedObject = null;
 
+    /**
+     * Proxy of service invoked by exported RMI invoker, <code>null</code> for conventional RMI service
+     */
+    protected volatile Object fLocalTarget = null;
+
+    /**
+     * Pool which performs invocations received by RMI invoker, <code>null</code> if invocations
+     * are performed by RMI connection threads
+     */
+    protected RmiInvocationExecutor fInvocationExecutor = null;
+
     protected boolean registerTraceInterceptor = false;
 
     public void setBeanFactory(BeanFactory aBeanFactory) throws BeansException {
@@ -483,6 +519,54 @@ public abstract class AbstractRmiServiceExporter extends
         fServicePort = aServicePort;
     }
 
+    /**
+     * If result of invocation is iterator or stream, exports it as remote chunk source,
+     * so client pulls elements chunk by chunk instead of receiving whole result at once.
+     * Chunk source is exported on the same port and with the same socket factories as
+     * the service.
+     *
+     * @param aResult result of invocation
+     * @return handle of chunk source or original result if it should not be streamed
+     * @throws RemoteException if chunk source could not be exported
+     * @see RemoteStreams
+     */
+    protected Object exportStreamResult(Object aResult) throws RemoteException {
+        Object result = aResult;
+        if (RemoteStreams.isStreamable(aResult)) {
+            result = RemoteStreams.export(aResult, fStreamChunkSize, fServicePort,
+                    fClientSocketFactory, fServerSocketFactory);
+        }
+        return result;
+    }
+
+    public int getStreamChunkSize() {
+        return fStreamChunkSize;
+    }
+
+    /**
+     * Set the maximal amount of elements in one chunk of streamed result
+     * (iterator or stream returned by service method).
+     * <p>
+     * Default is 1000.
+     */
+    public void setStreamChunkSize(int aStreamChunkSize) {
+        fStreamChunkSize = aStreamChunkSize;
+    }
+
+    public int getStreamCredits() {
+        return fStreamCredits;
+    }
+
+    /**
+     * Set the amount of chunks of streamed argument (iterator or stream passed
+     * by client) fetched ahead of service method.
+     * <p>
+     * Default is 2.
+     */
+    public void setStreamCredits(int aStreamCredits) {
+        fStreamCredits = aStreamCredits;
+    }
+
     /**
      * Set the port of the fRegistry for the exported RMI service, i.e.
      * <code>rmi://host:PORT/name</code>
@@ -558,6 +642,15 @@ public abstract class AbstractRmiServiceExporter extends
         return fRegistry;
     }
 
+    /**
+     * Returns object exported via RMI
+     *
+     * @return exported object or <code>null</code> if service is not exported yet
+     */
+    public Remote getExportedObject() {
+        return fExportedObject;
+    }
+
     /**
      * Returns host where RMI Registry is located
      *
@@ -569,14 +662,21 @@ public abstract class AbstractRmiServiceExporter extends
 
     /**
      * Unbind the RMI service from the fRegistry on bean factory shutdown.
+     * Pool which performs invocations is stopped as well, and local endpoints stop accepting invocations.
      */
     public void destroy() throws RemoteException {
+        LocalServiceRegistry.unregister(fRegistryPort, fServiceName, this);
+        // local endpoints which are still referenced by clients fail with ConnectException from now
+        fLocalTarget = null;
         String serviceName = fServiceName;
         Registry registry = fRegistry;
         int registryPort = fRegistryPort;
         Remote exportedObject = fExportedObject;
         unexportServiceObject(registry, serviceName, registryPort,
                 exportedObject);
+        if (fInvocationExecutor != null) {
+            fInvocationExecutor.destroy();
+        }
     }
 
     protected void exportObject() throws RemoteException {
@@ -608,6 +708,9 @@ public abstract class AbstractRmiServiceExporter extends
             unexportObjectSilently(fExportedObject);
             throw ex;
         }
+        if (fLocalTarget != null) {
+            LocalServiceRegistry.register(fRegistryPort, fServiceName, this);
+        }
     }
 
     protected Remote getObjectToExport() {
@@ -627,6 +730,10 @@ public abstract class AbstractRmiServiceExporter extends
                         "RMI service [{0}] is an RMI invoker", service));
             }
             Object proxyForService = getProxyForService();
+            fLocalTarget = proxyForService;
+            if (fInvocationExecutor != null && fInvocationExecutor.getName() == null) {
+                fInvocationExecutor.setName("cluster4spring-rmi-" + fServiceName);
+            }
             result = new RmiInvocationWrapper(proxyForService, this);
         }
         return result;
@@ -662,15 +769,322 @@ public abstract class AbstractRmiServiceExporter extends
 
         }
 
-        public Object invoke(RemoteInvocation aInvocation)
+        /**
+         * Performs invocation received via RMI. If exporter has invocation executor,
+         * invocation is performed by its pool (according to priority specified by client),
+         * otherwise by the calling RMI connection thread.
+         *
+         * @see AbstractRmiServiceExporter#setInvocationExecutor(RmiInvocationExecutor)
+         */
+        public Object invoke(final RemoteInvocation aInvocation)
+                throws RemoteException, NoSuchMethodException,
+                IllegalAccessException, InvocationTargetException {
+            Object result = null;
+            RmiInvocationExecutor executor = fExporter.fInvocationExecutor;
+            if (executor == null || aInvocation instanceof NegotiationRemoteInvocation) {
+                result = dispatch(aInvocation);
+            } else {
+                // compact invocation is resolved there since its attributes (including priority) are encoded
+                final RemoteInvocation invocation = fExporter.resolveCompactInvocation(aInvocation);
+                int priority = PriorityRemoteInvocationFactory.getPriority(invocation);
+                try {
+                    result = executor.execute(new Callable<Object>() {
+                        public Object call()
+                                throws Exception {
+                            return dispatch(invocation);
+                        }
+                    }, priority);
+                } catch (RemoteException e) {
+                    throw e;
+                } catch (NoSuchMethodException e) {
+                    throw e;
+                } catch (IllegalAccessException e) {
+                    throw e;
+                } catch (InvocationTargetException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RemoteException("Unexpected exception on invocation", e);
+                }
+            }
+            return result;
+        }
+
+        protected Object dispatch(RemoteInvocation aInvocation)
                 throws RemoteException, NoSuchMethodException,
                 IllegalAccessException, InvocationTargetException {
-            aInvocation.addAttribute(ATTRIBUTE_OWN_PROXY_SERVICE_NAME,
-                    fExporter.getServiceName());
-            Object result = fExporter.invoke(aInvocation, fWrappedObject);
+            Object result = null;
+            if (aInvocation instanceof BatchRemoteInvocation) {
+                result = fExporter.invokeBatch((BatchRemoteInvocation) aInvocation, fWrappedObject);
+            } else if (aInvocation instanceof EncodedRemoteInvocation) {
+                result = fExporter.invokeEncoded((EncodedRemoteInvocation) aInvocation, fWrappedObject);
+            } else if (aInvocation instanceof NegotiationRemoteInvocation) {
+                result = fExporter.negotiateCompactSession();
+            } else {
+                RemoteInvocation invocation = fExporter.resolveCompactInvocation(aInvocation);
+                invocation.addAttribute(ATTRIBUTE_OWN_PROXY_SERVICE_NAME,
+                        fExporter.getServiceName());
+                RemoteStreams.openArguments(invocation, fExporter.fStreamCredits);
+                result = fExporter.invoke(invocation, fWrappedObject);
+                result = fExporter.exportStreamResult(result);
+            }
             return result;
         }
     }
 
+    /**
+     * Performs invocation made by client located in the same JVM, without RMI. Invocation is
+     * applied to the same proxy (with the same interceptors) as invocations received via RMI.
+     * If exporter has invocation executor, invocation is performed by its pool (according to
+     * priority specified by client), so local clients are limited and shed the same way as
+     * remote ones. Note that deadline of the call is not enforced for local invocation - there
+     * is no socket to close, so client waits until invocation is completed or rejected by pool.
+     *
+     * @param aInvocation invocation
+     * @return result of invocation
+     * @throws RemoteException           if service is not exported anymore (<code>ConnectException</code>)
+     *                                   or invocation is rejected by the pool
+     * @throws NoSuchMethodException     if the method name could not be resolved
+     * @throws IllegalAccessException    if the method could not be accessed
+     * @throws InvocationTargetException if the method invocation resulted in an exception
+     * @see org.softamis.cluster4spring.rmi.support.LocalRmiEndpoint
+     * @see #setInvocationExecutor(RmiInvocationExecutor)
+     */
+    public Object invokeLocally(final RemoteInvocation aInvocation)
+            throws RemoteException, NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        final Object target = fLocalTarget;
+        if (target == null) {
+            // exporter is destroyed, so client should invalidate endpoint and use another one
+            throw new ConnectException(MessageFormat.format(
+                    "RMI service [{0}] is not exported as RMI invoker", fServiceName));
+        }
+        aInvocation.addAttribute(ATTRIBUTE_OWN_PROXY_SERVICE_NAME, fServiceName);
+        Object result = null;
+        RmiInvocationExecutor executor = fInvocationExecutor;
+        if (executor == null) {
+            result = invoke(aInvocation, target);
+        } else {
+            int priority = PriorityRemoteInvocationFactory.getPriority(aInvocation);
+            try {
+                result = executor.execute(new Callable<Object>() {
+                    public Object call()
+                            throws Exception {
+                        return invoke(aInvocation, target);
+                    }
+                }, priority);
+            } catch (RemoteException e) {
+                throw e;
+            } catch (NoSuchMethodException e) {
+                throw e;
+            } catch (IllegalAccessException e) {
+                throw e;
+            } catch (InvocationTargetException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RemoteException("Unexpected exception on invocation", e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Performs invocations contained in given batch one by one on the target object.
+     * Exception thrown by one invocation does not affect others - it is simply
+     * returned as result of that invocation. Results which are iterators or streams are
+     * exported as remote chunk sources, like results of individual invocations.
+     *
+     * @param aBatch batch of invocations
+     * @param aTargetObject target object to apply invocations to
+     * @return list of results, in the same order as invocations in batch
+     * @see org.softamis.cluster4spring.support.RequestCollapser
+     */
+    protected ArrayList<RemoteInvocationResult> invokeBatch(BatchRemoteInvocation aBatch, Object aTargetObject) {
+        List<RemoteInvocation> invocations = aBatch.getInvocations();
+        ArrayList<RemoteInvocationResult> result = new ArrayList<RemoteInvocationResult>(invocations.size());
+        String serviceName = getServiceName();
+        for (RemoteInvocation invocation : invocations) {
+            invocation.addAttribute(ATTRIBUTE_OWN_PROXY_SERVICE_NAME, serviceName);
+            RemoteInvocationResult invocationResult = invokeAndCreateResult(invocation, aTargetObject);
+            if (!invocationResult.hasException() && RemoteStreams.isStreamable(invocationResult.getValue())) {
+                try {
+                    invocationResult = new RemoteInvocationResult(exportStreamResult(invocationResult.getValue()));
+                } catch (RemoteException e) {
+                    invocationResult = new RemoteInvocationResult(e);
+                }
+            }
+            result.add(invocationResult);
+        }
+        if (fLog.isTraceEnabled()) {
+            fLog.trace(MessageFormat.format("Batch of [{0}] invocations performed. Service Name: [{1}]",
+                    invocations.size(), serviceName));
+        }
+        return result;
+    }
+
+    /**
+     * Decodes invocation encoded by codec, performs it on the target object and
+     * returns its result encoded by the same codec.
+     *
+     * @param aInvocation encoded invocation
+     * @param aTargetObject target object to apply invocation to
+     * @return encoded result of invocation
+     * @throws RemoteException if codec is not supported or invocation could not be decoded
+     * @see InvocationCodec
+     */
+    protected EncodedInvocationResult invokeEncoded(EncodedRemoteInvocation aInvocation, Object aTargetObject)
+            throws RemoteException {
+        String codecName = aInvocation.getCodecName();
+        InvocationCodec codec = fCodecs.get(codecName);
+        if (codec == null) {
+            throw new UnmarshalException(MessageFormat.format("Codec [{0}] is not supported by service [{1}]",
+                    codecName, getServiceName()));
+        }
+        RemoteInvocation invocation = null;
+        try {
+            invocation = (RemoteInvocation) codec.decode(aInvocation.getPayload());
+        } catch (IOException e) {
+            throw new UnmarshalException("Unable to decode invocation by codec " + codecName, e);
+        } catch (ClassNotFoundException e) {
+            throw new UnmarshalException("Unable to decode invocation by codec " + codecName, e);
+        } catch (RuntimeException e) {
+            // malformed payload could cause unexpected exception, it is reported as unmarshalling failure
+            throw new UnmarshalException("Unable to decode invocation by codec " + codecName, e);
+        }
+
+        invocation = resolveCompactInvocation(invocation);
+        invocation.addAttribute(ATTRIBUTE_OWN_PROXY_SERVICE_NAME, getServiceName());
+        RemoteStreams.openArguments(invocation, fStreamCredits);
+        RemoteInvocationResult invocationResult = invokeAndCreateResult(invocation, aTargetObject);
+        if (!invocationResult.hasException() && RemoteStreams.isStreamable(invocationResult.getValue())) {
+            invocationResult = new RemoteInvocationResult(exportStreamResult(invocationResult.getValue()));
+        }
+
+        EncodedInvocationResult result = null;
+        try {
+            byte[] payload = null;
+            if (codec instanceof CompressingCodec) {
+                // let codec apply compression policy of invoked method to the result
+                payload = ((CompressingCodec) codec).encode(invocationResult, invocation.getMethodName());
+            } else {
+                payload = codec.encode(invocationResult);
+            }
+            result = new EncodedInvocationResult(codecName, payload);
+        } catch (IOException e) {
+            throw new RemoteException("Unable to encode result by codec " + codecName, e);
+        }
+        return result;
+    }
+
+    /**
+     * Creates session of compact invocations for client
+     *
+     * @return negotiated session
+     * @throws NoSuchMethodException if service interface is not specified, so compact invocations are not supported
+     * @see CompactRemoteInvocation
+     */
+    protected NegotiatedSession negotiateCompactSession() throws NoSuchMethodException {
+        CompactInvocationDispatcher dispatcher = obtainCompactDispatcher();
+        if (dispatcher == null) {
+            throw new NoSuchMethodException(MessageFormat.format(
+                    "Compact invocations are not supported by service [{0}] without service interface", getServiceName()));
+        }
+        return dispatcher.negotiate();
+    }
+
+    /**
+     * Restores invocation sent in compact form. Other invocations are returned as is.
+     *
+     * @param aInvocation invocation received from client
+     * @return invocation which could be applied to the target object
+     * @throws RemoteException if session of compact invocation is not known, so client should negotiate it again
+     */
+    protected RemoteInvocation resolveCompactInvocation(RemoteInvocation aInvocation) throws RemoteException {
+        RemoteInvocation result = aInvocation;
+        if (aInvocation instanceof CompactRemoteInvocation) {
+            CompactInvocationDispatcher dispatcher = obtainCompactDispatcher();
+            if (dispatcher == null) {
+                throw new UnmarshalException(MessageFormat.format(
+                        "Compact invocations are not supported by service [{0}]", getServiceName()));
+            }
+            result = dispatcher.resolve((CompactRemoteInvocation) aInvocation);
+        }
+        return result;
+    }
+
+    protected synchronized CompactInvocationDispatcher obtainCompactDispatcher() {
+        if (fCompactDispatcher == null && getServiceInterface() != null) {
+            fCompactDispatcher = new CompactInvocationDispatcher(getServiceInterface(), fCompactSessionTimeout);
+        }
+        return fCompactDispatcher;
+    }
+
+    public long getCompactSessionTimeout() {
+        return fCompactSessionTimeout;
+    }
+
+    /**
+     * Set the time (in milliseconds) after which unused session of compact
+     * invocations is removed. Client which uses removed session simply
+     * negotiates new one.
+     * <p>
+     * Default is 3600000 (one hour).
+     */
+    public void setCompactSessionTimeout(long aCompactSessionTimeout) {
+        fCompactSessionTimeout = aCompactSessionTimeout;
+    }
+
+    public RmiInvocationExecutor getInvocationExecutor() {
+        return fInvocationExecutor;
+    }
+
+    /**
+     * Set the pool which performs invocations received by RMI invoker. Without it,
+     * invocations are performed directly by RMI connection threads, so their amount
+     * is not limited. Invocations rejected by the pool are answered by
+     * <code>ServerOverloadedException</code>, which clients treat as signal to retry on
+     * another server. Applies only to RMI invokers, not to conventional RMI services.
+     * <code>PriorityRmiInvocationExecutor</code> could be used to shed invocations of lower
+     * priority first. Executor is stopped when exporter is destroyed.
+     * <p>
+     * Default is <code>null</code> (invocations are performed by RMI connection threads).
+     */
+    public void setInvocationExecutor(RmiInvocationExecutor aInvocationExecutor) {
+        fInvocationExecutor = aInvocationExecutor;
+    }
+
+    /**
+     * Creates codecs supported by default
+     *
+     * @return codecs by name
+     */
+    protected Map<String, InvocationCodec> createDefaultCodecs() {
+        Map<String, InvocationCodec> result = new HashMap<String, InvocationCodec>();
+        result.put(JavaSerializationCodec.NAME, new JavaSerializationCodec());
+        result.put(CompactCodec.NAME, new CompactCodec());
+        for (InvocationCodec codec : new ArrayList<InvocationCodec>(result.values())) {
+            CompressingCodec compressingCodec = new CompressingCodec(codec);
+            result.put(compressingCodec.getName(), compressingCodec);
+        }
+        return result;
+    }
+
+    /**
+     * Set additional codecs which may be used by clients to encode invocations. Codecs
+     * <code>java</code> and <code>compact</code> and their compressing variants
+     * (<code>java+deflate</code> and <code>compact+deflate</code>) are supported by default.
+     * Compressing codec registered there replaces default one, so threshold and
+     * policy of compression of results could be configured.
+     */
+    public void setCodecs(List<InvocationCodec> aCodecs) {
+        Map<String, InvocationCodec> codecs = createDefaultCodecs();
+        for (InvocationCodec codec : aCodecs) {
+            codecs.put(codec.getName(), codec);
+        }
+        fCodecs = codecs;
+    }
+
     public static final String ATTRIBUTE_OWN_PROXY_SERVICE_NAME = "serviceName";
 }
@@ -28,7 +28,13 @@ import org.softamis.net.localinfo.*;
 import org.softamis.net.localinfo.acceptor.*;
 
 /**
- * Experimental version of RMI service Exporter used to support multihome systems
+ * Experimental version of RMI service Exporter used to support multihome systems.
+ * Service URL is provided for every local address; clients could race connections to
+ * these addresses (see
+ * {@link org.softamis.cluster4spring.support.provider.AbstractUrlListEndpointProvider#setRaceServerAddresses(boolean)}),
+ * if server ID is specified for publisher. Server ID also lets clients select endpoints per
+ * server rather than per address (see
+ * {@link org.softamis.cluster4spring.support.provider.MultiURLEndpointProvider#setServerAwareSelection(boolean)}).
  * @version 1.0
  */
 
@@ -3,9 +3,11 @@ package org.softamis.cluster4spring.rmi
 import org.I0Itec.zkclient.ZkClient
 import org.softamis.cluster4spring.rmi.support.AbstractRmiShortFormProxyFactoryBean
 import org.softamis.cluster4spring.rmi.support.RmiEndpoint
+import org.softamis.cluster4spring.rmi.support.RmiEndpointFactory
 import org.softamis.cluster4spring.support.EndpointSelectionPolicy
 import org.softamis.cluster4spring.support.ServiceMoniker
 import org.softamis.cluster4spring.support.provider.ZookeeperDiscoveringEndPointProvider
+import org.softamis.cluster4spring.support.provider.ZookeeperFailureReporter
 import org.springframework.context.ApplicationEvent
 
 /**
@@ -24,6 +26,20 @@ public class ZookeeperRmiDiscoveringProxyFactoryBean<SI extends ServiceMoniker>
 
     protected EndpointSelectionPolicy<RmiEndpoint<SI>, SI> fEndpointSelectionPolicy = null;
 
+    //协同故障上报：调用失败时把端点登记到 /rmiRegistryRoot/consumer/serviceName 下，
+    //达到failureQuorum个客户端报告后，所有客户端都隔离该端点
+    boolean failureReportingEnabled = false
+    //同一端点两次上报的最小间隔(ms)
+    long failureReportInterval = 5000
+    //统计报告的时间窗口(ms)
+    long failureReportWindow = 30000
+    //判定端点故障所需的不同客户端数量
+    int failureQuorum = 3
+    //端点被隔离的时间(ms)
+    long quarantineTime = 60000
+
+    protected ZookeeperFailureReporter fFailureReporter = null
+
     public ZookeeperRmiDiscoveringProxyFactoryBean() {
         super();
     }
@@ -46,14 +62,40 @@ public class ZookeeperRmiDiscoveringProxyFactoryBean<SI extends ServiceMoniker>
         fEndpointProvider = provider;
 //        provider.watcherNodeName = this.serviceInterface.getName();  //改为使用rmi服务名
         provider.watcherNodeName = serviceName
+        //同一服务节点下也可能有nio://的url，只使用rmi的url
+        provider.urlScheme = RmiEndpointFactory.RMI_PROTOCOL_PREFIX
         provider.setZookeeperFactoryBean(zookeeperFactoryBean);
         provider.setZkClient(zkClient);
         provider.setCacheEndpoints(fCacheEndpoints);
         provider.setEndpointSelectionPolicy(fEndpointSelectionPolicy);
+        if (failureReportingEnabled) {
+            fFailureReporter = createFailureReporter()
+            provider.setFailureReporter(fFailureReporter)
+        }
         provider.afterPropertiesSet();
         super.afterPropertiesSet()
     }
 
+    protected ZookeeperFailureReporter createFailureReporter() {
+        ZookeeperFailureReporter result = new ZookeeperFailureReporter()
+        result.reportInterval = failureReportInterval
+        result.reportWindow = failureReportWindow
+        result.quorum = failureQuorum
+        result.quarantineTime = quarantineTime
+        return result
+    }
+
+    /**
+     * 容器关闭时删除本客户端登记的故障报告
+     */
+    @Override
+    protected void onContextClosed() {
+        super.onContextClosed()
+        if (fFailureReporter != null) {
+            fFailureReporter.stop()
+        }
+    }
+
     public void setEndpointSelectionPolicy(EndpointSelectionPolicy<RmiEndpoint<SI>, SI> aServiceSelectionPolicy) {
         fEndpointSelectionPolicy = aServiceSelectionPolicy;
     }
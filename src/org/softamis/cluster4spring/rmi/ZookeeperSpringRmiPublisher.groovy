@@ -7,6 +7,7 @@ import org.apache.zookeeper.Watcher
 import org.apache.zookeeper.ZooDefs
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
+import org.softamis.cluster4spring.nio.NioServiceExporter
 import org.softamis.cluster4spring.support.PathChcker
 import org.springframework.beans.factory.DisposableBean
 import org.springframework.beans.factory.InitializingBean
@@ -26,6 +27,7 @@ public class ZookeeperSpringRmiPublisher implements InitializingBean,DisposableB
     ZkClient zkClient
 
     Set<RmiServiceExporter> rmiServiceExporters
+    Set<NioServiceExporter> nioServiceExporters //通过NIO传输导出的服务，URL为 nio://host:port/serviceName，与rmi url发布在同一服务节点下，由发现方按协议过滤
     PathChcker chcker
 
     @Override
@@ -89,14 +91,8 @@ public class ZookeeperSpringRmiPublisher implements InitializingBean,DisposableB
         }
     }
 
-    void push(RmiServiceExporter rmiServiceExporter){
-
-        //接口名作为同一rmi节点父节点
-        //String serviceNode = rmiServiceExporter.serviceInterface.getName() //不再使用接口名作为节点名称
-        //改为使用rmi服务名，要求全局唯一
-        String serviceNode = rmiServiceExporter.serviceName
-
-        serviceNode = chcker.zkProviderPath + "/"+serviceNode
+    String obtainServiceNode(String serviceName){
+        String serviceNode = chcker.zkProviderPath + "/"+serviceName
 
         LOGGER.info("pushing rmiNode path is: {}",serviceNode)
         boolean  serviceNodeExists = zkClient.exists(serviceNode)
@@ -104,6 +100,15 @@ public class ZookeeperSpringRmiPublisher implements InitializingBean,DisposableB
             zkClient.createPersistent(serviceNode,null,ZooDefs.Ids.OPEN_ACL_UNSAFE)
             LOGGER.info("create interFace node: {}",serviceNode)
         }
+        return serviceNode
+    }
+
+    void push(RmiServiceExporter rmiServiceExporter){
+
+        //接口名作为同一rmi节点父节点
+        //String serviceNode = rmiServiceExporter.serviceInterface.getName() //不再使用接口名作为节点名称
+        //改为使用rmi服务名，要求全局唯一
+        String serviceNode = obtainServiceNode(rmiServiceExporter.serviceName)
 
         String localhost = java.net.InetAddress.getLocalHost().getHostAddress()
         int port = rmiServiceExporter.registryPort
@@ -113,23 +118,38 @@ public class ZookeeperSpringRmiPublisher implements InitializingBean,DisposableB
         createRmiNode(serviceNode+"/node_",rmiUrl)
     }
 
+    void push(NioServiceExporter nioServiceExporter){
+        String serviceNode = obtainServiceNode(nioServiceExporter.serviceName)
+        for(String nioUrl : nioServiceExporter.provideExportedServiceURLs()){
+            LOGGER.info("nioUrl is: "+nioUrl)
+            createRmiNode(serviceNode+"/node_",nioUrl)
+        }
+    }
+
     void pushServiceToZk() {
 
-        if(!rmiServiceExporters)
+        if(!rmiServiceExporters && !nioServiceExporters)
             throw new IllegalArgumentException("rmiServiceExporters is has no one!")
 
         chcker.initOrCheckPath(zkClient)
 
+        int size = 0
         for(RmiServiceExporter rmiServiceExporter : rmiServiceExporters){
             push(rmiServiceExporter)
+            size++
+        }
+        for(NioServiceExporter nioServiceExporter : nioServiceExporters){
+            push(nioServiceExporter)
+            size++
         }
 
-        LOGGER.info("push rmi service to zkClient over,size:{}",rmiServiceExporters.size())
+        LOGGER.info("push rmi service to zkClient over,size:{}",size)
     }
 
     @Override
     void destroy() throws Exception {
         rmiServiceExporters = null
+        nioServiceExporters = null
         chcker = null
         zkClient.close()
     }
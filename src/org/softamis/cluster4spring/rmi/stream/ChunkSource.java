@@ -0,0 +1,53 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.stream;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+
+/**
+ * Remote source of elements of streamed result or argument. Elements are pulled by
+ * consumer chunk by chunk, so producer does not need to materialize whole payload and
+ * never produces more than consumer requested.
+ *
+ * @version 1.0
+ * @see IteratorChunkSource
+ * @see RemoteChunkIterator
+ */
+
+public interface ChunkSource
+        extends Remote {
+    /**
+     * Returns next chunk of elements
+     *
+     * @param aMaxSize maximal amount of elements in chunk
+     * @return next chunk, empty list if there are no more elements
+     * @throws RemoteException if chunk could not be obtained
+     */
+    public ArrayList<Object> nextChunk(int aMaxSize)
+            throws RemoteException;
+
+    /**
+     * Releases source before all elements are consumed
+     *
+     * @throws RemoteException if source could not be contacted
+     */
+    public void close()
+            throws RemoteException;
+}
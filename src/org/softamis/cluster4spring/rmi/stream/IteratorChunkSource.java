@@ -0,0 +1,147 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.stream;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.rmi.server.Unreferenced;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Chunk source which produces elements of local iterator. Source is exported as
+ * separate RMI object and unexports itself when iterator is exhausted, when consumer
+ * closes it or when consumer is gone (detected by RMI distributed garbage collector).
+ *
+ * @version 1.0
+ * @see RemoteStreams#export(Object, int, int, RMIClientSocketFactory, RMIServerSocketFactory)
+ */
+
+public class IteratorChunkSource
+        implements ChunkSource,
+        Unreferenced {
+    protected static final Log fLog = LogFactory.getLog(IteratorChunkSource.class);
+
+    /**
+     * Iterator which produces elements
+     */
+    protected final Iterator<?> fIterator;
+
+    /**
+     * Maximal amount of elements sent in one chunk regardless of amount requested by consumer
+     */
+    protected final int fMaxChunkSize;
+
+    /**
+     * Resource which should be closed together with source, may be <code>null</code>
+     */
+    protected final AutoCloseable fResource;
+
+    /**
+     * Indicates whether source is closed
+     */
+    protected boolean fClosed = false;
+
+    /**
+     * Creates source
+     *
+     * @param aIterator iterator which produces elements
+     * @param aMaxChunkSize maximal amount of elements in chunk
+     * @param aResource resource which should be closed together with source (such as stream
+     * iterator is obtained from), may be <code>null</code>
+     */
+    public IteratorChunkSource(Iterator<?> aIterator, int aMaxChunkSize, AutoCloseable aResource) {
+        fIterator = aIterator;
+        fMaxChunkSize = aMaxChunkSize;
+        fResource = aResource;
+    }
+
+    /**
+     * Exports source via RMI
+     *
+     * @param aPort port to export source on, <code>0</code> for anonymous port
+     * @param aClientSocketFactory client socket factory, may be <code>null</code>
+     * @param aServerSocketFactory server socket factory, may be <code>null</code>
+     * @return stub of source
+     * @throws RemoteException if source could not be exported
+     */
+    public ChunkSource export(int aPort, RMIClientSocketFactory aClientSocketFactory,
+                              RMIServerSocketFactory aServerSocketFactory)
+            throws RemoteException {
+        ChunkSource result = null;
+        if (aClientSocketFactory != null) {
+            result = (ChunkSource) UnicastRemoteObject.exportObject(this, aPort, aClientSocketFactory, aServerSocketFactory);
+        } else {
+            result = (ChunkSource) UnicastRemoteObject.exportObject(this, aPort);
+        }
+        return result;
+    }
+
+    public synchronized ArrayList<Object> nextChunk(int aMaxSize) {
+        int size = Math.max(1, Math.min(aMaxSize, fMaxChunkSize));
+        ArrayList<Object> result = new ArrayList<Object>(size);
+        while (!fClosed && result.size() < size && fIterator.hasNext()) {
+            result.add(fIterator.next());
+        }
+        if (result.isEmpty()) {
+            close();
+        }
+        return result;
+    }
+
+    public synchronized void close() {
+        if (!fClosed) {
+            fClosed = true;
+            AutoCloseable resource = fResource;
+            if (resource == null && fIterator instanceof AutoCloseable) {
+                resource = (AutoCloseable) fIterator;
+            }
+            if (resource != null) {
+                try {
+                    resource.close();
+                } catch (Exception e) {
+                    if (fLog.isWarnEnabled()) {
+                        fLog.warn("Unable to close streamed iterator", e);
+                    }
+                }
+            }
+            try {
+                // current call (which returns the last chunk) is completed even if source is unexported
+                UnicastRemoteObject.unexportObject(this, true);
+            } catch (NoSuchObjectException e) {
+                // source was not exported or already unexported
+            }
+        }
+    }
+
+    /**
+     * Called by RMI runtime when there are no more consumers of the source
+     */
+    public void unreferenced() {
+        if (fLog.isDebugEnabled()) {
+            fLog.debug("Streamed source is not referenced by consumer anymore, closing it");
+        }
+        close();
+    }
+}
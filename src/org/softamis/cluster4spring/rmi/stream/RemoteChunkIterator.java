@@ -0,0 +1,303 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.stream;
+
+import java.io.Closeable;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.remoting.RemoteAccessException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Iterator over elements pulled from remote chunk source.
+ * <p/>
+ * Flow of chunks is controlled by credits - iterator grants source the amount of
+ * chunks it is ready to buffer and background fetcher requests next chunks only while
+ * there are credits left. Consuming buffered chunk returns credit, so producer is
+ * never ahead of consumer by more than <code>credits</code> chunks and memory used on
+ * both sides is proportional to chunk size, not to size of whole payload. Since next
+ * chunk is fetched while current one is consumed, latency of remote call is hidden
+ * from consumer.
+ * <p/>
+ * Background fetches are performed by pool shared by all iterators, which size is limited
+ * by <code>MAX_FETCH_THREADS</code>. If all its threads are busy, consumer fetches next
+ * chunk itself, so iteration is still possible, but without prefetching.
+ *
+ * @version 1.0
+ * @param <T> type of elements
+ * @see IteratorChunkSource
+ */
+
+public class RemoteChunkIterator<T>
+        implements Iterator<T>,
+        Closeable {
+    protected static final Log fLog = LogFactory.getLog(RemoteChunkIterator.class);
+
+    /**
+     * Maximal amount of threads used to fetch chunks in background
+     */
+    protected static final int MAX_FETCH_THREADS = 32;
+
+    /**
+     * Executor used to fetch chunks in background, shared by all iterators
+     */
+    protected static Executor fFetchExecutor = null;
+
+    /**
+     * Source of elements
+     */
+    protected final ChunkSource fSource;
+
+    /**
+     * Amount of elements requested in one chunk
+     */
+    protected final int fChunkSize;
+
+    /**
+     * Maximal amount of chunks fetched ahead of consumer
+     */
+    protected final int fCredits;
+
+    /**
+     * Chunks fetched but not consumed yet
+     */
+    protected final LinkedList<List<Object>> fBuffer = new LinkedList<List<Object>>();
+
+    /**
+     * Iterator over chunk currently consumed
+     */
+    protected Iterator<Object> fCurrent = null;
+
+    /**
+     * Indicates whether background fetch is in progress
+     */
+    protected boolean fFetching = false;
+
+    /**
+     * Indicates whether source is exhausted
+     */
+    protected boolean fEnd = false;
+
+    /**
+     * Indicates whether iterator was closed by consumer
+     */
+    protected boolean fClosed = false;
+
+    /**
+     * Exception occured during fetching chunk
+     */
+    protected Throwable fFailure = null;
+
+    /**
+     * Creates iterator
+     *
+     * @param aSource source of elements
+     * @param aChunkSize amount of elements requested in one chunk
+     * @param aCredits maximal amount of chunks fetched ahead of consumer
+     */
+    public RemoteChunkIterator(ChunkSource aSource, int aChunkSize, int aCredits) {
+        fSource = aSource;
+        fChunkSize = aChunkSize;
+        fCredits = Math.max(1, aCredits);
+        synchronized (this) {
+            scheduleFetch();
+        }
+    }
+
+    public boolean hasNext() {
+        boolean result = fCurrent != null && fCurrent.hasNext();
+        if (!result) {
+            fCurrent = null;
+            List<Object> chunk = takeChunk();
+            if (chunk != null) {
+                fCurrent = chunk.iterator();
+                result = fCurrent.hasNext();
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T result = (T) fCurrent.next();
+        return result;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("Remote iterator does not support removal");
+    }
+
+    /**
+     * Waits for next chunk and returns credit for it. If there is no free thread to fetch
+     * chunk in background, chunk is fetched by the calling thread.
+     *
+     * @return next chunk or <code>null</code> if source is exhausted
+     */
+    protected List<Object> takeChunk() {
+        List<Object> result = null;
+        boolean taken = false;
+        while (!taken) {
+            boolean fetchInline = false;
+            synchronized (this) {
+                boolean interrupted = false;
+                while (!fetchInline && fBuffer.isEmpty() && !fEnd && !fClosed && fFailure == null) {
+                    scheduleFetch();
+                    if (fFetching) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                            fClosed = true;
+                        }
+                    } else {
+                        // all fetch threads are busy
+                        fFetching = true;
+                        fetchInline = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new RemoteAccessException("Interrupted while waiting for streamed data");
+                }
+                if (!fetchInline) {
+                    result = fBuffer.poll();
+                    if (result == null && fFailure != null) {
+                        throw new RemoteAccessException("Unable to obtain streamed data", fFailure);
+                    }
+                    scheduleFetch();
+                    taken = true;
+                }
+            }
+            if (fetchInline) {
+                fetchChunk(false);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Starts background fetch if there are credits left. Should be called under lock.
+     * If pool has no free thread, fetch is not started.
+     */
+    protected void scheduleFetch() {
+        if (!fFetching && !fEnd && !fClosed && fFailure == null && fBuffer.size() < fCredits) {
+            fFetching = true;
+            try {
+                obtainFetchExecutor().execute(new Runnable() {
+                    public void run() {
+                        fetch();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // chunk will be fetched by consumer when it needs it
+                fFetching = false;
+            }
+        }
+    }
+
+    /**
+     * Fetches chunks while there are credits left
+     */
+    protected void fetch() {
+        boolean fetching = true;
+        while (fetching) {
+            fetching = fetchChunk(true);
+        }
+    }
+
+    /**
+     * Fetches single chunk and adds it to buffer
+     *
+     * @param aContinue whether fetch should be continued while there are credits left
+     * @return <code>true</code> if next chunk should be fetched
+     */
+    protected boolean fetchChunk(boolean aContinue) {
+        List<Object> chunk = null;
+        Throwable failure = null;
+        try {
+            chunk = fSource.nextChunk(fChunkSize);
+        } catch (RemoteException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        boolean result = false;
+        synchronized (this) {
+            if (failure != null) {
+                fFailure = failure;
+            } else if (chunk == null || chunk.isEmpty()) {
+                fEnd = true;
+            } else if (!fClosed) {
+                fBuffer.add(chunk);
+            }
+            result = aContinue && fFailure == null && !fEnd && !fClosed && fBuffer.size() < fCredits;
+            fFetching = result;
+            notifyAll();
+        }
+        return result;
+    }
+
+    /**
+     * Closes iterator before all elements are consumed and releases remote source
+     */
+    public void close() {
+        boolean release = false;
+        synchronized (this) {
+            if (!fClosed && !fEnd) {
+                release = true;
+            }
+            fClosed = true;
+            fBuffer.clear();
+            notifyAll();
+        }
+        if (release) {
+            try {
+                fSource.close();
+            } catch (RemoteException e) {
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug("Unable to close remote source of streamed data", e);
+                }
+            }
+        }
+    }
+
+    protected static synchronized Executor obtainFetchExecutor() {
+        if (fFetchExecutor == null) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cluster4spring-stream-");
+            threadFactory.setDaemon(true);
+            fFetchExecutor = new ThreadPoolExecutor(0, MAX_FETCH_THREADS, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), threadFactory);
+        }
+        return fFetchExecutor;
+    }
+}
@@ -0,0 +1,80 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.stream;
+
+import java.io.Serializable;
+
+/**
+ * Serializable placeholder which is sent over the wire instead of streamed result or
+ * argument. Contains stub of chunk source the receiving side pulls elements from.
+ *
+ * @version 1.0
+ * @see RemoteStreams
+ */
+
+public class RemoteStreamHandle
+        implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Stub of source of elements
+     */
+    protected final ChunkSource fSource;
+
+    /**
+     * Amount of elements requested in one chunk
+     */
+    protected final int fChunkSize;
+
+    /**
+     * Indicates whether receiving side should obtain <code>java.util.stream.Stream</code> instead of iterator
+     */
+    protected final boolean fStream;
+
+    /**
+     * Source exported by this side, <code>null</code> if handle was received from remote side
+     */
+    protected final transient IteratorChunkSource fLocalSource;
+
+    public RemoteStreamHandle(ChunkSource aSource, int aChunkSize, boolean aStream) {
+        this(aSource, aChunkSize, aStream, null);
+    }
+
+    public RemoteStreamHandle(ChunkSource aSource, int aChunkSize, boolean aStream, IteratorChunkSource aLocalSource) {
+        fSource = aSource;
+        fChunkSize = aChunkSize;
+        fStream = aStream;
+        fLocalSource = aLocalSource;
+    }
+
+    public ChunkSource getSource() {
+        return fSource;
+    }
+
+    public int getChunkSize() {
+        return fChunkSize;
+    }
+
+    public boolean isStream() {
+        return fStream;
+    }
+
+    public IteratorChunkSource getLocalSource() {
+        return fLocalSource;
+    }
+}
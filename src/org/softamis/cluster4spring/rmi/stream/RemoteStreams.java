@@ -0,0 +1,200 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.stream;
+
+import java.rmi.RemoteException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+/**
+ * Utility methods used to send large results and arguments as streams. Result or argument
+ * which is <code>Iterator</code> or <code>java.util.stream.Stream</code> is not serialized
+ * as whole - instead, it is exported as remote chunk source and replaced by
+ * <code>RemoteStreamHandle</code>. Receiving side replaces handle by iterator (or stream)
+ * which pulls elements chunk by chunk with background prefetch.
+ * <p/>
+ * Streams work in both directions - server may return iterator to client and client may
+ * pass iterator to server (in this case client exports chunk source, so server should be
+ * able to connect to the client). Since streamed argument could be consumed only once,
+ * invocation with such arguments is not retried, and its sources are closed if it fails.
+ *
+ * @version 1.0
+ * @see RemoteChunkIterator
+ * @see IteratorChunkSource
+ */
+
+public final class RemoteStreams {
+    /**
+     * Default amount of elements in one chunk
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * Default amount of chunks fetched ahead of consumer
+     */
+    public static final int DEFAULT_CREDITS = 2;
+
+    private RemoteStreams() {
+    }
+
+    /**
+     * Checks whether given value should be streamed
+     *
+     * @param aValue value to check
+     * @return <code>true</code> if value is iterator or stream
+     */
+    public static boolean isStreamable(Object aValue) {
+        boolean result = aValue instanceof Iterator || aValue instanceof Stream;
+        return result;
+    }
+
+    /**
+     * Checks whether some of given arguments should be streamed
+     *
+     * @param aArguments arguments of invocation, may be <code>null</code>
+     * @return <code>true</code> if some argument is iterator or stream
+     */
+    public static boolean hasStreamableArguments(Object[] aArguments) {
+        boolean result = false;
+        for (int i = 0; aArguments != null && !result && i < aArguments.length; i++) {
+            result = isStreamable(aArguments[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Exports given iterator or stream as remote chunk source
+     *
+     * @param aValue iterator or stream
+     * @param aChunkSize maximal amount of elements in one chunk
+     * @param aPort port to export source on, <code>0</code> for anonymous port
+     * @param aClientSocketFactory client socket factory, may be <code>null</code>
+     * @param aServerSocketFactory server socket factory, may be <code>null</code>
+     * @return handle which should be sent instead of value
+     * @throws RemoteException if source could not be exported
+     */
+    public static RemoteStreamHandle export(Object aValue, int aChunkSize, int aPort,
+                                            RMIClientSocketFactory aClientSocketFactory,
+                                            RMIServerSocketFactory aServerSocketFactory)
+            throws RemoteException {
+        IteratorChunkSource source = null;
+        boolean stream = aValue instanceof Stream;
+        if (stream) {
+            Stream<?> values = (Stream<?>) aValue;
+            source = new IteratorChunkSource(values.iterator(), aChunkSize, values);
+        } else {
+            source = new IteratorChunkSource((Iterator<?>) aValue, aChunkSize, null);
+        }
+        ChunkSource stub = source.export(aPort, aClientSocketFactory, aServerSocketFactory);
+        RemoteStreamHandle result = new RemoteStreamHandle(stub, aChunkSize, stream, source);
+        return result;
+    }
+
+    /**
+     * Replaces given handle by iterator or stream which pulls elements from remote source
+     *
+     * @param aHandle handle received from remote side
+     * @param aCredits maximal amount of chunks fetched ahead of consumer
+     * @return iterator or stream
+     */
+    public static Object open(RemoteStreamHandle aHandle, int aCredits) {
+        final RemoteChunkIterator<Object> iterator = new RemoteChunkIterator<Object>(aHandle.getSource(),
+                aHandle.getChunkSize(), aCredits);
+        Object result = iterator;
+        if (aHandle.isStream()) {
+            Spliterator<Object> spliterator = Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED);
+            result = StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+                public void run() {
+                    iterator.close();
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Replaces streamable arguments of invocation by handles of exported chunk sources
+     *
+     * @param aInvocation invocation which is about to be sent
+     * @param aChunkSize maximal amount of elements in one chunk
+     * @throws RemoteException if source could not be exported
+     */
+    public static void exportArguments(RemoteInvocation aInvocation, int aChunkSize)
+            throws RemoteException {
+        Object[] arguments = aInvocation.getArguments();
+        if (arguments != null) {
+            Object[] exported = null;
+            for (int i = 0; i < arguments.length; i++) {
+                if (isStreamable(arguments[i])) {
+                    if (exported == null) {
+                        exported = arguments.clone();
+                    }
+                    exported[i] = export(arguments[i], aChunkSize, 0, null, null);
+                }
+            }
+            if (exported != null) {
+                aInvocation.setArguments(exported);
+            }
+        }
+    }
+
+    /**
+     * Closes and unexports chunk sources exported by <code>exportArguments()</code>. Should be
+     * called if invocation failed, since server may never pull (or finish pulling) sources and
+     * they would stay exported until distributed garbage collector detects it.
+     *
+     * @param aInvocation invocation which arguments were exported
+     */
+    public static void closeArguments(RemoteInvocation aInvocation) {
+        Object[] arguments = aInvocation.getArguments();
+        if (arguments != null) {
+            for (Object argument : arguments) {
+                if (argument instanceof RemoteStreamHandle) {
+                    IteratorChunkSource source = ((RemoteStreamHandle) argument).getLocalSource();
+                    if (source != null) {
+                        source.close();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces handles in arguments of received invocation by iterators (or streams)
+     *
+     * @param aInvocation received invocation
+     * @param aCredits maximal amount of chunks fetched ahead of consumer
+     */
+    public static void openArguments(RemoteInvocation aInvocation, int aCredits) {
+        Object[] arguments = aInvocation.getArguments();
+        if (arguments != null) {
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i] instanceof RemoteStreamHandle) {
+                    arguments[i] = open((RemoteStreamHandle) arguments[i], aCredits);
+                }
+            }
+        }
+    }
+}
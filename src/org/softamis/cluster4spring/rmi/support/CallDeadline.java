@@ -0,0 +1,195 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Deadline of remote invocation performed by current thread. Deadline is used by
+ * {@link DeadlineAwareRmiClientSocketFactory} to limit time of socket operations
+ * performed on behalf of invocation - connect and read timeouts are derived from the
+ * time remaining to deadline.
+ * <p/>
+ * Since read timeout does not help if thread is blocked in write or invocation is stuck
+ * on server after part of the response is received, deadline is also registered in
+ * watchdog timer. If invocation is still in progress when deadline is reached, watchdog
+ * closes socket used by invocation, so blocked thread receives exception and
+ * RMI runtime discards that connection.
+ *
+ * @version 1.0
+ * @see DeadlineAwareRmiClientSocketFactory
+ */
+
+public class CallDeadline {
+    protected static final Log fLog = LogFactory.getLog(CallDeadline.class);
+
+    /**
+     * Deadline of invocation performed by current thread
+     */
+    protected static final ThreadLocal<CallDeadline> fCurrent = new ThreadLocal<CallDeadline>();
+
+    /**
+     * Watchdog which closes sockets of expired invocations
+     */
+    protected static DeadlineTimerWheel fWatchdog = null;
+
+    /**
+     * Time (in milliseconds) invocation should be completed
+     */
+    protected final long fDeadline;
+
+    /**
+     * Socket currently used by invocation
+     */
+    protected volatile Socket fSocket = null;
+
+    /**
+     * Indicates whether deadline was reached before invocation is completed
+     */
+    protected volatile boolean fExpired = false;
+
+    /**
+     * Indicates whether invocation is completed
+     */
+    protected volatile boolean fCompleted = false;
+
+    /**
+     * Watchdog task
+     */
+    protected DeadlineTimerWheel.Timeout fTimeout = null;
+
+    protected CallDeadline(long aDeadline) {
+        fDeadline = aDeadline;
+    }
+
+    /**
+     * Starts invocation with given timeout in current thread. Every call of this method
+     * should be followed by call of <code>end()</code>.
+     *
+     * @param aTimeout timeout in milliseconds
+     * @return deadline of invocation
+     */
+    public static CallDeadline begin(long aTimeout) {
+        final CallDeadline result = new CallDeadline(System.currentTimeMillis() + aTimeout);
+        result.fTimeout = obtainWatchdog().schedule(result.fDeadline, new Runnable() {
+            public void run() {
+                result.expire();
+            }
+        });
+        fCurrent.set(result);
+        return result;
+    }
+
+    /**
+     * Returns deadline of invocation performed by current thread
+     *
+     * @return deadline or <code>null</code> if current thread does not perform invocation with deadline
+     */
+    public static CallDeadline current() {
+        return fCurrent.get();
+    }
+
+    protected static synchronized DeadlineTimerWheel obtainWatchdog() {
+        if (fWatchdog == null) {
+            fWatchdog = new DeadlineTimerWheel("cluster4spring-deadline-watchdog", 10, 512);
+        }
+        return fWatchdog;
+    }
+
+    /**
+     * Completes invocation started by <code>begin()</code>
+     */
+    public void end() {
+        fCompleted = true;
+        fSocket = null;
+        fTimeout.cancel();
+        fCurrent.remove();
+    }
+
+    /**
+     * Returns time remaining to deadline
+     *
+     * @return remaining time in milliseconds, zero or negative if deadline is reached
+     */
+    public long getRemainingTime() {
+        return fDeadline - System.currentTimeMillis();
+    }
+
+    /**
+     * Checks whether deadline is reached
+     *
+     * @return <code>true</code> if deadline is reached
+     */
+    public boolean isExpired() {
+        return fExpired || getRemainingTime() <= 0;
+    }
+
+    public long getDeadline() {
+        return fDeadline;
+    }
+
+    /**
+     * Registers socket which is used by invocation for blocking operation
+     *
+     * @param aSocket socket
+     */
+    public void attach(Socket aSocket) {
+        fSocket = aSocket;
+        if (fExpired) {
+            // watchdog could fire before socket was attached
+            closeSocket(aSocket);
+        }
+    }
+
+    /**
+     * Unregisters socket registered by <code>attach()</code>
+     */
+    public void detach() {
+        fSocket = null;
+    }
+
+    /**
+     * Invoked by watchdog when deadline is reached
+     */
+    protected void expire() {
+        if (!fCompleted) {
+            fExpired = true;
+            Socket socket = fSocket;
+            if (socket != null) {
+                closeSocket(socket);
+            }
+        }
+    }
+
+    protected void closeSocket(Socket aSocket) {
+        if (fLog.isDebugEnabled()) {
+            fLog.debug("Closing socket of remote invocation which exceeded its deadline: " + aSocket);
+        }
+        try {
+            aSocket.close();
+        } catch (IOException e) {
+            if (fLog.isTraceEnabled()) {
+                fLog.trace("Unable to close socket", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.rmi.server.RMIClientSocketFactory;
+
+/**
+ * RMI client socket factory which enforces deadlines of remote invocations on socket level.
+ * <p/>
+ * Connect timeout and read timeout of created sockets are limited by the time remaining
+ * to the deadline of invocation performed by current thread (see {@link CallDeadline}),
+ * so invocation does not block longer than its deadline even if server or network hangs.
+ * If socket is used without deadline (for example, by DGC), configured
+ * <code>readTimeout</code> is applied.
+ * <p/>
+ * Since client socket factory is serialized with stub of remote service, factory should
+ * be specified for exporter of the service:
+ * <pre>
+ * &lt;property name="clientSocketFactory"&gt;
+ *   &lt;bean class="org.softamis.cluster4spring.rmi.support.DeadlineAwareRmiClientSocketFactory"/&gt;
+ * &lt;/property&gt;
+ * </pre>
+ *
+ * @version 1.0
+ * @see org.softamis.cluster4spring.rmi.AbstractRmiServiceExporter#setClientSocketFactory(RMIClientSocketFactory)
+ * @see org.softamis.cluster4spring.support.RemoteClientInterceptor#setMethodTimeouts(java.util.Map)
+ */
+
+public class DeadlineAwareRmiClientSocketFactory
+        implements RMIClientSocketFactory,
+        Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Difference (in milliseconds) between socket read timeout and remaining time which is tolerated
+     */
+    protected static final int TIMEOUT_SLACK = 10;
+
+    /**
+     * Timeout (in milliseconds) of establishing connection
+     */
+    protected int fConnectTimeout = 5000;
+
+    /**
+     * Timeout (in milliseconds) of reading from socket used without deadline, <code>0</code> means no timeout
+     */
+    protected int fReadTimeout = 0;
+
+    public DeadlineAwareRmiClientSocketFactory() {
+    }
+
+    public Socket createSocket(String aHost, int aPort)
+            throws IOException {
+        DeadlineAwareSocket result = createUnconnectedSocket();
+        connect(result, aHost, aPort);
+        return result;
+    }
+
+    /**
+     * Creates socket which is not connected yet. Subclasses may override this method
+     * to configure socket or use own socket class.
+     *
+     * @return created socket
+     * @throws IOException if socket could not be created
+     */
+    protected DeadlineAwareSocket createUnconnectedSocket()
+            throws IOException {
+        DeadlineAwareSocket result = new DeadlineAwareSocket(fReadTimeout);
+        return result;
+    }
+
+    /**
+     * Connects socket, limiting connect timeout by deadline of current invocation.
+     * Socket is closed if it could not be connected.
+     *
+     * @param aSocket socket to connect
+     * @param aHost host to connect to
+     * @param aPort port to connect to
+     * @throws IOException if connection could not be established
+     */
+    protected void connect(DeadlineAwareSocket aSocket, String aHost, int aPort)
+            throws IOException {
+        int connectTimeout = fConnectTimeout;
+        CallDeadline deadline = CallDeadline.current();
+        if (deadline != null) {
+            int remaining = toTimeout(deadline.getRemainingTime());
+            connectTimeout = connectTimeout > 0 ? Math.min(connectTimeout, remaining) : remaining;
+        }
+        if (deadline != null) {
+            deadline.attach(aSocket);
+        }
+        try {
+            aSocket.connect(new InetSocketAddress(aHost, aPort), connectTimeout);
+        } catch (IOException e) {
+            aSocket.close();
+            throw e;
+        } finally {
+            if (deadline != null) {
+                deadline.detach();
+            }
+        }
+    }
+
+    /**
+     * Converts remaining time to socket timeout value
+     *
+     * @param aRemainingTime remaining time in milliseconds
+     * @return timeout, at least <code>1</code> since <code>0</code> means infinite timeout
+     * @throws SocketTimeoutException if deadline is already reached
+     */
+    protected static int toTimeout(long aRemainingTime)
+            throws SocketTimeoutException {
+        if (aRemainingTime <= 0) {
+            throw new SocketTimeoutException("Deadline of remote invocation is reached");
+        }
+        int result = (int) Math.min(Integer.MAX_VALUE, aRemainingTime);
+        return result;
+    }
+
+    /**
+     * Socket which applies deadline of current invocation before blocking operations
+     */
+    protected static class DeadlineAwareSocket
+            extends Socket {
+        protected final int fDefaultReadTimeout;
+        protected int fCurrentReadTimeout = -1;
+        protected InputStream fInput = null;
+        protected OutputStream fOutput = null;
+
+        protected DeadlineAwareSocket(int aDefaultReadTimeout) {
+            fDefaultReadTimeout = aDefaultReadTimeout;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream()
+                throws IOException {
+            if (fInput == null) {
+                fInput = new DeadlineAwareInputStream(this, super.getInputStream());
+            }
+            return fInput;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream()
+                throws IOException {
+            if (fOutput == null) {
+                fOutput = new DeadlineAwareOutputStream(this, super.getOutputStream());
+            }
+            return fOutput;
+        }
+
+        /**
+         * Prepares socket for blocking operation performed by current thread
+         *
+         * @param aRead <code>true</code> if operation is read
+         * @return deadline of current invocation, if any
+         * @throws IOException if deadline is already reached
+         */
+        protected CallDeadline beforeOperation(boolean aRead)
+                throws IOException {
+            CallDeadline result = CallDeadline.current();
+            if (aRead) {
+                int timeout = result == null ? fDefaultReadTimeout : toTimeout(result.getRemainingTime());
+                // setSoTimeout() is not free, so it is skipped if current timeout exceeds remaining
+                // time only slightly - watchdog closes socket at deadline anyway
+                if (timeout != fCurrentReadTimeout && (fCurrentReadTimeout <= 0 || timeout == 0 ||
+                        timeout > fCurrentReadTimeout || fCurrentReadTimeout - timeout > TIMEOUT_SLACK)) {
+                    setSoTimeout(timeout);
+                    fCurrentReadTimeout = timeout;
+                }
+            } else if (result != null) {
+                toTimeout(result.getRemainingTime());
+            }
+            if (result != null) {
+                result.attach(this);
+            }
+            return result;
+        }
+
+        protected void afterOperation(CallDeadline aDeadline) {
+            if (aDeadline != null) {
+                aDeadline.detach();
+            }
+        }
+    }
+
+    protected static class DeadlineAwareInputStream
+            extends FilterInputStream {
+        protected final DeadlineAwareSocket fSocket;
+
+        protected DeadlineAwareInputStream(DeadlineAwareSocket aSocket, InputStream aInput) {
+            super(aInput);
+            fSocket = aSocket;
+        }
+
+        @Override
+        public int read()
+                throws IOException {
+            CallDeadline deadline = fSocket.beforeOperation(true);
+            try {
+                return super.read();
+            } finally {
+                fSocket.afterOperation(deadline);
+            }
+        }
+
+        @Override
+        public int read(byte[] aBuffer, int aOffset, int aLength)
+                throws IOException {
+            CallDeadline deadline = fSocket.beforeOperation(true);
+            try {
+                return super.read(aBuffer, aOffset, aLength);
+            } finally {
+                fSocket.afterOperation(deadline);
+            }
+        }
+    }
+
+    protected static class DeadlineAwareOutputStream
+            extends FilterOutputStream {
+        protected final DeadlineAwareSocket fSocket;
+
+        protected DeadlineAwareOutputStream(DeadlineAwareSocket aSocket, OutputStream aOutput) {
+            super(aOutput);
+            fSocket = aSocket;
+        }
+
+        @Override
+        public void write(int aByte)
+                throws IOException {
+            CallDeadline deadline = fSocket.beforeOperation(false);
+            try {
+                out.write(aByte);
+            } finally {
+                fSocket.afterOperation(deadline);
+            }
+        }
+
+        @Override
+        public void write(byte[] aBuffer, int aOffset, int aLength)
+                throws IOException {
+            CallDeadline deadline = fSocket.beforeOperation(false);
+            try {
+                out.write(aBuffer, aOffset, aLength);
+            } finally {
+                fSocket.afterOperation(deadline);
+            }
+        }
+
+        @Override
+        public void flush()
+                throws IOException {
+            CallDeadline deadline = fSocket.beforeOperation(false);
+            try {
+                out.flush();
+            } finally {
+                fSocket.afterOperation(deadline);
+            }
+        }
+    }
+
+    public int getConnectTimeout() {
+        return fConnectTimeout;
+    }
+
+    /**
+     * Sets timeout (in milliseconds) of establishing connection. If invocation has deadline,
+     * smaller of connect timeout and time remaining to deadline is used.
+     * <p/>
+     * Default is <code>5000</code>
+     *
+     * @param aConnectTimeout timeout in milliseconds, <code>0</code> means no timeout
+     */
+    public void setConnectTimeout(int aConnectTimeout) {
+        fConnectTimeout = aConnectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return fReadTimeout;
+    }
+
+    /**
+     * Sets timeout (in milliseconds) of reading from socket which is used without deadline
+     * <p/>
+     * Default is <code>0</code> (no timeout)
+     *
+     * @param aReadTimeout timeout in milliseconds
+     */
+    public void setReadTimeout(int aReadTimeout) {
+        fReadTimeout = aReadTimeout;
+    }
+
+    /**
+     * RMI runtime reuses connections only for equal socket factories
+     */
+    @Override
+    public boolean equals(Object aObject) {
+        boolean result = false;
+        if (this == aObject) {
+            result = true;
+        } else if (aObject != null && getClass() == aObject.getClass()) {
+            DeadlineAwareRmiClientSocketFactory factory = (DeadlineAwareRmiClientSocketFactory) aObject;
+            result = fConnectTimeout == factory.fConnectTimeout && fReadTimeout == factory.fReadTimeout;
+        }
+        return result;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 31 * fConnectTimeout + fReadTimeout;
+        return result;
+    }
+}
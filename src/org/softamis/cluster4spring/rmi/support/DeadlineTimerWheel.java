@@ -0,0 +1,178 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Hashed timer wheel used to track deadlines of remote invocations. Scheduling and
+ * cancelling of task is O(1) and does not require locks, so wheel is cheap enough to
+ * be used for every invocation (most of tasks are cancelled since invocation completes
+ * before its deadline).
+ * <p/>
+ * Tasks are executed by single daemon thread with precision of one tick, so they
+ * should be short.
+ *
+ * @version 1.0
+ * @see CallDeadline
+ */
+
+public class DeadlineTimerWheel {
+    protected static final Log fLog = LogFactory.getLog(DeadlineTimerWheel.class);
+
+    /**
+     * Task scheduled in the wheel
+     */
+    public static class Timeout {
+        protected final long fDeadline;
+        protected final Runnable fTask;
+        protected volatile boolean fCancelled = false;
+
+        protected Timeout(long aDeadline, Runnable aTask) {
+            fDeadline = aDeadline;
+            fTask = aTask;
+        }
+
+        /**
+         * Cancels task, so it will not be executed
+         */
+        public void cancel() {
+            fCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return fCancelled;
+        }
+    }
+
+    /**
+     * Duration of tick in milliseconds
+     */
+    protected final long fTickDuration;
+
+    /**
+     * Buckets of the wheel
+     */
+    protected final List<ConcurrentLinkedQueue<Timeout>> fBuckets;
+
+    /**
+     * Time when wheel was started
+     */
+    protected final long fStartTime;
+
+    /**
+     * Thread which advances the wheel
+     */
+    protected final Thread fWorker;
+
+    /**
+     * Indicates whether wheel is stopped
+     */
+    protected volatile boolean fStopped = false;
+
+    /**
+     * Creates and starts timer wheel
+     *
+     * @param aName name of worker thread
+     * @param aTickDuration duration of tick in milliseconds
+     * @param aWheelSize amount of buckets in the wheel
+     */
+    public DeadlineTimerWheel(String aName, long aTickDuration, int aWheelSize) {
+        if (aTickDuration < 1 || aWheelSize < 1) {
+            throw new IllegalArgumentException("Tick duration and wheel size should be positive");
+        }
+        fTickDuration = aTickDuration;
+        fBuckets = new ArrayList<ConcurrentLinkedQueue<Timeout>>(aWheelSize);
+        for (int i = 0; i < aWheelSize; i++) {
+            fBuckets.add(new ConcurrentLinkedQueue<Timeout>());
+        }
+        fStartTime = System.currentTimeMillis();
+        fWorker = new Thread(new Runnable() {
+            public void run() {
+                advance();
+            }
+        }, aName);
+        fWorker.setDaemon(true);
+        fWorker.start();
+    }
+
+    /**
+     * Schedules task to be executed at given time
+     *
+     * @param aDeadline time (in milliseconds) when task should be executed
+     * @param aTask task to execute
+     * @return handle which could be used to cancel task
+     */
+    public Timeout schedule(long aDeadline, Runnable aTask) {
+        Timeout result = new Timeout(aDeadline, aTask);
+        long tick = Math.max(0, (aDeadline - fStartTime + fTickDuration - 1) / fTickDuration);
+        int index = (int) (tick % fBuckets.size());
+        fBuckets.get(index).add(result);
+        return result;
+    }
+
+    /**
+     * Stops the wheel. Pending tasks are not executed.
+     */
+    public void stop() {
+        fStopped = true;
+        fWorker.interrupt();
+    }
+
+    protected void advance() {
+        long tick = (System.currentTimeMillis() - fStartTime) / fTickDuration;
+        while (!fStopped) {
+            long tickTime = fStartTime + (tick + 1) * fTickDuration;
+            long sleepTime = tickTime - System.currentTimeMillis();
+            if (sleepTime > 0) {
+                try {
+                    Thread.sleep(sleepTime);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            tick++;
+            expire(fBuckets.get((int) (tick % fBuckets.size())), System.currentTimeMillis());
+        }
+    }
+
+    protected void expire(ConcurrentLinkedQueue<Timeout> aBucket, long aNow) {
+        Iterator<Timeout> iterator = aBucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.fCancelled) {
+                iterator.remove();
+            } else if (timeout.fDeadline <= aNow) {
+                iterator.remove();
+                try {
+                    timeout.fTask.run();
+                } catch (RuntimeException e) {
+                    if (fLog.isWarnEnabled()) {
+                        fLog.warn("Exception in deadline task", e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.rmi.ConnectException;
+import java.rmi.MarshalException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationFactory;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+import org.softamis.cluster4spring.rmi.AbstractRmiServiceExporter;
+import org.softamis.cluster4spring.rmi.stream.RemoteStreams;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Endpoint used if service is exported by the same JVM as proxy. Invocations are applied
+ * directly to the proxy of service created by exporter, so they cost about a method call
+ * instead of loopback RMI.
+ * <p/>
+ * Since RMI passes arguments and results by value, endpoint may copy them via
+ * serialization to preserve the same semantics (so service could not modify arguments
+ * of client and vice versa). Copying is still much cheaper than RMI, but could be
+ * switched off if service and clients do not modify exchanged objects. Arguments and
+ * results which are iterators or streams are never copied - they are passed as is,
+ * together with their elements.
+ * <p/>
+ * Once exporter is destroyed, invocations fail with <code>ConnectException</code>, so
+ * client invalidates endpoint and uses another server, as it does for remote endpoints.
+ *
+ * @version 1.0
+ * @see LocalServiceRegistry
+ * @see RmiEndpointFactory#setLocalInvocations(boolean)
+ */
+
+@SuppressWarnings({"ProhibitedExceptionDeclared"})
+public class LocalRmiEndpoint<SI extends Serializable>
+        extends RmiEndpoint<SI> {
+    /**
+     * Exporter of service
+     */
+    protected final AbstractRmiServiceExporter fExporter;
+
+    /**
+     * Indicates whether arguments and results should be copied via serialization
+     */
+    protected boolean fCopyByValue = true;
+
+    /**
+     * Creates local endpoint.
+     *
+     * @param aRemoteInvocationFactory factory used to create remote invocation
+     * @param aEndpointKey key used to identity endpoint
+     * @param aServiceInfo information need to locate service
+     * @param aRemote remote object exported by exporter
+     * @param aExporter exporter of service
+     */
+    public LocalRmiEndpoint(RemoteInvocationFactory aRemoteInvocationFactory,
+                            String aEndpointKey,
+                            SI aServiceInfo,
+                            Remote aRemote,
+                            AbstractRmiServiceExporter aExporter) {
+        super(aRemoteInvocationFactory, aEndpointKey, aServiceInfo, aRemote);
+        fExporter = aExporter;
+    }
+
+    /**
+     * Performs invocation directly on the proxy of service created by exporter
+     *
+     * @param aMethodInvocation method invocation to invoke
+     * @return result of invocation, if any
+     * @throws Throwable exception that could occur during invocation
+     */
+    @Override
+    protected Object doInvoke(MethodInvocation aMethodInvocation)
+            throws Throwable {
+        RemoteInvocation invocation = createRemoteInvocation(aMethodInvocation);
+        Object result = invokeLocally(invocation);
+        return result;
+    }
+
+    protected Object invokeLocally(RemoteInvocation aInvocation)
+            throws RemoteException, NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        RemoteInvocation invocation = aInvocation;
+        if (fCopyByValue) {
+            try {
+                invocation = copyInvocation(aInvocation);
+            } catch (Exception e) {
+                throw new MarshalException("Unable to copy arguments of local invocation", e);
+            }
+        }
+        Object result = fExporter.invokeLocally(invocation);
+        if (fCopyByValue && result != null && !RemoteStreams.isStreamable(result)) {
+            try {
+                result = copy(result);
+            } catch (Exception e) {
+                throw new UnmarshalException("Unable to copy result of local invocation", e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates copy of invocation via serialization. Arguments which are iterators or streams
+     * could not be serialized, so they are not copied.
+     *
+     * @param aInvocation invocation to copy
+     * @return copy of invocation
+     * @throws IOException if invocation could not be serialized
+     * @throws ClassNotFoundException if class of argument could not be found
+     */
+    protected RemoteInvocation copyInvocation(RemoteInvocation aInvocation)
+            throws IOException, ClassNotFoundException {
+        Object[] arguments = aInvocation.getArguments();
+        RemoteInvocation result = null;
+        if (!RemoteStreams.hasStreamableArguments(arguments)) {
+            result = (RemoteInvocation) copy(aInvocation);
+        } else {
+            Object[] copied = arguments.clone();
+            for (int i = 0; i < copied.length; i++) {
+                if (RemoteStreams.isStreamable(copied[i])) {
+                    copied[i] = null;
+                }
+            }
+            aInvocation.setArguments(copied);
+            try {
+                result = (RemoteInvocation) copy(aInvocation);
+            } finally {
+                aInvocation.setArguments(arguments);
+            }
+            Object[] resultArguments = result.getArguments();
+            for (int i = 0; i < arguments.length; i++) {
+                if (RemoteStreams.isStreamable(arguments[i])) {
+                    resultArguments[i] = arguments[i];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates copy of object via serialization
+     *
+     * @param aObject object to copy
+     * @return copy of object
+     * @throws IOException if object could not be serialized
+     * @throws ClassNotFoundException if class of object could not be found
+     */
+    protected Object copy(Object aObject)
+            throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(aObject);
+        output.close();
+        ConfigurableObjectInputStream input = new ConfigurableObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()), Thread.currentThread().getContextClassLoader());
+        Object result = input.readObject();
+        input.close();
+        return result;
+    }
+
+    /**
+     * Batches are supported by local endpoint, invocations are simply performed one by one
+     *
+     * @return <code>true</code>
+     */
+    @Override
+    public boolean isBatchSupported() {
+        return true;
+    }
+
+    @Override
+    public List<RemoteInvocationResult> invokeBatch(List<MethodInvocation> aMethodInvocations)
+            throws Throwable {
+        setLastAccessTime(System.currentTimeMillis());
+        List<RemoteInvocationResult> result = new ArrayList<RemoteInvocationResult>(aMethodInvocations.size());
+        for (MethodInvocation methodInvocation : aMethodInvocations) {
+            RemoteInvocationResult invocationResult = null;
+            try {
+                invocationResult = new RemoteInvocationResult(invokeLocally(createRemoteInvocation(methodInvocation)));
+            } catch (ConnectException e) {
+                // exporter is destroyed - the whole batch fails, so endpoint is invalidated
+                throw e;
+            } catch (Throwable e) {
+                invocationResult = new RemoteInvocationResult(e);
+            }
+            result.add(invocationResult);
+        }
+        return result;
+    }
+
+    public AbstractRmiServiceExporter getExporter() {
+        return fExporter;
+    }
+
+    public boolean isCopyByValue() {
+        return fCopyByValue;
+    }
+
+    /**
+     * Sets whether arguments and results should be copied via serialization to preserve
+     * semantics of RMI
+     * <p/>
+     * Default is <code>true</code>
+     *
+     * @param aCopyByValue <code>true</code> if arguments and results should be copied
+     */
+    public void setCopyByValue(boolean aCopyByValue) {
+        fCopyByValue = aCopyByValue;
+    }
+}
@@ -0,0 +1,83 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.softamis.cluster4spring.rmi.AbstractRmiServiceExporter;
+
+/**
+ * Registry of RMI services exported by current JVM. Exporters register themselves there,
+ * so endpoint factory could detect that service is exported by the same process and invoke
+ * it directly instead of using loopback RMI.
+ *
+ * @version 1.0
+ * @see LocalRmiEndpoint
+ * @see RmiEndpointFactory#setLocalInvocations(boolean)
+ */
+
+public class LocalServiceRegistry {
+    /**
+     * Exporters by key built from registry port and service name
+     */
+    protected static final ConcurrentMap<String, AbstractRmiServiceExporter> fExporters =
+            new ConcurrentHashMap<String, AbstractRmiServiceExporter>();
+
+    protected LocalServiceRegistry() {
+    }
+
+    /**
+     * Registers exporter of service
+     *
+     * @param aRegistryPort port of RMI registry service is bound to
+     * @param aServiceName name of service
+     * @param aExporter exporter of service
+     */
+    public static void register(int aRegistryPort, String aServiceName, AbstractRmiServiceExporter aExporter) {
+        fExporters.put(createKey(aRegistryPort, aServiceName), aExporter);
+    }
+
+    /**
+     * Unregisters exporter of service
+     *
+     * @param aRegistryPort port of RMI registry service is bound to
+     * @param aServiceName name of service
+     * @param aExporter exporter of service
+     */
+    public static void unregister(int aRegistryPort, String aServiceName, AbstractRmiServiceExporter aExporter) {
+        fExporters.remove(createKey(aRegistryPort, aServiceName), aExporter);
+    }
+
+    /**
+     * Returns exporter of service exported by current JVM
+     *
+     * @param aRegistryPort port of RMI registry service is bound to
+     * @param aServiceName name of service
+     * @return exporter or <code>null</code> if service is not exported by current JVM
+     */
+    public static AbstractRmiServiceExporter getExporter(int aRegistryPort, String aServiceName) {
+        AbstractRmiServiceExporter result = fExporters.get(createKey(aRegistryPort, aServiceName));
+        return result;
+    }
+
+    protected static String createKey(int aRegistryPort, String aServiceName) {
+        String result = aRegistryPort + "/" + aServiceName;
+        return result;
+    }
+}
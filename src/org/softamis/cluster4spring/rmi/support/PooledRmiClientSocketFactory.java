@@ -0,0 +1,721 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * RMI client socket factory which tunes socket options, limits amount of connections per
+ * endpoint, keeps pre-established ("warm") connections to endpoints and collects statistics
+ * of connections.
+ * <p/>
+ * RMI runtime itself reuses idle connections, but closes them after short idle period
+ * (<code>sun.rmi.transport.connectionTimeout</code>, 15 seconds by default), so under bursty
+ * load connections are created and closed constantly. Factory keeps configured amount of
+ * connected sockets per endpoint, so RMI runtime obtains socket without waiting for TCP
+ * handshake. Warm sockets are replaced if they were idle for too long, so they are not
+ * dropped by server or firewalls.
+ * <p/>
+ * If amount of open connections to endpoint reaches the limit, creation of new connection
+ * waits for closing of one of existing connections, but not longer than connect timeout
+ * (and deadline of invocation). If connection could not be obtained, <code>ConnectException</code>
+ * is thrown, so invocation could be retried on another endpoint.
+ * <p/>
+ * Since client socket factory is serialized with stub of remote service, factory should
+ * be specified for exporter of the service:
+ * <pre>
+ * &lt;property name="clientSocketFactory"&gt;
+ *   &lt;bean class="org.softamis.cluster4spring.rmi.support.PooledRmiClientSocketFactory"&gt;
+ *     &lt;property name="maxConnectionsPerEndpoint" value="64"/&gt;
+ *     &lt;property name="warmConnections" value="4"/&gt;
+ *   &lt;/bean&gt;
+ * &lt;/property&gt;
+ * </pre>
+ * Connections and their statistics are kept per JVM, so all stubs with equal factories share them.
+ *
+ * @version 1.0
+ * @see org.softamis.cluster4spring.rmi.AbstractRmiServiceExporter#setClientSocketFactory(java.rmi.server.RMIClientSocketFactory)
+ * @see TunedRmiServerSocketFactory
+ */
+
+public class PooledRmiClientSocketFactory
+        extends DeadlineAwareRmiClientSocketFactory {
+    private static final long serialVersionUID = 1L;
+
+    protected static final Log fLog = LogFactory.getLog(PooledRmiClientSocketFactory.class);
+
+    /**
+     * Connections of endpoints, shared by all instances of factory
+     */
+    protected static final ConcurrentMap<EndpointKey, EndpointConnections> fEndpoints =
+            new ConcurrentHashMap<EndpointKey, EndpointConnections>();
+
+    /**
+     * Executor which establishes warm connections
+     */
+    protected static final ExecutorService fWarmer = createWarmer();
+
+    /**
+     * Value of <code>TCP_NODELAY</code> socket option
+     */
+    protected boolean fTcpNoDelay = true;
+
+    /**
+     * Value of <code>SO_KEEPALIVE</code> socket option
+     */
+    protected boolean fKeepAlive = true;
+
+    /**
+     * Size of socket receive buffer, <code>0</code> if default one should be used
+     */
+    protected int fReceiveBufferSize = 0;
+
+    /**
+     * Size of socket send buffer, <code>0</code> if default one should be used
+     */
+    protected int fSendBufferSize = 0;
+
+    /**
+     * Linger timeout in seconds, negative value if <code>SO_LINGER</code> is disabled
+     */
+    protected int fSoLinger = -1;
+
+    /**
+     * Maximal amount of connections per endpoint, <code>0</code> if amount is not limited
+     */
+    protected int fMaxConnectionsPerEndpoint = 0;
+
+    /**
+     * Amount of warm connections kept per endpoint
+     */
+    protected int fWarmConnections = 0;
+
+    /**
+     * Time (in milliseconds) after which idle warm connection is replaced
+     */
+    protected long fMaxWarmIdleTime = 30000;
+
+    public PooledRmiClientSocketFactory() {
+    }
+
+    protected static ExecutorService createWarmer() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cluster4spring-rmi-warmer-");
+        threadFactory.setDaemon(true);
+        ExecutorService result = Executors.newSingleThreadExecutor(threadFactory);
+        return result;
+    }
+
+    @Override
+    public Socket createSocket(String aHost, int aPort)
+            throws IOException {
+        EndpointConnections endpoint = obtainEndpoint(aHost, aPort);
+        PooledSocket result = endpoint.pollWarmSocket(fMaxWarmIdleTime);
+        if (result == null) {
+            endpoint.acquire(getPermitTimeout());
+            try {
+                result = new PooledSocket(endpoint, fReadTimeout);
+                configure(result);
+                connect(result, aHost, aPort);
+                endpoint.opened();
+            } catch (IOException e) {
+                endpoint.fFailed.incrementAndGet();
+                endpoint.release();
+                throw e;
+            }
+        }
+        if (fWarmConnections > 0) {
+            scheduleWarming(endpoint, aHost, aPort);
+        }
+        return result;
+    }
+
+    /**
+     * Returns time invocation may wait for free connection slot
+     *
+     * @return time in milliseconds, <code>0</code> if time is not limited
+     * @throws IOException if deadline of current invocation is already reached
+     */
+    protected long getPermitTimeout()
+            throws IOException {
+        long result = fConnectTimeout;
+        CallDeadline deadline = CallDeadline.current();
+        if (deadline != null) {
+            long remaining = toTimeout(deadline.getRemainingTime());
+            result = result > 0 ? Math.min(result, remaining) : remaining;
+        }
+        return result;
+    }
+
+    /**
+     * Applies configured options to socket which is not connected yet
+     *
+     * @param aSocket socket
+     * @throws IOException if option could not be set
+     */
+    protected void configure(Socket aSocket)
+            throws IOException {
+        aSocket.setTcpNoDelay(fTcpNoDelay);
+        aSocket.setKeepAlive(fKeepAlive);
+        // buffer sizes should be set before connect, otherwise TCP window scaling is not negotiated
+        if (fReceiveBufferSize > 0) {
+            aSocket.setReceiveBufferSize(fReceiveBufferSize);
+        }
+        if (fSendBufferSize > 0) {
+            aSocket.setSendBufferSize(fSendBufferSize);
+        }
+        if (fSoLinger >= 0) {
+            aSocket.setSoLinger(true, fSoLinger);
+        }
+    }
+
+    protected EndpointConnections obtainEndpoint(String aHost, int aPort) {
+        EndpointKey key = new EndpointKey(this, aHost, aPort);
+        EndpointConnections result = fEndpoints.get(key);
+        if (result == null) {
+            EndpointConnections endpoint = new EndpointConnections(aHost, aPort, fMaxConnectionsPerEndpoint);
+            result = fEndpoints.putIfAbsent(key, endpoint);
+            if (result == null) {
+                result = endpoint;
+            }
+        }
+        return result;
+    }
+
+    protected void scheduleWarming(final EndpointConnections aEndpoint, final String aHost, final int aPort) {
+        if (aEndpoint.fWarmSockets.size() < fWarmConnections && aEndpoint.fWarming.compareAndSet(false, true)) {
+            fWarmer.execute(new Runnable() {
+                public void run() {
+                    try {
+                        warm(aEndpoint, aHost, aPort);
+                    } finally {
+                        aEndpoint.fWarming.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Establishes warm connections to endpoint, while their amount is below configured
+     * one and limit of connections allows
+     *
+     * @param aEndpoint endpoint
+     * @param aHost host of endpoint
+     * @param aPort port of endpoint
+     */
+    protected void warm(EndpointConnections aEndpoint, String aHost, int aPort) {
+        boolean warming = true;
+        while (warming && aEndpoint.fWarmSockets.size() < fWarmConnections && aEndpoint.tryAcquire()) {
+            try {
+                PooledSocket socket = new PooledSocket(aEndpoint, fReadTimeout);
+                configure(socket);
+                connect(socket, aHost, aPort);
+                aEndpoint.opened();
+                aEndpoint.fWarmSockets.add(socket);
+            } catch (IOException e) {
+                aEndpoint.fFailed.incrementAndGet();
+                aEndpoint.release();
+                warming = false;
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug(format("Unable to establish warm connection. Host: [{0}], Port: [{1}]", aHost,
+                            String.valueOf(aPort)), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns connections of all endpoints used by factories in this JVM
+     *
+     * @return connections of endpoints
+     */
+    public static List<EndpointConnections> getEndpoints() {
+        List<EndpointConnections> result = new ArrayList<EndpointConnections>(fEndpoints.values());
+        return result;
+    }
+
+    /**
+     * Connections of single endpoint and their statistics
+     */
+    public static class EndpointConnections {
+        protected final String fHost;
+        protected final int fPort;
+        protected final Semaphore fPermits;
+        protected final ConcurrentLinkedQueue<PooledSocket> fWarmSockets = new ConcurrentLinkedQueue<PooledSocket>();
+        protected final AtomicBoolean fWarming = new AtomicBoolean();
+        protected final AtomicInteger fOpen = new AtomicInteger();
+        protected final AtomicLong fCreated = new AtomicLong();
+        protected final AtomicLong fFailed = new AtomicLong();
+        protected final AtomicLong fRejected = new AtomicLong();
+        protected final AtomicLong fWarmUsed = new AtomicLong();
+        protected final AtomicLong fBytesIn = new AtomicLong();
+        protected final AtomicLong fBytesOut = new AtomicLong();
+
+        protected EndpointConnections(String aHost, int aPort, int aMaxConnections) {
+            fHost = aHost;
+            fPort = aPort;
+            fPermits = aMaxConnections > 0 ? new Semaphore(aMaxConnections) : null;
+        }
+
+        protected void acquire(long aTimeout)
+                throws IOException {
+            boolean acquired = true;
+            if (fPermits != null) {
+                try {
+                    acquired = fPermits.tryAcquire() ||
+                            aTimeout > 0 && fPermits.tryAcquire(aTimeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    acquired = false;
+                }
+            }
+            if (!acquired) {
+                fRejected.incrementAndGet();
+                throw new ConnectException(format("Limit of connections to endpoint is reached. Host: [{0}], Port: [{1}]",
+                        fHost, String.valueOf(fPort)));
+            }
+        }
+
+        protected boolean tryAcquire() {
+            return fPermits == null || fPermits.tryAcquire();
+        }
+
+        protected void release() {
+            if (fPermits != null) {
+                fPermits.release();
+            }
+        }
+
+        protected void opened() {
+            fCreated.incrementAndGet();
+            fOpen.incrementAndGet();
+        }
+
+        protected void closed() {
+            fOpen.decrementAndGet();
+            release();
+        }
+
+        /**
+         * Obtains warm socket, closing ones which were idle for too long
+         *
+         * @param aMaxIdleTime maximal idle time of warm socket
+         * @return warm socket or <code>null</code> if there is no one
+         */
+        protected PooledSocket pollWarmSocket(long aMaxIdleTime) {
+            PooledSocket result = null;
+            long now = System.currentTimeMillis();
+            PooledSocket socket = fWarmSockets.poll();
+            while (result == null && socket != null) {
+                if (socket.isClosed() || now - socket.fCreationTime > aMaxIdleTime) {
+                    socket.closeQuietly();
+                    socket = fWarmSockets.poll();
+                } else {
+                    result = socket;
+                    fWarmUsed.incrementAndGet();
+                }
+            }
+            return result;
+        }
+
+        public String getHost() {
+            return fHost;
+        }
+
+        public int getPort() {
+            return fPort;
+        }
+
+        /**
+         * Returns amount of currently open connections (including warm ones)
+         *
+         * @return amount of connections
+         */
+        public int getOpenConnections() {
+            return fOpen.get();
+        }
+
+        public int getWarmConnections() {
+            return fWarmSockets.size();
+        }
+
+        public long getCreatedConnections() {
+            return fCreated.get();
+        }
+
+        /**
+         * Returns amount of connections which were obtained by RMI runtime from warm ones
+         *
+         * @return amount of connections
+         */
+        public long getWarmConnectionsUsed() {
+            return fWarmUsed.get();
+        }
+
+        public long getFailedConnections() {
+            return fFailed.get();
+        }
+
+        /**
+         * Returns amount of connections which were rejected because of connections limit
+         *
+         * @return amount of rejected connections
+         */
+        public long getRejectedConnections() {
+            return fRejected.get();
+        }
+
+        public long getBytesIn() {
+            return fBytesIn.get();
+        }
+
+        public long getBytesOut() {
+            return fBytesOut.get();
+        }
+
+        @Override
+        public String toString() {
+            return "EndpointConnections{" +
+                    "host=" + fHost +
+                    ", port=" + fPort +
+                    ", open=" + fOpen +
+                    ", warm=" + fWarmSockets.size() +
+                    ", created=" + fCreated +
+                    ", rejected=" + fRejected +
+                    ", bytesIn=" + fBytesIn +
+                    ", bytesOut=" + fBytesOut +
+                    '}';
+        }
+    }
+
+    /**
+     * Key of endpoint connections. Connections are shared only by equal factories.
+     */
+    protected static class EndpointKey {
+        protected final PooledRmiClientSocketFactory fFactory;
+        protected final String fHost;
+        protected final int fPort;
+
+        protected EndpointKey(PooledRmiClientSocketFactory aFactory, String aHost, int aPort) {
+            fFactory = aFactory;
+            fHost = aHost;
+            fPort = aPort;
+        }
+
+        @Override
+        public boolean equals(Object aObject) {
+            boolean result = false;
+            if (this == aObject) {
+                result = true;
+            } else if (aObject instanceof EndpointKey) {
+                EndpointKey key = (EndpointKey) aObject;
+                result = fPort == key.fPort && fHost.equals(key.fHost) && fFactory.equals(key.fFactory);
+            }
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 31 * (31 * fFactory.hashCode() + fHost.hashCode()) + fPort;
+            return result;
+        }
+    }
+
+    /**
+     * Socket which releases connection slot of endpoint on close and counts transferred bytes
+     */
+    protected static class PooledSocket
+            extends DeadlineAwareSocket {
+        protected final EndpointConnections fEndpoint;
+        protected final long fCreationTime = System.currentTimeMillis();
+        protected final AtomicBoolean fClosed = new AtomicBoolean();
+        protected InputStream fCountingInput = null;
+        protected OutputStream fCountingOutput = null;
+
+        protected PooledSocket(EndpointConnections aEndpoint, int aDefaultReadTimeout) {
+            super(aDefaultReadTimeout);
+            fEndpoint = aEndpoint;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream()
+                throws IOException {
+            if (fCountingInput == null) {
+                fCountingInput = new CountingInputStream(super.getInputStream(), fEndpoint.fBytesIn);
+            }
+            return fCountingInput;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream()
+                throws IOException {
+            if (fCountingOutput == null) {
+                fCountingOutput = new CountingOutputStream(super.getOutputStream(), fEndpoint.fBytesOut);
+            }
+            return fCountingOutput;
+        }
+
+        @Override
+        public void close()
+                throws IOException {
+            try {
+                super.close();
+            } finally {
+                // socket may be closed several times (by RMI runtime and by deadline watchdog)
+                if (isConnected() && fClosed.compareAndSet(false, true)) {
+                    fEndpoint.closed();
+                }
+            }
+        }
+
+        protected void closeQuietly() {
+            try {
+                close();
+            } catch (IOException e) {
+                // socket is not used anymore
+            }
+        }
+    }
+
+    protected static class CountingInputStream
+            extends FilterInputStream {
+        protected final AtomicLong fCounter;
+
+        protected CountingInputStream(InputStream aInput, AtomicLong aCounter) {
+            super(aInput);
+            fCounter = aCounter;
+        }
+
+        @Override
+        public int read()
+                throws IOException {
+            int result = super.read();
+            if (result >= 0) {
+                fCounter.incrementAndGet();
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] aBuffer, int aOffset, int aLength)
+                throws IOException {
+            int result = super.read(aBuffer, aOffset, aLength);
+            if (result > 0) {
+                fCounter.addAndGet(result);
+            }
+            return result;
+        }
+    }
+
+    protected static class CountingOutputStream
+            extends FilterOutputStream {
+        protected final AtomicLong fCounter;
+
+        protected CountingOutputStream(OutputStream aOutput, AtomicLong aCounter) {
+            super(aOutput);
+            fCounter = aCounter;
+        }
+
+        @Override
+        public void write(int aByte)
+                throws IOException {
+            out.write(aByte);
+            fCounter.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] aBuffer, int aOffset, int aLength)
+                throws IOException {
+            out.write(aBuffer, aOffset, aLength);
+            fCounter.addAndGet(aLength);
+        }
+    }
+
+    public boolean isTcpNoDelay() {
+        return fTcpNoDelay;
+    }
+
+    /**
+     * Sets value of <code>TCP_NODELAY</code> socket option
+     * <p/>
+     * Default is <code>true</code>
+     *
+     * @param aTcpNoDelay <code>true</code> if Nagle's algorithm should be disabled
+     */
+    public void setTcpNoDelay(boolean aTcpNoDelay) {
+        fTcpNoDelay = aTcpNoDelay;
+    }
+
+    public boolean isKeepAlive() {
+        return fKeepAlive;
+    }
+
+    /**
+     * Sets value of <code>SO_KEEPALIVE</code> socket option
+     * <p/>
+     * Default is <code>true</code>
+     *
+     * @param aKeepAlive <code>true</code> if keep-alive should be enabled
+     */
+    public void setKeepAlive(boolean aKeepAlive) {
+        fKeepAlive = aKeepAlive;
+    }
+
+    public int getReceiveBufferSize() {
+        return fReceiveBufferSize;
+    }
+
+    /**
+     * Sets size of socket receive buffer
+     * <p/>
+     * Default is <code>0</code> (default of operating system is used)
+     *
+     * @param aReceiveBufferSize size in bytes
+     */
+    public void setReceiveBufferSize(int aReceiveBufferSize) {
+        fReceiveBufferSize = aReceiveBufferSize;
+    }
+
+    public int getSendBufferSize() {
+        return fSendBufferSize;
+    }
+
+    /**
+     * Sets size of socket send buffer
+     * <p/>
+     * Default is <code>0</code> (default of operating system is used)
+     *
+     * @param aSendBufferSize size in bytes
+     */
+    public void setSendBufferSize(int aSendBufferSize) {
+        fSendBufferSize = aSendBufferSize;
+    }
+
+    public int getSoLinger() {
+        return fSoLinger;
+    }
+
+    /**
+     * Sets linger timeout (in seconds) of socket
+     * <p/>
+     * Default is <code>-1</code> (<code>SO_LINGER</code> is disabled)
+     *
+     * @param aSoLinger timeout in seconds
+     */
+    public void setSoLinger(int aSoLinger) {
+        fSoLinger = aSoLinger;
+    }
+
+    public int getMaxConnectionsPerEndpoint() {
+        return fMaxConnectionsPerEndpoint;
+    }
+
+    /**
+     * Sets maximal amount of open connections (including warm ones) per endpoint. Since
+     * RMI runtime uses separate connection for every concurrent invocation, this limits
+     * amount of concurrent invocations of endpoint as well.
+     * <p/>
+     * Default is <code>0</code> (amount is not limited)
+     *
+     * @param aMaxConnectionsPerEndpoint amount of connections
+     */
+    public void setMaxConnectionsPerEndpoint(int aMaxConnectionsPerEndpoint) {
+        fMaxConnectionsPerEndpoint = aMaxConnectionsPerEndpoint;
+    }
+
+    public int getWarmConnections() {
+        return fWarmConnections;
+    }
+
+    /**
+     * Sets amount of connected sockets kept per endpoint for future connections of RMI runtime.
+     * Warm connections are established after first connection to endpoint.
+     * <p/>
+     * Default is <code>0</code> (warm connections are not kept)
+     *
+     * @param aWarmConnections amount of connections
+     */
+    public void setWarmConnections(int aWarmConnections) {
+        fWarmConnections = aWarmConnections;
+    }
+
+    public long getMaxWarmIdleTime() {
+        return fMaxWarmIdleTime;
+    }
+
+    /**
+     * Sets time (in milliseconds) after which unused warm connection is closed and replaced
+     * by new one. Should be less than idle timeout of server and firewalls between client
+     * and server.
+     * <p/>
+     * Default is <code>30000</code>
+     *
+     * @param aMaxWarmIdleTime time in milliseconds
+     */
+    public void setMaxWarmIdleTime(long aMaxWarmIdleTime) {
+        fMaxWarmIdleTime = aMaxWarmIdleTime;
+    }
+
+    @Override
+    public boolean equals(Object aObject) {
+        boolean result = super.equals(aObject);
+        if (result && this != aObject) {
+            PooledRmiClientSocketFactory factory = (PooledRmiClientSocketFactory) aObject;
+            result = fTcpNoDelay == factory.fTcpNoDelay && fKeepAlive == factory.fKeepAlive &&
+                    fReceiveBufferSize == factory.fReceiveBufferSize && fSendBufferSize == factory.fSendBufferSize &&
+                    fSoLinger == factory.fSoLinger && fMaxConnectionsPerEndpoint == factory.fMaxConnectionsPerEndpoint &&
+                    fWarmConnections == factory.fWarmConnections && fMaxWarmIdleTime == factory.fMaxWarmIdleTime;
+        }
+        return result;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        result = 31 * result + fReceiveBufferSize;
+        result = 31 * result + fSendBufferSize;
+        result = 31 * result + fMaxConnectionsPerEndpoint;
+        result = 31 * result + fWarmConnections;
+        return result;
+    }
+}
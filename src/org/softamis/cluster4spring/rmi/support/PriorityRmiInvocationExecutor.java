@@ -0,0 +1,542 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.softamis.cluster4spring.support.InvocationPriority;
+import org.softamis.cluster4spring.support.LatencyRecorder;
+
+/**
+ * Invocation executor which performs invocations in order of their priority class and
+ * sheds invocations of lower priority first when it is overloaded. Priority class is
+ * specified by client (see {@link InvocationPriority}); invocations without priority are
+ * considered as <code>NORMAL</code>.
+ * <p/>
+ * Every priority class has own FIFO queue; invocation of lower priority is taken only if
+ * queues of all higher priorities are empty. If capacity of queue is exhausted, arriving
+ * invocation replaces the newest invocation of the lowest priority below its own (which
+ * is rejected), or is rejected itself if there is no such invocation.
+ * <p/>
+ * Load shedding follows CoDel (controlled delay) approach: short bursts are absorbed by the
+ * queue, but standing queue is not. Queueing delay is tracked per priority class - if
+ * invocations of the class continuously wait longer than <code>targetDelay</code> for
+ * <code>interval</code>, class is considered overloaded, and its invocations which waited
+ * longer than target are rejected instead of being performed, until delay drops below the
+ * target again. Delay is checked when invocation is taken from queue and, since starving
+ * class may not be taken from queue at all, for heads of all classes whenever any
+ * invocation arrives or is taken. As less
+ * important invocations are taken from queue last, they exceed the target first, so they
+ * are shed first. <code>CRITICAL</code> invocations (such as health probes) are never shed
+ * by delay - their wait in queue is limited only by <code>maxQueueWaitTime</code>.
+ * <p/>
+ * Rejected invocations are answered by <code>ServerOverloadedException</code>, so clients
+ * could retry them on another server. Amount of shed invocations, queueing delay, queue
+ * depth and state of every priority class are available as metrics.
+ *
+ * @version 1.0
+ * @see InvocationPriority
+ * @see org.softamis.cluster4spring.support.RemoteClientInterceptor#setPriority(int)
+ */
+
+public class PriorityRmiInvocationExecutor
+        extends RmiInvocationExecutor {
+    protected static final Log fLog = LogFactory.getLog(PriorityRmiInvocationExecutor.class);
+
+    /**
+     * Amount of priority classes
+     */
+    protected static final int PRIORITY_CLASSES = InvocationPriority.BULK + 1;
+
+    /**
+     * Target queueing delay in milliseconds
+     */
+    protected long fTargetDelay = 10;
+
+    /**
+     * Interval (in milliseconds) queueing delay should exceed target to consider class overloaded
+     */
+    protected long fInterval = 100;
+
+    /**
+     * Queue of invocations, created together with pool
+     */
+    protected PriorityInvocationQueue fQueue = null;
+
+    /**
+     * Queueing delays of every class, in nanoseconds
+     */
+    protected final LatencyRecorder[] fClassWaits = new LatencyRecorder[PRIORITY_CLASSES];
+
+    /**
+     * Amount of shed invocations of every class
+     */
+    protected final AtomicLongArray fShed = new AtomicLongArray(PRIORITY_CLASSES);
+
+    /**
+     * Queue which keeps invocations of every priority class in separate FIFO queue and sheds
+     * invocations of overloaded classes
+     */
+    protected class PriorityInvocationQueue
+            extends AbstractQueue<Runnable>
+            implements BlockingQueue<Runnable> {
+        protected final ReentrantLock fLock = new ReentrantLock();
+        protected final Condition fNotEmpty = fLock.newCondition();
+        protected final List<ArrayDeque<QueuedInvocation<?>>> fClasses =
+                new ArrayList<ArrayDeque<QueuedInvocation<?>>>(PRIORITY_CLASSES);
+
+        /**
+         * Time (in nanoseconds) since invocations of every class wait longer than target, <code>0</code> if they don't
+         */
+        protected final long[] fAboveTargetSince = new long[PRIORITY_CLASSES];
+        protected final boolean[] fOverloaded = new boolean[PRIORITY_CLASSES];
+        protected int fSize = 0;
+
+        protected PriorityInvocationQueue() {
+            for (int i = 0; i < PRIORITY_CLASSES; i++) {
+                fClasses.add(new ArrayDeque<QueuedInvocation<?>>());
+            }
+        }
+
+        public boolean offer(Runnable aRunnable) {
+            QueuedInvocation<?> invocation = (QueuedInvocation<?>) aRunnable;
+            int priority = toPriorityClass(invocation.fPriority);
+            boolean result = false;
+            fLock.lock();
+            try {
+                shedStale(priority, System.nanoTime());
+                if (fSize >= fQueueCapacity) {
+                    evictLowerPriority(priority);
+                }
+                if (fSize < fQueueCapacity) {
+                    fClasses.get(priority).addLast(invocation);
+                    fSize++;
+                    fNotEmpty.signal();
+                    result = true;
+                }
+            } finally {
+                fLock.unlock();
+            }
+            return result;
+        }
+
+        /**
+         * Sheds invocations from head of queue of given class if class is overloaded
+         */
+        protected void shedStale(int aPriority, long aNow) {
+            ArrayDeque<QueuedInvocation<?>> queue = fClasses.get(aPriority);
+            QueuedInvocation<?> head = queue.peekFirst();
+            if (head != null && updateOverload(aPriority, aNow - head.fEnqueued, aNow)) {
+                while (head != null && isShed(aPriority, aNow - head.fEnqueued)) {
+                    queue.pollFirst();
+                    fSize--;
+                    shed(head, aNow - head.fEnqueued);
+                    head = queue.peekFirst();
+                }
+            }
+        }
+
+        /**
+         * Rejects the newest invocation of the lowest priority below given one, so invocation
+         * of given priority could be queued
+         */
+        protected void evictLowerPriority(int aPriority) {
+            QueuedInvocation<?> evicted = null;
+            for (int i = PRIORITY_CLASSES - 1; evicted == null && i > aPriority; i--) {
+                evicted = fClasses.get(i).pollLast();
+            }
+            if (evicted != null) {
+                fSize--;
+                fShed.incrementAndGet(toPriorityClass(evicted.fPriority));
+                evicted.reject(format("Invocation of priority [{0}] replaced in queue of [{1}] by invocation of priority [{2}]",
+                        evicted.fPriority, fName, aPriority));
+            }
+        }
+
+        /**
+         * Takes invocation of the highest priority, shedding invocations of overloaded classes
+         * (including ones which are not taken from queue) which waited longer than target
+         *
+         * @return invocation or <code>null</code> if queue is empty
+         */
+        protected QueuedInvocation<?> dequeue() {
+            QueuedInvocation<?> result = null;
+            long now = System.nanoTime();
+            // invocations of starving classes are not taken from queue, so their delay is checked there
+            for (int i = 0; i < PRIORITY_CLASSES; i++) {
+                shedStale(i, now);
+            }
+            for (int i = 0; result == null && i < PRIORITY_CLASSES; i++) {
+                ArrayDeque<QueuedInvocation<?>> queue = fClasses.get(i);
+                while (result == null && !queue.isEmpty()) {
+                    QueuedInvocation<?> head = queue.pollFirst();
+                    fSize--;
+                    long wait = now - head.fEnqueued;
+                    if (updateOverload(i, wait, now) && isShed(i, wait)) {
+                        shed(head, wait);
+                    } else {
+                        fClassWaits[i].record(wait);
+                        result = head;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Updates state of priority class by queueing delay of its invocation. Class becomes
+         * overloaded if delay stays above target during whole interval.
+         *
+         * @return <code>true</code> if class is overloaded
+         */
+        protected boolean updateOverload(int aPriority, long aWait, long aNow) {
+            boolean result = false;
+            if (aWait <= TimeUnit.MILLISECONDS.toNanos(fTargetDelay)) {
+                fAboveTargetSince[aPriority] = 0;
+            } else if (fAboveTargetSince[aPriority] == 0) {
+                fAboveTargetSince[aPriority] = aNow;
+            } else {
+                result = aNow - fAboveTargetSince[aPriority] >= TimeUnit.MILLISECONDS.toNanos(fInterval);
+            }
+            if (result != fOverloaded[aPriority]) {
+                fOverloaded[aPriority] = result;
+                if (fLog.isInfoEnabled()) {
+                    fLog.info(format("Priority [{0}] of [{1}] is {2}. Queueing delay: [{3}] ms", aPriority, fName,
+                            result ? "overloaded - shedding started" : "not overloaded - shedding stopped",
+                            TimeUnit.NANOSECONDS.toMillis(aWait)));
+                }
+            }
+            return result;
+        }
+
+        protected boolean isShed(int aPriority, long aWait) {
+            return aPriority != InvocationPriority.CRITICAL && aWait > TimeUnit.MILLISECONDS.toNanos(fTargetDelay);
+        }
+
+        protected void shed(QueuedInvocation<?> aInvocation, long aWait) {
+            int priority = toPriorityClass(aInvocation.fPriority);
+            fClassWaits[priority].record(aWait);
+            fShed.incrementAndGet(priority);
+            String message = format("Invocation of priority [{0}] shed by [{1}] - waited [{2}] ms, target delay is [{3}] ms",
+                    aInvocation.fPriority, fName, TimeUnit.NANOSECONDS.toMillis(aWait), fTargetDelay);
+            if (fLog.isDebugEnabled()) {
+                fLog.debug(message);
+            }
+            aInvocation.reject(message);
+        }
+
+        public Runnable take()
+                throws InterruptedException {
+            Runnable result = null;
+            fLock.lockInterruptibly();
+            try {
+                result = dequeue();
+                while (result == null) {
+                    fNotEmpty.await();
+                    result = dequeue();
+                }
+            } finally {
+                fLock.unlock();
+            }
+            return result;
+        }
+
+        public Runnable poll(long aTimeout, TimeUnit aUnit)
+                throws InterruptedException {
+            Runnable result = null;
+            long nanos = aUnit.toNanos(aTimeout);
+            fLock.lockInterruptibly();
+            try {
+                result = dequeue();
+                while (result == null && nanos > 0) {
+                    nanos = fNotEmpty.awaitNanos(nanos);
+                    result = dequeue();
+                }
+            } finally {
+                fLock.unlock();
+            }
+            return result;
+        }
+
+        public Runnable poll() {
+            Runnable result = null;
+            fLock.lock();
+            try {
+                result = dequeue();
+            } finally {
+                fLock.unlock();
+            }
+            return result;
+        }
+
+        public Runnable peek() {
+            Runnable result = null;
+            fLock.lock();
+            try {
+                for (int i = 0; result == null && i < PRIORITY_CLASSES; i++) {
+                    result = fClasses.get(i).peekFirst();
+                }
+            } finally {
+                fLock.unlock();
+            }
+            return result;
+        }
+
+        public boolean offer(Runnable aRunnable, long aTimeout, TimeUnit aUnit) {
+            return offer(aRunnable);
+        }
+
+        public void put(Runnable aRunnable) {
+            if (!offer(aRunnable)) {
+                throw new IllegalStateException("Queue is full");
+            }
+        }
+
+        public int remainingCapacity() {
+            return Math.max(0, fQueueCapacity - size());
+        }
+
+        @Override
+        public boolean remove(Object aObject) {
+            boolean result = false;
+            fLock.lock();
+            try {
+                for (int i = 0; !result && i < PRIORITY_CLASSES; i++) {
+                    result = fClasses.get(i).remove(aObject);
+                }
+                if (result) {
+                    fSize--;
+                }
+            } finally {
+                fLock.unlock();
+            }
+            return result;
+        }
+
+        public int drainTo(Collection<? super Runnable> aCollection) {
+            return drainTo(aCollection, Integer.MAX_VALUE);
+        }
+
+        public int drainTo(Collection<? super Runnable> aCollection, int aMaxElements) {
+            int result = 0;
+            fLock.lock();
+            try {
+                for (int i = 0; result < aMaxElements && i < PRIORITY_CLASSES; i++) {
+                    ArrayDeque<QueuedInvocation<?>> queue = fClasses.get(i);
+                    while (result < aMaxElements && !queue.isEmpty()) {
+                        aCollection.add(queue.pollFirst());
+                        fSize--;
+                        result++;
+                    }
+                }
+            } finally {
+                fLock.unlock();
+            }
+            return result;
+        }
+
+        /**
+         * Returns snapshot of queued invocations
+         */
+        @Override
+        public Iterator<Runnable> iterator() {
+            List<Runnable> result = new ArrayList<Runnable>();
+            fLock.lock();
+            try {
+                for (ArrayDeque<QueuedInvocation<?>> queue : fClasses) {
+                    result.addAll(queue);
+                }
+            } finally {
+                fLock.unlock();
+            }
+            return result.iterator();
+        }
+
+        @Override
+        public int size() {
+            fLock.lock();
+            try {
+                return fSize;
+            } finally {
+                fLock.unlock();
+            }
+        }
+
+        protected int size(int aPriority) {
+            fLock.lock();
+            try {
+                return fClasses.get(aPriority).size();
+            } finally {
+                fLock.unlock();
+            }
+        }
+
+        protected boolean isOverloaded(int aPriority) {
+            fLock.lock();
+            try {
+                return fOverloaded[aPriority];
+            } finally {
+                fLock.unlock();
+            }
+        }
+    }
+
+    public PriorityRmiInvocationExecutor() {
+        for (int i = 0; i < PRIORITY_CLASSES; i++) {
+            fClassWaits[i] = new LatencyRecorder(1000);
+        }
+    }
+
+    @Override
+    protected BlockingQueue<Runnable> createQueue() {
+        BlockingQueue<Runnable> result = null;
+        if (fQueueCapacity > 0) {
+            fQueue = new PriorityInvocationQueue();
+            result = fQueue;
+        } else {
+            result = super.createQueue();
+        }
+        return result;
+    }
+
+    /**
+     * Converts priority received from client to index of priority class
+     *
+     * @param aPriority priority
+     * @return priority class
+     */
+    protected static int toPriorityClass(int aPriority) {
+        return Math.max(InvocationPriority.CRITICAL, Math.min(InvocationPriority.BULK, aPriority));
+    }
+
+    /**
+     * Returns amount of shed invocations of given priority class - ones rejected since
+     * class was overloaded or replaced in full queue by invocations of higher priority
+     *
+     * @param aPriority priority class
+     * @return amount of shed invocations
+     */
+    public long getShed(int aPriority) {
+        return fShed.get(toPriorityClass(aPriority));
+    }
+
+    /**
+     * Returns amount of shed invocations of all priority classes
+     *
+     * @return amount of shed invocations
+     */
+    public long getShed() {
+        long result = 0;
+        for (int i = 0; i < PRIORITY_CLASSES; i++) {
+            result += fShed.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether given priority class is overloaded, so its invocations are shed
+     *
+     * @param aPriority priority class
+     * @return <code>true</code> if class is overloaded
+     */
+    public boolean isOverloaded(int aPriority) {
+        PriorityInvocationQueue queue = fQueue;
+        return queue != null && queue.isOverloaded(toPriorityClass(aPriority));
+    }
+
+    /**
+     * Returns amount of invocations of given priority class waiting in queue
+     *
+     * @param aPriority priority class
+     * @return queue depth
+     */
+    public int getQueueDepth(int aPriority) {
+        PriorityInvocationQueue queue = fQueue;
+        return queue == null ? 0 : queue.size(toPriorityClass(aPriority));
+    }
+
+    /**
+     * Returns given percentile of time recent invocations of given priority class waited in queue
+     *
+     * @param aPriority priority class
+     * @param aPercentile percentile, in range (0, 1]
+     * @return wait time in nanoseconds
+     */
+    public long getQueueWait(int aPriority, double aPercentile) {
+        return fClassWaits[toPriorityClass(aPriority)].getPercentile(aPercentile);
+    }
+
+    public long getTargetDelay() {
+        return fTargetDelay;
+    }
+
+    /**
+     * Sets target queueing delay in milliseconds. Invocations of overloaded class which
+     * waited longer are shed.
+     * <p/>
+     * Default is <code>10</code>
+     *
+     * @param aTargetDelay delay in milliseconds
+     */
+    public void setTargetDelay(long aTargetDelay) {
+        fTargetDelay = aTargetDelay;
+    }
+
+    public long getInterval() {
+        return fInterval;
+    }
+
+    /**
+     * Sets interval (in milliseconds) queueing delay should stay above target to consider
+     * priority class overloaded. Should be longer than usual bursts of invocations.
+     * <p/>
+     * Default is <code>100</code>
+     *
+     * @param aInterval interval in milliseconds
+     */
+    public void setInterval(long aInterval) {
+        fInterval = aInterval;
+    }
+
+    @Override
+    public String toString() {
+        return "PriorityRmiInvocationExecutor{" +
+                "name=" + fName +
+                ", active=" + getActiveCount() +
+                ", queued=" + getQueueDepth() +
+                ", rejected=" + fRejected +
+                ", expired=" + fExpired +
+                ", shed=" + fShed +
+                '}';
+    }
+}
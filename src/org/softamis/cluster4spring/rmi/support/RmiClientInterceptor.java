@@ -19,7 +19,10 @@ package org.softamis.cluster4spring.rmi.support;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.SocketTimeoutException;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.UnmarshalException;
 
 import static java.text.MessageFormat.format;
 
@@ -31,9 +34,15 @@ import org.apache.commons.logging.LogFactory;
 import org.springframework.remoting.RemoteAccessException;
 import org.springframework.remoting.RemoteConnectFailureException;
 import org.springframework.remoting.rmi.RmiClientInterceptorUtils;
+import org.springframework.remoting.support.RemoteInvocationResult;
 
+import org.softamis.cluster4spring.rmi.stream.RemoteStreams;
 import org.softamis.cluster4spring.support.EndpointFactory;
+import org.softamis.cluster4spring.support.EndpointOverloadedException;
+import org.softamis.cluster4spring.support.InvocationAbandonedException;
+import org.softamis.cluster4spring.support.InvocationAttempts;
 import org.softamis.cluster4spring.support.RemoteClientInterceptor;
+import org.softamis.cluster4spring.support.RemoteInvocationTimeoutException;
 import org.softamis.cluster4spring.support.ServiceMoniker;
 
 import org.aopalliance.aop.AspectException;
@@ -114,16 +123,87 @@ public class RmiClientInterceptor<SI extends ServiceMoniker>
 
 
     /**
-     * Perform the given aInvocation on the given RMI aStub.
+     * Perform the given aInvocation on the given RMI aStub. If attempt has timeout, it is
+     * performed within <code>CallDeadline</code>, so socket factory of the stub could enforce it.
+     * Such attempt is also aborted (by closing its socket) if invocation is abandoned, for
+     * example since its hedge completed first.
      *
      * @param aInvocation the AOP method aInvocation
      * @param aServiceEndpoint the RMI aStub to invoke
      * @return the aInvocation result, if any
-     * @throws Throwable in case of aInvocation failure
+     * @throws Throwable in case of aInvocation failure, <code>RemoteInvocationTimeoutException</code>
+     * if invocation was not completed before deadline, <code>InvocationAbandonedException</code>
+     * if invocation was abandoned
+     * @see DeadlineAwareRmiClientSocketFactory
+     * @see InvocationAttempts#abandon()
      */
     @Override
     protected Object doInvoke(MethodInvocation aInvocation, RmiEndpoint<SI> aServiceEndpoint)
             throws Throwable {
+        long timeout = getAttemptTimeout(aInvocation.getMethod());
+        Object result = null;
+        if (timeout <= 0) {
+            result = doInvokeRmi(aInvocation, aServiceEndpoint);
+        } else {
+            final CallDeadline deadline = CallDeadline.begin(timeout);
+            InvocationAttempts attempts = fCurrentAttempts.get();
+            if (attempts != null) {
+                attempts.setAbandonHandler(new Runnable() {
+                    public void run() {
+                        deadline.expire();
+                    }
+                });
+            }
+            try {
+                result = doInvokeRmi(aInvocation, aServiceEndpoint);
+            } catch (RemoteAccessException ex) {
+                if (attempts != null && attempts.isAbandoned()) {
+                    throw new InvocationAbandonedException(format("Invocation of remote service [{0}] on [{1}] was abandoned",
+                            fBeanName, aServiceEndpoint.getServiceInfo()), ex);
+                }
+                if (deadline.isExpired() || isTimeout(ex)) {
+                    SI serviceInfo = aServiceEndpoint.getServiceInfo();
+                    String message = format("Invocation of remote service [{0}] on [{1}] was not completed within [{2}] ms",
+                            fBeanName, serviceInfo, timeout);
+                    throw new RemoteInvocationTimeoutException(message, ex);
+                }
+                throw ex;
+            } finally {
+                if (attempts != null) {
+                    attempts.setAbandonHandler(null);
+                }
+                deadline.end();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether given exception was caused by socket timeout
+     *
+     * @param aException exception to check
+     * @return <code>true</code> if exception indicates timeout
+     */
+    protected boolean isTimeout(RemoteAccessException aException) {
+        boolean result = false;
+        Throwable cause = aException.getCause();
+        while (!result && cause != null) {
+            result = cause instanceof SocketTimeoutException;
+            cause = cause.getCause();
+        }
+        return result;
+    }
+
+    /**
+     * Performs invocation via RMI and converts RMI exceptions.
+     *
+     * @param aInvocation the AOP method aInvocation
+     * @param aServiceEndpoint the RMI aStub to invoke
+     * @return the aInvocation result, if any
+     * @throws Throwable in case of aInvocation failure
+     */
+    protected Object doInvokeRmi(MethodInvocation aInvocation, RmiEndpoint<SI> aServiceEndpoint)
+            throws Throwable {
         if (fLog.isTraceEnabled()) {
             fLog.trace("Starting invoking remote invocation via RMI");
         }
@@ -165,6 +245,123 @@ public class RmiClientInterceptor<SI extends ServiceMoniker>
         return result;
     }
 
+    /**
+     * Invocation with streamed arguments (iterators or streams) is never retried, since its
+     * arguments could be already partially consumed by the failed attempt.
+     *
+     * @param aInvocation the invocation that failed
+     * @return <code>true</code> if invocation could be retried
+     * @see RemoteStreams
+     */
+    @Override
+    protected boolean isRetryAllowed(MethodInvocation aInvocation) {
+        boolean result = false;
+        if (RemoteStreams.hasStreamableArguments(aInvocation.getArguments())) {
+            if (fLog.isWarnEnabled()) {
+                fLog.warn(format("Invocation with streamed arguments will not be retried. Bean Name: [{0}], Method: [{1}]",
+                        fBeanName, aInvocation.getMethod().getName()));
+            }
+        } else {
+            result = super.isRetryAllowed(aInvocation);
+        }
+        return result;
+    }
+
+    /**
+     * Invocation with streamed arguments is performed individually, since arguments of
+     * batched invocations are not streamed.
+     *
+     * @param aInvocation method invocation to invoke
+     * @return result of method invocation
+     * @throws Throwable application logic specific exception or <code>RemoteAccessException</code>
+     */
+    @Override
+    protected Object doCollapsedInvoke(MethodInvocation aInvocation)
+            throws Throwable {
+        Object result = null;
+        if (RemoteStreams.hasStreamableArguments(aInvocation.getArguments())) {
+            result = doInvoke(aInvocation);
+        } else {
+            result = super.doCollapsedInvoke(aInvocation);
+        }
+        return result;
+    }
+
+    /**
+     * Invocation with streamed arguments is not hedged, since the same iterator or stream
+     * could not be consumed by several endpoints.
+     *
+     * @param aInvocation method invocation to invoke
+     * @return result of method invocation
+     * @throws Throwable application logic specific exception or <code>RemoteAccessException</code>
+     */
+    @Override
+    protected Object doHedgedInvoke(MethodInvocation aInvocation)
+            throws Throwable {
+        Object result = null;
+        if (RemoteStreams.hasStreamableArguments(aInvocation.getArguments())) {
+            result = doInvoke(aInvocation);
+        } else {
+            result = super.doHedgedInvoke(aInvocation);
+        }
+        return result;
+    }
+
+    /**
+     * RMI invoker supports batched invocations
+     *
+     * @return always returns <code>true</code>
+     */
+    @Override
+    protected boolean isBatchingSupported() {
+        return true;
+    }
+
+    /**
+     * Sends batch of invocations via given RMI endpoint. If endpoint uses traditional RMI stub,
+     * batch is not supported and invocations will be performed individually.
+     *
+     * @param aInvocations invocations to send
+     * @param aServiceEndpoint endpoint used for remote service invocation
+     * @return results of invocations in the same order
+     * @throws Throwable in case of invocation failure
+     */
+    @Override
+    protected List<RemoteInvocationResult> doInvokeBatch(List<MethodInvocation> aInvocations,
+                                                         RmiEndpoint<SI> aServiceEndpoint)
+            throws Throwable {
+        List<RemoteInvocationResult> result = null;
+        try {
+            result = aServiceEndpoint.invokeBatch(aInvocations);
+        } catch (RemoteException ex) {
+            throwRmiAccessException(aInvocations.get(0), ex, aServiceEndpoint);
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether given failure of batch proves that batch was not delivered to the server.
+     * In addition to failures recognized by default, batch was not performed if server was not
+     * able to unmarshal it (like server which does not know class of batch). On the other hand,
+     * failure to unmarshal returned results means batch could be already performed.
+     *
+     * @param aFailure failure of batch
+     * @return <code>true</code> if batch was certainly not performed by the server
+     */
+    @Override
+    protected boolean isBatchNotDelivered(Throwable aFailure) {
+        boolean result = super.isBatchNotDelivered(aFailure);
+        Throwable cause = aFailure.getCause();
+        if (cause instanceof UnmarshalException) {
+            // request was written, but result could not be read
+            result = false;
+        } else if (cause instanceof ServerException && cause.getCause() instanceof UnmarshalException) {
+            // server was not able to read arguments of the batch
+            result = true;
+        }
+        return result;
+    }
+
     /**
      * Utility method to throw RmiAccessException
      * Utility method to throw RmiAccessException
@@ -206,7 +403,10 @@ public class RmiClientInterceptor<SI extends ServiceMoniker>
         Exception result = null;
         Class<?>[] exceptionTypes = aMethod.getExceptionTypes();
         List<? extends Class<?>> exceptionClassesList = Arrays.asList(exceptionTypes);
-        if (exceptionClassesList.contains(RemoteException.class)) {
+        if (ServerOverloadedException.isServerOverloaded(aRemoteException)) {
+            // invocation was not performed, so it could be sent to another server
+            result = new EndpointOverloadedException("Remote service [" + aServiceInfo + "] is overloaded", aRemoteException);
+        } else if (exceptionClassesList.contains(RemoteException.class)) {
             result = new RemoteAccessException("Cannot access remote service [" + aServiceInfo + "]", aRemoteException);
         } else {
             if (aConnectFailure) {
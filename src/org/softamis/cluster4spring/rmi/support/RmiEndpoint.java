@@ -18,16 +18,37 @@
 package org.softamis.cluster4spring.rmi.support;
 
 import java.io.Serializable;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.rmi.MarshalException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.text.MessageFormat.format;
 
 import org.springframework.remoting.rmi.RmiClientInterceptorUtils;
 import org.springframework.remoting.rmi.RmiInvocationHandler;
 import org.springframework.remoting.support.RemoteInvocation;
 import org.springframework.remoting.support.RemoteInvocationFactory;
+import org.springframework.remoting.support.RemoteInvocationResult;
 
+import org.softamis.cluster4spring.rmi.stream.RemoteStreamHandle;
+import org.softamis.cluster4spring.rmi.stream.RemoteStreams;
+import org.softamis.cluster4spring.support.BatchRemoteInvocation;
 import org.softamis.cluster4spring.support.Endpoint;
+import org.softamis.cluster4spring.support.PriorityRemoteInvocationFactory;
+import org.softamis.cluster4spring.support.codec.EncodedInvocationResult;
+import org.softamis.cluster4spring.support.codec.EncodedRemoteInvocation;
+import org.softamis.cluster4spring.support.codec.InvocationCodec;
+import org.softamis.cluster4spring.support.compact.ClientInvocationSession;
+import org.softamis.cluster4spring.support.compact.CompactRemoteInvocation;
+import org.softamis.cluster4spring.support.compact.NegotiatedSession;
+import org.softamis.cluster4spring.support.compact.NegotiationRemoteInvocation;
+import org.softamis.cluster4spring.support.compact.UnknownSessionException;
 
 import org.aopalliance.intercept.MethodInvocation;
 
@@ -47,6 +68,31 @@ public class RmiEndpoint<SI extends Serializable>
      */
     protected Remote fRemote = null;
 
+    /**
+     * Amount of elements in one chunk of streamed argument
+     */
+    protected int fStreamChunkSize = RemoteStreams.DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Amount of chunks of streamed result fetched ahead of consumer
+     */
+    protected int fStreamCredits = RemoteStreams.DEFAULT_CREDITS;
+
+    /**
+     * Codec used to encode invocations, if not specified invocations are serialized by RMI
+     */
+    protected InvocationCodec fCodec = null;
+
+    /**
+     * Indicates whether invocations should be sent in compact form
+     */
+    protected volatile boolean fCompactInvocations = false;
+
+    /**
+     * Session of compact invocations negotiated with server
+     */
+    protected ClientInvocationSession fInvocationSession = null;
+
     /**
      * Creates RMI endpoint.
      *
@@ -126,6 +172,8 @@ public class RmiEndpoint<SI extends Serializable>
     /**
      * Apply the given AOP method invocation to the given RmiInvocationHandler.
      * The default implementation calls invoke with a plain RemoteInvocation.
+     * Arguments and result which are iterators or streams are transferred chunk by chunk;
+     * if invocation fails, chunk sources exported for arguments are closed.
      * <p>Can be overridden in subclasses to provide custom RemoteInvocation
      * subclasses, containing additional invocation parameters like user
      * credentials. Can also process the returned result object.
@@ -141,10 +189,272 @@ public class RmiEndpoint<SI extends Serializable>
     protected Object doInvokeInternal(MethodInvocation aMethodInvocation, RmiInvocationHandler aInvocationHandler)
             throws RemoteException, NoSuchMethodException, IllegalAccessException, InvocationTargetException {
         RemoteInvocation remoteInvocation = createRemoteInvocation(aMethodInvocation);
-        Object result = aInvocationHandler.invoke(remoteInvocation);
+        RemoteStreams.exportArguments(remoteInvocation, fStreamChunkSize);
+        Object result = null;
+        boolean completed = false;
+        try {
+            result = sendInvocation(aMethodInvocation, remoteInvocation, aInvocationHandler);
+            completed = true;
+        } finally {
+            if (!completed) {
+                // server may never pull streamed arguments, so they should not stay exported
+                RemoteStreams.closeArguments(remoteInvocation);
+            }
+        }
+        if (result instanceof RemoteStreamHandle) {
+            result = RemoteStreams.open((RemoteStreamHandle) result, fStreamCredits);
+        }
+        return result;
+    }
+
+
+    /**
+     * Sends invocation to server in compact form if session of compact invocations is
+     * negotiated with server, or in usual form otherwise
+     *
+     * @param aMethodInvocation the current AOP method invocation
+     * @param aInvocation invocation to send
+     * @param aInvocationHandler the RmiInvocationHandler to apply the invocation to
+     * @return the invocation result
+     * @throws RemoteException if invocation could not be sent
+     * @throws NoSuchMethodException     if the method name could not be resolved
+     * @throws IllegalAccessException    if the method could not be accessed
+     * @throws InvocationTargetException if the method invocation resulted in an exception
+     */
+    protected Object sendInvocation(MethodInvocation aMethodInvocation, RemoteInvocation aInvocation,
+                                    RmiInvocationHandler aInvocationHandler)
+            throws RemoteException, NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Object result = null;
+        ClientInvocationSession session = fCompactInvocations ? obtainInvocationSession(aInvocationHandler) : null;
+        CompactRemoteInvocation compactInvocation = session == null ? null :
+                session.compact(aMethodInvocation.getMethod(), aInvocation);
+        if (compactInvocation == null) {
+            result = sendInvocation(aInvocation, aInvocationHandler);
+        } else {
+            try {
+                result = sendInvocation(compactInvocation, aInvocationHandler);
+                session.confirm(compactInvocation);
+            } catch (InvocationTargetException e) {
+                // invocation was received by server, so it knows strings defined there
+                session.confirm(compactInvocation);
+                throw e;
+            } catch (RemoteException e) {
+                if (!UnknownSessionException.isUnknownSession(e)) {
+                    throw e;
+                }
+                // server was restarted or session expired - negotiate new one next time
+                resetInvocationSession(session);
+                result = sendInvocation(aInvocation, aInvocationHandler);
+            }
+        }
         return result;
     }
 
+    /**
+     * Sends invocation to server, encoding it by codec if one is specified
+     *
+     * @param aInvocation invocation to send
+     * @param aInvocationHandler the RmiInvocationHandler to apply the invocation to
+     * @return the invocation result
+     * @throws RemoteException if invocation could not be sent
+     * @throws NoSuchMethodException     if the method name could not be resolved
+     * @throws IllegalAccessException    if the method could not be accessed
+     * @throws InvocationTargetException if the method invocation resulted in an exception
+     */
+    protected Object sendInvocation(RemoteInvocation aInvocation, RmiInvocationHandler aInvocationHandler)
+            throws RemoteException, NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Object result = null;
+        if (fCodec == null) {
+            result = aInvocationHandler.invoke(aInvocation);
+        } else {
+            result = invokeEncoded(aInvocation, aInvocationHandler);
+        }
+        return result;
+    }
+
+    /**
+     * Returns session of compact invocations, negotiating it with server if necessary. If server
+     * does not support compact invocations, they are switched off for this endpoint.
+     *
+     * @param aInvocationHandler the RmiInvocationHandler used to negotiate session
+     * @return session or <code>null</code> if invocation should be sent in usual form
+     */
+    protected synchronized ClientInvocationSession obtainInvocationSession(RmiInvocationHandler aInvocationHandler) {
+        if (fInvocationSession == null && fCompactInvocations) {
+            try {
+                NegotiatedSession negotiated = (NegotiatedSession) aInvocationHandler.invoke(new NegotiationRemoteInvocation());
+                fInvocationSession = new ClientInvocationSession(negotiated);
+            } catch (NoSuchMethodException e) {
+                fCompactInvocations = false;
+                if (fLog.isInfoEnabled()) {
+                    fLog.info(format("Compact invocations are not supported by server, switched off. Endpoint: [{0}]",
+                            getEndpointKey()));
+                }
+            } catch (Exception e) {
+                // invocation will be sent in usual form and will report the problem, if any
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug(format("Unable to negotiate compact invocation session. Endpoint: [{0}]",
+                            getEndpointKey()), e);
+                }
+            }
+        }
+        return fInvocationSession;
+    }
+
+    protected synchronized void resetInvocationSession(ClientInvocationSession aSession) {
+        if (fInvocationSession == aSession) {
+            fInvocationSession = null;
+        }
+    }
+
+    /**
+     * Sends invocation encoded by codec and decodes its result. Exceptions are thrown
+     * in the same form as ones thrown by <code>RmiInvocationHandler</code> for not encoded
+     * invocation.
+     *
+     * @param aInvocation invocation to send
+     * @param aInvocationHandler the RmiInvocationHandler to apply the invocation to
+     * @return the invocation result
+     * @throws RemoteException if invocation could not be sent or its result could not be decoded
+     * @throws NoSuchMethodException     if the method name could not be resolved
+     * @throws IllegalAccessException    if the method could not be accessed
+     * @throws InvocationTargetException if the method invocation resulted in an exception
+     * @see InvocationCodec
+     */
+    protected Object invokeEncoded(RemoteInvocation aInvocation, RmiInvocationHandler aInvocationHandler)
+            throws RemoteException, NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        byte[] payload = null;
+        try {
+            payload = fCodec.encode(aInvocation);
+        } catch (IOException e) {
+            throw new MarshalException("Unable to encode invocation by codec " + fCodec.getName(), e);
+        }
+        EncodedRemoteInvocation envelope = new EncodedRemoteInvocation(fCodec.getName(), payload);
+        PriorityRemoteInvocationFactory.copyPriority(Collections.singletonList(aInvocation), envelope);
+        Object encoded = aInvocationHandler.invoke(envelope);
+
+        RemoteInvocationResult invocationResult = null;
+        try {
+            invocationResult = (RemoteInvocationResult) fCodec.decode(((EncodedInvocationResult) encoded).getPayload());
+        } catch (IOException e) {
+            throw new UnmarshalException("Unable to decode result by codec " + fCodec.getName(), e);
+        } catch (ClassNotFoundException e) {
+            throw new UnmarshalException("Unable to decode result by codec " + fCodec.getName(), e);
+        }
+
+        Throwable exception = invocationResult.getException();
+        if (exception instanceof InvocationTargetException) {
+            throw (InvocationTargetException) exception;
+        } else if (exception instanceof NoSuchMethodException) {
+            throw (NoSuchMethodException) exception;
+        } else if (exception instanceof IllegalAccessException) {
+            throw (IllegalAccessException) exception;
+        } else if (exception != null) {
+            throw new InvocationTargetException(exception);
+        }
+        return invocationResult.getValue();
+    }
+
+    /**
+     * Checks whether batched invocations could be sent via this endpoint. Batches
+     * are supported only by RMI invoker, not by traditional RMI stubs.
+     *
+     * @return <code>true</code> if batches are supported
+     */
+    public boolean isBatchSupported() {
+        return fRemote instanceof RmiInvocationHandler;
+    }
+
+    /**
+     * Sends given method invocations to the server as single remote invocation. Invocations
+     * should not have streamed arguments, but their results could be streamed.
+     *
+     * @param aMethodInvocations method invocations to send
+     * @return results of invocations in the same order
+     * @throws Throwable exception that could occur during invocation
+     * @see #isBatchSupported()
+     * @see BatchRemoteInvocation
+     */
+    @SuppressWarnings({"unchecked"})
+    public List<RemoteInvocationResult> invokeBatch(List<MethodInvocation> aMethodInvocations)
+            throws Throwable {
+        if (!isBatchSupported()) {
+            throw new UnsupportedOperationException("Batches are supported only by RMI invoker");
+        }
+        List<RemoteInvocation> invocations = new ArrayList<RemoteInvocation>(aMethodInvocations.size());
+        for (MethodInvocation methodInvocation : aMethodInvocations) {
+            invocations.add(createRemoteInvocation(methodInvocation));
+        }
+        setLastAccessTime(System.currentTimeMillis());
+
+        BatchRemoteInvocation batch = new BatchRemoteInvocation(invocations);
+        PriorityRemoteInvocationFactory.copyPriority(invocations, batch);
+        List<RemoteInvocationResult> result = (List<RemoteInvocationResult>) ((RmiInvocationHandler) fRemote).invoke(batch);
+        for (int i = 0; i < result.size(); i++) {
+            RemoteInvocationResult invocationResult = result.get(i);
+            if (!invocationResult.hasException() && invocationResult.getValue() instanceof RemoteStreamHandle) {
+                Object value = RemoteStreams.open((RemoteStreamHandle) invocationResult.getValue(), fStreamCredits);
+                result.set(i, new RemoteInvocationResult(value));
+            }
+        }
+        return result;
+    }
+
+    public int getStreamChunkSize() {
+        return fStreamChunkSize;
+    }
+
+    /**
+     * Sets amount of elements in one chunk of streamed argument
+     *
+     * @param aStreamChunkSize amount of elements
+     * @see RemoteStreams
+     */
+    public void setStreamChunkSize(int aStreamChunkSize) {
+        fStreamChunkSize = aStreamChunkSize;
+    }
+
+    public int getStreamCredits() {
+        return fStreamCredits;
+    }
+
+    /**
+     * Sets amount of chunks of streamed result fetched ahead of consumer
+     *
+     * @param aStreamCredits amount of chunks
+     * @see org.softamis.cluster4spring.rmi.stream.RemoteChunkIterator
+     */
+    public void setStreamCredits(int aStreamCredits) {
+        fStreamCredits = aStreamCredits;
+    }
+
+    public InvocationCodec getCodec() {
+        return fCodec;
+    }
+
+    /**
+     * Sets codec used to encode invocations sent via RMI invoker
+     *
+     * @param aCodec codec or <code>null</code> if Java serialization performed by RMI should be used
+     */
+    public void setCodec(InvocationCodec aCodec) {
+        fCodec = aCodec;
+    }
+
+    public boolean isCompactInvocations() {
+        return fCompactInvocations;
+    }
+
+    /**
+     * Sets whether invocations sent via RMI invoker should be in compact form, i.e. contain
+     * index of method negotiated with server instead of method name and parameter types
+     *
+     * @param aCompactInvocations <code>true</code> if compact invocations should be used
+     * @see CompactRemoteInvocation
+     */
+    public void setCompactInvocations(boolean aCompactInvocations) {
+        fCompactInvocations = aCompactInvocations;
+    }
 
     /**
      * Returns remote object used by endpoint
@@ -17,11 +17,15 @@
 
 package org.softamis.cluster4spring.rmi.support;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
+import java.net.NetworkInterface;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.rmi.registry.Registry;
 
 import static java.text.MessageFormat.format;
 
@@ -31,8 +35,11 @@ import org.apache.commons.logging.LogFactory;
 import org.springframework.remoting.RemoteAccessException;
 import org.springframework.remoting.support.RemoteInvocationFactory;
 
+import org.softamis.cluster4spring.rmi.AbstractRmiServiceExporter;
+import org.softamis.cluster4spring.rmi.stream.RemoteStreams;
 import org.softamis.cluster4spring.support.EndpointFactory;
 import org.softamis.cluster4spring.support.ServiceMoniker;
+import org.softamis.cluster4spring.support.codec.InvocationCodec;
 
 /**
  * Endpoint factory used to create RMI related endpoints.
@@ -52,6 +59,36 @@ public class RmiEndpointFactory<SI extends ServiceMoniker>
      */
     public static final String RMI_PROTOCOL_PREFIX = "rmi://";
 
+    /**
+     * Amount of elements in one chunk of streamed argument
+     */
+    protected int fStreamChunkSize = RemoteStreams.DEFAULT_CHUNK_SIZE;
+
+    /**
+     * Amount of chunks of streamed result fetched ahead of consumer
+     */
+    protected int fStreamCredits = RemoteStreams.DEFAULT_CREDITS;
+
+    /**
+     * Codec used by endpoints to encode invocations
+     */
+    protected InvocationCodec fCodec = null;
+
+    /**
+     * Indicates whether endpoints should send invocations in compact form
+     */
+    protected boolean fCompactInvocations = false;
+
+    /**
+     * Indicates whether services exported by the same JVM should be invoked directly
+     */
+    protected boolean fLocalInvocations = false;
+
+    /**
+     * Indicates whether local endpoints should copy arguments and results via serialization
+     */
+    protected boolean fCopyLocalInvocations = true;
+
     public RmiEndpointFactory() {
     }
 
@@ -73,12 +110,18 @@ public class RmiEndpointFactory<SI extends ServiceMoniker>
             throws RemoteAccessException {
         RmiEndpoint<SI> result = null;
         try {
-            // first we try to locate RMI stub for remote service using given service info
-            //首次尝试去加载rmi stub;lookUp(serviceUrl)
-            Remote remote = obtainRemoteStub(aBeanName, aServiceInfo);
+            AbstractRmiServiceExporter localExporter = fLocalInvocations ? findLocalExporter(aServiceInfo) : null;
+            if (localExporter != null) {
+                // service is exported by the same JVM, so there is no need to use RMI
+                result = createLocalEndpoint(aFactory, aBeanName, aServiceInfo, localExporter);
+            } else {
+                // first we try to locate RMI stub for remote service using given service info
+                //首次尝试去加载rmi stub;lookUp(serviceUrl)
+                Remote remote = obtainRemoteStub(aBeanName, aServiceInfo);
 
-            // if remote is located, we create corresponding endpoint for it
-            result = createRmiEndpoint(aFactory, aBeanName, aServiceInfo, remote);
+                // if remote is located, we create corresponding endpoint for it
+                result = createRmiEndpoint(aFactory, aBeanName, aServiceInfo, remote);
+            }
         } catch (Exception e) {
             String message = format("Unable to obtain remote for bean [{0}] with URL [{1}]", aBeanName, aServiceInfo);
             if (fLog.isErrorEnabled()) {
@@ -103,6 +146,90 @@ public class RmiEndpointFactory<SI extends ServiceMoniker>
                                                 SI aServiceInfo,
                                                 Remote aRemote) {
         RmiEndpoint<SI> result = new RmiEndpoint<SI>(aRemoteInvocationFactory, aEndpointKey, aServiceInfo, aRemote);
+        result.setStreamChunkSize(fStreamChunkSize);
+        result.setStreamCredits(fStreamCredits);
+        result.setCodec(fCodec);
+        result.setCompactInvocations(fCompactInvocations);
+        return result;
+    }
+
+    /**
+     * Creates endpoint which invokes service exported by the same JVM directly
+     *
+     * @param aRemoteInvocationFactory factory used to create remote invocation
+     * @param aEndpointKey endpoint key
+     * @param aServiceInfo information about service
+     * @param aExporter exporter of service
+     * @return created endpoint
+     */
+    protected RmiEndpoint<SI> createLocalEndpoint(RemoteInvocationFactory aRemoteInvocationFactory,
+                                                  String aEndpointKey,
+                                                  SI aServiceInfo,
+                                                  AbstractRmiServiceExporter aExporter) {
+        LocalRmiEndpoint<SI> result = new LocalRmiEndpoint<SI>(aRemoteInvocationFactory, aEndpointKey, aServiceInfo,
+                aExporter.getExportedObject(), aExporter);
+        result.setCopyByValue(fCopyLocalInvocations);
+        if (fLog.isDebugEnabled()) {
+            fLog.debug(format("Service for bean [{0}] with URL [{1}] is exported locally, it will be invoked directly",
+                    aEndpointKey, aServiceInfo));
+        }
+        return result;
+    }
+
+    /**
+     * Returns exporter of service if service is exported as RMI invoker by current JVM. Service
+     * is considered local if its URL refers to local address, port of registry and name
+     * of one of services registered in <code>LocalServiceRegistry</code>.
+     *
+     * @param aServiceInfo information about service
+     * @return exporter or <code>null</code> if service is not exported by current JVM
+     */
+    protected AbstractRmiServiceExporter findLocalExporter(SI aServiceInfo) {
+        String address = getServiceUrl(aServiceInfo).substring(RMI_PROTOCOL_PREFIX.length());
+        int slash = address.indexOf('/');
+        AbstractRmiServiceExporter result = null;
+        if (slash >= 0) {
+            String serviceName = address.substring(slash + 1);
+            String hostAndPort = address.substring(0, slash);
+            int colon = hostAndPort.lastIndexOf(':');
+            String host = colon < 0 ? hostAndPort : hostAndPort.substring(0, colon);
+            int port = Registry.REGISTRY_PORT;
+            try {
+                if (colon >= 0) {
+                    port = Integer.parseInt(hostAndPort.substring(colon + 1));
+                }
+                AbstractRmiServiceExporter exporter = LocalServiceRegistry.getExporter(port, serviceName);
+                if (exporter != null && exporter.getExportedObject() != null && isLocalHost(host)) {
+                    result = exporter;
+                }
+            } catch (NumberFormatException e) {
+                // not a valid URL, so RMI lookup will report the problem
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether given host refers to current machine
+     *
+     * @param aHost name or address of host
+     * @return <code>true</code> if host is local
+     */
+    protected boolean isLocalHost(String aHost) {
+        boolean result = false;
+        if (aHost.length() == 0) {
+            result = true;
+        } else {
+            try {
+                InetAddress address = InetAddress.getByName(aHost);
+                result = address.isLoopbackAddress() || address.isAnyLocalAddress() ||
+                        NetworkInterface.getByInetAddress(address) != null;
+            } catch (IOException e) {
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug(format("Unable to check whether host [{0}] is local", aHost), e);
+                }
+            }
+        }
         return result;
     }
 
@@ -157,4 +284,110 @@ public class RmiEndpointFactory<SI extends ServiceMoniker>
         }
         return result;
     }
+
+    public InvocationCodec getCodec() {
+        return fCodec;
+    }
+
+    /**
+     * Sets codec used by created endpoints to encode invocations sent via RMI invoker.
+     * Exporter of the service should support codec with the same name.
+     * <p/>
+     * Default is <code>null</code> (invocations are serialized by RMI)
+     *
+     * @param aCodec codec
+     * @see org.softamis.cluster4spring.support.codec.CompactCodec
+     * @see org.softamis.cluster4spring.support.codec.CompressingCodec
+     */
+    public void setCodec(InvocationCodec aCodec) {
+        fCodec = aCodec;
+    }
+
+    public boolean isCompactInvocations() {
+        return fCompactInvocations;
+    }
+
+    /**
+     * Sets whether endpoints should send invocations in compact form. Endpoint negotiates
+     * table of methods with server once, after that every invocation carries index of method
+     * instead of its name and parameter types, and names of attributes are replaced by
+     * identifiers. If server does not support compact invocations, usual ones are sent.
+     * Invocations created by custom <code>RemoteInvocationFactory</code> as subclasses of
+     * <code>RemoteInvocation</code> are always sent in usual form.
+     * <p/>
+     * Default is <code>false</code>
+     *
+     * @param aCompactInvocations <code>true</code> if compact invocations should be used
+     * @see org.softamis.cluster4spring.support.compact.CompactRemoteInvocation
+     */
+    public void setCompactInvocations(boolean aCompactInvocations) {
+        fCompactInvocations = aCompactInvocations;
+    }
+
+    public boolean isLocalInvocations() {
+        return fLocalInvocations;
+    }
+
+    /**
+     * Sets whether services exported by the same JVM (by <code>AbstractRmiServiceExporter</code>
+     * as RMI invoker) should be invoked directly, without loopback RMI, registry lookup and
+     * serialization of invocation.
+     * <p/>
+     * Default is <code>false</code>
+     *
+     * @param aLocalInvocations <code>true</code> if local services should be invoked directly
+     * @see LocalRmiEndpoint
+     */
+    public void setLocalInvocations(boolean aLocalInvocations) {
+        fLocalInvocations = aLocalInvocations;
+    }
+
+    public boolean isCopyLocalInvocations() {
+        return fCopyLocalInvocations;
+    }
+
+    /**
+     * Sets whether arguments and results of local invocations should be copied via
+     * serialization, so they are passed by value as with RMI. Could be switched off if
+     * service and clients do not modify exchanged objects.
+     * <p/>
+     * Default is <code>true</code>
+     *
+     * @param aCopyLocalInvocations <code>true</code> if arguments and results should be copied
+     */
+    public void setCopyLocalInvocations(boolean aCopyLocalInvocations) {
+        fCopyLocalInvocations = aCopyLocalInvocations;
+    }
+
+    public int getStreamChunkSize() {
+        return fStreamChunkSize;
+    }
+
+    /**
+     * Sets amount of elements in one chunk of streamed argument (iterator or stream passed to
+     * remote method)
+     * <p/>
+     * Default is <code>1000</code>
+     *
+     * @param aStreamChunkSize amount of elements
+     */
+    public void setStreamChunkSize(int aStreamChunkSize) {
+        fStreamChunkSize = aStreamChunkSize;
+    }
+
+    public int getStreamCredits() {
+        return fStreamCredits;
+    }
+
+    /**
+     * Sets amount of chunks of streamed result (iterator or stream returned by remote method)
+     * fetched ahead of consumer
+     * <p/>
+     * Default is <code>2</code>
+     *
+     * @param aStreamCredits amount of chunks
+     */
+    public void setStreamCredits(int aStreamCredits) {
+        fStreamCredits = aStreamCredits;
+    }
 }
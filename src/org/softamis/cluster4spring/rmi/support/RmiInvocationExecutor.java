@@ -0,0 +1,464 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.rmi.RemoteException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import org.softamis.cluster4spring.support.InvocationPriority;
+import org.softamis.cluster4spring.support.LatencyRecorder;
+
+/**
+ * Bounded pool which performs invocations received by RMI invoker. Without it, business
+ * logic is executed directly by RMI connection threads (one per connection), so under load
+ * spike amount of threads performing invocations is not limited.
+ * <p/>
+ * RMI connection thread hands invocation to the pool and waits for its completion, so
+ * amount of concurrently performed invocations is limited by <code>threads</code>.
+ * Invocations which could not be performed immediately wait in queue of
+ * <code>queueCapacity</code> size. If queue is full, or invocation waited in queue longer
+ * than <code>maxQueueWaitTime</code>, it is rejected by <code>ServerOverloadedException</code>
+ * without being performed, so client could send it to another server.
+ * <p/>
+ * RMI connection thread waits while invocation is in queue, so <code>maxQueueWaitTime</code>
+ * is what bounds amount of waiting connection threads under sustained overload. It is
+ * limited by default and should be set to value shorter than timeouts of clients - invocation
+ * which waited longer is useless, since client already gave up.
+ * <p/>
+ * Pool threads could be virtual threads (if supported by JVM), which is useful if
+ * invocations mostly wait for I/O.
+ * <p/>
+ * Every exporter should have own executor, so statistics (queue depth, wait time and
+ * rejections) are collected per service:
+ * <pre>
+ * &lt;property name="invocationExecutor"&gt;
+ *   &lt;bean class="org.softamis.cluster4spring.rmi.support.RmiInvocationExecutor"&gt;
+ *     &lt;property name="threads" value="32"/&gt;
+ *     &lt;property name="queueCapacity" value="200"/&gt;
+ *     &lt;property name="maxQueueWaitTime" value="500"/&gt;
+ *   &lt;/bean&gt;
+ * &lt;/property&gt;
+ * </pre>
+ *
+ * @version 1.0
+ * @see org.softamis.cluster4spring.rmi.AbstractRmiServiceExporter#setInvocationExecutor(RmiInvocationExecutor)
+ * @see ServerOverloadedException
+ */
+
+public class RmiInvocationExecutor
+        implements DisposableBean {
+    protected static final Log fLog = LogFactory.getLog(RmiInvocationExecutor.class);
+
+    /**
+     * Name of executor used for names of threads and in messages
+     */
+    protected String fName = null;
+
+    /**
+     * Amount of threads which perform invocations
+     */
+    protected int fThreads = 50;
+
+    /**
+     * Maximal amount of invocations waiting for free thread
+     */
+    protected int fQueueCapacity = 100;
+
+    /**
+     * Maximal time (in milliseconds) invocation could wait in queue, <code>0</code> if it is not limited
+     */
+    protected long fMaxQueueWaitTime = 1000;
+
+    /**
+     * Indicates whether invocations are performed by virtual threads
+     */
+    protected boolean fVirtualThreads = false;
+
+    /**
+     * Underlying pool, created on first invocation
+     */
+    protected ThreadPoolExecutor fExecutor = null;
+
+    /**
+     * Time invocations waited in queue, in nanoseconds
+     */
+    protected final LatencyRecorder fQueueWaits = new LatencyRecorder(1000);
+
+    protected final AtomicLong fExecuted = new AtomicLong();
+    protected final AtomicLong fRejected = new AtomicLong();
+    protected final AtomicLong fExpired = new AtomicLong();
+
+    /**
+     * Sequence used to order invocations of the same priority
+     */
+    protected final AtomicLong fSequence = new AtomicLong();
+
+    /**
+     * Invocation waiting in queue
+     *
+     * @param <T> type of result
+     */
+    protected class QueuedInvocation<T>
+            extends FutureTask<T> {
+        protected final long fEnqueued = System.nanoTime();
+        protected final long fOrder = fSequence.incrementAndGet();
+        protected final int fPriority;
+
+        protected QueuedInvocation(Callable<T> aTask, int aPriority) {
+            super(aTask);
+            fPriority = aPriority;
+        }
+
+        @Override
+        public void run() {
+            long wait = System.nanoTime() - fEnqueued;
+            fQueueWaits.record(wait);
+            String rejection = checkQueueWait(this, wait);
+            if (rejection == null) {
+                fExecuted.incrementAndGet();
+                super.run();
+            } else {
+                reject(rejection);
+            }
+        }
+
+        /**
+         * Completes invocation by <code>ServerOverloadedException</code> without performing it
+         *
+         * @param aMessage message of exception
+         */
+        protected void reject(String aMessage) {
+            setException(new ServerOverloadedException(aMessage));
+        }
+
+        public int getPriority() {
+            return fPriority;
+        }
+    }
+
+    public RmiInvocationExecutor() {
+    }
+
+    /**
+     * Performs given task in the pool and waits for its completion
+     *
+     * @param aTask task which performs invocation
+     * @return result of task
+     * @throws ServerOverloadedException if task was rejected since pool is overloaded
+     * @throws Exception exception thrown by task
+     */
+    public <T> T execute(Callable<T> aTask)
+            throws Exception {
+        T result = execute(aTask, InvocationPriority.NORMAL);
+        return result;
+    }
+
+    /**
+     * Performs given task of given priority class in the pool and waits for its completion.
+     * This implementation ignores priority - tasks are performed in order of arrival.
+     *
+     * @param aTask task which performs invocation
+     * @param aPriority priority class of invocation
+     * @return result of task
+     * @throws ServerOverloadedException if task was rejected since pool is overloaded
+     * @throws Exception exception thrown by task
+     * @see InvocationPriority
+     */
+    public <T> T execute(Callable<T> aTask, int aPriority)
+            throws Exception {
+        ThreadPoolExecutor executor = obtainExecutor();
+        QueuedInvocation<T> invocation = new QueuedInvocation<T>(aTask, aPriority);
+        try {
+            executor.execute(invocation);
+        } catch (RejectedExecutionException e) {
+            fRejected.incrementAndGet();
+            String message = format("Server is overloaded - queue of [{0}] is full. Threads: [{1}], Queue Capacity: [{2}]",
+                    fName, fThreads, fQueueCapacity);
+            if (fLog.isDebugEnabled()) {
+                fLog.debug(message);
+            }
+            throw new ServerOverloadedException(message);
+        }
+
+        T result = null;
+        try {
+            result = invocation.get();
+        } catch (InterruptedException e) {
+            // invocation which is already performed is not interrupted, since business logic
+            // could leave its state inconsistent; only invocation waiting in queue is cancelled
+            invocation.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for invocation", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new UndeclaredThrowableException(cause);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether invocation taken from queue should be performed
+     *
+     * @param aInvocation invocation taken from queue
+     * @param aWait time (in nanoseconds) invocation waited in queue
+     * @return message of rejection or <code>null</code> if invocation should be performed
+     */
+    protected String checkQueueWait(QueuedInvocation<?> aInvocation, long aWait) {
+        String result = null;
+        if (fMaxQueueWaitTime > 0 && aWait > TimeUnit.MILLISECONDS.toNanos(fMaxQueueWaitTime)) {
+            // client probably already gave up, and performing stale invocation only makes queue longer
+            fExpired.incrementAndGet();
+            result = format("Invocation waited in queue of [{0}] for [{1}] ms", fName, TimeUnit.NANOSECONDS.toMillis(aWait));
+        }
+        return result;
+    }
+
+    protected synchronized ThreadPoolExecutor obtainExecutor() {
+        if (fExecutor == null) {
+            String name = fName == null ? "cluster4spring-rmi-invoker" : fName;
+            ThreadFactory threadFactory = fVirtualThreads ? createVirtualThreadFactory(name) : null;
+            if (threadFactory == null) {
+                CustomizableThreadFactory platformThreadFactory = new CustomizableThreadFactory(name + "-");
+                platformThreadFactory.setDaemon(true);
+                threadFactory = platformThreadFactory;
+            }
+            fExecutor = new ThreadPoolExecutor(fThreads, fThreads, 60L, TimeUnit.SECONDS, createQueue(), threadFactory,
+                    new ThreadPoolExecutor.AbortPolicy());
+            fExecutor.allowCoreThreadTimeOut(true);
+        }
+        return fExecutor;
+    }
+
+    /**
+     * Creates queue of invocations waiting for free thread
+     *
+     * @return bounded queue
+     */
+    protected BlockingQueue<Runnable> createQueue() {
+        BlockingQueue<Runnable> result = null;
+        if (fQueueCapacity > 0) {
+            result = new ArrayBlockingQueue<Runnable>(fQueueCapacity);
+        } else {
+            result = new SynchronousQueue<Runnable>();
+        }
+        return result;
+    }
+
+    /**
+     * Creates factory of virtual threads. Since virtual threads are not available in
+     * all supported JVMs, they are obtained via reflection.
+     *
+     * @param aName prefix of names of threads
+     * @return thread factory or <code>null</code> if virtual threads are not supported
+     */
+    protected ThreadFactory createVirtualThreadFactory(String aName) {
+        ThreadFactory result = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, aName + "-", 1L);
+            result = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            if (fLog.isWarnEnabled()) {
+                fLog.warn(format("Virtual threads are not supported by JVM, platform threads are used by [{0}]", aName));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stops threads of the pool. Invocations waiting in queue are not performed.
+     */
+    public synchronized void destroy() {
+        if (fExecutor != null) {
+            fExecutor.shutdownNow();
+            fExecutor = null;
+        }
+    }
+
+    /**
+     * Returns amount of invocations waiting in queue
+     *
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        ThreadPoolExecutor executor = fExecutor;
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * Returns amount of invocations currently performed
+     *
+     * @return amount of active invocations
+     */
+    public int getActiveCount() {
+        ThreadPoolExecutor executor = fExecutor;
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    /**
+     * Returns given percentile of time recent invocations waited in queue
+     *
+     * @param aPercentile percentile, in range (0, 1]
+     * @return wait time in nanoseconds
+     */
+    public long getQueueWait(double aPercentile) {
+        return fQueueWaits.getPercentile(aPercentile);
+    }
+
+    /**
+     * Returns amount of invocations performed
+     *
+     * @return amount of invocations
+     */
+    public long getExecuted() {
+        return fExecuted.get();
+    }
+
+    /**
+     * Returns amount of invocations rejected since queue was full
+     *
+     * @return amount of rejected invocations
+     */
+    public long getRejected() {
+        return fRejected.get();
+    }
+
+    /**
+     * Returns amount of invocations rejected since they waited in queue too long
+     *
+     * @return amount of expired invocations
+     */
+    public long getExpired() {
+        return fExpired.get();
+    }
+
+    public String getName() {
+        return fName;
+    }
+
+    /**
+     * Sets name of executor used for names of threads and in messages. If it is not
+     * specified, exporter sets it to the name of service.
+     *
+     * @param aName name
+     */
+    public void setName(String aName) {
+        fName = aName;
+    }
+
+    public int getThreads() {
+        return fThreads;
+    }
+
+    /**
+     * Sets amount of threads which perform invocations
+     * <p/>
+     * Default is <code>50</code>
+     *
+     * @param aThreads amount of threads
+     */
+    public void setThreads(int aThreads) {
+        fThreads = aThreads;
+    }
+
+    public int getQueueCapacity() {
+        return fQueueCapacity;
+    }
+
+    /**
+     * Sets maximal amount of invocations waiting for free thread
+     * <p/>
+     * Default is <code>100</code> (<code>0</code> means that invocation is rejected if there is no free thread)
+     *
+     * @param aQueueCapacity capacity of queue
+     */
+    public void setQueueCapacity(int aQueueCapacity) {
+        fQueueCapacity = aQueueCapacity;
+    }
+
+    public long getMaxQueueWaitTime() {
+        return fMaxQueueWaitTime;
+    }
+
+    /**
+     * Sets maximal time (in milliseconds) invocation could wait in queue. Invocation which
+     * waited longer is rejected instead of being performed. Should be shorter than timeouts
+     * of clients; <code>0</code> disables the limit, so RMI connection threads could pile up
+     * while invocations wait in queue.
+     * <p/>
+     * Default is <code>1000</code>
+     *
+     * @param aMaxQueueWaitTime time in milliseconds
+     */
+    public void setMaxQueueWaitTime(long aMaxQueueWaitTime) {
+        fMaxQueueWaitTime = aMaxQueueWaitTime;
+    }
+
+    public boolean isVirtualThreads() {
+        return fVirtualThreads;
+    }
+
+    /**
+     * Sets whether invocations are performed by virtual threads. If JVM does not support
+     * virtual threads, platform threads are used.
+     * <p/>
+     * Default is <code>false</code>
+     *
+     * @param aVirtualThreads <code>true</code> if virtual threads should be used
+     */
+    public void setVirtualThreads(boolean aVirtualThreads) {
+        fVirtualThreads = aVirtualThreads;
+    }
+
+    @Override
+    public String toString() {
+        return "RmiInvocationExecutor{" +
+                "name=" + fName +
+                ", active=" + getActiveCount() +
+                ", queued=" + getQueueDepth() +
+                ", rejected=" + fRejected +
+                ", expired=" + fExpired +
+                '}';
+    }
+}
@@ -0,0 +1,54 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown by server if invocation could not be accepted since server is overloaded.
+ * Invocation was not performed, so client could safely send it to another server.
+ *
+ * @version 1.0
+ * @see RmiInvocationExecutor
+ * @see org.softamis.cluster4spring.support.EndpointOverloadedException
+ */
+
+public class ServerOverloadedException
+        extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    public ServerOverloadedException(String aMessage) {
+        super(aMessage);
+    }
+
+    /**
+     * Checks whether given exception (or its cause) indicates overload of server
+     *
+     * @param aException exception to check
+     * @return <code>true</code> if invocation could be sent to another server
+     */
+    public static boolean isServerOverloaded(Throwable aException) {
+        boolean result = false;
+        Throwable exception = aException;
+        while (!result && exception != null) {
+            result = exception instanceof ServerOverloadedException;
+            exception = exception.getCause();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,823 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.softamis.cluster4spring.rmi.support.PooledRmiClientSocketFactory.CountingInputStream;
+import org.softamis.cluster4spring.rmi.support.PooledRmiClientSocketFactory.CountingOutputStream;
+import org.softamis.cluster4spring.support.LatencyRecorder;
+
+/**
+ * RMI server socket factory which tunes options of listening and accepted sockets, limits
+ * amount of accepted connections and collects statistics of them.
+ * <p/>
+ * RMI runtime accepts connections by single thread which also starts handling of every
+ * accepted connection, so under connection storm (for example, when all clients reconnect
+ * after deploy) queue of incoming connections overflows and clients wait for connect
+ * timeout. Factory allows to increase the queue (<code>backlog</code>) and to accept
+ * connections by several threads (<code>acceptorThreads</code>) which move them to
+ * internal queue consumed by RMI runtime. If <code>reusePort</code> is set (and
+ * <code>SO_REUSEPORT</code> is supported by JVM and operating system), every acceptor
+ * thread uses own listening socket bound to the same port, so kernel distributes incoming
+ * connections between them.
+ * <p/>
+ * Connections are checked at accept time, before RMI runtime reads anything from them:
+ * if total amount of open connections or amount of connections from the same address
+ * exceeds the limit, connection is reset immediately, so client fails fast and could
+ * use another server instead of waiting.
+ * <p/>
+ * Latency of accept path (time between accepting connection from the kernel and passing
+ * it to RMI runtime) is recorded and available via {@link #getAcceptLatency(double)}.
+ * <p/>
+ * Usually factory is used together with {@link PooledRmiClientSocketFactory}:
+ * <pre>
+ * &lt;property name="serverSocketFactory"&gt;
+ *   &lt;bean class="org.softamis.cluster4spring.rmi.support.TunedRmiServerSocketFactory"&gt;
+ *     &lt;property name="backlog" value="1024"/&gt;
+ *     &lt;property name="acceptorThreads" value="2"/&gt;
+ *     &lt;property name="maxConnectionsPerAddress" value="100"/&gt;
+ *   &lt;/bean&gt;
+ * &lt;/property&gt;
+ * </pre>
+ *
+ * @version 1.0
+ * @see org.softamis.cluster4spring.rmi.AbstractRmiServiceExporter#setServerSocketFactory(RMIServerSocketFactory)
+ */
+
+public class TunedRmiServerSocketFactory
+        implements RMIServerSocketFactory {
+    protected static final Log fLog = LogFactory.getLog(TunedRmiServerSocketFactory.class);
+
+    /**
+     * Interval (in milliseconds) RMI accept loop checks whether server socket is closed
+     */
+    protected static final long CLOSE_CHECK_INTERVAL = 100;
+
+    /**
+     * <code>SO_REUSEPORT</code> option, <code>null</code> if it is not supported by JVM
+     */
+    protected static final Object fReusePortOption;
+    protected static final Method fSupportedOptions;
+    protected static final Method fSetOption;
+
+    static {
+        Object reusePortOption = null;
+        Method supportedOptions = null;
+        Method setOption = null;
+        try {
+            // option is available since Java 9
+            reusePortOption = Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+            supportedOptions = ServerSocket.class.getMethod("supportedOptions");
+            setOption = ServerSocket.class.getMethod("setOption", Class.forName("java.net.SocketOption"), Object.class);
+        } catch (Exception e) {
+            reusePortOption = null;
+        }
+        fReusePortOption = reusePortOption;
+        fSupportedOptions = supportedOptions;
+        fSetOption = setOption;
+    }
+
+    /**
+     * Maximal length of queue of incoming connections, <code>0</code> if default one should be used
+     */
+    protected int fBacklog = 0;
+
+    /**
+     * Address server socket is bound to, <code>null</code> if socket accepts connections on all addresses
+     */
+    protected String fBindAddress = null;
+
+    /**
+     * Value of <code>SO_REUSEADDR</code> option of server socket
+     */
+    protected boolean fReuseAddress = true;
+
+    /**
+     * Indicates whether every acceptor thread should use own listening socket with <code>SO_REUSEPORT</code>
+     */
+    protected boolean fReusePort = false;
+
+    /**
+     * Amount of threads accepting connections, <code>0</code> if they are accepted by RMI runtime directly
+     */
+    protected int fAcceptorThreads = 0;
+
+    /**
+     * Capacity of queue of connections accepted by acceptor threads but not taken by RMI runtime yet
+     */
+    protected int fAcceptQueueCapacity = 1000;
+
+    /**
+     * Maximal amount of open connections, <code>0</code> if amount is not limited
+     */
+    protected int fMaxConnections = 0;
+
+    /**
+     * Maximal amount of open connections from single address, <code>0</code> if amount is not limited
+     */
+    protected int fMaxConnectionsPerAddress = 0;
+
+    /**
+     * Value of <code>TCP_NODELAY</code> option of accepted sockets
+     */
+    protected boolean fTcpNoDelay = true;
+
+    /**
+     * Value of <code>SO_KEEPALIVE</code> option of accepted sockets
+     */
+    protected boolean fKeepAlive = true;
+
+    /**
+     * Size of receive buffer of accepted sockets, <code>0</code> if default one should be used
+     */
+    protected int fReceiveBufferSize = 0;
+
+    /**
+     * Size of send buffer of accepted sockets, <code>0</code> if default one should be used
+     */
+    protected int fSendBufferSize = 0;
+
+    /**
+     * Amount of open connections per remote address
+     */
+    protected final Map<InetAddress, Integer> fConnectionsPerAddress = new HashMap<InetAddress, Integer>();
+
+    /**
+     * Latencies (in nanoseconds) of accept path
+     */
+    protected final LatencyRecorder fAcceptLatencies = new LatencyRecorder(1000);
+
+    protected final AtomicLong fAccepted = new AtomicLong();
+    protected final AtomicInteger fOpen = new AtomicInteger();
+    protected final AtomicLong fRejectedByLimit = new AtomicLong();
+    protected final AtomicLong fRejectedByAddress = new AtomicLong();
+    protected final AtomicLong fRejectedByQueue = new AtomicLong();
+    protected final AtomicLong fBytesIn = new AtomicLong();
+    protected final AtomicLong fBytesOut = new AtomicLong();
+
+    public TunedRmiServerSocketFactory() {
+    }
+
+    public ServerSocket createServerSocket(int aPort)
+            throws IOException {
+        TunedServerSocket result = new TunedServerSocket();
+        try {
+            boolean reusePort = fReusePort && fAcceptorThreads > 1 && enableReusePort(result);
+            bindSocket(result, aPort);
+            if (fAcceptorThreads > 0) {
+                // with anonymous port other sockets should be bound to port actually selected
+                result.startAcceptors(result.getLocalPort(), reusePort);
+            }
+        } catch (IOException e) {
+            result.close();
+            throw e;
+        }
+        return result;
+    }
+
+    protected void bindSocket(ServerSocket aSocket, int aPort)
+            throws IOException {
+        aSocket.setReuseAddress(fReuseAddress);
+        // receive buffer is inherited by accepted sockets and should be set before bind to take effect
+        if (fReceiveBufferSize > 0) {
+            aSocket.setReceiveBufferSize(fReceiveBufferSize);
+        }
+        InetAddress address = fBindAddress == null ? null : InetAddress.getByName(fBindAddress);
+        aSocket.bind(new InetSocketAddress(address, aPort), fBacklog);
+    }
+
+    /**
+     * Enables <code>SO_REUSEPORT</code> option of server socket, if it is supported
+     *
+     * @param aSocket socket which is not bound yet
+     * @return <code>true</code> if option is enabled
+     */
+    protected static boolean enableReusePort(ServerSocket aSocket) {
+        boolean result = false;
+        if (fReusePortOption != null) {
+            try {
+                if (((Set<?>) fSupportedOptions.invoke(aSocket)).contains(fReusePortOption)) {
+                    fSetOption.invoke(aSocket, fReusePortOption, Boolean.TRUE);
+                    result = true;
+                }
+            } catch (InvocationTargetException e) {
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug("Unable to enable SO_REUSEPORT option", e.getTargetException());
+                }
+            } catch (IllegalAccessException e) {
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug("Unable to enable SO_REUSEPORT option", e);
+                }
+            }
+        }
+        if (!result && fLog.isWarnEnabled()) {
+            fLog.warn("SO_REUSEPORT is not supported, acceptor threads share single listening socket");
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether accepted connection could be handled
+     *
+     * @param aSocket accepted socket (already counted as open)
+     * @return <code>true</code> if connection is admitted
+     */
+    protected boolean admit(AcceptedSocket aSocket) {
+        boolean result = true;
+        if (fMaxConnections > 0 && fOpen.get() > fMaxConnections) {
+            result = false;
+            fRejectedByLimit.incrementAndGet();
+        } else if (fMaxConnectionsPerAddress > 0) {
+            InetAddress address = aSocket.getInetAddress();
+            result = acquireAddress(address);
+            if (result) {
+                aSocket.fAddress = address;
+            } else {
+                fRejectedByAddress.incrementAndGet();
+            }
+        }
+        return result;
+    }
+
+    protected boolean acquireAddress(InetAddress aAddress) {
+        boolean result = false;
+        synchronized (fConnectionsPerAddress) {
+            Integer connections = fConnectionsPerAddress.get(aAddress);
+            int count = connections == null ? 0 : connections;
+            if (count < fMaxConnectionsPerAddress) {
+                fConnectionsPerAddress.put(aAddress, count + 1);
+                result = true;
+            }
+        }
+        return result;
+    }
+
+    protected void releaseAddress(InetAddress aAddress) {
+        synchronized (fConnectionsPerAddress) {
+            Integer connections = fConnectionsPerAddress.get(aAddress);
+            if (connections == null || connections <= 1) {
+                fConnectionsPerAddress.remove(aAddress);
+            } else {
+                fConnectionsPerAddress.put(aAddress, connections - 1);
+            }
+        }
+    }
+
+    /**
+     * Resets rejected connection, so client notices rejection immediately
+     *
+     * @param aSocket rejected socket
+     */
+    protected void reject(AcceptedSocket aSocket) {
+        if (fLog.isDebugEnabled()) {
+            fLog.debug(format("Connection rejected. Remote address: [{0}]", aSocket.getRemoteSocketAddress()));
+        }
+        try {
+            aSocket.setSoLinger(true, 0);
+        } catch (IOException e) {
+            // socket is closed anyway
+        }
+        try {
+            aSocket.close();
+        } catch (IOException e) {
+            // socket is not used anymore
+        }
+    }
+
+    /**
+     * Applies configured options to accepted socket
+     *
+     * @param aSocket accepted socket
+     * @throws IOException if option could not be set
+     */
+    protected void configure(Socket aSocket)
+            throws IOException {
+        aSocket.setTcpNoDelay(fTcpNoDelay);
+        aSocket.setKeepAlive(fKeepAlive);
+        if (fSendBufferSize > 0) {
+            aSocket.setSendBufferSize(fSendBufferSize);
+        }
+    }
+
+    /**
+     * Listening socket which creates sockets tracked by factory
+     */
+    protected class ListeningSocket
+            extends ServerSocket {
+        protected ListeningSocket()
+                throws IOException {
+        }
+
+        /**
+         * Accepts connection and checks whether it could be handled. Rejected connections
+         * are closed.
+         *
+         * @return accepted connection or <code>null</code> if connection was rejected
+         * @throws IOException if connection could not be accepted
+         */
+        protected AcceptedSocket acceptConnection()
+                throws IOException {
+            AcceptedSocket result = new AcceptedSocket();
+            implAccept(result);
+            result.fAcceptTime = System.nanoTime();
+            fAccepted.incrementAndGet();
+            fOpen.incrementAndGet();
+            if (admit(result)) {
+                try {
+                    configure(result);
+                } catch (IOException e) {
+                    result.close();
+                    throw e;
+                }
+            } else {
+                reject(result);
+                result = null;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Server socket used by RMI runtime. If acceptor threads are used, socket passes to RMI
+     * runtime connections accepted by them.
+     */
+    protected class TunedServerSocket
+            extends ListeningSocket {
+        protected BlockingQueue<AcceptedSocket> fQueue = null;
+        protected final List<ListeningSocket> fListeningSockets = new ArrayList<ListeningSocket>();
+        protected final List<Thread> fAcceptors = new ArrayList<Thread>();
+
+        protected TunedServerSocket()
+                throws IOException {
+        }
+
+        /**
+         * Starts acceptor threads
+         *
+         * @param aPort port server socket is bound to
+         * @param aReusePort <code>true</code> if every acceptor should use own listening socket
+         * @throws IOException if listening socket could not be created
+         */
+        protected void startAcceptors(int aPort, boolean aReusePort)
+                throws IOException {
+            fQueue = new ArrayBlockingQueue<AcceptedSocket>(fAcceptQueueCapacity);
+            fListeningSockets.add(this);
+            for (int i = 1; aReusePort && i < fAcceptorThreads; i++) {
+                ListeningSocket socket = new ListeningSocket();
+                fListeningSockets.add(socket);
+                enableReusePort(socket);
+                bindSocket(socket, aPort);
+            }
+            for (int i = 0; i < fAcceptorThreads; i++) {
+                final ListeningSocket socket = fListeningSockets.get(i % fListeningSockets.size());
+                Thread acceptor = new Thread(new Runnable() {
+                    public void run() {
+                        acceptConnections(socket);
+                    }
+                }, "cluster4spring-rmi-acceptor-" + aPort + "-" + i);
+                acceptor.setDaemon(true);
+                fAcceptors.add(acceptor);
+            }
+            for (Thread acceptor : fAcceptors) {
+                acceptor.start();
+            }
+        }
+
+        protected void acceptConnections(ListeningSocket aSocket) {
+            while (!isClosed()) {
+                try {
+                    AcceptedSocket socket = aSocket.acceptConnection();
+                    if (socket != null && !fQueue.offer(socket)) {
+                        fRejectedByQueue.incrementAndGet();
+                        reject(socket);
+                    }
+                } catch (IOException e) {
+                    if (!isClosed() && fLog.isWarnEnabled()) {
+                        fLog.warn(format("Unable to accept connection. Port: [{0}]", String.valueOf(getLocalPort())), e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Socket accept()
+                throws IOException {
+            AcceptedSocket result = null;
+            while (result == null) {
+                if (fQueue == null) {
+                    result = acceptConnection();
+                } else if (isClosed()) {
+                    throw new SocketException("Socket is closed");
+                } else {
+                    try {
+                        result = fQueue.poll(CLOSE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for connection");
+                    }
+                }
+            }
+            fAcceptLatencies.record(System.nanoTime() - result.fAcceptTime);
+            return result;
+        }
+
+        @Override
+        public void close()
+                throws IOException {
+            super.close();
+            for (ListeningSocket socket : fListeningSockets) {
+                if (socket != this) {
+                    socket.close();
+                }
+            }
+            if (fQueue != null) {
+                AcceptedSocket socket = fQueue.poll();
+                while (socket != null) {
+                    socket.close();
+                    socket = fQueue.poll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Accepted socket which counts transferred bytes and open connections
+     */
+    protected class AcceptedSocket
+            extends Socket {
+        protected final AtomicBoolean fClosed = new AtomicBoolean();
+        protected long fAcceptTime = 0;
+        protected InetAddress fAddress = null;
+        protected InputStream fCountingInput = null;
+        protected OutputStream fCountingOutput = null;
+
+        @Override
+        public synchronized InputStream getInputStream()
+                throws IOException {
+            if (fCountingInput == null) {
+                fCountingInput = new CountingInputStream(super.getInputStream(), fBytesIn);
+            }
+            return fCountingInput;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream()
+                throws IOException {
+            if (fCountingOutput == null) {
+                fCountingOutput = new CountingOutputStream(super.getOutputStream(), fBytesOut);
+            }
+            return fCountingOutput;
+        }
+
+        @Override
+        public void close()
+                throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (fClosed.compareAndSet(false, true)) {
+                    fOpen.decrementAndGet();
+                    if (fAddress != null) {
+                        releaseAddress(fAddress);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns amount of connections accepted since start (including rejected ones)
+     *
+     * @return amount of connections
+     */
+    public long getAcceptedConnections() {
+        return fAccepted.get();
+    }
+
+    /**
+     * Returns amount of currently open accepted connections
+     *
+     * @return amount of connections
+     */
+    public int getOpenConnections() {
+        return fOpen.get();
+    }
+
+    /**
+     * Returns amount of connections rejected since start
+     *
+     * @return amount of connections
+     */
+    public long getRejectedConnections() {
+        return fRejectedByLimit.get() + fRejectedByAddress.get() + fRejectedByQueue.get();
+    }
+
+    public long getRejectedByLimit() {
+        return fRejectedByLimit.get();
+    }
+
+    public long getRejectedByAddress() {
+        return fRejectedByAddress.get();
+    }
+
+    /**
+     * Returns amount of connections rejected because queue of accepted connections was full
+     *
+     * @return amount of connections
+     */
+    public long getRejectedByQueue() {
+        return fRejectedByQueue.get();
+    }
+
+    /**
+     * Returns amount of open connections per remote address. Connections are tracked only
+     * if <code>maxConnectionsPerAddress</code> is set.
+     *
+     * @return copy of connections per address
+     */
+    public Map<InetAddress, Integer> getConnectionsPerAddress() {
+        synchronized (fConnectionsPerAddress) {
+            return new HashMap<InetAddress, Integer>(fConnectionsPerAddress);
+        }
+    }
+
+    /**
+     * Returns given percentile of latency of accept path over recent connections
+     *
+     * @param aPercentile percentile, in range (0, 1]
+     * @return latency in nanoseconds
+     */
+    public long getAcceptLatency(double aPercentile) {
+        return fAcceptLatencies.getPercentile(aPercentile);
+    }
+
+    public long getBytesIn() {
+        return fBytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return fBytesOut.get();
+    }
+
+    public int getBacklog() {
+        return fBacklog;
+    }
+
+    /**
+     * Sets maximal length of queue of incoming connections. Actual length may be limited
+     * by operating system (<code>net.core.somaxconn</code> on Linux).
+     * <p/>
+     * Default is <code>0</code> (default of JVM, <code>50</code>, is used)
+     *
+     * @param aBacklog length of queue
+     */
+    public void setBacklog(int aBacklog) {
+        fBacklog = aBacklog;
+    }
+
+    public String getBindAddress() {
+        return fBindAddress;
+    }
+
+    /**
+     * Sets address server socket is bound to
+     * <p/>
+     * Default is <code>null</code> (connections are accepted on all addresses)
+     *
+     * @param aBindAddress address or host name
+     */
+    public void setBindAddress(String aBindAddress) {
+        fBindAddress = aBindAddress;
+    }
+
+    public boolean isReuseAddress() {
+        return fReuseAddress;
+    }
+
+    /**
+     * Sets value of <code>SO_REUSEADDR</code> option of server socket
+     * <p/>
+     * Default is <code>true</code>
+     *
+     * @param aReuseAddress <code>true</code> if address could be reused
+     */
+    public void setReuseAddress(boolean aReuseAddress) {
+        fReuseAddress = aReuseAddress;
+    }
+
+    public boolean isReusePort() {
+        return fReusePort;
+    }
+
+    /**
+     * Sets whether every acceptor thread should use own listening socket bound with
+     * <code>SO_REUSEPORT</code> option (requires Java 9 and operating system supporting
+     * the option, otherwise acceptor threads share single socket)
+     * <p/>
+     * Default is <code>false</code>
+     *
+     * @param aReusePort <code>true</code> if <code>SO_REUSEPORT</code> should be used
+     */
+    public void setReusePort(boolean aReusePort) {
+        fReusePort = aReusePort;
+    }
+
+    public int getAcceptorThreads() {
+        return fAcceptorThreads;
+    }
+
+    /**
+     * Sets amount of threads accepting connections
+     * <p/>
+     * Default is <code>0</code> (connections are accepted by RMI runtime thread directly)
+     *
+     * @param aAcceptorThreads amount of threads
+     */
+    public void setAcceptorThreads(int aAcceptorThreads) {
+        fAcceptorThreads = aAcceptorThreads;
+    }
+
+    public int getAcceptQueueCapacity() {
+        return fAcceptQueueCapacity;
+    }
+
+    /**
+     * Sets capacity of queue of connections accepted by acceptor threads but not taken by
+     * RMI runtime yet. If queue is full, new connections are rejected.
+     * <p/>
+     * Default is <code>1000</code>
+     *
+     * @param aAcceptQueueCapacity capacity of queue
+     */
+    public void setAcceptQueueCapacity(int aAcceptQueueCapacity) {
+        fAcceptQueueCapacity = aAcceptQueueCapacity;
+    }
+
+    public int getMaxConnections() {
+        return fMaxConnections;
+    }
+
+    /**
+     * Sets maximal amount of open connections. Connections above the limit are reset
+     * right after accept.
+     * <p/>
+     * Default is <code>0</code> (amount is not limited)
+     *
+     * @param aMaxConnections amount of connections
+     */
+    public void setMaxConnections(int aMaxConnections) {
+        fMaxConnections = aMaxConnections;
+    }
+
+    public int getMaxConnectionsPerAddress() {
+        return fMaxConnectionsPerAddress;
+    }
+
+    /**
+     * Sets maximal amount of open connections from single remote address. Connections
+     * above the limit are reset right after accept.
+     * <p/>
+     * Default is <code>0</code> (amount is not limited)
+     *
+     * @param aMaxConnectionsPerAddress amount of connections
+     */
+    public void setMaxConnectionsPerAddress(int aMaxConnectionsPerAddress) {
+        fMaxConnectionsPerAddress = aMaxConnectionsPerAddress;
+    }
+
+    public boolean isTcpNoDelay() {
+        return fTcpNoDelay;
+    }
+
+    /**
+     * Sets value of <code>TCP_NODELAY</code> option of accepted sockets
+     * <p/>
+     * Default is <code>true</code>
+     *
+     * @param aTcpNoDelay <code>true</code> if Nagle's algorithm should be disabled
+     */
+    public void setTcpNoDelay(boolean aTcpNoDelay) {
+        fTcpNoDelay = aTcpNoDelay;
+    }
+
+    public boolean isKeepAlive() {
+        return fKeepAlive;
+    }
+
+    /**
+     * Sets value of <code>SO_KEEPALIVE</code> option of accepted sockets
+     * <p/>
+     * Default is <code>true</code>
+     *
+     * @param aKeepAlive <code>true</code> if keep-alive should be enabled
+     */
+    public void setKeepAlive(boolean aKeepAlive) {
+        fKeepAlive = aKeepAlive;
+    }
+
+    public int getReceiveBufferSize() {
+        return fReceiveBufferSize;
+    }
+
+    /**
+     * Sets size of receive buffer of accepted sockets
+     * <p/>
+     * Default is <code>0</code> (default of operating system is used)
+     *
+     * @param aReceiveBufferSize size in bytes
+     */
+    public void setReceiveBufferSize(int aReceiveBufferSize) {
+        fReceiveBufferSize = aReceiveBufferSize;
+    }
+
+    public int getSendBufferSize() {
+        return fSendBufferSize;
+    }
+
+    /**
+     * Sets size of send buffer of accepted sockets
+     * <p/>
+     * Default is <code>0</code> (default of operating system is used)
+     *
+     * @param aSendBufferSize size in bytes
+     */
+    public void setSendBufferSize(int aSendBufferSize) {
+        fSendBufferSize = aSendBufferSize;
+    }
+
+    /**
+     * RMI runtime shares listening socket between objects exported with equal factories
+     */
+    @Override
+    public boolean equals(Object aObject) {
+        boolean result = false;
+        if (this == aObject) {
+            result = true;
+        } else if (aObject != null && getClass() == aObject.getClass()) {
+            TunedRmiServerSocketFactory factory = (TunedRmiServerSocketFactory) aObject;
+            result = fBacklog == factory.fBacklog && fReuseAddress == factory.fReuseAddress &&
+                    fReusePort == factory.fReusePort && fAcceptorThreads == factory.fAcceptorThreads &&
+                    fAcceptQueueCapacity == factory.fAcceptQueueCapacity && fMaxConnections == factory.fMaxConnections &&
+                    fMaxConnectionsPerAddress == factory.fMaxConnectionsPerAddress &&
+                    fTcpNoDelay == factory.fTcpNoDelay && fKeepAlive == factory.fKeepAlive &&
+                    fReceiveBufferSize == factory.fReceiveBufferSize && fSendBufferSize == factory.fSendBufferSize &&
+                    (fBindAddress == null ? factory.fBindAddress == null : fBindAddress.equals(factory.fBindAddress));
+        }
+        return result;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = fBacklog;
+        result = 31 * result + fAcceptorThreads;
+        result = 31 * result + fMaxConnections;
+        result = 31 * result + fMaxConnectionsPerAddress;
+        result = 31 * result + fReceiveBufferSize;
+        result = 31 * result + fSendBufferSize;
+        result = 31 * result + (fBindAddress == null ? 0 : fBindAddress.hashCode());
+        return result;
+    }
+}
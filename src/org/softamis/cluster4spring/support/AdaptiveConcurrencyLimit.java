@@ -0,0 +1,323 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limit of endpoint which adapts to the observed latency (TCP Vegas style).
+ * <p/>
+ * Limiter tracks minimal observed round trip time (RTT without load) and estimates
+ * amount of invocations queued on server as <code>limit * (1 - minRtt / rtt)</code>.
+ * If estimated queue is small, limit is increased; if it is large, limit is decreased.
+ * If invocation fails with connect failure or timeout, limit is decreased
+ * multiplicatively. Minimal RTT is periodically re-measured so limiter follows
+ * changes of network and server.
+ * <p/>
+ * Instance configured in Spring is used as template - every endpoint obtains own copy
+ * via {@link #newInstance()}.
+ *
+ * @version 1.0
+ * @see RemoteClientInterceptor#setConcurrencyLimit(AdaptiveConcurrencyLimit)
+ */
+
+public class AdaptiveConcurrencyLimit {
+    /**
+     * Initial limit
+     */
+    protected int fInitialLimit = 20;
+
+    /**
+     * Minimal limit
+     */
+    protected int fMinLimit = 1;
+
+    /**
+     * Maximal limit
+     */
+    protected int fMaxLimit = 200;
+
+    /**
+     * Limit is increased if estimated queue is not greater than this value
+     */
+    protected int fAlpha = 3;
+
+    /**
+     * Limit is decreased if estimated queue is not less than this value
+     */
+    protected int fBeta = 6;
+
+    /**
+     * Ratio limit is multiplied on failure
+     */
+    protected double fBackoffRatio = 0.9;
+
+    /**
+     * Amount of samples after which minimal RTT is measured again
+     */
+    protected int fProbeInterval = 1000;
+
+    /**
+     * Current limit
+     */
+    protected double fLimit = fInitialLimit;
+
+    /**
+     * Minimal RTT observed (in nanoseconds)
+     */
+    protected long fRttNoLoad = 0;
+
+    /**
+     * Amount of samples since minimal RTT was reset
+     */
+    protected int fSamplesSinceProbe = 0;
+
+    /**
+     * Amount of invocations currently performed
+     */
+    protected final AtomicInteger fInFlight = new AtomicInteger();
+
+    /**
+     * Amount of invocations rejected by limiter
+     */
+    protected final AtomicLong fRejected = new AtomicLong();
+
+    public AdaptiveConcurrencyLimit() {
+    }
+
+    /**
+     * Creates limiter with the same settings as this one
+     *
+     * @return created limiter
+     */
+    public AdaptiveConcurrencyLimit newInstance() {
+        AdaptiveConcurrencyLimit result = new AdaptiveConcurrencyLimit();
+        result.fInitialLimit = fInitialLimit;
+        result.fMinLimit = fMinLimit;
+        result.fMaxLimit = fMaxLimit;
+        result.fAlpha = fAlpha;
+        result.fBeta = fBeta;
+        result.fBackoffRatio = fBackoffRatio;
+        result.fProbeInterval = fProbeInterval;
+        result.fLimit = fInitialLimit;
+        return result;
+    }
+
+    /**
+     * Tries to obtain permission to perform invocation
+     *
+     * @return <code>true</code> if amount of invocations in progress is below the limit
+     */
+    public boolean tryAcquire() {
+        boolean result = false;
+        int limit = getLimit();
+        int inFlight = fInFlight.get();
+        while (!result && inFlight < limit) {
+            result = fInFlight.compareAndSet(inFlight, inFlight + 1);
+            inFlight = fInFlight.get();
+        }
+        if (!result) {
+            fRejected.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Called when invocation obtained by <code>tryAcquire()</code> is completed and
+     * adjusts limit.
+     *
+     * @param aRtt round trip time of invocation, in nanoseconds
+     * @param aDropped <code>true</code> if invocation failed because of connect failure or timeout
+     */
+    public void release(long aRtt, boolean aDropped) {
+        int inFlight = fInFlight.getAndDecrement();
+        onSample(aRtt, aDropped, inFlight);
+    }
+
+    protected synchronized void onSample(long aRtt, boolean aDropped, int aInFlight) {
+        if (aRtt <= 0) {
+            return;
+        }
+        fSamplesSinceProbe++;
+        if (fRttNoLoad == 0 || aRtt < fRttNoLoad || fSamplesSinceProbe >= fProbeInterval) {
+            fRttNoLoad = aRtt;
+            fSamplesSinceProbe = 0;
+        }
+
+        double limit = fLimit;
+        if (aDropped) {
+            limit = limit * fBackoffRatio;
+        } else if (aInFlight * 2 >= limit) {
+            // limit is adjusted only if it is actually used, otherwise latency does not depend on it
+            double queue = Math.ceil(limit * (1 - (double) fRttNoLoad / aRtt));
+            if (queue <= fAlpha) {
+                limit = limit + 1;
+            } else if (queue >= fBeta) {
+                limit = limit - 1;
+            }
+        }
+        fLimit = Math.max(fMinLimit, Math.min(fMaxLimit, limit));
+    }
+
+    /**
+     * Checks whether amount of invocations in progress reached the limit
+     *
+     * @return <code>true</code> if endpoint is overloaded
+     */
+    public boolean isOverloaded() {
+        return fInFlight.get() >= getLimit();
+    }
+
+    /**
+     * Returns current limit
+     *
+     * @return limit
+     */
+    public synchronized int getLimit() {
+        return (int) fLimit;
+    }
+
+    /**
+     * Returns amount of invocations currently performed
+     *
+     * @return amount of invocations
+     */
+    public int getInFlight() {
+        return fInFlight.get();
+    }
+
+    /**
+     * Returns amount of invocations rejected by limiter
+     *
+     * @return amount of rejected invocations
+     */
+    public long getRejected() {
+        return fRejected.get();
+    }
+
+    /**
+     * Returns minimal observed round trip time
+     *
+     * @return RTT in nanoseconds
+     */
+    public synchronized long getRttNoLoad() {
+        return fRttNoLoad;
+    }
+
+    public int getInitialLimit() {
+        return fInitialLimit;
+    }
+
+    /**
+     * Sets initial limit
+     * <p/>
+     * Default is <code>20</code>
+     *
+     * @param aInitialLimit initial limit
+     */
+    public synchronized void setInitialLimit(int aInitialLimit) {
+        fInitialLimit = aInitialLimit;
+        fLimit = aInitialLimit;
+    }
+
+    public int getMinLimit() {
+        return fMinLimit;
+    }
+
+    public void setMinLimit(int aMinLimit) {
+        fMinLimit = aMinLimit;
+    }
+
+    public int getMaxLimit() {
+        return fMaxLimit;
+    }
+
+    public void setMaxLimit(int aMaxLimit) {
+        fMaxLimit = aMaxLimit;
+    }
+
+    public int getAlpha() {
+        return fAlpha;
+    }
+
+    /**
+     * Sets size of estimated queue below which limit is increased
+     * <p/>
+     * Default is <code>3</code>
+     *
+     * @param aAlpha queue size
+     */
+    public void setAlpha(int aAlpha) {
+        fAlpha = aAlpha;
+    }
+
+    public int getBeta() {
+        return fBeta;
+    }
+
+    /**
+     * Sets size of estimated queue above which limit is decreased
+     * <p/>
+     * Default is <code>6</code>
+     *
+     * @param aBeta queue size
+     */
+    public void setBeta(int aBeta) {
+        fBeta = aBeta;
+    }
+
+    public double getBackoffRatio() {
+        return fBackoffRatio;
+    }
+
+    /**
+     * Sets ratio limit is multiplied on connect failure or timeout
+     * <p/>
+     * Default is <code>0.9</code>
+     *
+     * @param aBackoffRatio ratio
+     */
+    public void setBackoffRatio(double aBackoffRatio) {
+        fBackoffRatio = aBackoffRatio;
+    }
+
+    public int getProbeInterval() {
+        return fProbeInterval;
+    }
+
+    /**
+     * Sets amount of samples after which minimal RTT is measured again
+     * <p/>
+     * Default is <code>1000</code>
+     *
+     * @param aProbeInterval amount of samples
+     */
+    public void setProbeInterval(int aProbeInterval) {
+        fProbeInterval = aProbeInterval;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveConcurrencyLimit{" +
+                "limit=" + getLimit() +
+                ", inFlight=" + fInFlight +
+                ", rejected=" + fRejected +
+                '}';
+    }
+}
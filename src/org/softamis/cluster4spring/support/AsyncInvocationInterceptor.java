@@ -0,0 +1,228 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.aop.support.AopUtils;
+import org.springframework.remoting.RemoteAccessException;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Interceptor that implements asynchronous view of remote service. Methods of asynchronous
+ * interface should return <code>CompletableFuture</code> (or one of its supertypes) and have the
+ * same parameter types as corresponding method of service interface. Name of asynchronous
+ * method should be either the same as name of service method or have <code>Async</code> suffix
+ * (so both <code>CompletableFuture&lt;User&gt; getUser(long)</code> and
+ * <code>CompletableFuture&lt;User&gt; getUserAsync(long)</code> are mapped to
+ * <code>User getUser(long)</code>).
+ * <p/>
+ * Invocation of asynchronous method is submitted to the given executor which calls
+ * synchronous proxy for remote service. Therefore, endpoint selection, failover and
+ * retry are performed exactly as for synchronous calls.
+ *
+ * @version 1.0
+ * @see org.softamis.cluster4spring.rmi.AbstractRmiProxyFactoryBean#setAsyncServiceInterface(Class)
+ */
+
+@SuppressWarnings({"ProhibitedExceptionDeclared"})
+public class AsyncInvocationInterceptor
+        implements MethodInterceptor {
+    protected static final Log fLog = LogFactory.getLog(AsyncInvocationInterceptor.class);
+
+    /**
+     * Suffix which could be used in names of asynchronous methods
+     */
+    public static final String ASYNC_METHOD_SUFFIX = "Async";
+
+    /**
+     * Synchronous proxy for remote service
+     */
+    protected Object fServiceProxy = null;
+
+    /**
+     * Interface of remote service
+     */
+    protected Class fServiceInterface = null;
+
+    /**
+     * Executor used to perform invocations
+     */
+    protected Executor fExecutor = null;
+
+    /**
+     * Cache of service methods which correspond to asynchronous ones
+     */
+    protected final ConcurrentMap<Method, Method> fServiceMethods = new ConcurrentHashMap<Method, Method>();
+
+    /**
+     * Creates interceptor.
+     *
+     * @param aServiceProxy synchronous proxy for remote service
+     * @param aServiceInterface interface of remote service
+     * @param aExecutor executor used to perform invocations
+     */
+    public AsyncInvocationInterceptor(Object aServiceProxy, Class aServiceInterface, Executor aExecutor) {
+        fServiceProxy = aServiceProxy;
+        fServiceInterface = aServiceInterface;
+        fExecutor = aExecutor;
+    }
+
+    /**
+     * Checks that every method of given asynchronous interface could be mapped to the
+     * method of service interface.
+     *
+     * @param aAsyncInterface asynchronous interface
+     * @throws IllegalArgumentException if some method could not be mapped
+     */
+    public void checkAsyncInterface(Class aAsyncInterface)
+            throws IllegalArgumentException {
+        if (!aAsyncInterface.isInterface()) {
+            throw new IllegalArgumentException("Asynchronous service interface should be an interface: " + aAsyncInterface);
+        }
+        for (Method method : aAsyncInterface.getMethods()) {
+            if (!isObjectMethod(method)) {
+                obtainServiceMethod(method);
+            }
+        }
+    }
+
+    /**
+     * Submits invocation of corresponding service method to the executor.
+     *
+     * @param aInvocation invocation of asynchronous method
+     * @return future which will be completed by result of remote method invocation
+     * @throws Throwable if method could not be mapped to service method
+     */
+    public Object invoke(MethodInvocation aInvocation)
+            throws Throwable {
+        Method method = aInvocation.getMethod();
+        Object result = null;
+        if (AopUtils.isToStringMethod(method)) {
+            result = format("Asynchronous view of [{0}]", fServiceProxy);
+        } else if (isObjectMethod(method)) {
+            result = aInvocation.proceed();
+        } else {
+            Method serviceMethod = obtainServiceMethod(method);
+            Object[] arguments = aInvocation.getArguments();
+            result = submit(serviceMethod, arguments);
+        }
+        return result;
+    }
+
+    /**
+     * Submits invocation of given service method to the executor
+     *
+     * @param aServiceMethod method of service interface
+     * @param aArguments invocation arguments
+     * @return future which will be completed by result of invocation
+     */
+    protected CompletableFuture<Object> submit(final Method aServiceMethod, final Object[] aArguments) {
+        final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        try {
+            fExecutor.execute(new Runnable() {
+                public void run() {
+                    if (result.isCancelled()) {
+                        return;
+                    }
+                    try {
+                        Object value = aServiceMethod.invoke(fServiceProxy, aArguments);
+                        result.complete(value);
+                    } catch (InvocationTargetException e) {
+                        result.completeExceptionally(e.getTargetException());
+                    } catch (Throwable e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            String message = format("Asynchronous invocation of [{0}] rejected by executor", aServiceMethod);
+            if (fLog.isWarnEnabled()) {
+                fLog.warn(message);
+            }
+            result.completeExceptionally(new RemoteAccessException(message, e));
+        }
+        return result;
+    }
+
+    /**
+     * Returns method of service interface which corresponds to given asynchronous method.
+     *
+     * @param aAsyncMethod asynchronous method
+     * @return service method
+     * @throws IllegalArgumentException if there is no corresponding service method
+     */
+    protected Method obtainServiceMethod(Method aAsyncMethod)
+            throws IllegalArgumentException {
+        Method result = fServiceMethods.get(aAsyncMethod);
+        if (result == null) {
+            result = findServiceMethod(aAsyncMethod);
+            fServiceMethods.put(aAsyncMethod, result);
+        }
+        return result;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    protected Method findServiceMethod(Method aAsyncMethod) {
+        Class<?> returnType = aAsyncMethod.getReturnType();
+        if (!returnType.isAssignableFrom(CompletableFuture.class)) {
+            String message = format("Asynchronous method [{0}] should return CompletableFuture", aAsyncMethod);
+            throw new IllegalArgumentException(message);
+        }
+
+        String name = aAsyncMethod.getName();
+        Class<?>[] parameterTypes = aAsyncMethod.getParameterTypes();
+        Method result = null;
+        try {
+            result = fServiceInterface.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            if (name.endsWith(ASYNC_METHOD_SUFFIX) && name.length() > ASYNC_METHOD_SUFFIX.length()) {
+                String syncName = name.substring(0, name.length() - ASYNC_METHOD_SUFFIX.length());
+                try {
+                    result = fServiceInterface.getMethod(syncName, parameterTypes);
+                } catch (NoSuchMethodException e1) {
+                    // handled below
+                }
+            }
+        }
+        if (result == null) {
+            String message = format("There is no method in service interface [{0}] which corresponds to asynchronous method [{1}]",
+                    fServiceInterface.getName(), aAsyncMethod);
+            throw new IllegalArgumentException(message);
+        }
+        return result;
+    }
+
+    protected boolean isObjectMethod(Method aMethod) {
+        return aMethod.getDeclaringClass() == Object.class || AopUtils.isEqualsMethod(aMethod) ||
+                AopUtils.isHashCodeMethod(aMethod) || AopUtils.isToStringMethod(aMethod);
+    }
+}
@@ -0,0 +1,81 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+/**
+ * Remote invocation which contains several invocations of service methods. Server
+ * performs contained invocations one by one and returns list of
+ * <code>RemoteInvocationResult</code> in the same order.
+ *
+ * @version 1.0
+ * @see RequestCollapser
+ * @see org.softamis.cluster4spring.rmi.AbstractRmiServiceExporter#invokeBatch(BatchRemoteInvocation, Object)
+ */
+
+public class BatchRemoteInvocation
+        extends RemoteInvocation {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Name of the method used for batched invocation. If server does not support batches,
+     * it will not be able to find such a method.
+     */
+    public static final String BATCH_METHOD_NAME = "__cluster4springBatch";
+
+    /**
+     * Invocations included into batch
+     */
+    protected List<RemoteInvocation> fInvocations = null;
+
+    public BatchRemoteInvocation() {
+        this(new ArrayList<RemoteInvocation>());
+    }
+
+    /**
+     * Creates batch
+     *
+     * @param aInvocations invocations included into batch
+     */
+    public BatchRemoteInvocation(List<RemoteInvocation> aInvocations) {
+        super(BATCH_METHOD_NAME, new Class[0], new Object[0]);
+        fInvocations = aInvocations;
+    }
+
+    /**
+     * Returns invocations included into batch
+     *
+     * @return invocations
+     */
+    public List<RemoteInvocation> getInvocations() {
+        return fInvocations;
+    }
+
+    public void setInvocations(List<RemoteInvocation> aInvocations) {
+        fInvocations = aInvocations;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchRemoteInvocation: " + fInvocations.size() + " invocations";
+    }
+}
@@ -0,0 +1,237 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Limits amount of concurrent invocations. If all slots are busy, invocation may wait
+ * for free slot, but amount of waiting invocations and time of waiting are bounded too.
+ * If invocation could not wait, it is rejected immediately by <code>BulkheadFullException</code>,
+ * so slow remote service could not occupy all threads of application.
+ *
+ * @version 1.0
+ * @see RemoteClientInterceptor#setMaxConcurrentCalls(int)
+ * @see RemoteClientInterceptor#setMaxConcurrentCallsPerEndpoint(int)
+ */
+
+public class Bulkhead {
+    /**
+     * Name of bulkhead used in messages
+     */
+    protected final String fName;
+
+    /**
+     * Maximal amount of concurrent invocations
+     */
+    protected final int fMaxConcurrentCalls;
+
+    /**
+     * Maximal amount of invocations waiting for free slot
+     */
+    protected final int fMaxWaitingCalls;
+
+    /**
+     * Maximal time (in milliseconds) invocation waits for free slot
+     */
+    protected final long fMaxWaitTime;
+
+    /**
+     * Free slots
+     */
+    protected final Semaphore fSlots;
+
+    /**
+     * Message of rejection, formatted once since rejections are frequent under overload
+     */
+    protected final String fRejectionMessage;
+
+    /**
+     * Amount of invocations waiting for free slot
+     */
+    protected final AtomicInteger fWaiting = new AtomicInteger();
+
+    /**
+     * Amount of invocations accepted
+     */
+    protected final AtomicLong fAccepted = new AtomicLong();
+
+    /**
+     * Amount of invocations which were accepted after waiting
+     */
+    protected final AtomicLong fAcceptedAfterWait = new AtomicLong();
+
+    /**
+     * Amount of invocations rejected
+     */
+    protected final AtomicLong fRejected = new AtomicLong();
+
+    /**
+     * Time of the last attempt to obtain slot
+     */
+    protected volatile long fLastUseTime = System.currentTimeMillis();
+
+    /**
+     * Creates bulkhead
+     *
+     * @param aName name of bulkhead used in messages
+     * @param aMaxConcurrentCalls maximal amount of concurrent invocations
+     * @param aMaxWaitingCalls maximal amount of invocations waiting for free slot
+     * @param aMaxWaitTime maximal time (in milliseconds) invocation waits for free slot
+     */
+    public Bulkhead(String aName, int aMaxConcurrentCalls, int aMaxWaitingCalls, long aMaxWaitTime) {
+        if (aMaxConcurrentCalls < 1) {
+            throw new IllegalArgumentException("Maximal amount of concurrent calls should be positive");
+        }
+        fName = aName;
+        fMaxConcurrentCalls = aMaxConcurrentCalls;
+        fMaxWaitingCalls = aMaxWaitingCalls;
+        fMaxWaitTime = aMaxWaitTime;
+        fSlots = new Semaphore(aMaxConcurrentCalls);
+        fRejectionMessage = format("Bulkhead [{0}] is full. Max Concurrent Calls: [{1}]", aName, aMaxConcurrentCalls);
+    }
+
+    /**
+     * Obtains slot for invocation. Every successful call of this method should be
+     * followed by call of <code>release()</code>.
+     *
+     * @throws BulkheadFullException if there is no free slot and invocation could not wait for it
+     */
+    public void acquire()
+            throws BulkheadFullException {
+        fLastUseTime = System.currentTimeMillis();
+        boolean acquired = fSlots.tryAcquire();
+        if (!acquired && fMaxWaitingCalls > 0 && fMaxWaitTime > 0) {
+            if (fWaiting.incrementAndGet() <= fMaxWaitingCalls) {
+                try {
+                    acquired = fSlots.tryAcquire(fMaxWaitTime, TimeUnit.MILLISECONDS);
+                    if (acquired) {
+                        fAcceptedAfterWait.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    fWaiting.decrementAndGet();
+                }
+            } else {
+                fWaiting.decrementAndGet();
+            }
+        }
+        if (acquired) {
+            fAccepted.incrementAndGet();
+        } else {
+            fRejected.incrementAndGet();
+            throw new BulkheadFullException(fRejectionMessage);
+        }
+    }
+
+    /**
+     * Releases slot obtained by <code>acquire()</code>
+     */
+    public void release() {
+        fSlots.release();
+    }
+
+    public String getName() {
+        return fName;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return fMaxConcurrentCalls;
+    }
+
+    /**
+     * Returns amount of invocations currently performed
+     *
+     * @return amount of active invocations
+     */
+    public int getActiveCalls() {
+        return fMaxConcurrentCalls - fSlots.availablePermits();
+    }
+
+    /**
+     * Returns amount of invocations waiting for free slot
+     *
+     * @return amount of waiting invocations
+     */
+    public int getWaitingCalls() {
+        return fWaiting.get();
+    }
+
+    /**
+     * Checks whether all slots are occupied, so invocation would have to wait or be rejected
+     *
+     * @return <code>true</code> if there is no free slot
+     */
+    public boolean isSaturated() {
+        return fSlots.availablePermits() == 0;
+    }
+
+    /**
+     * Returns part of slots currently occupied
+     *
+     * @return saturation, in range [0, 1]
+     */
+    public double getSaturation() {
+        return (double) getActiveCalls() / fMaxConcurrentCalls;
+    }
+
+    public long getAccepted() {
+        return fAccepted.get();
+    }
+
+    public long getAcceptedAfterWait() {
+        return fAcceptedAfterWait.get();
+    }
+
+    public long getRejected() {
+        return fRejected.get();
+    }
+
+    public long getLastUseTime() {
+        return fLastUseTime;
+    }
+
+    /**
+     * Checks whether bulkhead was not used for given time and has no active or waiting invocations
+     *
+     * @param aIdleTime time (in milliseconds)
+     * @return <code>true</code> if bulkhead is idle
+     */
+    public boolean isIdle(long aIdleTime) {
+        boolean result = getActiveCalls() == 0 && getWaitingCalls() == 0 &&
+                System.currentTimeMillis() - fLastUseTime > aIdleTime;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Bulkhead{" +
+                "name=" + fName +
+                ", active=" + getActiveCalls() +
+                ", max=" + fMaxConcurrentCalls +
+                ", waiting=" + fWaiting +
+                ", rejected=" + fRejected +
+                '}';
+    }
+}
@@ -0,0 +1,44 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import org.springframework.remoting.RemoteAccessException;
+
+/**
+ * Exception thrown if remote invocation is rejected since maximal amount of concurrent
+ * invocations for service or endpoint is reached and invocation could not wait for
+ * free slot. Since rejections are frequent under overload and their location is not
+ * interesting, stack trace of exception is not filled.
+ *
+ * @version 1.0
+ * @see Bulkhead
+ */
+
+public class BulkheadFullException
+        extends RemoteAccessException {
+    private static final long serialVersionUID = 1L;
+
+    public BulkheadFullException(String aMessage) {
+        super(aMessage);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
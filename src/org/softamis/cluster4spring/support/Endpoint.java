@@ -75,6 +75,16 @@ public abstract class Endpoint<SI extends Serializable> {
      */
     protected long fLastAccessTime = Long.MIN_VALUE;
 
+    /**
+     * Adaptive concurrency limit of endpoint (if concurrency is limited)
+     */
+    protected volatile AdaptiveConcurrencyLimit fConcurrencyLimit = null;
+
+    /**
+     * Bulkhead of endpoint (if amount of concurrent invocations per endpoint is limited)
+     */
+    protected volatile Bulkhead fBulkhead = null;
+
     /**
      * Creates endpoint.
      *
@@ -209,6 +219,55 @@ public abstract class Endpoint<SI extends Serializable> {
         fLastAccessTime = aLastAccessTime;
     }
 
+    /**
+     * Returns adaptive concurrency limit of endpoint
+     *
+     * @return concurrency limit or <code>null</code> if concurrency is not limited
+     */
+    public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+        return fConcurrencyLimit;
+    }
+
+    /**
+     * Sets adaptive concurrency limit of endpoint
+     *
+     * @param aConcurrencyLimit concurrency limit
+     */
+    public void setConcurrencyLimit(AdaptiveConcurrencyLimit aConcurrencyLimit) {
+        fConcurrencyLimit = aConcurrencyLimit;
+    }
+
+    /**
+     * Returns bulkhead of endpoint
+     *
+     * @return bulkhead or <code>null</code> if amount of concurrent invocations is not limited
+     */
+    public Bulkhead getBulkhead() {
+        return fBulkhead;
+    }
+
+    /**
+     * Sets bulkhead of endpoint
+     *
+     * @param aBulkhead bulkhead
+     */
+    public void setBulkhead(Bulkhead aBulkhead) {
+        fBulkhead = aBulkhead;
+    }
+
+    /**
+     * Checks whether endpoint is overloaded, so it should not be selected for invocation
+     * if there are other endpoints available.
+     *
+     * @return <code>true</code> if amount of invocations in progress reached concurrency limit
+     *         or all slots of bulkhead are occupied
+     */
+    public boolean isOverloaded() {
+        AdaptiveConcurrencyLimit limit = fConcurrencyLimit;
+        Bulkhead bulkhead = fBulkhead;
+        return (limit != null && limit.isOverloaded()) || (bulkhead != null && bulkhead.isSaturated());
+    }
+
     /**
      * Returns key for endpoint
      *
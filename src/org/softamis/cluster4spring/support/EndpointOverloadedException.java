@@ -0,0 +1,42 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import org.springframework.remoting.RemoteAccessException;
+
+/**
+ * Exception which indicates that endpoint could not accept invocation because it is
+ * overloaded. Invocation was not performed, so it could be safely sent to
+ * different endpoint; endpoint itself remains valid.
+ *
+ * @version 1.0
+ * @see AdaptiveConcurrencyLimit
+ */
+
+public class EndpointOverloadedException
+        extends RemoteAccessException {
+    private static final long serialVersionUID = 1L;
+
+    public EndpointOverloadedException(String aMessage) {
+        super(aMessage);
+    }
+
+    public EndpointOverloadedException(String aMessage, Throwable aCause) {
+        super(aMessage, aCause);
+    }
+}
@@ -17,6 +17,8 @@
 
 package org.softamis.cluster4spring.support;
 
+import java.util.Set;
+
 import org.springframework.remoting.RemoteAccessException;
 import org.springframework.remoting.support.RemoteInvocationFactory;
 
@@ -61,6 +63,33 @@ public interface EndpointProvider<E extends Endpoint<SI>, SI extends ServiceMoni
                          String aBeanName)
             throws RemoteAccessException;
 
+    /**
+     * Returns endpoint that should be used for remote service invocation, avoiding endpoints
+     * of given servers. Used on failover, so invocation is retried on another server instead
+     * of another address of the server which just failed. If there are no endpoints of other
+     * servers, endpoints of given servers could be returned.
+     * <p/>
+     * Default implementation does not distinguish servers and simply delegates to
+     * {@link #getEndpoint(RemoteInvocationFactory, EndpointFactory, String)}.
+     *
+     * @param aRemoteInvocationFactory factory used to create remote invocations
+     * @param aEndpointFactory factory used to create endpoints
+     * @param aBeanName name of bean that is used as proxy for remote service
+     * @param aExcludedServers IDs of servers which should be avoided
+     * @return endpoint that should be used to remote invocation
+     * @throws RemoteAccessException thrown if endpoint could not be selected of if
+     * there are not currently available endpoints for remote service
+     * @see ServiceMoniker#getServerID()
+     */
+    public default E getEndpoint(RemoteInvocationFactory aRemoteInvocationFactory,
+                                 EndpointFactory<E, SI> aEndpointFactory,
+                                 String aBeanName,
+                                 Set<Long> aExcludedServers)
+            throws RemoteAccessException {
+        E result = getEndpoint(aRemoteInvocationFactory, aEndpointFactory, aBeanName);
+        return result;
+    }
+
     /**
      * Marks given endpoint invalid. This endpoint will not be later used for methods invocation.
      *
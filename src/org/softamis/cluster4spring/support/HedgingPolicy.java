@@ -0,0 +1,464 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Policy that defines how hedged requests are issued for idempotent methods.
+ * If invocation of idempotent method is not completed within hedge delay, the
+ * same invocation is sent to different endpoint and result of the invocation which
+ * completes first is used (result of another one is simply abandoned).
+ * <p/>
+ * Original invocation is performed by the calling thread; only hedges are performed by
+ * executor of the policy, after hedge delay is counted by its timer. If all threads of
+ * executor are busy, hedge is not issued (see <code>getHedgesSaturated()</code>).
+ * <p/>
+ * Hedge delay is adaptive - it is equal to the given percentile (95th, by default)
+ * of latencies observed for the method. Until enough latencies are observed,
+ * initial hedge delay is used.
+ * <p/>
+ * To limit additional load produced by hedging, every invocation adds
+ * <code>budgetPercent/100</code> tokens to the hedge budget and every hedge consumes
+ * one token, so amount of hedges issued does not exceed given percent of invocations.
+ *
+ * @version 1.0
+ * @see RemoteClientInterceptor#setHedgingPolicy(HedgingPolicy)
+ * @see Idempotent
+ */
+
+public class HedgingPolicy {
+    /**
+     * Delay used before enough latencies are observed for method
+     */
+    protected long fInitialHedgeDelay = 50;
+
+    /**
+     * Minimal hedge delay
+     */
+    protected long fMinHedgeDelay = 5;
+
+    /**
+     * Percentile of observed latencies used as hedge delay
+     */
+    protected double fHedgePercentile = 0.95;
+
+    /**
+     * Amount of observed latencies required to use adaptive delay
+     */
+    protected int fMinSamples = 20;
+
+    /**
+     * Amount of recent latencies kept per method
+     */
+    protected int fSamplesCapacity = 1000;
+
+    /**
+     * Maximal percent of additional invocations which could be produced by hedging
+     */
+    protected double fBudgetPercent = 10;
+
+    /**
+     * Maximal amount of tokens which could be accumulated in hedge budget
+     */
+    protected double fMaxBudgetTokens = 10;
+
+    /**
+     * Current amount of tokens in hedge budget
+     */
+    protected double fBudgetTokens = 0;
+
+    /**
+     * Amount of threads used to perform hedged invocations
+     */
+    protected int fThreadPoolSize = 20;
+
+    /**
+     * Executor used to perform hedged invocations
+     */
+    protected ExecutorService fExecutor = null;
+
+    /**
+     * Indicates whether executor is created by policy and should be shut down by it
+     */
+    protected boolean fOwnExecutor = false;
+
+    /**
+     * Timer which issues hedges once hedge delay elapses
+     */
+    protected ScheduledThreadPoolExecutor fTimer = null;
+
+    /**
+     * Indicates whether policy is shut down, so hedges are not issued anymore
+     */
+    protected boolean fShutdown = false;
+
+    /**
+     * Latencies observed per method
+     */
+    protected final ConcurrentMap<Method, LatencyRecorder> fLatencies = new ConcurrentHashMap<Method, LatencyRecorder>();
+
+    /**
+     * Amount of hedges issued
+     */
+    protected final AtomicLong fHedgesIssued = new AtomicLong();
+
+    /**
+     * Amount of hedges which completed before original invocation
+     */
+    protected final AtomicLong fHedgesWon = new AtomicLong();
+
+    /**
+     * Amount of hedges which were not issued due to exhausted budget
+     */
+    protected final AtomicLong fHedgesRejected = new AtomicLong();
+
+    /**
+     * Amount of hedges which were not issued since all threads of executor were busy
+     */
+    protected final AtomicLong fHedgesSaturated = new AtomicLong();
+
+    public HedgingPolicy() {
+    }
+
+    /**
+     * Returns delay after which hedge should be issued for given method
+     *
+     * @param aMethod invoked method
+     * @return hedge delay in milliseconds
+     */
+    public long getHedgeDelay(Method aMethod) {
+        long result = fInitialHedgeDelay;
+        LatencyRecorder recorder = fLatencies.get(aMethod);
+        if (recorder != null && recorder.getCount() >= fMinSamples) {
+            result = recorder.getPercentile(fHedgePercentile);
+        }
+        result = Math.max(fMinHedgeDelay, result);
+        return result;
+    }
+
+    /**
+     * Records latency of successful invocation of given method
+     *
+     * @param aMethod invoked method
+     * @param aLatency latency of invocation, in milliseconds
+     */
+    public void recordLatency(Method aMethod, long aLatency) {
+        LatencyRecorder recorder = fLatencies.get(aMethod);
+        if (recorder == null) {
+            recorder = new LatencyRecorder(fSamplesCapacity);
+            LatencyRecorder existing = fLatencies.putIfAbsent(aMethod, recorder);
+            if (existing != null) {
+                recorder = existing;
+            }
+        }
+        recorder.record(aLatency);
+    }
+
+    /**
+     * Called on every invocation that could be hedged and adds tokens to hedge budget.
+     */
+    public synchronized void onInvocation() {
+        fBudgetTokens = Math.min(fMaxBudgetTokens, fBudgetTokens + fBudgetPercent / 100);
+    }
+
+    /**
+     * Tries to obtain permission to issue hedge from budget
+     *
+     * @return <code>true</code> if hedge may be issued
+     */
+    public synchronized boolean tryAcquireHedge() {
+        boolean result = false;
+        if (fBudgetTokens >= 1) {
+            fBudgetTokens -= 1;
+            result = true;
+        } else {
+            fHedgesRejected.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Called when hedge is issued
+     */
+    public void onHedgeIssued() {
+        fHedgesIssued.incrementAndGet();
+    }
+
+    /**
+     * Called when result of hedge is used instead of result of original invocation
+     */
+    public void onHedgeWon() {
+        fHedgesWon.incrementAndGet();
+    }
+
+    /**
+     * Called when hedge could not be issued since all threads of executor are busy
+     */
+    public void onHedgeSaturated() {
+        fHedgesSaturated.incrementAndGet();
+    }
+
+    /**
+     * Schedules given task which issues hedge after given delay
+     *
+     * @param aTask task which issues hedge
+     * @param aDelay hedge delay in milliseconds
+     * @return future of scheduled task, used to cancel it once original invocation completes
+     * @throws RejectedExecutionException if policy is shut down
+     */
+    public synchronized ScheduledFuture<?> schedule(Runnable aTask, long aDelay) {
+        if (fShutdown) {
+            throw new RejectedExecutionException("Hedging policy is shut down");
+        }
+        if (fTimer == null) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cluster4spring-hedge-timer-");
+            threadFactory.setDaemon(true);
+            fTimer = new ScheduledThreadPoolExecutor(1, threadFactory);
+            // hedges of invocations completed in time are cancelled, they should not stay in queue
+            fTimer.setRemoveOnCancelPolicy(true);
+        }
+        ScheduledFuture<?> result = fTimer.schedule(aTask, aDelay, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    /**
+     * Returns executor used to perform hedged invocations. If executor is not
+     * specified explicitely, creates default one.
+     *
+     * @return executor
+     * @throws RejectedExecutionException if policy is shut down
+     */
+    public synchronized ExecutorService getExecutor() {
+        if (fShutdown) {
+            throw new RejectedExecutionException("Hedging policy is shut down");
+        }
+        if (fExecutor == null) {
+            fExecutor = createDefaultExecutor();
+            fOwnExecutor = true;
+        }
+        return fExecutor;
+    }
+
+    /**
+     * Creates default executor used to perform hedged invocations. Executor does not
+     * queue tasks, so if all threads are busy, hedge is not issued.
+     *
+     * @return created executor
+     */
+    protected ExecutorService createDefaultExecutor() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cluster4spring-hedge-");
+        threadFactory.setDaemon(true);
+        ThreadPoolExecutor result = new ThreadPoolExecutor(0, fThreadPoolSize, 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        return result;
+    }
+
+    /**
+     * Shuts down policy - stops its timer and executor (if executor was created by policy).
+     * Once policy is shut down, hedges are not issued anymore.
+     */
+    public synchronized void shutdown() {
+        fShutdown = true;
+        if (fTimer != null) {
+            fTimer.shutdownNow();
+            fTimer = null;
+        }
+        if (fOwnExecutor && fExecutor != null) {
+            fExecutor.shutdown();
+            fExecutor = null;
+            fOwnExecutor = false;
+        }
+    }
+
+    /**
+     * Sets executor used to perform hedged invocations. Executor specified explicitely is
+     * not shut down by policy.
+     *
+     * @param aExecutor executor
+     */
+    public synchronized void setExecutor(ExecutorService aExecutor) {
+        fExecutor = aExecutor;
+        fOwnExecutor = false;
+    }
+
+    /**
+     * Returns amount of hedges issued
+     *
+     * @return amount of hedges issued
+     */
+    public long getHedgesIssued() {
+        return fHedgesIssued.get();
+    }
+
+    /**
+     * Returns amount of hedges which result was used instead of result of original invocation
+     *
+     * @return amount of hedges won
+     */
+    public long getHedgesWon() {
+        return fHedgesWon.get();
+    }
+
+    /**
+     * Returns amount of hedges which were not issued due to exhausted budget
+     *
+     * @return amount of rejected hedges
+     */
+    public long getHedgesRejected() {
+        return fHedgesRejected.get();
+    }
+
+    /**
+     * Returns amount of hedges which were not issued since all threads of executor were busy.
+     * If it grows, size of thread pool should be increased.
+     *
+     * @return amount of hedges not issued due to saturated executor
+     * @see #setThreadPoolSize(int)
+     */
+    public long getHedgesSaturated() {
+        return fHedgesSaturated.get();
+    }
+
+    public long getInitialHedgeDelay() {
+        return fInitialHedgeDelay;
+    }
+
+    /**
+     * Sets delay used before enough latencies are observed for method
+     * <p/>
+     * Default is <code>50</code> ms
+     *
+     * @param aInitialHedgeDelay delay in milliseconds
+     */
+    public void setInitialHedgeDelay(long aInitialHedgeDelay) {
+        fInitialHedgeDelay = aInitialHedgeDelay;
+    }
+
+    public long getMinHedgeDelay() {
+        return fMinHedgeDelay;
+    }
+
+    /**
+     * Sets minimal hedge delay
+     * <p/>
+     * Default is <code>5</code> ms
+     *
+     * @param aMinHedgeDelay delay in milliseconds
+     */
+    public void setMinHedgeDelay(long aMinHedgeDelay) {
+        fMinHedgeDelay = aMinHedgeDelay;
+    }
+
+    public double getHedgePercentile() {
+        return fHedgePercentile;
+    }
+
+    /**
+     * Sets percentile of observed latencies used as hedge delay
+     * <p/>
+     * Default is <code>0.95</code>
+     *
+     * @param aHedgePercentile percentile, in range (0, 1]
+     */
+    public void setHedgePercentile(double aHedgePercentile) {
+        fHedgePercentile = aHedgePercentile;
+    }
+
+    public int getMinSamples() {
+        return fMinSamples;
+    }
+
+    /**
+     * Sets amount of observed latencies required to use adaptive delay
+     *
+     * @param aMinSamples amount of samples
+     */
+    public void setMinSamples(int aMinSamples) {
+        fMinSamples = aMinSamples;
+    }
+
+    public int getSamplesCapacity() {
+        return fSamplesCapacity;
+    }
+
+    /**
+     * Sets amount of recent latencies kept per method
+     *
+     * @param aSamplesCapacity amount of samples
+     */
+    public void setSamplesCapacity(int aSamplesCapacity) {
+        fSamplesCapacity = aSamplesCapacity;
+    }
+
+    public double getBudgetPercent() {
+        return fBudgetPercent;
+    }
+
+    /**
+     * Sets maximal percent of additional invocations which could be produced by hedging
+     * <p/>
+     * Default is <code>10</code>
+     *
+     * @param aBudgetPercent percent of invocations
+     */
+    public void setBudgetPercent(double aBudgetPercent) {
+        fBudgetPercent = aBudgetPercent;
+    }
+
+    public double getMaxBudgetTokens() {
+        return fMaxBudgetTokens;
+    }
+
+    /**
+     * Sets maximal amount of hedges which could be accumulated in budget and issued in burst
+     *
+     * @param aMaxBudgetTokens amount of tokens
+     */
+    public void setMaxBudgetTokens(double aMaxBudgetTokens) {
+        fMaxBudgetTokens = aMaxBudgetTokens;
+    }
+
+    public int getThreadPoolSize() {
+        return fThreadPoolSize;
+    }
+
+    /**
+     * Sets amount of threads in default executor, that is maximal amount of hedges in progress
+     * <p/>
+     * Default is <code>20</code>
+     *
+     * @param aThreadPoolSize amount of threads
+     */
+    public void setThreadPoolSize(int aThreadPoolSize) {
+        fThreadPoolSize = aThreadPoolSize;
+    }
+}
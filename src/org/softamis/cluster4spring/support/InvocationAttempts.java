@@ -0,0 +1,192 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State of single invocation of remote service which is kept while invocation is
+ * retried on different endpoints - amount of attempts performed, deadline
+ * all attempts should fit into and servers which already failed.
+ * <p/>
+ * Invocation could be abandoned by another thread (for example, once its hedge
+ * completes) - then it is not retried anymore, and attempt in progress is aborted
+ * by abandon handler registered by protocol, if any.
+ *
+ * @version 1.0
+ * @see RemoteClientInterceptor#setMaxAttempts(int)
+ * @see RemoteClientInterceptor#setInvocationTimeout(long)
+ */
+
+public class InvocationAttempts {
+    /**
+     * Time (in milliseconds) when invocation should be completed
+     */
+    protected final long fDeadline;
+
+    /**
+     * Amount of attempts performed
+     */
+    protected final AtomicInteger fAttempts = new AtomicInteger();
+
+    /**
+     * IDs of servers which failed during invocation
+     */
+    protected final Set<Long> fFailedServers;
+
+    /**
+     * Indicates whether invocation is abandoned
+     */
+    protected volatile boolean fAbandoned = false;
+
+    /**
+     * Handler which aborts attempt in progress when invocation is abandoned
+     */
+    protected volatile Runnable fAbandonHandler = null;
+
+    /**
+     * Creates invocation state
+     *
+     * @param aDeadline time (in milliseconds) when invocation should be completed, or
+     * <code>Long.MAX_VALUE</code> if there is no deadline
+     */
+    public InvocationAttempts(long aDeadline) {
+        this(aDeadline, Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>()));
+    }
+
+    protected InvocationAttempts(long aDeadline, Set<Long> aFailedServers) {
+        fDeadline = aDeadline;
+        fFailedServers = aFailedServers;
+    }
+
+    /**
+     * Creates invocation state with deadline given relatively to current time
+     *
+     * @param aTimeout invocation timeout in milliseconds, <code>0</code> if there is no deadline
+     * @return created state
+     */
+    public static InvocationAttempts withTimeout(long aTimeout) {
+        long deadline = aTimeout > 0 ? System.currentTimeMillis() + aTimeout : Long.MAX_VALUE;
+        InvocationAttempts result = new InvocationAttempts(deadline);
+        return result;
+    }
+
+    /**
+     * Creates state of parallel attempts of the same invocation (hedge). Created state
+     * shares deadline and failed servers with this one, but counts own attempts and
+     * could be abandoned separately.
+     *
+     * @return created state
+     */
+    public InvocationAttempts fork() {
+        InvocationAttempts result = new InvocationAttempts(fDeadline, fFailedServers);
+        return result;
+    }
+
+    /**
+     * Called before every attempt
+     *
+     * @return number of current attempt
+     */
+    public int onAttempt() {
+        return fAttempts.incrementAndGet();
+    }
+
+    /**
+     * Returns amount of attempts performed
+     *
+     * @return amount of attempts
+     */
+    public int getAttempts() {
+        return fAttempts.get();
+    }
+
+    /**
+     * Called when attempt failed on server with given ID, so next attempts avoid that server
+     *
+     * @param aServerID ID of server
+     */
+    public void onServerFailure(long aServerID) {
+        fFailedServers.add(aServerID);
+    }
+
+    /**
+     * Returns IDs of servers which failed during invocation
+     *
+     * @return IDs of servers
+     */
+    public Set<Long> getFailedServers() {
+        return fFailedServers;
+    }
+
+    /**
+     * Returns deadline of invocation
+     *
+     * @return time (in milliseconds) when invocation should be completed
+     */
+    public long getDeadline() {
+        return fDeadline;
+    }
+
+    /**
+     * Checks whether deadline of invocation is already passed
+     *
+     * @return <code>true</code> if invocation is expired
+     */
+    public boolean isExpired() {
+        return fDeadline != Long.MAX_VALUE && System.currentTimeMillis() >= fDeadline;
+    }
+
+    /**
+     * Abandons invocation - it is not retried anymore and attempt in progress is aborted
+     * by registered handler
+     */
+    public void abandon() {
+        fAbandoned = true;
+        Runnable handler = fAbandonHandler;
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    /**
+     * Checks whether invocation is abandoned
+     *
+     * @return <code>true</code> if invocation is abandoned
+     */
+    public boolean isAbandoned() {
+        return fAbandoned;
+    }
+
+    /**
+     * Registers handler which aborts attempt in progress if invocation is abandoned.
+     * Handler should be unregistered (by passing <code>null</code>) once attempt completes.
+     *
+     * @param aAbandonHandler handler or <code>null</code>
+     */
+    public void setAbandonHandler(Runnable aAbandonHandler) {
+        fAbandonHandler = aAbandonHandler;
+        if (aAbandonHandler != null && fAbandoned) {
+            // invocation was abandoned before handler was registered
+            aAbandonHandler.run();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Key which identifies invocation by method and arguments. Two keys are equal if
+ * they refer the same method and their arguments are deeply equal, so keys could
+ * be used to find identical invocations.
+ *
+ * @version 1.0
+ */
+
+public class InvocationKey {
+    /**
+     * Invoked method
+     */
+    protected final Method fMethod;
+
+    /**
+     * Arguments of invocation
+     */
+    protected final Object[] fArguments;
+
+    /**
+     * Precalculated hash code
+     */
+    protected final int fHashCode;
+
+    /**
+     * Creates key
+     *
+     * @param aMethod invoked method
+     * @param aArguments arguments of invocation
+     */
+    public InvocationKey(Method aMethod, Object[] aArguments) {
+        fMethod = aMethod;
+        fArguments = aArguments == null ? new Object[0] : aArguments.clone();
+        fHashCode = 31 * aMethod.hashCode() + Arrays.deepHashCode(fArguments);
+    }
+
+    /**
+     * Creates key for given method invocation
+     *
+     * @param aInvocation method invocation
+     * @return created key
+     */
+    public static InvocationKey forInvocation(MethodInvocation aInvocation) {
+        InvocationKey result = new InvocationKey(aInvocation.getMethod(), aInvocation.getArguments());
+        return result;
+    }
+
+    public Method getMethod() {
+        return fMethod;
+    }
+
+    public Object[] getArguments() {
+        return fArguments;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        InvocationKey that = (InvocationKey) o;
+        if (fHashCode != that.fHashCode) {
+            return false;
+        }
+        if (!fMethod.equals(that.fMethod)) {
+            return false;
+        }
+        return Arrays.deepEquals(fArguments, that.fArguments);
+    }
+
+    @Override
+    public int hashCode() {
+        return fHashCode;
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder().append(fMethod.getName())
+                .append(Arrays.deepToString(fArguments))
+                .toString();
+    }
+}
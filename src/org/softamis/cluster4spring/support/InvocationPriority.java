@@ -0,0 +1,70 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Specifies priority class of invocations of method of remote service. Server which
+ * performs invocations by priority aware executor sheds invocations of lower priority
+ * first when it is overloaded. Smaller value means more important invocation.
+ *
+ * @version 1.0
+ * @see RemoteClientInterceptor#setMethodPriorities(java.util.Map)
+ * @see PriorityRemoteInvocationFactory
+ */
+
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface InvocationPriority {
+    /**
+     * Invocations which are never shed, such as health probes
+     */
+    int CRITICAL = 0;
+
+    /**
+     * Invocations on which user is waiting
+     */
+    int HIGH = 1;
+
+    /**
+     * Invocations without explicit priority
+     */
+    int NORMAL = 2;
+
+    /**
+     * Invocations which could be delayed
+     */
+    int LOW = 3;
+
+    /**
+     * Background jobs such as bulk exports
+     */
+    int BULK = 4;
+
+    /**
+     * Priority class, one of <code>CRITICAL</code>, <code>HIGH</code>, <code>NORMAL</code>,
+     * <code>LOW</code> or <code>BULK</code>
+     */
+    int value();
+}
@@ -0,0 +1,121 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.util.Arrays;
+
+/**
+ * Keeps latencies of the most recent invocations and calculates percentiles over them.
+ * Latencies are stored in fixed size ring buffer, so memory used by recorder does not
+ * depend on amount of invocations. Since sorting of samples is relatively expensive,
+ * calculated percentile is cached and recalculated only after some amount of new samples
+ * are recorded.
+ *
+ * @version 1.0
+ */
+
+public class LatencyRecorder {
+    /**
+     * Recent latencies
+     */
+    protected final long[] fSamples;
+
+    /**
+     * Position in ring buffer where next sample will be stored
+     */
+    protected int fPosition = 0;
+
+    /**
+     * Amount of samples stored
+     */
+    protected int fCount = 0;
+
+    /**
+     * Amount of samples recorded since last calculation of percentile
+     */
+    protected int fSamplesSinceCalculation = 0;
+
+    /**
+     * Percentile for which cached value is calculated
+     */
+    protected double fCachedPercentile = Double.NaN;
+
+    /**
+     * Cached value of percentile
+     */
+    protected long fCachedValue = 0;
+
+    /**
+     * Creates recorder
+     *
+     * @param aCapacity amount of recent samples used to calculate percentiles
+     */
+    public LatencyRecorder(int aCapacity) {
+        if (aCapacity < 1) {
+            throw new IllegalArgumentException("Capacity of latency recorder should be positive");
+        }
+        fSamples = new long[aCapacity];
+    }
+
+    /**
+     * Records latency of invocation
+     *
+     * @param aLatency latency of invocation
+     */
+    public synchronized void record(long aLatency) {
+        fSamples[fPosition] = aLatency;
+        fPosition = (fPosition + 1) % fSamples.length;
+        if (fCount < fSamples.length) {
+            fCount++;
+        }
+        fSamplesSinceCalculation++;
+    }
+
+    /**
+     * Returns amount of samples available
+     *
+     * @return amount of samples
+     */
+    public synchronized int getCount() {
+        return fCount;
+    }
+
+    /**
+     * Returns given percentile of recorded latencies.
+     *
+     * @param aPercentile percentile, in range (0, 1]
+     * @return value of percentile or <code>0</code> if there are no samples recorded
+     */
+    public synchronized long getPercentile(double aPercentile) {
+        long result = 0;
+        if (fCount > 0) {
+            int recalculationInterval = Math.max(1, fSamples.length / 10);
+            if (aPercentile != fCachedPercentile || fSamplesSinceCalculation >= recalculationInterval) {
+                long[] sorted = Arrays.copyOf(fSamples, fCount);
+                Arrays.sort(sorted);
+                int index = (int) Math.ceil(aPercentile * fCount) - 1;
+                index = Math.max(0, Math.min(fCount - 1, index));
+                fCachedValue = sorted[index];
+                fCachedPercentile = aPercentile;
+                fSamplesSinceCalculation = 0;
+            }
+            result = fCachedValue;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of attempts performed to invoke method of remote service.
+ *
+ * @version 1.0
+ * @see RemoteClientInterceptor#getAttemptStatistics()
+ */
+
+public class MethodAttemptStatistics {
+    /**
+     * Amount of invocations of method
+     */
+    protected final AtomicLong fInvocations = new AtomicLong();
+
+    /**
+     * Total amount of attempts performed for all invocations
+     */
+    protected final AtomicLong fAttempts = new AtomicLong();
+
+    /**
+     * Maximal amount of attempts performed for single invocation
+     */
+    protected final AtomicLong fMaxAttempts = new AtomicLong();
+
+    /**
+     * Amount of invocations which failed because retry was not allowed
+     */
+    protected final AtomicLong fRetriesStopped = new AtomicLong();
+
+    public MethodAttemptStatistics() {
+    }
+
+    /**
+     * Records completed invocation
+     *
+     * @param aAttempts amount of attempts performed for invocation
+     */
+    public void recordInvocation(int aAttempts) {
+        fInvocations.incrementAndGet();
+        fAttempts.addAndGet(aAttempts);
+        long max = fMaxAttempts.get();
+        while (aAttempts > max && !fMaxAttempts.compareAndSet(max, aAttempts)) {
+            max = fMaxAttempts.get();
+        }
+    }
+
+    /**
+     * Records invocation which was not retried due to attempts limit, deadline or retry budget
+     */
+    public void recordRetryStopped() {
+        fRetriesStopped.incrementAndGet();
+    }
+
+    public long getInvocations() {
+        return fInvocations.get();
+    }
+
+    public long getAttempts() {
+        return fAttempts.get();
+    }
+
+    public long getMaxAttempts() {
+        return fMaxAttempts.get();
+    }
+
+    public long getRetriesStopped() {
+        return fRetriesStopped.get();
+    }
+
+    /**
+     * Returns average amount of attempts per invocation
+     *
+     * @return average amount of attempts
+     */
+    public double getAverageAttempts() {
+        long invocations = fInvocations.get();
+        double result = invocations == 0 ? 0 : (double) fAttempts.get() / invocations;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "MethodAttemptStatistics{" +
+                "invocations=" + fInvocations +
+                ", attempts=" + fAttempts +
+                ", maxAttempts=" + fMaxAttempts +
+                ", retriesStopped=" + fRetriesStopped +
+                '}';
+    }
+}
@@ -0,0 +1,285 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Sends one-way invocations in background. Invocations are put into bounded queue
+ * and calling thread returns immediately; single sender thread drains the queue
+ * and passes invocations (up to maximal batch size at once) to the dispatcher.
+ * <p/>
+ * If queue is full, invocation is handled according to overflow policy:
+ * <ul>
+ * <li><code>DROP</code> - invocation is discarded;</li>
+ * <li><code>BLOCK</code> - calling thread waits for free space in queue up to
+ * maximal block time, invocation is discarded if space does not appear;</li>
+ * <li><code>CALLER_RUNS</code> - invocation spills to calling thread which sends it
+ * synchronously (so caller is slowed down to the speed of the server).</li>
+ * </ul>
+ *
+ * @version 1.0
+ * @see OneWay
+ * @see RemoteClientInterceptor#setOneWayMethods(String[])
+ */
+
+@SuppressWarnings({"ProhibitedExceptionDeclared"})
+public class OneWaySender {
+    protected static final Log fLog = LogFactory.getLog(OneWaySender.class);
+
+    /**
+     * Policy applied if queue of invocations is full
+     */
+    public enum OverflowPolicy {
+        DROP, BLOCK, CALLER_RUNS
+    }
+
+    /**
+     * Callback used to send invocations
+     */
+    public interface Dispatcher {
+        /**
+         * Sends given invocations to the server
+         *
+         * @param aInvocations invocations to send
+         * @return amount of invocations which failed
+         * @throws Throwable if invocations could not be sent at all
+         */
+        public int dispatch(List<MethodInvocation> aInvocations)
+                throws Throwable;
+    }
+
+    /**
+     * Dispatcher used to send invocations
+     */
+    protected final Dispatcher fDispatcher;
+
+    /**
+     * Queue of invocations waiting to be sent
+     */
+    protected final BlockingQueue<MethodInvocation> fQueue;
+
+    /**
+     * Maximal amount of invocations passed to dispatcher at once
+     */
+    protected final int fMaxBatchSize;
+
+    /**
+     * Policy applied if queue is full
+     */
+    protected final OverflowPolicy fOverflowPolicy;
+
+    /**
+     * Maximal time (in milliseconds) caller waits for free space in queue if policy is <code>BLOCK</code>
+     */
+    protected final long fMaxBlockTime;
+
+    /**
+     * Thread which sends invocations
+     */
+    protected final Thread fSender;
+
+    /**
+     * Indicates whether sender is stopped
+     */
+    protected volatile boolean fStopped = false;
+
+    /**
+     * Amount of invocations queued
+     */
+    protected final AtomicLong fEnqueued = new AtomicLong();
+
+    /**
+     * Amount of invocations sent successfully
+     */
+    protected final AtomicLong fSent = new AtomicLong();
+
+    /**
+     * Amount of invocations which could not be sent
+     */
+    protected final AtomicLong fFailed = new AtomicLong();
+
+    /**
+     * Amount of invocations discarded because queue was full
+     */
+    protected final AtomicLong fDropped = new AtomicLong();
+
+    /**
+     * Amount of invocations sent by calling thread because queue was full
+     */
+    protected final AtomicLong fCallerRuns = new AtomicLong();
+
+    /**
+     * Creates and starts sender
+     *
+     * @param aDispatcher dispatcher used to send invocations
+     * @param aQueueCapacity capacity of queue
+     * @param aMaxBatchSize maximal amount of invocations passed to dispatcher at once
+     * @param aOverflowPolicy policy applied if queue is full
+     * @param aMaxBlockTime maximal time (in milliseconds) caller waits for free space in queue
+     * @param aName name of sender thread
+     */
+    public OneWaySender(Dispatcher aDispatcher, int aQueueCapacity, int aMaxBatchSize, OverflowPolicy aOverflowPolicy,
+                        long aMaxBlockTime, String aName) {
+        if (aQueueCapacity < 1 || aMaxBatchSize < 1) {
+            throw new IllegalArgumentException("Queue capacity and batch size should be positive");
+        }
+        fDispatcher = aDispatcher;
+        fQueue = new ArrayBlockingQueue<MethodInvocation>(aQueueCapacity);
+        fMaxBatchSize = aMaxBatchSize;
+        fOverflowPolicy = aOverflowPolicy;
+        fMaxBlockTime = aMaxBlockTime;
+        fSender = new Thread(new Runnable() {
+            public void run() {
+                sendLoop();
+            }
+        }, aName + "-one-way");
+        fSender.setDaemon(true);
+        fSender.start();
+    }
+
+    /**
+     * Queues invocation for sending, applying overflow policy if queue is full
+     *
+     * @param aInvocation invocation to send
+     */
+    public void send(MethodInvocation aInvocation) {
+        boolean queued = !fStopped && fQueue.offer(aInvocation);
+        if (!queued && !fStopped && fOverflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                queued = fQueue.offer(aInvocation, fMaxBlockTime, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (queued) {
+            fEnqueued.incrementAndGet();
+        } else if (fOverflowPolicy == OverflowPolicy.CALLER_RUNS) {
+            fCallerRuns.incrementAndGet();
+            List<MethodInvocation> invocations = new ArrayList<MethodInvocation>(1);
+            invocations.add(aInvocation);
+            dispatch(invocations);
+        } else {
+            fDropped.incrementAndGet();
+            if (fLog.isDebugEnabled()) {
+                fLog.debug(format("One-way invocation dropped since queue is full. Method: [{0}]",
+                        aInvocation.getMethod().getName()));
+            }
+        }
+    }
+
+    protected void sendLoop() {
+        List<MethodInvocation> invocations = new ArrayList<MethodInvocation>(fMaxBatchSize);
+        while (!fStopped || !fQueue.isEmpty()) {
+            try {
+                MethodInvocation invocation = fQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (invocation != null) {
+                    invocations.add(invocation);
+                    fQueue.drainTo(invocations, fMaxBatchSize - 1);
+                    dispatch(invocations);
+                    invocations.clear();
+                }
+            } catch (InterruptedException e) {
+                // sender is interrupted on shutdown, remaining invocations are sent before exit
+            }
+        }
+    }
+
+    /**
+     * Passes invocations to dispatcher and updates statistics
+     *
+     * @param aInvocations invocations to send
+     */
+    protected void dispatch(List<MethodInvocation> aInvocations) {
+        try {
+            int failed = fDispatcher.dispatch(aInvocations);
+            fSent.addAndGet(aInvocations.size() - failed);
+            fFailed.addAndGet(failed);
+        } catch (Throwable e) {
+            fFailed.addAndGet(aInvocations.size());
+            if (fLog.isWarnEnabled()) {
+                fLog.warn(format("Unable to send [{0}] one-way invocations", aInvocations.size()), e);
+            }
+        }
+    }
+
+    /**
+     * Stops sender. Invocations which are already queued are sent, but sender waits for
+     * them not longer than given time.
+     *
+     * @param aTimeout maximal time (in milliseconds) to wait for queued invocations
+     */
+    public void shutdown(long aTimeout) {
+        fStopped = true;
+        fSender.interrupt();
+        try {
+            fSender.join(aTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int abandoned = fQueue.size();
+        if (abandoned > 0 && fLog.isWarnEnabled()) {
+            fLog.warn(format("[{0}] one-way invocations were not sent before shutdown", abandoned));
+        }
+    }
+
+    /**
+     * Returns amount of invocations waiting in queue
+     *
+     * @return queue size
+     */
+    public int getQueueSize() {
+        return fQueue.size();
+    }
+
+    public long getEnqueued() {
+        return fEnqueued.get();
+    }
+
+    public long getSent() {
+        return fSent.get();
+    }
+
+    public long getFailed() {
+        return fFailed.get();
+    }
+
+    public long getDropped() {
+        return fDropped.get();
+    }
+
+    public long getCallerRuns() {
+        return fCallerRuns.get();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return fOverflowPolicy;
+    }
+}
@@ -0,0 +1,160 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationFactory;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Factory of remote invocations which tags invocations with priority class, so
+ * server could shed less important invocations first when it is overloaded. Priority
+ * is taken (in order) from priority configured for method name, from
+ * <code>InvocationPriority</code> annotation of method or of its class, or from default
+ * priority. If priority is not determined, invocation is not tagged and server treats it
+ * as <code>NORMAL</code>.
+ * <p/>
+ * Creation of invocation itself is delegated to another factory.
+ *
+ * @version 1.0
+ * @see InvocationPriority
+ * @see RemoteClientInterceptor#setPriority(int)
+ */
+
+public class PriorityRemoteInvocationFactory
+        implements RemoteInvocationFactory {
+    /**
+     * Name of attribute of remote invocation which contains priority
+     */
+    public static final String ATTRIBUTE_PRIORITY = "priority";
+
+    /**
+     * Marker of methods without priority
+     */
+    protected static final Integer NO_PRIORITY = -1;
+
+    /**
+     * Factory which creates invocations
+     */
+    protected final RemoteInvocationFactory fDelegate;
+
+    /**
+     * Priority of invocations of methods without explicit priority, <code>-1</code> if they are not tagged
+     */
+    protected final int fDefaultPriority;
+
+    /**
+     * Priorities per method name
+     */
+    protected final Map<String, Integer> fMethodPriorities;
+
+    /**
+     * Priorities determined for methods
+     */
+    protected final ConcurrentMap<Method, Integer> fPriorities = new ConcurrentHashMap<Method, Integer>();
+
+    /**
+     * Creates factory
+     *
+     * @param aDelegate factory which creates invocations
+     * @param aDefaultPriority priority of methods without explicit priority, <code>-1</code> if they should not be tagged
+     * @param aMethodPriorities priorities per method name
+     */
+    public PriorityRemoteInvocationFactory(RemoteInvocationFactory aDelegate, int aDefaultPriority,
+                                           Map<String, Integer> aMethodPriorities) {
+        fDelegate = aDelegate;
+        fDefaultPriority = aDefaultPriority;
+        fMethodPriorities = new HashMap<String, Integer>(aMethodPriorities);
+    }
+
+    public RemoteInvocation createRemoteInvocation(MethodInvocation aMethodInvocation) {
+        RemoteInvocation result = fDelegate.createRemoteInvocation(aMethodInvocation);
+        int priority = getMethodPriority(aMethodInvocation.getMethod());
+        if (priority >= 0 && result.getAttribute(ATTRIBUTE_PRIORITY) == null) {
+            result.addAttribute(ATTRIBUTE_PRIORITY, priority);
+        }
+        return result;
+    }
+
+    /**
+     * Returns priority of invocations of given method
+     *
+     * @param aMethod invoked method
+     * @return priority or <code>-1</code> if invocations should not be tagged
+     */
+    protected int getMethodPriority(Method aMethod) {
+        Integer result = fPriorities.get(aMethod);
+        if (result == null) {
+            result = fMethodPriorities.get(aMethod.getName());
+            if (result == null) {
+                InvocationPriority annotation = aMethod.getAnnotation(InvocationPriority.class);
+                if (annotation == null) {
+                    annotation = aMethod.getDeclaringClass().getAnnotation(InvocationPriority.class);
+                }
+                result = annotation == null ? fDefaultPriority : annotation.value();
+            }
+            fPriorities.put(aMethod, result);
+        }
+        return result;
+    }
+
+    public RemoteInvocationFactory getDelegate() {
+        return fDelegate;
+    }
+
+    /**
+     * Returns priority of given invocation
+     *
+     * @param aInvocation invocation received by server
+     * @return priority or <code>InvocationPriority.NORMAL</code> if invocation is not tagged
+     */
+    public static int getPriority(RemoteInvocation aInvocation) {
+        Object priority = aInvocation.getAttribute(ATTRIBUTE_PRIORITY);
+        int result = priority instanceof Integer ? (Integer) priority : InvocationPriority.NORMAL;
+        return result;
+    }
+
+    /**
+     * Tags envelope which contains given invocations (such as batch or encoded invocation)
+     * by the highest priority of them, so server could determine priority without
+     * unpacking envelope.
+     *
+     * @param aInvocations invocations contained in envelope
+     * @param aEnvelope envelope
+     */
+    public static void copyPriority(List<RemoteInvocation> aInvocations, RemoteInvocation aEnvelope) {
+        int priority = Integer.MAX_VALUE;
+        for (RemoteInvocation invocation : aInvocations) {
+            Object value = invocation.getAttribute(ATTRIBUTE_PRIORITY);
+            if (value instanceof Integer) {
+                priority = Math.min(priority, (Integer) value);
+            }
+        }
+        if (priority != Integer.MAX_VALUE) {
+            aEnvelope.addAttribute(ATTRIBUTE_PRIORITY, priority);
+        }
+    }
+}
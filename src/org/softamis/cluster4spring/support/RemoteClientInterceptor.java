@@ -18,6 +18,17 @@
 package org.softamis.cluster4spring.support;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static java.text.MessageFormat.format;
 
@@ -34,6 +45,7 @@ import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.remoting.RemoteAccessException;
 import org.springframework.remoting.RemoteConnectFailureException;
 import org.springframework.remoting.RemoteLookupFailureException;
+import org.springframework.remoting.support.RemoteInvocationResult;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
@@ -87,6 +99,183 @@ public abstract class RemoteClientInterceptor<E extends Endpoint<SI>, SI extends
      */
     protected boolean fRefreshEndpointsOnStartup = true;
 
+    /**
+     * Names of service methods which are idempotent (in addition to ones marked by <code>Idempotent</code>)
+     */
+    protected Set<String> fIdempotentMethods = new HashSet<String>();
+
+    /**
+     * Policy used to hedge invocations of idempotent methods. If not specified, hedging is not performed
+     */
+    protected HedgingPolicy fHedgingPolicy = null;
+
+    /**
+     * Maximal amount of attempts to select endpoint for hedge which differs from original one
+     */
+    protected static final int HEDGE_ENDPOINT_SELECTION_ATTEMPTS = 3;
+
+    /**
+     * Maximal amount of attempts (including the first one) performed for single invocation
+     */
+    protected int fMaxAttempts = 3;
+
+    /**
+     * Time (in milliseconds) all attempts of single invocation should fit into, <code>0</code> means no limit
+     */
+    protected long fInvocationTimeout = 0;
+
+    /**
+     * Budget that limits amount of retries for service. If not specified, retries are limited only per invocation
+     */
+    protected RetryBudget fRetryBudget = new RetryBudget();
+
+    /**
+     * Names of service methods which invocations could be collapsed into batches
+     * (in addition to ones marked by <code>Batchable</code>)
+     */
+    protected Set<String> fBatchMethods = new HashSet<String>();
+
+    /**
+     * Maximal amount of invocations sent in single batch
+     */
+    protected int fMaxBatchSize = 32;
+
+    /**
+     * Time (in milliseconds) batch waits for more invocations before being sent
+     */
+    protected long fBatchFlushInterval = 2;
+
+    /**
+     * Amount of threads used to send batches by timer
+     */
+    protected int fBatchFlushThreads = 2;
+
+    /**
+     * Maximal time (in milliseconds) caller waits for result of batched invocation if
+     * neither method timeout nor invocation timeout is configured
+     */
+    protected long fBatchTimeout = 30000;
+
+    /**
+     * Collapser used to combine invocations into batches, created on first batched invocation
+     */
+    protected RequestCollapser fRequestCollapser = null;
+
+    /**
+     * Names of void service methods which are invoked in one-way mode (in addition to ones marked by <code>OneWay</code>)
+     */
+    protected Set<String> fOneWayMethods = new HashSet<String>();
+
+    /**
+     * Maximal amount of one-way invocations waiting to be sent
+     */
+    protected int fOneWayQueueCapacity = 10000;
+
+    /**
+     * Policy applied if queue of one-way invocations is full
+     */
+    protected OneWaySender.OverflowPolicy fOneWayOverflowPolicy = OneWaySender.OverflowPolicy.DROP;
+
+    /**
+     * Maximal time (in milliseconds) caller waits for free space in queue of one-way invocations
+     */
+    protected long fOneWayMaxBlockTime = 100;
+
+    /**
+     * Specifies whether queued one-way invocations are sent in batches
+     */
+    protected boolean fOneWayBatching = true;
+
+    /**
+     * Maximal time (in milliseconds) to wait for sending of queued one-way invocations on shutdown
+     */
+    protected long fOneWayShutdownTimeout = 5000;
+
+    /**
+     * Sender of one-way invocations, created on first one-way invocation
+     */
+    protected OneWaySender fOneWaySender = null;
+
+    /**
+     * Indicates whether interceptor is closed together with application context
+     */
+    protected boolean fClosed = false;
+
+    /**
+     * Maximal amount of concurrent invocations of the service, <code>0</code> means no limit
+     */
+    protected int fMaxConcurrentCalls = 0;
+
+    /**
+     * Maximal amount of concurrent invocations per endpoint, <code>0</code> means no limit
+     */
+    protected int fMaxConcurrentCallsPerEndpoint = 0;
+
+    /**
+     * Maximal amount of invocations waiting for free slot in bulkhead
+     */
+    protected int fMaxWaitingCalls = 0;
+
+    /**
+     * Maximal time (in milliseconds) invocation waits for free slot in bulkhead
+     */
+    protected long fMaxBulkheadWaitTime = 0;
+
+    /**
+     * Bulkhead which limits concurrent invocations of the service
+     */
+    protected Bulkhead fServiceBulkhead = null;
+
+    /**
+     * Bulkheads which limit concurrent invocations per endpoint
+     */
+    protected final ConcurrentMap<SI, Bulkhead> fEndpointBulkheads = new ConcurrentHashMap<SI, Bulkhead>();
+
+    /**
+     * Time (in milliseconds) after which unused bulkhead of endpoint is removed, since endpoint
+     * could disappear from provider without being marked invalid (such as on rediscovery)
+     */
+    protected static final long ENDPOINT_BULKHEAD_IDLE_TIME = 10 * 60 * 1000L;
+
+    /**
+     * Template of adaptive concurrency limit attached to every endpoint. If not specified,
+     * concurrency of endpoints is not limited adaptively
+     */
+    protected AdaptiveConcurrencyLimit fConcurrencyLimit = null;
+
+    /**
+     * Timeout (in milliseconds) of single attempt per method name
+     */
+    protected Map<String, Long> fMethodTimeouts = new HashMap<String, Long>();
+
+    /**
+     * Timeout (in milliseconds) of single attempt for methods which timeout is not specified,
+     * <code>0</code> means no timeout
+     */
+    protected long fDefaultMethodTimeout = 0;
+
+    /**
+     * Priority class of invocations of methods without explicit priority, <code>-1</code> if
+     * such invocations are not tagged
+     */
+    protected int fPriority = -1;
+
+    /**
+     * Priority class per method name
+     */
+    protected Map<String, Integer> fMethodPriorities = new HashMap<String, Integer>();
+
+    /**
+     * State of invocation performed by current thread
+     */
+    protected final ThreadLocal<InvocationAttempts> fCurrentAttempts = new ThreadLocal<InvocationAttempts>();
+
+    /**
+     * Statistics of attempts per method name
+     */
+    protected final ConcurrentMap<String, MethodAttemptStatistics> fAttemptStatistics =
+            new ConcurrentHashMap<String, MethodAttemptStatistics>();
+
     protected RemoteClientInterceptor() {
         super();
     }
@@ -116,6 +305,15 @@ public abstract class RemoteClientInterceptor<E extends Endpoint<SI>, SI extends
         if (fEndpointFactory == null) {
             fEndpointFactory = createDefaultEndpointFactory();
         }
+        // invocations are tagged by priority, so overloaded server could shed less important ones first
+        if (!(fRemoteInvocationFactory instanceof PriorityRemoteInvocationFactory)) {
+            fRemoteInvocationFactory = new PriorityRemoteInvocationFactory(fRemoteInvocationFactory, fPriority,
+                    fMethodPriorities);
+        }
+        if (fMaxConcurrentCalls > 0) {
+            String name = fBeanName == null ? getProtocol() : fBeanName;
+            fServiceBulkhead = new Bulkhead(name, fMaxConcurrentCalls, fMaxWaitingCalls, fMaxBulkheadWaitTime);
+        }
     }
 
     /**
@@ -172,6 +370,20 @@ public abstract class RemoteClientInterceptor<E extends Endpoint<SI>, SI extends
      * @see #onApplicationEvent(ApplicationEvent)
      */
     protected void onContextClosed() {
+        if (fHedgingPolicy != null) {
+            fHedgingPolicy.shutdown();
+        }
+        synchronized (this) {
+            fClosed = true;
+            if (fRequestCollapser != null) {
+                fRequestCollapser.shutdown();
+                fRequestCollapser = null;
+            }
+            if (fOneWaySender != null) {
+                fOneWaySender.shutdown(fOneWayShutdownTimeout);
+                fOneWaySender = null;
+            }
+        }
     }
 
     /**
@@ -217,8 +429,600 @@ public abstract class RemoteClientInterceptor<E extends Endpoint<SI>, SI extends
         {
             String protocol = getProtocol();
             result = format("{0} invoker proxy for bean [{1}]", protocol, fBeanName);
+        } else if (isOneWay(method)) {
+            obtainOneWaySender().send(aInvocation);
         } else {
+            if (fServiceBulkhead != null) {
+                fServiceBulkhead.acquire();
+            }
+            InvocationAttempts attempts = InvocationAttempts.withTimeout(fInvocationTimeout);
+            fCurrentAttempts.set(attempts);
+            try {
+                if (isBatchingSupported() && isBatchable(method)) {
+                    result = doCollapsedInvoke(aInvocation);
+                } else if (fHedgingPolicy != null && isIdempotent(method)) {
+                    result = doHedgedInvoke(aInvocation);
+                } else {
+                    result = doInvoke(aInvocation);
+                }
+            } finally {
+                fCurrentAttempts.remove();
+                obtainAttemptStatistics(method).recordInvocation(attempts.getAttempts());
+                if (fServiceBulkhead != null) {
+                    fServiceBulkhead.release();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether failed invocation could be retried. Retry is not allowed if maximal
+     * amount of attempts is already performed, if deadline of invocation is passed or if
+     * retry budget of the service is exhausted. Abandoned invocation is not retried as well.
+     *
+     * @param aInvocation the invocation that failed
+     * @return <code>true</code> if invocation could be retried
+     * @see #setMaxAttempts(int)
+     * @see #setInvocationTimeout(long)
+     * @see #setRetryBudget(RetryBudget)
+     */
+    protected boolean isRetryAllowed(MethodInvocation aInvocation) {
+        boolean result = true;
+        InvocationAttempts attempts = fCurrentAttempts.get();
+        String reason = null;
+        if (attempts != null && attempts.isAbandoned()) {
+            // result of invocation is not needed anymore, so stopped retry is not reported
+            result = false;
+        } else if (attempts != null && attempts.getAttempts() >= fMaxAttempts) {
+            reason = "attempts limit reached";
+        } else if (attempts != null && attempts.isExpired()) {
+            reason = "invocation deadline passed";
+        } else if (fRetryBudget != null && !fRetryBudget.tryAcquire()) {
+            reason = "retry budget exhausted";
+        }
+        if (reason != null) {
+            result = false;
+            Method method = aInvocation.getMethod();
+            obtainAttemptStatistics(method).recordRetryStopped();
+            if (fLog.isWarnEnabled()) {
+                int performed = attempts == null ? 1 : attempts.getAttempts();
+                String message = format("Invocation will not be retried - {0}. Bean Name: [{1}], Method: [{2}], Attempts: [{3}]",
+                        reason, fBeanName, method.getName(), performed);
+                fLog.warn(message);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns statistics of attempts for given method
+     *
+     * @param aMethod invoked method
+     * @return statistics of attempts
+     */
+    protected MethodAttemptStatistics obtainAttemptStatistics(Method aMethod) {
+        String name = aMethod.getName();
+        MethodAttemptStatistics result = fAttemptStatistics.get(name);
+        if (result == null) {
+            result = new MethodAttemptStatistics();
+            MethodAttemptStatistics existing = fAttemptStatistics.putIfAbsent(name, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether given method is idempotent, so it could be safely invoked on
+     * several endpoints.
+     *
+     * @param aMethod method to check
+     * @return <code>true</code> if method is marked by <code>Idempotent</code> annotation
+     *         or its name is listed in idempotent methods
+     * @see #setIdempotentMethods(String[])
+     */
+    protected boolean isIdempotent(Method aMethod) {
+        boolean result = aMethod.isAnnotationPresent(Idempotent.class) || fIdempotentMethods.contains(aMethod.getName());
+        return result;
+    }
+
+    /**
+     * Checks whether invocations of given method could be collapsed into batches
+     *
+     * @param aMethod method to check
+     * @return <code>true</code> if method is marked by <code>Batchable</code> annotation
+     *         or its name is listed in batch methods
+     * @see #setBatchMethods(String[])
+     */
+    protected boolean isBatchable(Method aMethod) {
+        boolean result = aMethod.isAnnotationPresent(Batchable.class) || fBatchMethods.contains(aMethod.getName());
+        return result;
+    }
+
+    /**
+     * Checks whether protocol supports batched invocations. Protocols which support
+     * batches should override this method together with
+     * {@link #doInvokeBatch(java.util.List, Endpoint)}.
+     *
+     * @return <code>true</code> if batched invocations are supported
+     */
+    protected boolean isBatchingSupported() {
+        return false;
+    }
+
+    /**
+     * Performs invocation as part of the batch. If batch was not delivered to the server,
+     * invocation is performed individually, with usual handling of connect failures. Other
+     * failures of the batch are thrown to the caller, since server could already perform
+     * the invocation.
+     *
+     * @param aInvocation method invocation to invoke
+     * @return result of method invocation
+     * @throws Throwable application logic specific exception or <code>RemoteAccessException</code>
+     * @see RequestCollapser
+     * @see #isBatchNotDelivered(Throwable)
+     */
+    protected Object doCollapsedInvoke(MethodInvocation aInvocation)
+            throws Throwable {
+        long timeout = getAttemptTimeout(aInvocation.getMethod());
+        if (timeout <= 0) {
+            timeout = fBatchTimeout;
+        }
+        RequestCollapser.PendingCall call = obtainRequestCollapser().collapse(aInvocation, timeout);
+        Throwable failure = call.getBatchFailure();
+        Object result = null;
+        if (failure == null) {
+            RemoteInvocationResult invocationResult = call.getResult();
+            result = invocationResult.recreate();
+        } else if (isBatchNotDelivered(failure)) {
+            if (fLog.isDebugEnabled()) {
+                fLog.debug(format("Batch was not delivered, performing invocation individually. Bean Name: [{0}]",
+                        fBeanName));
+            }
             result = doInvoke(aInvocation);
+        } else {
+            throw convertBatchFailure(failure);
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether given failure of batch proves that batch was not delivered to the server,
+     * so invocations included into it could be safely performed individually. Failures like read
+     * timeout could occur after server has performed the batch, so they do not allow this.
+     * Default implementation treats as not delivered batches which failed due to connect failure,
+     * overload of endpoint or bulkhead and batches not supported by the server or endpoint.
+     *
+     * @param aFailure failure of batch
+     * @return <code>true</code> if batch was certainly not performed by the server
+     */
+    protected boolean isBatchNotDelivered(Throwable aFailure) {
+        boolean result = false;
+        if (aFailure instanceof RemoteAccessException) {
+            RemoteAccessException ex = (RemoteAccessException) aFailure;
+            result = ex instanceof RemoteConnectFailureException || ex instanceof EndpointOverloadedException ||
+                    ex instanceof BulkheadFullException || isConnectFailure(ex);
+        } else {
+            // server does not know batch method or endpoint is not able to send batches
+            result = aFailure instanceof NoSuchMethodException || aFailure instanceof UnsupportedOperationException;
+        }
+        return result;
+    }
+
+    /**
+     * Converts failure of batch to exception thrown to callers of batched invocations
+     *
+     * @param aFailure failure of batch
+     * @return exception to throw
+     */
+    protected Throwable convertBatchFailure(Throwable aFailure) {
+        Throwable result = aFailure;
+        if (!(aFailure instanceof RuntimeException) && !(aFailure instanceof Error)) {
+            String message = format("Batched invocation of remote service [{0}] failed", fBeanName);
+            result = new RemoteAccessException(message, aFailure);
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether given method should be invoked in one-way mode
+     *
+     * @param aMethod method to check
+     * @return <code>true</code> if method returns nothing and is marked by <code>OneWay</code>
+     *         annotation or its name is listed in one-way methods
+     * @see #setOneWayMethods(String[])
+     */
+    protected boolean isOneWay(Method aMethod) {
+        boolean result = aMethod.getReturnType() == Void.TYPE &&
+                (aMethod.isAnnotationPresent(OneWay.class) || fOneWayMethods.contains(aMethod.getName()));
+        return result;
+    }
+
+    /**
+     * Returns sender of one-way invocations, creating it if necessary. Sender is not created
+     * after interceptor is closed, since its thread would not be stopped.
+     *
+     * @return one-way sender
+     * @throws RemoteAccessException if interceptor is already closed
+     */
+    protected synchronized OneWaySender obtainOneWaySender()
+            throws RemoteAccessException {
+        if (fClosed) {
+            throw new RemoteAccessException(format("{0} invoker proxy for bean [{1}] is closed, one-way invocation is not sent",
+                    getProtocol(), fBeanName));
+        }
+        if (fOneWaySender == null) {
+            OneWaySender.Dispatcher dispatcher = new OneWaySender.Dispatcher() {
+                public int dispatch(List<MethodInvocation> aInvocations) {
+                    return dispatchOneWay(aInvocations);
+                }
+            };
+            String name = fBeanName == null ? getProtocol() : fBeanName;
+            int batchSize = fOneWayBatching && isBatchingSupported() ? fMaxBatchSize : 1;
+            fOneWaySender = new OneWaySender(dispatcher, fOneWayQueueCapacity, batchSize, fOneWayOverflowPolicy,
+                    fOneWayMaxBlockTime, name);
+        }
+        return fOneWaySender;
+    }
+
+    /**
+     * Sends one-way invocations drained from the queue. Several invocations are sent as single
+     * batch if protocol supports this; if batch was not delivered to the server, invocations are
+     * performed individually, with usual handling of connect failures. Other failures of the
+     * batch are not retried, since server could already perform the invocations.
+     *
+     * @param aInvocations invocations to send
+     * @return amount of invocations which failed
+     */
+    protected int dispatchOneWay(List<MethodInvocation> aInvocations) {
+        int result = 0;
+        boolean sent = false;
+        if (aInvocations.size() > 1) {
+            try {
+                List<RemoteInvocationResult> results = invokeBatchOnEndpoint(aInvocations);
+                for (RemoteInvocationResult invocationResult : results) {
+                    if (invocationResult.hasException()) {
+                        result++;
+                        if (fLog.isDebugEnabled()) {
+                            fLog.debug("One-way invocation failed on server", invocationResult.getException());
+                        }
+                    }
+                }
+                sent = true;
+            } catch (Throwable e) {
+                if (isBatchNotDelivered(e)) {
+                    if (fLog.isDebugEnabled()) {
+                        fLog.debug(format("Batch of one-way invocations was not delivered, performing invocations individually. Bean Name: [{0}]",
+                                fBeanName), e);
+                    }
+                } else {
+                    sent = true;
+                    result = aInvocations.size();
+                    if (fLog.isWarnEnabled()) {
+                        fLog.warn(format("Batch of [{0}] one-way invocations failed. Bean Name: [{1}]",
+                                aInvocations.size(), fBeanName), e);
+                    }
+                }
+            }
+        }
+        if (!sent) {
+            for (MethodInvocation invocation : aInvocations) {
+                InvocationAttempts attempts = InvocationAttempts.withTimeout(fInvocationTimeout);
+                fCurrentAttempts.set(attempts);
+                try {
+                    doInvoke(invocation);
+                } catch (Throwable e) {
+                    result++;
+                    if (fLog.isDebugEnabled()) {
+                        fLog.debug(format("One-way invocation failed. Method: [{0}]", invocation.getMethod().getName()), e);
+                    }
+                } finally {
+                    fCurrentAttempts.remove();
+                    obtainAttemptStatistics(invocation.getMethod()).recordInvocation(attempts.getAttempts());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns collapser used to combine invocations into batches, creating it if necessary.
+     * Collapser is not created after interceptor is closed, since its timer would not be stopped.
+     *
+     * @return request collapser
+     * @throws RemoteAccessException if interceptor is already closed
+     */
+    protected synchronized RequestCollapser obtainRequestCollapser()
+            throws RemoteAccessException {
+        if (fClosed) {
+            throw new RemoteAccessException(format("{0} invoker proxy for bean [{1}] is closed, batched invocation is not sent",
+                    getProtocol(), fBeanName));
+        }
+        if (fRequestCollapser == null) {
+            RequestCollapser.BatchHandler handler = new RequestCollapser.BatchHandler() {
+                public List<RemoteInvocationResult> invokeBatch(List<MethodInvocation> aInvocations)
+                        throws Throwable {
+                    return invokeBatchOnEndpoint(aInvocations);
+                }
+            };
+            String name = fBeanName == null ? getProtocol() : fBeanName;
+            fRequestCollapser = new RequestCollapser(handler, fMaxBatchSize, fBatchFlushInterval, fBatchFlushThreads, name);
+        }
+        return fRequestCollapser;
+    }
+
+    /**
+     * Sends batch of invocations to the endpoint selected as usual. If connect failure
+     * occurs, marks endpoint invalid.
+     *
+     * @param aInvocations invocations to send
+     * @return results of invocations
+     * @throws Throwable if batch could not be sent
+     */
+    protected List<RemoteInvocationResult> invokeBatchOnEndpoint(List<MethodInvocation> aInvocations)
+            throws Throwable {
+        E serviceEndpoint = obtainEndpointForInvocation();
+        List<RemoteInvocationResult> result = null;
+        try {
+            Bulkhead bulkhead = obtainEndpointBulkhead(serviceEndpoint);
+            if (bulkhead != null) {
+                bulkhead.acquire();
+            }
+            try {
+                result = doInvokeBatch(aInvocations, serviceEndpoint);
+            } finally {
+                if (bulkhead != null) {
+                    bulkhead.release();
+                }
+            }
+            if (fRetryBudget != null) {
+                fRetryBudget.onSuccess();
+            }
+        } catch (RemoteAccessException ex) {
+            if (isConnectFailure(ex) || ex instanceof RemoteConnectFailureException) {
+                markServiceInvalid(serviceEndpoint);
+            }
+            throw ex;
+        }
+        return result;
+    }
+
+    /**
+     * Performs batch of invocations using given service endpoint. Default implementation
+     * does not support batches.
+     *
+     * @param aInvocations     invocations to send
+     * @param aServiceEndpoint endpoint used for remote service invocation
+     * @return results of invocations in the same order
+     * @throws Throwable in case of invocation failure
+     * @see #isBatchingSupported()
+     */
+    protected List<RemoteInvocationResult> doInvokeBatch(List<MethodInvocation> aInvocations, E aServiceEndpoint)
+            throws Throwable {
+        throw new UnsupportedOperationException("Batched invocations are not supported by " + getProtocol());
+    }
+
+    /**
+     * State of hedged invocation shared by the calling thread, which performs original
+     * invocation, and the thread which performs hedge. Once hedge delay elapses, timer of
+     * hedging policy runs this task, and it submits hedge to executor of the policy. If
+     * hedge succeeds while original invocation is still in progress, original invocation is
+     * abandoned.
+     */
+    protected class HedgedCall
+            implements Runnable {
+        protected final MethodInvocation fInvocation;
+        protected final E fPrimaryEndpoint;
+        protected final InvocationAttempts fPrimaryAttempts;
+
+        /**
+         * State of hedge attempts - created by the calling thread and passed to hedge explicitly
+         */
+        protected final InvocationAttempts fHedgeAttempts;
+
+        protected boolean fPrimaryCompleted = false;
+        protected boolean fHedgeSubmitted = false;
+        protected boolean fHedgeCompleted = false;
+        protected boolean fHedgeSucceeded = false;
+        protected Object fHedgeResult = null;
+
+        protected HedgedCall(MethodInvocation aInvocation, E aPrimaryEndpoint, InvocationAttempts aPrimaryAttempts) {
+            fInvocation = aInvocation;
+            fPrimaryEndpoint = aPrimaryEndpoint;
+            fPrimaryAttempts = aPrimaryAttempts;
+            fHedgeAttempts = aPrimaryAttempts == null ? new InvocationAttempts(Long.MAX_VALUE) : aPrimaryAttempts.fork();
+        }
+
+        /**
+         * Submits hedge to executor of hedging policy, unless original invocation is already completed
+         */
+        public void run() {
+            boolean submit = false;
+            synchronized (this) {
+                if (!fPrimaryCompleted) {
+                    fHedgeSubmitted = true;
+                    submit = true;
+                }
+            }
+            if (submit) {
+                try {
+                    fHedgingPolicy.getExecutor().execute(new Runnable() {
+                        public void run() {
+                            performHedge();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    fHedgingPolicy.onHedgeSaturated();
+                    if (fLog.isDebugEnabled()) {
+                        fLog.debug(format("Hedge rejected by executor. Bean Name: [{0}]", fBeanName));
+                    }
+                    completeHedge(false, null);
+                }
+            }
+        }
+
+        /**
+         * Sends hedge to the endpoint which differs from original one, if hedge budget allows this
+         */
+        protected void performHedge() {
+            boolean succeeded = false;
+            Object result = null;
+            fCurrentAttempts.set(fHedgeAttempts);
+            try {
+                E hedgeEndpoint = obtainHedgeEndpoint(fPrimaryEndpoint);
+                if (hedgeEndpoint != null && fHedgingPolicy.tryAcquireHedge()) {
+                    fHedgingPolicy.onHedgeIssued();
+                    if (fLog.isDebugEnabled()) {
+                        fLog.debug(format("Hedge issued. Bean Name: [{0}], Method: [{1}], Endpoint: [{2}]", fBeanName,
+                                fInvocation.getMethod().getName(), hedgeEndpoint.getServiceInfo()));
+                    }
+                    long started = System.nanoTime();
+                    result = invokeEndpoint(fInvocation, hedgeEndpoint);
+                    succeeded = true;
+                    fHedgingPolicy.recordLatency(fInvocation.getMethod(),
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                }
+            } catch (Throwable e) {
+                // original invocation reports its own failure
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug(format("Hedge failed. Bean Name: [{0}]", fBeanName), e);
+                }
+            } finally {
+                fCurrentAttempts.remove();
+            }
+            completeHedge(succeeded, result);
+        }
+
+        protected void completeHedge(boolean aSucceeded, Object aResult) {
+            boolean abandonPrimary = false;
+            synchronized (this) {
+                fHedgeCompleted = true;
+                fHedgeSucceeded = aSucceeded;
+                fHedgeResult = aResult;
+                abandonPrimary = aSucceeded && !fPrimaryCompleted;
+                notifyAll();
+            }
+            if (abandonPrimary && fPrimaryAttempts != null) {
+                fPrimaryAttempts.abandon();
+            }
+        }
+
+        /**
+         * Called by the calling thread once original invocation is completed, so hedge
+         * is not issued anymore
+         */
+        protected synchronized void onPrimaryCompleted() {
+            fPrimaryCompleted = true;
+        }
+
+        /**
+         * Waits for completion of hedge, if it was submitted, but not longer than deadline
+         * of invocation
+         *
+         * @return <code>true</code> if hedge succeeded
+         * @throws InterruptedException if waiting thread is interrupted
+         */
+        protected synchronized boolean awaitHedge()
+                throws InterruptedException {
+            long deadline = fHedgeAttempts.getDeadline();
+            while (fHedgeSubmitted && !fHedgeCompleted && System.currentTimeMillis() < deadline) {
+                if (deadline == Long.MAX_VALUE) {
+                    wait();
+                } else {
+                    wait(Math.max(1, deadline - System.currentTimeMillis()));
+                }
+            }
+            return fHedgeCompleted && fHedgeSucceeded;
+        }
+
+        protected synchronized Object getHedgeResult() {
+            return fHedgeResult;
+        }
+    }
+
+    /**
+     * Performs hedged invocation of idempotent method. Invocation is sent to the endpoint
+     * selected as usual by the calling thread; if it does not complete within hedge delay
+     * and hedge budget allows, the same invocation is sent to different endpoint by thread of
+     * hedging policy. Both invocations handle connect failures in the same way as ordinary
+     * ones.
+     * <p/>
+     * If hedge succeeds first, original invocation is abandoned - it is not retried anymore,
+     * and attempt in progress is aborted if protocol supports this (RMI closes socket of
+     * attempt that has timeout), otherwise the calling thread waits for its completion.
+     * If original invocation fails, result of hedge (if it was issued) is used.
+     *
+     * @param aInvocation method invocation to invoke
+     * @return result of method invocation
+     * @throws Throwable application logic specific exception or <code>RemoteAccessException</code>
+     * @see HedgingPolicy
+     * @see InvocationAttempts#abandon()
+     */
+    protected Object doHedgedInvoke(MethodInvocation aInvocation)
+            throws Throwable {
+        Method method = aInvocation.getMethod();
+        fHedgingPolicy.onInvocation();
+
+        E primaryEndpoint = obtainEndpointForInvocation();
+        HedgedCall hedgedCall = new HedgedCall(aInvocation, primaryEndpoint, fCurrentAttempts.get());
+        ScheduledFuture<?> timer = null;
+        try {
+            timer = fHedgingPolicy.schedule(hedgedCall, fHedgingPolicy.getHedgeDelay(method));
+        } catch (RejectedExecutionException e) {
+            if (fLog.isDebugEnabled()) {
+                fLog.debug(format("Unable to schedule hedge, invoking without hedging. Bean Name: [{0}]", fBeanName));
+            }
+        }
+
+        Object result = null;
+        long started = System.nanoTime();
+        try {
+            result = invokeEndpoint(aInvocation, primaryEndpoint);
+            fHedgingPolicy.recordLatency(method, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (Throwable e) {
+            hedgedCall.onPrimaryCompleted();
+            boolean hedgeSucceeded = false;
+            try {
+                hedgeSucceeded = hedgedCall.awaitHedge();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RemoteAccessException(format("Hedged invocation interrupted. Bean Name: [{0}]", fBeanName), ie);
+            }
+            if (!hedgeSucceeded) {
+                throw e;
+            }
+            fHedgingPolicy.onHedgeWon();
+            result = hedgedCall.getHedgeResult();
+        } finally {
+            hedgedCall.onPrimaryCompleted();
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Selects endpoint for hedge. Endpoint should differ from the one used for original
+     * invocation, otherwise hedge will not help.
+     *
+     * @param aPrimaryEndpoint endpoint used for original invocation
+     * @return endpoint for hedge or <code>null</code> if there is no different endpoint available
+     */
+    protected E obtainHedgeEndpoint(E aPrimaryEndpoint) {
+        E result = null;
+        SI primaryInfo = aPrimaryEndpoint.getServiceInfo();
+        for (int i = 0; result == null && i < HEDGE_ENDPOINT_SELECTION_ATTEMPTS; i++) {
+            try {
+                E candidate = obtainEndpointToExecute();
+                if (candidate != aPrimaryEndpoint && !primaryInfo.equals(candidate.getServiceInfo())) {
+                    result = candidate;
+                }
+            } catch (RemoteLookupFailureException e) {
+                break;
+            }
         }
         return result;
     }
@@ -243,12 +1047,27 @@ public abstract class RemoteClientInterceptor<E extends Endpoint<SI>, SI extends
      */
     protected Object doInvoke(MethodInvocation aInvocation)
             throws Throwable {
-        E serviceEndpoint = null;
         if (fLog.isTraceEnabled()) {
             String message = format("Starting remote method invocation. Invocation Method: [{0}]", aInvocation.getMethod());
             fLog.trace(message);
         }
 
+        E serviceEndpoint = obtainEndpointForInvocation();
+        Object result = invokeEndpoint(aInvocation, serviceEndpoint);
+        return result;
+    }
+
+    /**
+     * Obtains endpoint for invocation. If exception occured during selecting
+     * endpoint, tries to refresh endpoint provider and obtain endpoint again.
+     *
+     * @return endpoint to invoke
+     * @throws RemoteAccessException if endpoint could not be obtained even after refresh
+     * @see #doInvoke(MethodInvocation)
+     */
+    protected E obtainEndpointForInvocation()
+            throws RemoteAccessException {
+        E serviceEndpoint = null;
         //here we try to obtain endpoint that should be used for invocation
         //第一次调用
         try {
@@ -285,23 +1104,57 @@ public abstract class RemoteClientInterceptor<E extends Endpoint<SI>, SI extends
             }
         }
 
-        // here we should have endpoint, so we try perform invocation using it
+        return serviceEndpoint;
+    }
+
+    /**
+     * Performs invocation using given endpoint. If during invocation some
+     * exception occured, analyses exception and if this is connect failure,
+     * tries to handle it according to specified policies.
+     *
+     * @param aInvocation      method invocation to invoke
+     * @param aServiceEndpoint endpoint used for invocation
+     * @return result of method invocation
+     * @throws Throwable application logic specific exception or <code>RemoteAccessException</code>
+     * @see #doInvoke(MethodInvocation)
+     */
+    protected Object invokeEndpoint(MethodInvocation aInvocation, E aServiceEndpoint)
+            throws Throwable {
+        InvocationAttempts attempts = fCurrentAttempts.get();
+        if (attempts != null) {
+            attempts.onAttempt();
+        }
 
         Object result = null;
         try {
             if (fLog.isTraceEnabled()) {
                 fLog.trace(format("Starting invocation. Method Invocation: [{0}] Endpoint: [{1}]", aInvocation,
-                        serviceEndpoint.getServiceInfo()));
+                        aServiceEndpoint.getServiceInfo()));
             }
 
-            result = doInvoke(aInvocation, serviceEndpoint);
+            result = doInvokeInBulkhead(aInvocation, aServiceEndpoint);
+            if (fRetryBudget != null) {
+                fRetryBudget.onSuccess();
+            }
+        } catch (InvocationAbandonedException ex) // result is not needed anymore, endpoint is fine
+        {
+            throw ex;
         } catch (RemoteConnectFailureException ex) // here we try to handle connect failure
         {
             if (fLog.isTraceEnabled()) {
                 fLog.trace("Remote connect failure on invocation", ex);
             }
             fLog.trace("发生了RemoteLookupFailureException异常后，再次调用,随机返回端点后发生RemoteConnectFailureException。进入handleRemoteConnectFailure流程");
-            result = handleRemoteConnectFailure(aInvocation, ex, serviceEndpoint);
+            result = handleRemoteConnectFailure(aInvocation, ex, aServiceEndpoint);
+        } catch (RemoteInvocationTimeoutException ex) // endpoint did not answer in time
+        {
+            result = handleInvocationTimeout(aInvocation, ex, aServiceEndpoint);
+        } catch (EndpointOverloadedException ex) // endpoint is busy, but invocation could be sent to another one
+        {
+            result = handleEndpointOverload(aInvocation, ex, aServiceEndpoint);
+        } catch (BulkheadFullException ex) // bulkhead of endpoint is full, other endpoints could have free slots
+        {
+            result = handleEndpointOverload(aInvocation, ex, aServiceEndpoint);
         } catch (RemoteAccessException ex) // probably this is failure, probably not
         {
             if (fLog.isTraceEnabled()) {
@@ -313,13 +1166,233 @@ public abstract class RemoteClientInterceptor<E extends Endpoint<SI>, SI extends
                 if (fLog.isTraceEnabled()) {
                     fLog.trace("Handling remote connect failure");
                 }
-                result = handleRemoteConnectFailure(aInvocation, ex, serviceEndpoint); // ok, try to handle it
+                result = handleRemoteConnectFailure(aInvocation, ex, aServiceEndpoint); // ok, try to handle it
             } else // this is not cluster4spring related exception, but exception from remote service
             {
                 if (fLog.isTraceEnabled()) {
                     fLog.trace("Throwing service exception...");
                 }
-                throwServiceException(ex);
+                throwServiceException(ex);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Performs invocation using given endpoint within bulkhead of that endpoint (if
+     * amount of concurrent invocations per endpoint is limited).
+     *
+     * @param aInvocation      method invocation to invoke
+     * @param aServiceEndpoint endpoint used for invocation
+     * @return result of method invocation
+     * @throws Throwable in case of invocation failure, <code>BulkheadFullException</code>
+     *                   if there is no free slot for endpoint
+     * @see #setMaxConcurrentCallsPerEndpoint(int)
+     */
+    protected Object doInvokeInBulkhead(MethodInvocation aInvocation, E aServiceEndpoint)
+            throws Throwable {
+        Bulkhead bulkhead = obtainEndpointBulkhead(aServiceEndpoint);
+        Object result = null;
+        if (bulkhead == null) {
+            result = doInvokeWithinLimit(aInvocation, aServiceEndpoint);
+        } else {
+            bulkhead.acquire();
+            try {
+                result = doInvokeWithinLimit(aInvocation, aServiceEndpoint);
+            } finally {
+                bulkhead.release();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Performs invocation using given endpoint if adaptive concurrency limit of endpoint
+     * allows this and passes observed latency to the limit.
+     *
+     * @param aInvocation      method invocation to invoke
+     * @param aServiceEndpoint endpoint used for invocation
+     * @return result of method invocation
+     * @throws Throwable in case of invocation failure, <code>EndpointOverloadedException</code>
+     *                   if endpoint reached its concurrency limit
+     * @see #setConcurrencyLimit(AdaptiveConcurrencyLimit)
+     */
+    protected Object doInvokeWithinLimit(MethodInvocation aInvocation, E aServiceEndpoint)
+            throws Throwable {
+        AdaptiveConcurrencyLimit limit = obtainConcurrencyLimit(aServiceEndpoint);
+        Object result = null;
+        if (limit == null) {
+            result = doInvoke(aInvocation, aServiceEndpoint);
+        } else {
+            if (!limit.tryAcquire()) {
+                String message = format("Endpoint reached concurrency limit. Bean Name: [{0}], Endpoint: [{1}], Limit: [{2}]",
+                        fBeanName, aServiceEndpoint.getServiceInfo(), limit.getLimit());
+                throw new EndpointOverloadedException(message);
+            }
+            long started = System.nanoTime();
+            boolean dropped = false;
+            try {
+                result = doInvoke(aInvocation, aServiceEndpoint);
+            } catch (RemoteAccessException ex) {
+                dropped = ex instanceof RemoteConnectFailureException || ex instanceof RemoteInvocationTimeoutException ||
+                        ex instanceof EndpointOverloadedException || isConnectFailure(ex);
+                throw ex;
+            } finally {
+                limit.release(System.nanoTime() - started, dropped);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns adaptive concurrency limit of given endpoint, attaching it to endpoint if necessary
+     *
+     * @param aServiceEndpoint endpoint
+     * @return concurrency limit or <code>null</code> if concurrency is not limited adaptively
+     */
+    protected AdaptiveConcurrencyLimit obtainConcurrencyLimit(E aServiceEndpoint) {
+        AdaptiveConcurrencyLimit result = null;
+        if (fConcurrencyLimit != null) {
+            result = aServiceEndpoint.getConcurrencyLimit();
+            if (result == null) {
+                synchronized (aServiceEndpoint) {
+                    result = aServiceEndpoint.getConcurrencyLimit();
+                    if (result == null) {
+                        result = fConcurrencyLimit.newInstance();
+                        aServiceEndpoint.setConcurrencyLimit(result);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Handles situation when endpoint could not accept invocation since it is overloaded
+     * or its bulkhead is full. Endpoint is not marked invalid; if switching of endpoints is
+     * allowed and retry is allowed, invocation is sent to different endpoint.
+     *
+     * @param aInvocation      the invocation that was rejected
+     * @param aException       exception which indicates overload
+     * @param aServiceEndpoint overloaded endpoint
+     * @return the result value of the new invocation, if succeeded
+     * @throws Throwable original exception if invocation could not be rerouted or exception
+     *                   raised by the new invocation
+     */
+    protected Object handleEndpointOverload(MethodInvocation aInvocation, RemoteAccessException aException,
+                                            E aServiceEndpoint)
+            throws Throwable {
+        if (fLog.isDebugEnabled()) {
+            fLog.debug(format("Endpoint [{0}] is overloaded. Bean Name: [{1}]", aServiceEndpoint.getServiceInfo(), fBeanName));
+        }
+        Object result = null;
+        if (fSwitchEndpointOnFailure && isRetryAllowed(aInvocation)) {
+            // other addresses of the same server are overloaded too
+            excludeFailedServer(aServiceEndpoint);
+            result = retry(aInvocation);
+        } else {
+            throw aException;
+        }
+        return result;
+    }
+
+    /**
+     * Handles situation when endpoint did not complete invocation before its deadline.
+     * Endpoint is marked invalid since it is slow or hung. Since invocation could be
+     * already performed by server, it is retried on different endpoint only if method
+     * is idempotent.
+     *
+     * @param aInvocation      the invocation that timed out
+     * @param aException       timeout exception
+     * @param aServiceEndpoint endpoint which did not answer in time
+     * @return the result value of the new invocation, if succeeded
+     * @throws Throwable original exception if invocation could not be retried or exception
+     *                   raised by the new invocation
+     * @see #isIdempotent(Method)
+     */
+    protected Object handleInvocationTimeout(MethodInvocation aInvocation, RemoteInvocationTimeoutException aException,
+                                             E aServiceEndpoint)
+            throws Throwable {
+        if (fLog.isWarnEnabled()) {
+            fLog.warn(format("Invocation of {0} service [{1}] on [{2}] timed out. Method: [{3}]", getProtocol(), fBeanName,
+                    aServiceEndpoint.getServiceInfo(), aInvocation.getMethod().getName()));
+        }
+        Object result = null;
+        if (isIdempotent(aInvocation.getMethod())) {
+            result = handleRemoteConnectFailure(aInvocation, aException, aServiceEndpoint);
+        } else {
+            markServiceInvalid(aServiceEndpoint);
+            throw aException;
+        }
+        return result;
+    }
+
+    /**
+     * Returns time single attempt of invocation of given method could take. Timeout
+     * configured for method is limited by the time remaining to deadline of invocation,
+     * so attempt never outlives the invocation.
+     *
+     * @param aMethod invoked method
+     * @return timeout in milliseconds, <code>0</code> if attempt is not limited
+     * @see #setMethodTimeouts(Map)
+     * @see RemoteTimeout
+     */
+    protected long getAttemptTimeout(Method aMethod) {
+        long result = fDefaultMethodTimeout;
+        Long configured = fMethodTimeouts.get(aMethod.getName());
+        if (configured != null) {
+            result = configured;
+        } else {
+            RemoteTimeout annotation = aMethod.getAnnotation(RemoteTimeout.class);
+            if (annotation != null) {
+                result = annotation.value();
+            }
+        }
+        InvocationAttempts attempts = fCurrentAttempts.get();
+        if (attempts != null && attempts.getDeadline() != Long.MAX_VALUE) {
+            long remaining = Math.max(1, attempts.getDeadline() - System.currentTimeMillis());
+            result = result > 0 ? Math.min(result, remaining) : remaining;
+        }
+        return result;
+    }
+
+    /**
+     * Removes bulkheads of endpoints which were not used for <code>ENDPOINT_BULKHEAD_IDLE_TIME</code>
+     * and have no invocations in progress. Bulkhead is created again if endpoint is used later.
+     */
+    protected void removeIdleEndpointBulkheads() {
+        for (Map.Entry<SI, Bulkhead> entry : fEndpointBulkheads.entrySet()) {
+            if (entry.getValue().isIdle(ENDPOINT_BULKHEAD_IDLE_TIME)) {
+                fEndpointBulkheads.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns bulkhead for given endpoint
+     *
+     * @param aServiceEndpoint endpoint
+     * @return bulkhead or <code>null</code> if amount of concurrent invocations per endpoint is not limited
+     */
+    protected Bulkhead obtainEndpointBulkhead(E aServiceEndpoint) {
+        Bulkhead result = null;
+        if (fMaxConcurrentCallsPerEndpoint > 0) {
+            SI serviceInfo = aServiceEndpoint.getServiceInfo();
+            result = fEndpointBulkheads.get(serviceInfo);
+            if (result == null) {
+                result = new Bulkhead(String.valueOf(serviceInfo), fMaxConcurrentCallsPerEndpoint, fMaxWaitingCalls,
+                        fMaxBulkheadWaitTime);
+                Bulkhead existing = fEndpointBulkheads.putIfAbsent(serviceInfo, result);
+                if (existing != null) {
+                    result = existing;
+                } else {
+                    // new endpoint appeared, so endpoints which are not used anymore could be forgotten
+                    removeIdleEndpointBulkheads();
+                }
+            }
+            if (aServiceEndpoint.getBulkhead() != result) {
+                // lets endpoint selection skip endpoint while its bulkhead is saturated
+                aServiceEndpoint.setBulkhead(result);
             }
         }
         return result;
@@ -370,8 +1443,12 @@ public abstract class RemoteClientInterceptor<E extends Endpoint<SI>, SI extends
         // first, we mark failed endpoint invalid
         SI serviceInfo = aServiceEndpoint.getServiceInfo();
         markServiceInvalid(aServiceEndpoint);
+        excludeFailedServer(aServiceEndpoint);
 
         Object result = null;
+        if ((fRefreshEndpointsOnConnectFailure || fSwitchEndpointOnFailure) && !isRetryAllowed(aInvocation)) {
+            throw aException;
+        }
         if (fRefreshEndpointsOnConnectFailure) // we need to refresh on failure
         {
             if (fLog.isDebugEnabled()) {
@@ -470,6 +1547,28 @@ public abstract class RemoteClientInterceptor<E extends Endpoint<SI>, SI extends
 
         fLog.trace("将rmi服务端点标识为无效："+aServiceEndpoint.fServiceInfo.fServiceURL);
         fEndpointProvider.markInvalid(fBeanName, aServiceEndpoint);
+        // endpoint is removed from provider, but its bulkhead is kept while invocations (which could
+        // be hung on slow endpoint) hold its slots, so returned endpoint does not obtain new quota
+        SI serviceInfo = aServiceEndpoint.getServiceInfo();
+        Bulkhead bulkhead = fEndpointBulkheads.get(serviceInfo);
+        if (bulkhead != null && bulkhead.isIdle(0)) {
+            fEndpointBulkheads.remove(serviceInfo, bulkhead);
+        }
+    }
+
+    /**
+     * Remembers server of given endpoint as failed for the current invocation, so retries
+     * of invocation are sent to another server rather than to another address of the same one.
+     *
+     * @param aServiceEndpoint endpoint which failed
+     * @see InvocationAttempts#onServerFailure(long)
+     */
+    protected void excludeFailedServer(E aServiceEndpoint) {
+        InvocationAttempts attempts = fCurrentAttempts.get();
+        SI serviceInfo = aServiceEndpoint.getServiceInfo();
+        if (attempts != null && serviceInfo.isServerIdentified()) {
+            attempts.onServerFailure(serviceInfo.getServerID());
+        }
     }
 
     /**
@@ -509,7 +1608,8 @@ public abstract class RemoteClientInterceptor<E extends Endpoint<SI>, SI extends
 
     /**
      * Provides endpoint that should be used for remote service invocation.
-     * Simply delegates providing endpoints to used <code>EndpointProvider</code>.
+     * Simply delegates providing endpoints to used <code>EndpointProvider</code>, passing
+     * servers which already failed during current invocation.
      *
      * @return endpoint to invoke
      * @throws RemoteLookupFailureException thrown if EndpointProvider is unable to
@@ -519,7 +1619,13 @@ public abstract class RemoteClientInterceptor<E extends Endpoint<SI>, SI extends
             throws RemoteLookupFailureException {
         E result = null;
         try {
-            result = fEndpointProvider.getEndpoint(fRemoteInvocationFactory, fEndpointFactory, fBeanName);
+            InvocationAttempts attempts = fCurrentAttempts.get();
+            if (attempts == null) {
+                result = fEndpointProvider.getEndpoint(fRemoteInvocationFactory, fEndpointFactory, fBeanName);
+            } else {
+                result = fEndpointProvider.getEndpoint(fRemoteInvocationFactory, fEndpointFactory, fBeanName,
+                        attempts.getFailedServers());
+            }
 
             if (fLog.isInfoEnabled()) {
                 Class serviceInterface = getServiceInterface();
@@ -658,6 +1764,470 @@ public abstract class RemoteClientInterceptor<E extends Endpoint<SI>, SI extends
         return fRefreshEndpointsOnConnectFailure;
     }
 
+    /**
+     * Sets names of service methods which are idempotent. Methods could also be marked
+     * as idempotent by <code>Idempotent</code> annotation in service interface.
+     *
+     * @param aIdempotentMethods names of idempotent methods
+     * @see Idempotent
+     */
+    public void setIdempotentMethods(String[] aIdempotentMethods) {
+        fIdempotentMethods = new HashSet<String>(Arrays.asList(aIdempotentMethods));
+    }
+
+    /**
+     * Sets names of service methods which invocations could be collapsed into batches.
+     * Methods could also be marked by <code>Batchable</code> annotation in service interface.
+     *
+     * @param aBatchMethods names of methods
+     * @see Batchable
+     */
+    public void setBatchMethods(String[] aBatchMethods) {
+        fBatchMethods = new HashSet<String>(Arrays.asList(aBatchMethods));
+    }
+
+    /**
+     * Returns maximal amount of invocations sent in single batch
+     *
+     * @return maximal batch size
+     */
+    public int getMaxBatchSize() {
+        return fMaxBatchSize;
+    }
+
+    /**
+     * Sets maximal amount of invocations sent in single batch
+     * <p/>
+     * Default is <code>32</code>
+     *
+     * @param aMaxBatchSize maximal batch size
+     */
+    public void setMaxBatchSize(int aMaxBatchSize) {
+        fMaxBatchSize = aMaxBatchSize;
+    }
+
+    /**
+     * Returns time (in milliseconds) batch waits for more invocations before being sent
+     *
+     * @return flush interval
+     */
+    public long getBatchFlushInterval() {
+        return fBatchFlushInterval;
+    }
+
+    /**
+     * Sets time (in milliseconds) batch waits for more invocations before being sent
+     * <p/>
+     * Default is <code>2</code> ms
+     *
+     * @param aBatchFlushInterval flush interval
+     */
+    public void setBatchFlushInterval(long aBatchFlushInterval) {
+        fBatchFlushInterval = aBatchFlushInterval;
+    }
+
+    /**
+     * Sets amount of threads used to send batches by timer
+     * <p/>
+     * Default is <code>2</code>
+     *
+     * @param aBatchFlushThreads amount of threads
+     */
+    public void setBatchFlushThreads(int aBatchFlushThreads) {
+        fBatchFlushThreads = aBatchFlushThreads;
+    }
+
+    public long getBatchTimeout() {
+        return fBatchTimeout;
+    }
+
+    /**
+     * Sets maximal time (in milliseconds) caller waits for result of batched invocation if
+     * neither method timeout nor invocation timeout is configured. Otherwise caller waits
+     * not longer than timeout of attempt.
+     * <p/>
+     * Default is <code>30000</code>
+     *
+     * @param aBatchTimeout time in milliseconds
+     * @see #setDefaultMethodTimeout(long)
+     * @see #setInvocationTimeout(long)
+     */
+    public void setBatchTimeout(long aBatchTimeout) {
+        fBatchTimeout = aBatchTimeout;
+    }
+
+    /**
+     * Returns collapser used to combine invocations into batches (could be used to obtain
+     * statistics of batches).
+     *
+     * @return request collapser or <code>null</code> if there were no batched invocations yet
+     */
+    public synchronized RequestCollapser getRequestCollapser() {
+        return fRequestCollapser;
+    }
+
+    /**
+     * Sets maximal amount of concurrent invocations of the service. If this amount is
+     * reached, invocation waits for free slot (if allowed) or is rejected with
+     * <code>BulkheadFullException</code>.
+     * <p/>
+     * Default is <code>0</code> (no limit)
+     *
+     * @param aMaxConcurrentCalls maximal amount of concurrent invocations
+     * @see #setMaxWaitingCalls(int)
+     */
+    public void setMaxConcurrentCalls(int aMaxConcurrentCalls) {
+        fMaxConcurrentCalls = aMaxConcurrentCalls;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return fMaxConcurrentCalls;
+    }
+
+    /**
+     * Sets maximal amount of concurrent invocations per endpoint.
+     * <p/>
+     * Default is <code>0</code> (no limit)
+     *
+     * @param aMaxConcurrentCallsPerEndpoint maximal amount of concurrent invocations per endpoint
+     */
+    public void setMaxConcurrentCallsPerEndpoint(int aMaxConcurrentCallsPerEndpoint) {
+        fMaxConcurrentCallsPerEndpoint = aMaxConcurrentCallsPerEndpoint;
+    }
+
+    public int getMaxConcurrentCallsPerEndpoint() {
+        return fMaxConcurrentCallsPerEndpoint;
+    }
+
+    /**
+     * Sets maximal amount of invocations waiting for free slot in bulkhead (both
+     * service and endpoint ones).
+     * <p/>
+     * Default is <code>0</code> (invocation is rejected immediately)
+     *
+     * @param aMaxWaitingCalls maximal amount of waiting invocations
+     */
+    public void setMaxWaitingCalls(int aMaxWaitingCalls) {
+        fMaxWaitingCalls = aMaxWaitingCalls;
+    }
+
+    public int getMaxWaitingCalls() {
+        return fMaxWaitingCalls;
+    }
+
+    /**
+     * Sets maximal time (in milliseconds) invocation waits for free slot in bulkhead
+     *
+     * @param aMaxBulkheadWaitTime maximal wait time
+     */
+    public void setMaxBulkheadWaitTime(long aMaxBulkheadWaitTime) {
+        fMaxBulkheadWaitTime = aMaxBulkheadWaitTime;
+    }
+
+    public long getMaxBulkheadWaitTime() {
+        return fMaxBulkheadWaitTime;
+    }
+
+    /**
+     * Returns bulkhead which limits concurrent invocations of the service (could be used
+     * to obtain saturation statistics).
+     *
+     * @return service bulkhead or <code>null</code> if amount of concurrent invocations is not limited
+     */
+    public Bulkhead getServiceBulkhead() {
+        return fServiceBulkhead;
+    }
+
+    /**
+     * Returns bulkheads which limit concurrent invocations per endpoint. Bulkheads of endpoints
+     * marked invalid (once their invocations are completed) or not used for a long time are
+     * not included.
+     *
+     * @return bulkheads per service information
+     */
+    public Map<SI, Bulkhead> getEndpointBulkheads() {
+        Map<SI, Bulkhead> result = new HashMap<SI, Bulkhead>(fEndpointBulkheads);
+        return result;
+    }
+
+    /**
+     * Returns template of adaptive concurrency limit attached to every endpoint
+     *
+     * @return concurrency limit template
+     */
+    public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+        return fConcurrencyLimit;
+    }
+
+    /**
+     * Sets template of adaptive concurrency limit. Every endpoint used by interceptor
+     * obtains own copy of this limit; endpoints which reached their limits are skipped
+     * during endpoint selection and invocations rejected by limit are sent to different
+     * endpoint.
+     *
+     * @param aConcurrencyLimit concurrency limit template
+     * @see AdaptiveConcurrencyLimit
+     */
+    public void setConcurrencyLimit(AdaptiveConcurrencyLimit aConcurrencyLimit) {
+        fConcurrencyLimit = aConcurrencyLimit;
+    }
+
+    /**
+     * Sets names of void service methods which are invoked in one-way mode - caller
+     * returns immediately and invocation is sent in background. Arguments of such
+     * invocations should not be modified by caller after invocation.
+     *
+     * @param aOneWayMethods names of methods
+     * @see OneWay
+     */
+    public void setOneWayMethods(String[] aOneWayMethods) {
+        fOneWayMethods = new HashSet<String>(Arrays.asList(aOneWayMethods));
+    }
+
+    public int getOneWayQueueCapacity() {
+        return fOneWayQueueCapacity;
+    }
+
+    /**
+     * Sets maximal amount of one-way invocations waiting to be sent
+     * <p/>
+     * Default is <code>10000</code>
+     *
+     * @param aOneWayQueueCapacity queue capacity
+     */
+    public void setOneWayQueueCapacity(int aOneWayQueueCapacity) {
+        fOneWayQueueCapacity = aOneWayQueueCapacity;
+    }
+
+    public OneWaySender.OverflowPolicy getOneWayOverflowPolicy() {
+        return fOneWayOverflowPolicy;
+    }
+
+    /**
+     * Sets policy applied if queue of one-way invocations is full
+     * <p/>
+     * Default is <code>DROP</code>
+     *
+     * @param aOneWayOverflowPolicy overflow policy
+     * @see OneWaySender.OverflowPolicy
+     */
+    public void setOneWayOverflowPolicy(OneWaySender.OverflowPolicy aOneWayOverflowPolicy) {
+        fOneWayOverflowPolicy = aOneWayOverflowPolicy;
+    }
+
+    public long getOneWayMaxBlockTime() {
+        return fOneWayMaxBlockTime;
+    }
+
+    /**
+     * Sets maximal time (in milliseconds) caller waits for free space in queue of one-way
+     * invocations if overflow policy is <code>BLOCK</code>
+     * <p/>
+     * Default is <code>100</code>
+     *
+     * @param aOneWayMaxBlockTime time in milliseconds
+     */
+    public void setOneWayMaxBlockTime(long aOneWayMaxBlockTime) {
+        fOneWayMaxBlockTime = aOneWayMaxBlockTime;
+    }
+
+    public boolean isOneWayBatching() {
+        return fOneWayBatching;
+    }
+
+    /**
+     * Sets whether queued one-way invocations are sent in batches (up to <code>maxBatchSize</code>),
+     * if protocol supports batches
+     * <p/>
+     * Default is <code>true</code>
+     *
+     * @param aOneWayBatching <code>true</code> if invocations should be batched
+     */
+    public void setOneWayBatching(boolean aOneWayBatching) {
+        fOneWayBatching = aOneWayBatching;
+    }
+
+    /**
+     * Sets maximal time (in milliseconds) to wait for sending of queued one-way invocations
+     * when context is closed
+     * <p/>
+     * Default is <code>5000</code>
+     *
+     * @param aOneWayShutdownTimeout time in milliseconds
+     */
+    public void setOneWayShutdownTimeout(long aOneWayShutdownTimeout) {
+        fOneWayShutdownTimeout = aOneWayShutdownTimeout;
+    }
+
+    /**
+     * Returns sender of one-way invocations which provides its statistics
+     *
+     * @return one-way sender or <code>null</code> if there were no one-way invocations
+     */
+    public synchronized OneWaySender getOneWaySender() {
+        return fOneWaySender;
+    }
+
+    public Map<String, Long> getMethodTimeouts() {
+        return fMethodTimeouts;
+    }
+
+    /**
+     * Sets timeout (in milliseconds) of single attempt per method name. Timeout specified
+     * there overrides one specified by <code>RemoteTimeout</code> annotation. Timeout is
+     * enforced only by protocols which support it (for RMI, service should be exported
+     * with <code>DeadlineAwareRmiClientSocketFactory</code>).
+     *
+     * @param aMethodTimeouts timeouts per method name
+     * @see RemoteTimeout
+     */
+    public void setMethodTimeouts(Map<String, Long> aMethodTimeouts) {
+        fMethodTimeouts = aMethodTimeouts;
+    }
+
+    public long getDefaultMethodTimeout() {
+        return fDefaultMethodTimeout;
+    }
+
+    /**
+     * Sets timeout (in milliseconds) of single attempt for methods which timeout is not
+     * specified explicitly
+     * <p/>
+     * Default is <code>0</code> (no timeout)
+     *
+     * @param aDefaultMethodTimeout timeout in milliseconds
+     */
+    public void setDefaultMethodTimeout(long aDefaultMethodTimeout) {
+        fDefaultMethodTimeout = aDefaultMethodTimeout;
+    }
+
+    public int getPriority() {
+        return fPriority;
+    }
+
+    /**
+     * Sets priority class of invocations of methods which priority is not specified explicitly.
+     * Server which performs invocations by <code>PriorityRmiInvocationExecutor</code> sheds
+     * invocations of lower priority first when it is overloaded.
+     * <p/>
+     * Default is <code>-1</code> (invocations are not tagged and server treats them as
+     * <code>InvocationPriority.NORMAL</code>)
+     *
+     * @param aPriority priority class, one of constants of <code>InvocationPriority</code>
+     * @see InvocationPriority
+     */
+    public void setPriority(int aPriority) {
+        fPriority = aPriority;
+    }
+
+    public Map<String, Integer> getMethodPriorities() {
+        return fMethodPriorities;
+    }
+
+    /**
+     * Sets priority class of invocations per method name. Priority specified there overrides
+     * one specified by <code>InvocationPriority</code> annotation.
+     *
+     * @param aMethodPriorities priorities per method name
+     * @see InvocationPriority
+     */
+    public void setMethodPriorities(Map<String, Integer> aMethodPriorities) {
+        fMethodPriorities = aMethodPriorities;
+    }
+
+    /**
+     * Returns maximal amount of attempts performed for single invocation
+     *
+     * @return maximal amount of attempts
+     */
+    public int getMaxAttempts() {
+        return fMaxAttempts;
+    }
+
+    /**
+     * Sets maximal amount of attempts (including the first one) performed for single
+     * invocation if connect failures occur.
+     * <p/>
+     * Default is <code>3</code>
+     *
+     * @param aMaxAttempts maximal amount of attempts
+     */
+    public void setMaxAttempts(int aMaxAttempts) {
+        if (aMaxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts should be positive");
+        }
+        fMaxAttempts = aMaxAttempts;
+    }
+
+    /**
+     * Returns time (in milliseconds) all attempts of single invocation should fit into
+     *
+     * @return invocation timeout
+     */
+    public long getInvocationTimeout() {
+        return fInvocationTimeout;
+    }
+
+    /**
+     * Sets time (in milliseconds) all attempts of single invocation should fit into. Failed
+     * invocation is not retried if this time is already elapsed.
+     * <p/>
+     * Default is <code>0</code> (no limit)
+     *
+     * @param aInvocationTimeout invocation timeout in milliseconds
+     */
+    public void setInvocationTimeout(long aInvocationTimeout) {
+        fInvocationTimeout = aInvocationTimeout;
+    }
+
+    /**
+     * Returns budget that limits amount of retries for the service
+     *
+     * @return retry budget
+     */
+    public RetryBudget getRetryBudget() {
+        return fRetryBudget;
+    }
+
+    /**
+     * Sets budget that limits amount of retries for the service. If set to <code>null</code>,
+     * retries are limited only by amount of attempts and invocation timeout.
+     *
+     * @param aRetryBudget retry budget
+     */
+    public void setRetryBudget(RetryBudget aRetryBudget) {
+        fRetryBudget = aRetryBudget;
+    }
+
+    /**
+     * Returns statistics of attempts per method name. Statistics of overloaded methods is combined.
+     *
+     * @return statistics of attempts
+     */
+    public Map<String, MethodAttemptStatistics> getAttemptStatistics() {
+        Map<String, MethodAttemptStatistics> result = new HashMap<String, MethodAttemptStatistics>(fAttemptStatistics);
+        return result;
+    }
+
+    /**
+     * Returns policy used to hedge invocations of idempotent methods
+     *
+     * @return hedging policy
+     */
+    public HedgingPolicy getHedgingPolicy() {
+        return fHedgingPolicy;
+    }
+
+    /**
+     * Sets policy used to hedge invocations of idempotent methods. If policy is not
+     * specified, invocations are not hedged.
+     *
+     * @param aHedgingPolicy hedging policy
+     */
+    public void setHedgingPolicy(HedgingPolicy aHedgingPolicy) {
+        fHedgingPolicy = aHedgingPolicy;
+    }
+
     /**
      * Returns true if endpoints should be refreshed on startup
      *
@@ -0,0 +1,369 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.remoting.RemoteAccessException;
+import org.springframework.remoting.support.RemoteInvocationResult;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Collapses concurrent invocations of the same method into batches. Invocation is
+ * added to the batch of its method and calling thread waits until batch is sent. Batch
+ * is sent either by the thread which fills it up to maximal batch size or by timer
+ * after flush interval since the first invocation was added.
+ * <p/>
+ * If batch could not be sent as whole, every invocation of it is marked by batch
+ * failure. Caller is expected to perform invocation individually only if failure proves
+ * that batch was not delivered to the server, otherwise failure is reported as is, since
+ * server could already perform invocations of the batch.
+ *
+ * @version 1.0
+ * @see BatchRemoteInvocation
+ */
+
+@SuppressWarnings({"ProhibitedExceptionDeclared"})
+public class RequestCollapser {
+    protected static final Log fLog = LogFactory.getLog(RequestCollapser.class);
+
+    /**
+     * Callback used to send batch of invocations
+     */
+    public interface BatchHandler {
+        /**
+         * Sends given invocations as single batch
+         *
+         * @param aInvocations invocations to send
+         * @return results of invocations in the same order
+         * @throws Throwable if batch could not be sent
+         */
+        public List<RemoteInvocationResult> invokeBatch(List<MethodInvocation> aInvocations)
+                throws Throwable;
+    }
+
+    /**
+     * Invocation waiting in the batch
+     */
+    public static class PendingCall {
+        protected final MethodInvocation fInvocation;
+        protected final CountDownLatch fDone = new CountDownLatch(1);
+        protected RemoteInvocationResult fResult = null;
+        protected Throwable fBatchFailure = null;
+
+        public PendingCall(MethodInvocation aInvocation) {
+            fInvocation = aInvocation;
+        }
+
+        public MethodInvocation getInvocation() {
+            return fInvocation;
+        }
+
+        /**
+         * Returns result of invocation received in batch
+         *
+         * @return result of invocation
+         */
+        public RemoteInvocationResult getResult() {
+            return fResult;
+        }
+
+        /**
+         * Returns exception occured during sending the batch
+         *
+         * @return exception or <code>null</code> if batch was sent successfully
+         */
+        public Throwable getBatchFailure() {
+            return fBatchFailure;
+        }
+
+        protected void complete(RemoteInvocationResult aResult, Throwable aBatchFailure) {
+            fResult = aResult;
+            fBatchFailure = aBatchFailure;
+            fDone.countDown();
+        }
+    }
+
+    /**
+     * Handler used to send batches
+     */
+    protected final BatchHandler fBatchHandler;
+
+    /**
+     * Maximal amount of invocations in batch
+     */
+    protected final int fMaxBatchSize;
+
+    /**
+     * Time (in milliseconds) batch waits for more invocations before being sent
+     */
+    protected final long fFlushInterval;
+
+    /**
+     * Timer used to send batches after flush interval
+     */
+    protected final ScheduledExecutorService fScheduler;
+
+    /**
+     * Batches which are currently collected, per method
+     */
+    protected final Map<Method, List<PendingCall>> fBatches = new HashMap<Method, List<PendingCall>>();
+
+    /**
+     * Amount of batches sent
+     */
+    protected final AtomicLong fBatchesSent = new AtomicLong();
+
+    /**
+     * Amount of invocations sent in batches
+     */
+    protected final AtomicLong fInvocationsBatched = new AtomicLong();
+
+    /**
+     * Amount of batches which could not be sent
+     */
+    protected final AtomicLong fBatchesFailed = new AtomicLong();
+
+    /**
+     * Creates collapser
+     *
+     * @param aBatchHandler handler used to send batches
+     * @param aMaxBatchSize maximal amount of invocations in batch
+     * @param aFlushInterval time (in milliseconds) batch waits for more invocations
+     * @param aFlushThreads amount of threads used to send batches by timer
+     * @param aName name used for timer threads
+     */
+    public RequestCollapser(BatchHandler aBatchHandler, int aMaxBatchSize, long aFlushInterval, int aFlushThreads,
+                            String aName) {
+        if (aMaxBatchSize < 1) {
+            throw new IllegalArgumentException("Maximal batch size should be positive");
+        }
+        fBatchHandler = aBatchHandler;
+        fMaxBatchSize = aMaxBatchSize;
+        fFlushInterval = aFlushInterval;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(aName + "-batch-");
+        threadFactory.setDaemon(true);
+        fScheduler = new ScheduledThreadPoolExecutor(aFlushThreads, threadFactory);
+    }
+
+    /**
+     * Adds given invocation to the batch of its method and waits until batch is sent.
+     *
+     * @param aInvocation invocation to perform
+     * @return completed invocation
+     * @throws RemoteAccessException if thread was interrupted while waiting
+     */
+    public PendingCall collapse(MethodInvocation aInvocation)
+            throws RemoteAccessException {
+        return collapse(aInvocation, 0);
+    }
+
+    /**
+     * Adds given invocation to the batch of its method and waits until batch is sent, but
+     * not longer than given timeout. If timeout elapses before batch is sent, invocation
+     * is removed from the batch; otherwise result of invocation is simply abandoned.
+     *
+     * @param aInvocation invocation to perform
+     * @param aTimeout maximal time (in milliseconds) to wait, <code>0</code> to wait until batch is sent
+     * @return completed invocation
+     * @throws RemoteAccessException if thread was interrupted while waiting,
+     * <code>RemoteInvocationTimeoutException</code> if invocation was not completed in time
+     */
+    public PendingCall collapse(MethodInvocation aInvocation, long aTimeout)
+            throws RemoteAccessException {
+        final Method method = aInvocation.getMethod();
+        PendingCall result = new PendingCall(aInvocation);
+        List<PendingCall> fullBatch = null;
+        List<PendingCall> newBatch = null;
+        synchronized (fBatches) {
+            List<PendingCall> batch = fBatches.get(method);
+            if (batch == null) {
+                batch = new ArrayList<PendingCall>(fMaxBatchSize);
+                fBatches.put(method, batch);
+                newBatch = batch;
+            }
+            batch.add(result);
+            if (batch.size() >= fMaxBatchSize) {
+                fBatches.remove(method);
+                fullBatch = batch;
+                newBatch = null;
+            }
+        }
+
+        if (fullBatch != null) {
+            // batch is full, we send it in current thread
+            send(fullBatch);
+        } else if (newBatch != null) {
+            // the first invocation in batch schedules its sending
+            final List<PendingCall> batch = newBatch;
+            try {
+                fScheduler.schedule(new Runnable() {
+                    public void run() {
+                        flush(method, batch);
+                    }
+                }, fFlushInterval, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                flush(method, batch);
+            }
+        }
+
+        try {
+            if (aTimeout <= 0) {
+                result.fDone.await();
+            } else if (!result.fDone.await(aTimeout, TimeUnit.MILLISECONDS)) {
+                boolean removed = false;
+                synchronized (fBatches) {
+                    List<PendingCall> batch = fBatches.get(method);
+                    if (batch != null && batch.remove(result)) {
+                        removed = true;
+                        if (batch.isEmpty()) {
+                            fBatches.remove(method);
+                        }
+                    }
+                }
+                // invocation could be completed while we were removing it
+                if (result.fDone.getCount() > 0) {
+                    String message = format("Batched invocation of [{0}] was not completed within [{1}] ms, {2}",
+                            method.getName(), aTimeout, removed ? "batch was not sent" : "result is abandoned");
+                    throw new RemoteInvocationTimeoutException(message);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteAccessException("Interrupted while waiting for batched invocation", e);
+        }
+        return result;
+    }
+
+    /**
+     * Sends given batch if it was not sent already because of reaching maximal size
+     *
+     * @param aMethod method of batch
+     * @param aBatch batch to send
+     */
+    protected void flush(Method aMethod, List<PendingCall> aBatch) {
+        boolean send = false;
+        synchronized (fBatches) {
+            if (aBatch != null && fBatches.get(aMethod) == aBatch) {
+                fBatches.remove(aMethod);
+                send = true;
+            }
+        }
+        if (send) {
+            send(aBatch);
+        }
+    }
+
+    /**
+     * Sends batch and completes all invocations included into it
+     *
+     * @param aBatch batch to send
+     */
+    protected void send(List<PendingCall> aBatch) {
+        List<MethodInvocation> invocations = new ArrayList<MethodInvocation>(aBatch.size());
+        for (PendingCall call : aBatch) {
+            invocations.add(call.getInvocation());
+        }
+
+        List<RemoteInvocationResult> results = null;
+        Throwable failure = null;
+        try {
+            results = fBatchHandler.invokeBatch(invocations);
+            if (results == null || results.size() != aBatch.size()) {
+                failure = new RemoteAccessException(format("Unexpected batch result. Sent: [{0}], Received: [{1}]",
+                        aBatch.size(), results == null ? null : results.size()));
+            }
+        } catch (Throwable e) {
+            failure = e;
+        }
+
+        if (failure == null) {
+            fBatchesSent.incrementAndGet();
+            fInvocationsBatched.addAndGet(aBatch.size());
+            for (int i = 0; i < aBatch.size(); i++) {
+                aBatch.get(i).complete(results.get(i), null);
+            }
+        } else {
+            fBatchesFailed.incrementAndGet();
+            if (fLog.isDebugEnabled()) {
+                fLog.debug(format("Unable to send batch of [{0}] invocations", aBatch.size()), failure);
+            }
+            for (PendingCall call : aBatch) {
+                call.complete(null, failure);
+            }
+        }
+    }
+
+    /**
+     * Stops timer used to send batches. Batches which are currently collected are sent immediately.
+     */
+    public void shutdown() {
+        List<Map.Entry<Method, List<PendingCall>>> pending;
+        synchronized (fBatches) {
+            pending = new ArrayList<Map.Entry<Method, List<PendingCall>>>(fBatches.entrySet());
+        }
+        for (Map.Entry<Method, List<PendingCall>> entry : pending) {
+            flush(entry.getKey(), entry.getValue());
+        }
+        fScheduler.shutdown();
+    }
+
+    /**
+     * Returns amount of batches sent
+     *
+     * @return amount of batches
+     */
+    public long getBatchesSent() {
+        return fBatchesSent.get();
+    }
+
+    /**
+     * Returns amount of invocations sent in batches
+     *
+     * @return amount of invocations
+     */
+    public long getInvocationsBatched() {
+        return fInvocationsBatched.get();
+    }
+
+    /**
+     * Returns amount of batches which could not be sent
+     *
+     * @return amount of failed batches
+     */
+    public long getBatchesFailed() {
+        return fBatchesFailed.get();
+    }
+}
@@ -0,0 +1,144 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket that limits amount of retries performed for remote service. Every retry
+ * consumes one token and every successful invocation returns <code>refillRatio</code>
+ * tokens, so if service is overloaded and most invocations fail, retries stop quickly
+ * instead of multiplying load on the servers which are still alive.
+ *
+ * @version 1.0
+ * @see RemoteClientInterceptor#setRetryBudget(RetryBudget)
+ */
+
+public class RetryBudget {
+    /**
+     * Maximal amount of tokens in bucket
+     */
+    protected double fMaxTokens = 10;
+
+    /**
+     * Amount of tokens returned to bucket by successful invocation
+     */
+    protected double fRefillRatio = 0.1;
+
+    /**
+     * Current amount of tokens
+     */
+    protected double fTokens = fMaxTokens;
+
+    /**
+     * Amount of retries allowed by budget
+     */
+    protected final AtomicLong fRetriesAllowed = new AtomicLong();
+
+    /**
+     * Amount of retries denied by budget
+     */
+    protected final AtomicLong fRetriesDenied = new AtomicLong();
+
+    public RetryBudget() {
+    }
+
+    /**
+     * Tries to obtain permission for retry
+     *
+     * @return <code>true</code> if retry is allowed
+     */
+    public synchronized boolean tryAcquire() {
+        boolean result = false;
+        if (fTokens >= 1) {
+            fTokens -= 1;
+            result = true;
+            fRetriesAllowed.incrementAndGet();
+        } else {
+            fRetriesDenied.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Called on successful invocation and refills bucket
+     */
+    public synchronized void onSuccess() {
+        fTokens = Math.min(fMaxTokens, fTokens + fRefillRatio);
+    }
+
+    /**
+     * Returns current amount of tokens
+     *
+     * @return amount of tokens
+     */
+    public synchronized double getTokens() {
+        return fTokens;
+    }
+
+    public double getMaxTokens() {
+        return fMaxTokens;
+    }
+
+    /**
+     * Sets maximal amount of tokens in bucket (and so maximal amount of retries which
+     * could be performed in a row without successful invocations).
+     * <p/>
+     * Default is <code>10</code>
+     *
+     * @param aMaxTokens maximal amount of tokens
+     */
+    public synchronized void setMaxTokens(double aMaxTokens) {
+        fMaxTokens = aMaxTokens;
+        fTokens = Math.min(fTokens, aMaxTokens);
+    }
+
+    public double getRefillRatio() {
+        return fRefillRatio;
+    }
+
+    /**
+     * Sets amount of tokens returned to bucket by successful invocation. For example,
+     * <code>0.1</code> means that retries could not exceed 10% of successful invocations.
+     * <p/>
+     * Default is <code>0.1</code>
+     *
+     * @param aRefillRatio amount of tokens per successful invocation
+     */
+    public void setRefillRatio(double aRefillRatio) {
+        fRefillRatio = aRefillRatio;
+    }
+
+    /**
+     * Returns amount of retries allowed by budget
+     *
+     * @return amount of retries allowed
+     */
+    public long getRetriesAllowed() {
+        return fRetriesAllowed.get();
+    }
+
+    /**
+     * Returns amount of retries denied by budget
+     *
+     * @return amount of retries denied
+     */
+    public long getRetriesDenied() {
+        return fRetriesDenied.get();
+    }
+}
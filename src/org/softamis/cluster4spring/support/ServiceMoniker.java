@@ -82,6 +82,27 @@ public class ServiceMoniker implements Externalizable {
         fServerID = aServerID;
     }
 
+    /**
+     * Checks whether server ID is set explicitly. Servers without explicit ID share default
+     * one, so their services could not be attributed to particular server.
+     *
+     * @return <code>true</code> if server ID identifies server
+     */
+    public boolean isServerIdentified() {
+        return isServerIdentified(fServerID);
+    }
+
+    /**
+     * Checks whether given server ID is set explicitly
+     *
+     * @param aServerID server ID
+     * @return <code>true</code> if server ID identifies server
+     * @see org.softamis.cluster4spring.support.context.AbstractServicePublisher#setServerID(long)
+     */
+    public static boolean isServerIdentified(long aServerID) {
+        return aServerID != Long.MIN_VALUE && aServerID != Integer.MIN_VALUE;
+    }
+
     public String getServiceURL() {
         return fServiceURL;
     }
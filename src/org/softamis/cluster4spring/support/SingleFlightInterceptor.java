@@ -0,0 +1,218 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.remoting.RemoteAccessException;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Interceptor which deduplicates identical concurrent invocations. If invocation
+ * of the same method with equal arguments is already in progress, the calling thread
+ * does not perform remote call but waits for the result (or exception) of that
+ * invocation.
+ * <p/>
+ * Since deduplication is safe only for methods without side effects, by default only
+ * methods marked by <code>Idempotent</code> annotation or listed in <code>methods</code>
+ * are deduplicated.
+ *
+ * @version 1.0
+ * @see org.softamis.cluster4spring.rmi.AbstractRmiProxyFactoryBean#setSingleFlightInterceptor(SingleFlightInterceptor)
+ */
+
+@SuppressWarnings({"ProhibitedExceptionDeclared", "ProhibitedExceptionThrown"})
+public class SingleFlightInterceptor
+        implements MethodInterceptor {
+    protected static final Log fLog = LogFactory.getLog(SingleFlightInterceptor.class);
+
+    /**
+     * Invocation which is currently in progress
+     */
+    protected static class Flight {
+        protected final CountDownLatch fDone = new CountDownLatch(1);
+        protected Object fResult = null;
+        protected Throwable fException = null;
+    }
+
+    /**
+     * Invocations which are currently in progress
+     */
+    protected final ConcurrentMap<InvocationKey, Flight> fFlights = new ConcurrentHashMap<InvocationKey, Flight>();
+
+    /**
+     * Names of methods which should be deduplicated (in addition to ones marked by <code>Idempotent</code>)
+     */
+    protected Set<String> fMethods = new HashSet<String>();
+
+    /**
+     * Indicates whether invocations of all methods should be deduplicated
+     */
+    protected boolean fAllMethods = false;
+
+    /**
+     * Amount of invocations of deduplicated methods
+     */
+    protected final AtomicLong fInvocations = new AtomicLong();
+
+    /**
+     * Amount of invocations which were answered by result of identical invocation
+     */
+    protected final AtomicLong fDeduplicated = new AtomicLong();
+
+    public SingleFlightInterceptor() {
+    }
+
+    public Object invoke(MethodInvocation aInvocation)
+            throws Throwable {
+        Object result = null;
+        if (isDeduplicated(aInvocation.getMethod())) {
+            result = invokeOnce(aInvocation);
+        } else {
+            result = aInvocation.proceed();
+        }
+        return result;
+    }
+
+    /**
+     * Performs invocation or waits for identical invocation which is already in progress
+     *
+     * @param aInvocation method invocation
+     * @return result of invocation
+     * @throws Throwable exception thrown by invocation
+     */
+    protected Object invokeOnce(MethodInvocation aInvocation)
+            throws Throwable {
+        fInvocations.incrementAndGet();
+        InvocationKey key = InvocationKey.forInvocation(aInvocation);
+        Flight flight = new Flight();
+        Flight existing = fFlights.putIfAbsent(key, flight);
+
+        Object result = null;
+        if (existing == null) {
+            // we are the first one, so we perform invocation and share its result
+            try {
+                flight.fResult = aInvocation.proceed();
+            } catch (Throwable e) {
+                flight.fException = e;
+            } finally {
+                fFlights.remove(key, flight);
+                flight.fDone.countDown();
+            }
+            if (flight.fException != null) {
+                throw flight.fException;
+            }
+            result = flight.fResult;
+        } else {
+            fDeduplicated.incrementAndGet();
+            if (fLog.isTraceEnabled()) {
+                fLog.trace(format("Waiting for identical invocation in progress. Key: [{0}]", key));
+            }
+            try {
+                existing.fDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteAccessException("Interrupted while waiting for identical invocation", e);
+            }
+            if (existing.fException != null) {
+                throw existing.fException;
+            }
+            result = existing.fResult;
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether invocations of given method should be deduplicated
+     *
+     * @param aMethod method
+     * @return <code>true</code> if invocations should be deduplicated
+     */
+    protected boolean isDeduplicated(Method aMethod) {
+        boolean result = fAllMethods || fMethods.contains(aMethod.getName()) || aMethod.isAnnotationPresent(Idempotent.class);
+        return result;
+    }
+
+    /**
+     * Sets names of methods which invocations should be deduplicated
+     *
+     * @param aMethods names of methods
+     */
+    public void setMethods(String[] aMethods) {
+        fMethods = new HashSet<String>(Arrays.asList(aMethods));
+    }
+
+    public boolean isAllMethods() {
+        return fAllMethods;
+    }
+
+    /**
+     * Sets whether invocations of all methods should be deduplicated. Should be used only
+     * if service does not have methods with side effects.
+     * <p/>
+     * Default is <code>false</code>
+     *
+     * @param aAllMethods <code>true</code> if invocations of all methods should be deduplicated
+     */
+    public void setAllMethods(boolean aAllMethods) {
+        fAllMethods = aAllMethods;
+    }
+
+    /**
+     * Returns amount of invocations of deduplicated methods
+     *
+     * @return amount of invocations
+     */
+    public long getInvocations() {
+        return fInvocations.get();
+    }
+
+    /**
+     * Returns amount of invocations which were answered by result of identical invocation
+     *
+     * @return amount of deduplicated invocations
+     */
+    public long getDeduplicated() {
+        return fDeduplicated.get();
+    }
+
+    /**
+     * Returns part of invocations which were answered without remote call
+     *
+     * @return deduplication ratio, in range [0, 1]
+     */
+    public double getDeduplicationRatio() {
+        long invocations = fInvocations.get();
+        double result = invocations == 0 ? 0 : (double) fDeduplicated.get() / invocations;
+        return result;
+    }
+}
@@ -0,0 +1,385 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.ConfigurableObjectInputStream;
+
+import org.softamis.cluster4spring.support.InvocationKey;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Interceptor which caches results of remote methods on client side, so repeated
+ * invocations with equal arguments are answered from memory without remote call.
+ * <p/>
+ * Only methods marked by <code>NearCacheable</code> annotation or listed in
+ * <code>methodTimeToLive</code> are cached. Key of cache entry is built from method
+ * and its arguments (which therefore should implement <code>equals()</code> and
+ * <code>hashCode()</code>). Exceptions are not cached.
+ * <p/>
+ * Cache is bounded by amount of entries and, optionally, by approximate size of cached
+ * values in bytes (calculated via serialization, so should be used only if values are
+ * relatively small). Eviction uses segmented LRU policy.
+ * <p/>
+ * Since RMI passes results by value, cached results are kept in serialized form and
+ * every caller obtains own copy, so caller which modifies result does not affect others.
+ * If results are never modified, copying could be switched off by <code>copyValues</code>
+ * property - then all callers share the same cached instance.
+ * <p/>
+ * Usually interceptor is registered via
+ * {@link org.softamis.cluster4spring.rmi.AbstractRmiProxyFactoryBean#setNearCacheInterceptor(NearCacheInterceptor)}
+ *
+ * @version 1.0
+ * @see NearCacheable
+ * @see SegmentedLruCache
+ */
+
+@SuppressWarnings({"ProhibitedExceptionDeclared"})
+public class NearCacheInterceptor
+        implements MethodInterceptor,
+        InitializingBean {
+    protected static final Log fLog = LogFactory.getLog(NearCacheInterceptor.class);
+
+    /**
+     * Marker used to cache <code>null</code> results
+     */
+    protected static final Object NULL_VALUE = new Object();
+
+    /**
+     * Default time (in milliseconds) results are kept in cache
+     */
+    protected long fDefaultTimeToLive = 60000;
+
+    /**
+     * Time to live (in milliseconds) per method name
+     */
+    protected Map<String, Long> fMethodTimeToLive = new HashMap<String, Long>();
+
+    /**
+     * Maximal amount of entries in cache
+     */
+    protected int fMaxEntries = 10000;
+
+    /**
+     * Maximal approximate size of cached values in bytes, <code>0</code> if size is not limited
+     */
+    protected long fMaxBytes = 0;
+
+    /**
+     * Amount of cache shards
+     */
+    protected int fShards = 16;
+
+    /**
+     * Indicates whether every caller obtains own copy of cached result
+     */
+    protected boolean fCopyValues = true;
+
+    /**
+     * Underlying cache
+     */
+    protected volatile SegmentedLruCache<InvocationKey, Object> fCache = null;
+
+    /**
+     * Serialized form of cached result
+     */
+    protected static class SerializedValue {
+        protected final byte[] fBytes;
+
+        protected SerializedValue(byte[] aBytes) {
+            fBytes = aBytes;
+        }
+    }
+
+    public NearCacheInterceptor() {
+    }
+
+    public void afterPropertiesSet() {
+        obtainCache();
+    }
+
+    /**
+     * Returns cached result of method invocation or performs invocation and
+     * caches its result.
+     *
+     * @param aInvocation method invocation
+     * @return result of invocation
+     * @throws Throwable exception thrown by invocation
+     */
+    public Object invoke(MethodInvocation aInvocation)
+            throws Throwable {
+        Method method = aInvocation.getMethod();
+        long timeToLive = getTimeToLive(method);
+        Object result = null;
+        if (timeToLive <= 0) {
+            result = aInvocation.proceed();
+        } else {
+            SegmentedLruCache<InvocationKey, Object> cache = obtainCache();
+            InvocationKey key = InvocationKey.forInvocation(aInvocation);
+            Object cached = cache.get(key);
+            if (cached == null) {
+                result = aInvocation.proceed();
+                if (result == null) {
+                    cache.put(key, NULL_VALUE, timeToLive, 1);
+                } else if (fCopyValues) {
+                    byte[] bytes = serialize(result);
+                    if (bytes != null) {
+                        cache.put(key, new SerializedValue(bytes), timeToLive, fMaxBytes > 0 ? bytes.length : 1);
+                    }
+                } else {
+                    long weight = fMaxBytes > 0 ? estimateSize(result) : 1;
+                    cache.put(key, result, timeToLive, weight);
+                }
+            } else {
+                if (cached == NULL_VALUE) {
+                    result = null;
+                } else if (cached instanceof SerializedValue) {
+                    result = deserialize(((SerializedValue) cached).fBytes);
+                } else {
+                    result = cached;
+                }
+                if (fLog.isTraceEnabled()) {
+                    fLog.trace(format("Result obtained from near cache. Key: [{0}]", key));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns time to live of results of given method
+     *
+     * @param aMethod method
+     * @return time to live in milliseconds, <code>0</code> if results of method should not be cached
+     */
+    protected long getTimeToLive(Method aMethod) {
+        long result = 0;
+        Long configured = fMethodTimeToLive.get(aMethod.getName());
+        if (configured != null) {
+            result = configured;
+        } else {
+            NearCacheable annotation = aMethod.getAnnotation(NearCacheable.class);
+            if (annotation != null) {
+                result = annotation.timeToLive() > 0 ? annotation.timeToLive() : fDefaultTimeToLive;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Estimates size of value in bytes as size of its serialized form
+     *
+     * @param aValue value
+     * @return approximate size of value
+     */
+    protected long estimateSize(Object aValue) {
+        byte[] bytes = serialize(aValue);
+        long result = bytes == null ? 1 : bytes.length;
+        return result;
+    }
+
+    /**
+     * Serializes value which should be cached
+     *
+     * @param aValue value
+     * @return serialized form of value or <code>null</code> if value could not be serialized
+     */
+    protected byte[] serialize(Object aValue) {
+        byte[] result = null;
+        if (aValue instanceof Serializable) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+                ObjectOutputStream output = new ObjectOutputStream(bytes);
+                output.writeObject(aValue);
+                output.close();
+                result = bytes.toByteArray();
+            } catch (IOException e) {
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug("Unable to serialize cached value", e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates copy of cached value from its serialized form
+     *
+     * @param aBytes serialized form of value
+     * @return copy of value
+     * @throws IOException if value could not be deserialized
+     * @throws ClassNotFoundException if class of value could not be found
+     */
+    protected Object deserialize(byte[] aBytes)
+            throws IOException, ClassNotFoundException {
+        ConfigurableObjectInputStream input = new ConfigurableObjectInputStream(
+                new ByteArrayInputStream(aBytes), Thread.currentThread().getContextClassLoader());
+        Object result = input.readObject();
+        input.close();
+        return result;
+    }
+
+    protected SegmentedLruCache<InvocationKey, Object> obtainCache() {
+        SegmentedLruCache<InvocationKey, Object> result = fCache;
+        if (result == null) {
+            synchronized (this) {
+                result = fCache;
+                if (result == null) {
+                    result = new SegmentedLruCache<InvocationKey, Object>(fMaxEntries, fMaxBytes, fShards);
+                    fCache = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes all cached results
+     */
+    public void clear() {
+        obtainCache().clear();
+    }
+
+    public long getHits() {
+        return obtainCache().getHits();
+    }
+
+    public long getMisses() {
+        return obtainCache().getMisses();
+    }
+
+    public long getEvictions() {
+        return obtainCache().getEvictions();
+    }
+
+    public long getExpirations() {
+        return obtainCache().getExpirations();
+    }
+
+    /**
+     * Returns amount of entries currently cached
+     *
+     * @return amount of entries
+     */
+    public int getSize() {
+        return obtainCache().size();
+    }
+
+    public long getDefaultTimeToLive() {
+        return fDefaultTimeToLive;
+    }
+
+    /**
+     * Sets time (in milliseconds) results are kept in cache if it is not specified for method
+     * <p/>
+     * Default is <code>60000</code>
+     *
+     * @param aDefaultTimeToLive time to live
+     */
+    public void setDefaultTimeToLive(long aDefaultTimeToLive) {
+        fDefaultTimeToLive = aDefaultTimeToLive;
+    }
+
+    public Map<String, Long> getMethodTimeToLive() {
+        return fMethodTimeToLive;
+    }
+
+    /**
+     * Sets time to live (in milliseconds) per method name. Methods listed there are cached
+     * even if they are not marked by <code>NearCacheable</code>.
+     *
+     * @param aMethodTimeToLive time to live per method name
+     */
+    public void setMethodTimeToLive(Map<String, Long> aMethodTimeToLive) {
+        fMethodTimeToLive = aMethodTimeToLive;
+    }
+
+    public int getMaxEntries() {
+        return fMaxEntries;
+    }
+
+    /**
+     * Sets maximal amount of entries in cache
+     * <p/>
+     * Default is <code>10000</code>
+     *
+     * @param aMaxEntries amount of entries
+     */
+    public void setMaxEntries(int aMaxEntries) {
+        fMaxEntries = aMaxEntries;
+    }
+
+    public long getMaxBytes() {
+        return fMaxBytes;
+    }
+
+    /**
+     * Sets maximal approximate size of cached values in bytes
+     * <p/>
+     * Default is <code>0</code> (size is not limited)
+     *
+     * @param aMaxBytes size in bytes
+     */
+    public void setMaxBytes(long aMaxBytes) {
+        fMaxBytes = aMaxBytes;
+    }
+
+    public boolean isCopyValues() {
+        return fCopyValues;
+    }
+
+    /**
+     * Sets whether every caller should obtain own copy of cached result, like with remote
+     * invocation. If switched off, cached instance is shared by all callers, so it should
+     * never be modified; results which are not serializable are cached only in this mode.
+     * <p/>
+     * Default is <code>true</code>
+     *
+     * @param aCopyValues <code>true</code> if cached results should be copied
+     */
+    public void setCopyValues(boolean aCopyValues) {
+        fCopyValues = aCopyValues;
+    }
+
+    /**
+     * Sets amount of cache shards
+     * <p/>
+     * Default is <code>16</code>
+     *
+     * @param aShards amount of shards
+     */
+    public void setShards(int aShards) {
+        fShards = aShards;
+    }
+}
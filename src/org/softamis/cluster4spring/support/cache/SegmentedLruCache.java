@@ -0,0 +1,305 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded cache with segmented LRU eviction policy and time to live of entries.
+ * <p/>
+ * Cache is split into shards (each one guarded by own lock) to reduce contention.
+ * Every shard consists of two segments - probation and protected ones. New entries are
+ * placed into probation segment; entry which is read while it is in probation segment
+ * is moved to protected one. If protected segment is full, its least recently used
+ * entry is moved back to probation segment. Entries are evicted from probation segment
+ * only, so entries which were read more than once survive scans of entries used once.
+ * <p/>
+ * Size of cache could be limited by amount of entries and, optionally, by total weight
+ * of entries (for example, their approximate size in bytes).
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ * @version 1.0
+ */
+
+public class SegmentedLruCache<K, V> {
+    /**
+     * Part of shard capacity used by protected segment
+     */
+    protected static final double PROTECTED_RATIO = 0.8;
+
+    /**
+     * Entry stored in cache
+     */
+    protected static class CacheEntry<V> {
+        protected final V fValue;
+        protected final long fExpirationTime;
+        protected final long fWeight;
+
+        protected CacheEntry(V aValue, long aExpirationTime, long aWeight) {
+            fValue = aValue;
+            fExpirationTime = aExpirationTime;
+            fWeight = aWeight;
+        }
+    }
+
+    /**
+     * Shard of the cache
+     */
+    protected class Shard {
+        protected final LinkedHashMap<K, CacheEntry<V>> fProbation = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true);
+        protected final LinkedHashMap<K, CacheEntry<V>> fProtected = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true);
+        protected final int fMaxEntries;
+        protected final int fMaxProtectedEntries;
+        protected final long fMaxWeight;
+        protected long fWeight = 0;
+
+        protected Shard(int aMaxEntries, long aMaxWeight) {
+            fMaxEntries = aMaxEntries;
+            fMaxProtectedEntries = Math.max(1, (int) (aMaxEntries * PROTECTED_RATIO));
+            fMaxWeight = aMaxWeight;
+        }
+
+        protected synchronized V get(K aKey, long aNow) {
+            V result = null;
+            CacheEntry<V> entry = fProtected.get(aKey);
+            if (entry == null) {
+                entry = fProbation.get(aKey);
+                if (entry != null && !isExpired(entry, aNow)) {
+                    // entry is read second time - promote it
+                    fProbation.remove(aKey);
+                    fProtected.put(aKey, entry);
+                    demoteProtected();
+                }
+            }
+            if (entry != null) {
+                if (isExpired(entry, aNow)) {
+                    remove(aKey);
+                    fExpirations.incrementAndGet();
+                } else {
+                    result = entry.fValue;
+                }
+            }
+            return result;
+        }
+
+        protected synchronized void put(K aKey, CacheEntry<V> aEntry) {
+            remove(aKey);
+            fProbation.put(aKey, aEntry);
+            fWeight += aEntry.fWeight;
+            evict();
+        }
+
+        protected synchronized void remove(K aKey) {
+            CacheEntry<V> entry = fProtected.remove(aKey);
+            if (entry == null) {
+                entry = fProbation.remove(aKey);
+            }
+            if (entry != null) {
+                fWeight -= entry.fWeight;
+            }
+        }
+
+        protected synchronized void clear() {
+            fProtected.clear();
+            fProbation.clear();
+            fWeight = 0;
+        }
+
+        protected synchronized int size() {
+            return fProtected.size() + fProbation.size();
+        }
+
+        protected synchronized long weight() {
+            return fWeight;
+        }
+
+        protected void demoteProtected() {
+            while (fProtected.size() > fMaxProtectedEntries) {
+                Iterator<Map.Entry<K, CacheEntry<V>>> iterator = fProtected.entrySet().iterator();
+                Map.Entry<K, CacheEntry<V>> eldest = iterator.next();
+                iterator.remove();
+                fProbation.put(eldest.getKey(), eldest.getValue());
+            }
+        }
+
+        protected void evict() {
+            while (size() > fMaxEntries || (fMaxWeight > 0 && fWeight > fMaxWeight)) {
+                LinkedHashMap<K, CacheEntry<V>> segment = fProbation.isEmpty() ? fProtected : fProbation;
+                if (segment.isEmpty()) {
+                    break;
+                }
+                Iterator<Map.Entry<K, CacheEntry<V>>> iterator = segment.entrySet().iterator();
+                Map.Entry<K, CacheEntry<V>> eldest = iterator.next();
+                iterator.remove();
+                fWeight -= eldest.getValue().fWeight;
+                fEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Shards of the cache
+     */
+    protected final List<Shard> fShards;
+
+    /**
+     * Amount of successful lookups
+     */
+    protected final AtomicLong fHits = new AtomicLong();
+
+    /**
+     * Amount of unsuccessful lookups
+     */
+    protected final AtomicLong fMisses = new AtomicLong();
+
+    /**
+     * Amount of entries evicted due to size limits
+     */
+    protected final AtomicLong fEvictions = new AtomicLong();
+
+    /**
+     * Amount of entries removed since their time to live elapsed
+     */
+    protected final AtomicLong fExpirations = new AtomicLong();
+
+    /**
+     * Creates cache
+     *
+     * @param aMaxEntries maximal amount of entries
+     * @param aMaxWeight maximal total weight of entries, <code>0</code> if weight is not limited
+     * @param aShards amount of shards
+     */
+    public SegmentedLruCache(int aMaxEntries, long aMaxWeight, int aShards) {
+        if (aMaxEntries < 1 || aShards < 1) {
+            throw new IllegalArgumentException("Maximal amount of entries and amount of shards should be positive");
+        }
+        int shards = Math.min(aShards, aMaxEntries);
+        fShards = new ArrayList<Shard>(shards);
+        int entriesPerShard = (aMaxEntries + shards - 1) / shards;
+        long weightPerShard = aMaxWeight > 0 ? Math.max(1, aMaxWeight / shards) : 0;
+        for (int i = 0; i < shards; i++) {
+            fShards.add(new Shard(entriesPerShard, weightPerShard));
+        }
+    }
+
+    /**
+     * Returns value cached for given key
+     *
+     * @param aKey key
+     * @return cached value or <code>null</code> if there is no value or it is expired
+     */
+    public V get(K aKey) {
+        V result = shardFor(aKey).get(aKey, System.currentTimeMillis());
+        if (result == null) {
+            fMisses.incrementAndGet();
+        } else {
+            fHits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Puts value into cache
+     *
+     * @param aKey key
+     * @param aValue value, should not be <code>null</code>
+     * @param aTimeToLive time (in milliseconds) value is kept in cache
+     * @param aWeight weight of value
+     */
+    public void put(K aKey, V aValue, long aTimeToLive, long aWeight) {
+        CacheEntry<V> entry = new CacheEntry<V>(aValue, System.currentTimeMillis() + aTimeToLive, aWeight);
+        shardFor(aKey).put(aKey, entry);
+    }
+
+    /**
+     * Removes value cached for given key
+     *
+     * @param aKey key
+     */
+    public void remove(K aKey) {
+        shardFor(aKey).remove(aKey);
+    }
+
+    /**
+     * Removes all values from cache
+     */
+    public void clear() {
+        for (Shard shard : fShards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * Returns amount of entries in cache
+     *
+     * @return amount of entries
+     */
+    public int size() {
+        int result = 0;
+        for (Shard shard : fShards) {
+            result += shard.size();
+        }
+        return result;
+    }
+
+    /**
+     * Returns total weight of entries in cache
+     *
+     * @return total weight
+     */
+    public long weight() {
+        long result = 0;
+        for (Shard shard : fShards) {
+            result += shard.weight();
+        }
+        return result;
+    }
+
+    protected Shard shardFor(K aKey) {
+        int hash = aKey.hashCode();
+        hash ^= (hash >>> 16);
+        int index = (hash & 0x7fffffff) % fShards.size();
+        return fShards.get(index);
+    }
+
+    protected static boolean isExpired(CacheEntry<?> aEntry, long aNow) {
+        return aEntry.fExpirationTime <= aNow;
+    }
+
+    public long getHits() {
+        return fHits.get();
+    }
+
+    public long getMisses() {
+        return fMisses.get();
+    }
+
+    public long getEvictions() {
+        return fEvictions.get();
+    }
+
+    public long getExpirations() {
+        return fExpirations.get();
+    }
+}
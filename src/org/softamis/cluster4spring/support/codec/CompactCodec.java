@@ -0,0 +1,810 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationResult;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Compact binary codec. Common types (primitive wrappers, strings, arrays, standard
+ * collections and maps, dates, big numbers, enums) and <code>RemoteInvocation</code> /
+ * <code>RemoteInvocationResult</code> are written in compact form with variable length
+ * integers. Plain serializable DTOs are written field by field using cached metadata of
+ * their classes, without class descriptors which make Java serialization bloated. Class
+ * name is written only once per message, shared and cyclic references are preserved.
+ * <p/>
+ * Objects which customize serialization (<code>writeObject()</code>, <code>writeReplace()</code>,
+ * <code>Externalizable</code> etc.), exceptions, dynamic proxies (including RMI stubs) and
+ * classes without no-argument constructor are written using Java serialization.
+ * <p/>
+ * Since compact form does not contain full class descriptors, both sides should use the
+ * same versions of DTO classes. Fingerprint of fields of every class is verified, so
+ * mismatch of classes is reported as <code>InvalidClassException</code> instead of
+ * corrupted data.
+ *
+ * @version 1.0
+ */
+
+public class CompactCodec
+        implements InvocationCodec {
+    public static final String NAME = "compact";
+
+    protected static final int TAG_NULL = 0;
+    protected static final int TAG_REFERENCE = 1;
+    protected static final int TAG_TRUE = 2;
+    protected static final int TAG_FALSE = 3;
+    protected static final int TAG_BYTE = 4;
+    protected static final int TAG_SHORT = 5;
+    protected static final int TAG_CHAR = 6;
+    protected static final int TAG_INT = 7;
+    protected static final int TAG_LONG = 8;
+    protected static final int TAG_FLOAT = 9;
+    protected static final int TAG_DOUBLE = 10;
+    protected static final int TAG_STRING = 11;
+    protected static final int TAG_BYTES = 12;
+    protected static final int TAG_ARRAY = 13;
+    protected static final int TAG_COLLECTION = 14;
+    protected static final int TAG_MAP = 15;
+    protected static final int TAG_ENUM = 16;
+    protected static final int TAG_CLASS = 17;
+    protected static final int TAG_DATE = 18;
+    protected static final int TAG_BIG_DECIMAL = 19;
+    protected static final int TAG_BIG_INTEGER = 20;
+    protected static final int TAG_INVOCATION = 21;
+    protected static final int TAG_RESULT = 22;
+    protected static final int TAG_OBJECT = 23;
+    protected static final int TAG_JAVA = 24;
+
+    protected static final Set<Class<?>> COLLECTION_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            ArrayList.class, LinkedList.class, HashSet.class, LinkedHashSet.class));
+
+    protected static final Set<Class<?>> MAP_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(
+            HashMap.class, LinkedHashMap.class));
+
+    /**
+     * Metadata of classes, cached since it is expensive to collect
+     */
+    protected final ConcurrentMap<Class<?>, ClassMetadata> fMetadata = new ConcurrentHashMap<Class<?>, ClassMetadata>();
+
+    /**
+     * Classes resolved by name during decoding
+     */
+    protected final ConcurrentMap<String, Class<?>> fClasses = new ConcurrentHashMap<String, Class<?>>();
+
+    /**
+     * Class loader used to resolve classes, default class loader is used if not specified
+     */
+    protected ClassLoader fClassLoader = null;
+
+    public CompactCodec() {
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public byte[] encode(Object aValue)
+            throws IOException {
+        CompactOutput output = CompactOutput.obtain();
+        byte[] result = null;
+        try {
+            new Writer(output).writeObject(aValue);
+            result = output.toByteArray();
+        } finally {
+            output.release();
+        }
+        return result;
+    }
+
+    public Object decode(byte[] aData)
+            throws IOException, ClassNotFoundException {
+        Object result = new Reader(new CompactInput(aData)).readObject();
+        return result;
+    }
+
+    /**
+     * Returns metadata of given class, collecting it if necessary
+     *
+     * @param aClass class
+     * @return class metadata
+     */
+    protected ClassMetadata obtainMetadata(Class<?> aClass) {
+        ClassMetadata result = fMetadata.get(aClass);
+        if (result == null) {
+            result = new ClassMetadata(aClass);
+            fMetadata.putIfAbsent(aClass, result);
+        }
+        return result;
+    }
+
+    protected Class<?> resolveClass(String aName)
+            throws ClassNotFoundException {
+        Class<?> result = fClasses.get(aName);
+        if (result == null) {
+            ClassLoader classLoader = fClassLoader == null ? ClassUtils.getDefaultClassLoader() : fClassLoader;
+            result = ClassUtils.forName(aName, classLoader);
+            fClasses.putIfAbsent(aName, result);
+        }
+        return result;
+    }
+
+    /**
+     * Sets class loader used to resolve classes during decoding
+     *
+     * @param aClassLoader class loader
+     */
+    public void setClassLoader(ClassLoader aClassLoader) {
+        fClassLoader = aClassLoader;
+        fClasses.clear();
+    }
+
+    /**
+     * Metadata of class which describes how its instances are written
+     */
+    protected static class ClassMetadata {
+        protected final Class<?> fType;
+        protected final boolean fCompact;
+        protected Constructor<?> fConstructor = null;
+        protected Field[] fFields = null;
+        protected int fFingerprint = 0;
+
+        protected ClassMetadata(Class<?> aType) {
+            fType = aType;
+            boolean compact = Serializable.class.isAssignableFrom(aType) && !Externalizable.class.isAssignableFrom(aType) &&
+                    !Throwable.class.isAssignableFrom(aType) && !Proxy.isProxyClass(aType) && !aType.isInterface() &&
+                    !Modifier.isAbstract(aType.getModifiers()) && !hasCustomSerialization(aType);
+            if (compact) {
+                try {
+                    fConstructor = aType.getDeclaredConstructor();
+                    fConstructor.setAccessible(true);
+                    fFields = collectFields(aType);
+                } catch (Exception e) {
+                    compact = false;
+                }
+            }
+            fCompact = compact;
+        }
+
+        protected boolean hasCustomSerialization(Class<?> aType) {
+            boolean result = false;
+            Class<?> type = aType;
+            while (!result && type != null && type != Object.class) {
+                result = hasMethod(type, "writeObject", ObjectOutputStream.class) ||
+                        hasMethod(type, "readObject", ObjectInputStream.class) ||
+                        hasMethod(type, "readObjectNoData") || hasMethod(type, "writeReplace") ||
+                        hasMethod(type, "readResolve") || hasField(type, "serialPersistentFields");
+                type = type.getSuperclass();
+            }
+            return result;
+        }
+
+        protected boolean hasMethod(Class<?> aType, String aName, Class<?>... aParameterTypes) {
+            boolean result = false;
+            try {
+                aType.getDeclaredMethod(aName, aParameterTypes);
+                result = true;
+            } catch (NoSuchMethodException e) {
+                result = false;
+            }
+            return result;
+        }
+
+        protected boolean hasField(Class<?> aType, String aName) {
+            boolean result = false;
+            try {
+                aType.getDeclaredField(aName);
+                result = true;
+            } catch (NoSuchFieldException e) {
+                result = false;
+            }
+            return result;
+        }
+
+        /**
+         * Collects serializable fields of class, fields of superclasses first and fields
+         * of every class ordered by name, so order is the same on both sides
+         */
+        protected Field[] collectFields(Class<?> aType) {
+            List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+            Class<?> type = aType;
+            while (type != null && Serializable.class.isAssignableFrom(type)) {
+                hierarchy.add(0, type);
+                type = type.getSuperclass();
+            }
+            List<Field> fields = new ArrayList<Field>();
+            StringBuilder signature = new StringBuilder(128);
+            for (Class<?> declaringClass : hierarchy) {
+                Field[] declared = declaringClass.getDeclaredFields();
+                Arrays.sort(declared, new Comparator<Field>() {
+                    public int compare(Field aField1, Field aField2) {
+                        return aField1.getName().compareTo(aField2.getName());
+                    }
+                });
+                for (Field field : declared) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                        signature.append(field.getName()).append(':').append(field.getType().getName()).append(';');
+                    }
+                }
+            }
+            fFingerprint = signature.toString().hashCode();
+            Field[] result = fields.toArray(new Field[fields.size()]);
+            return result;
+        }
+    }
+
+    /**
+     * Writes single message
+     */
+    protected class Writer {
+        protected final CompactOutput fOutput;
+        protected final Map<Object, Integer> fReferences = new IdentityHashMap<Object, Integer>();
+        protected final Map<Class<?>, Integer> fClassIds = new HashMap<Class<?>, Integer>();
+        protected final Set<Class<?>> fVerifiedClasses = new HashSet<Class<?>>();
+
+        protected Writer(CompactOutput aOutput) {
+            fOutput = aOutput;
+        }
+
+        protected void writeObject(Object aValue)
+                throws IOException {
+            if (aValue == null) {
+                fOutput.writeByte(TAG_NULL);
+            } else if (!writeImmutable(aValue)) {
+                Integer reference = fReferences.get(aValue);
+                if (reference != null) {
+                    fOutput.writeByte(TAG_REFERENCE);
+                    fOutput.writeVarInt(reference);
+                } else {
+                    fReferences.put(aValue, fReferences.size());
+                    writeReferenceable(aValue);
+                }
+            }
+        }
+
+        /**
+         * Writes value which is not tracked as reference
+         *
+         * @param aValue value to write
+         * @return <code>true</code> if value was written
+         */
+        protected boolean writeImmutable(Object aValue) {
+            boolean result = true;
+            Class<?> type = aValue.getClass();
+            if (type == String.class) {
+                fOutput.writeByte(TAG_STRING);
+                fOutput.writeString((String) aValue);
+            } else if (type == Integer.class) {
+                fOutput.writeByte(TAG_INT);
+                fOutput.writeInt((Integer) aValue);
+            } else if (type == Long.class) {
+                fOutput.writeByte(TAG_LONG);
+                fOutput.writeLong((Long) aValue);
+            } else if (type == Boolean.class) {
+                fOutput.writeByte((Boolean) aValue ? TAG_TRUE : TAG_FALSE);
+            } else if (type == Double.class) {
+                fOutput.writeByte(TAG_DOUBLE);
+                fOutput.writeDouble((Double) aValue);
+            } else if (type == Float.class) {
+                fOutput.writeByte(TAG_FLOAT);
+                fOutput.writeFloat((Float) aValue);
+            } else if (type == Short.class) {
+                fOutput.writeByte(TAG_SHORT);
+                fOutput.writeInt((Short) aValue);
+            } else if (type == Byte.class) {
+                fOutput.writeByte(TAG_BYTE);
+                fOutput.writeByte((Byte) aValue);
+            } else if (type == Character.class) {
+                fOutput.writeByte(TAG_CHAR);
+                fOutput.writeVarInt((Character) aValue);
+            } else if (aValue instanceof Enum) {
+                fOutput.writeByte(TAG_ENUM);
+                writeClass(((Enum<?>) aValue).getDeclaringClass());
+                fOutput.writeString(((Enum<?>) aValue).name());
+            } else if (aValue instanceof Class) {
+                fOutput.writeByte(TAG_CLASS);
+                writeClass((Class<?>) aValue);
+            } else if (type == Date.class) {
+                fOutput.writeByte(TAG_DATE);
+                fOutput.writeLong(((Date) aValue).getTime());
+            } else if (type == BigDecimal.class) {
+                fOutput.writeByte(TAG_BIG_DECIMAL);
+                fOutput.writeString(aValue.toString());
+            } else if (type == BigInteger.class) {
+                byte[] bytes = ((BigInteger) aValue).toByteArray();
+                fOutput.writeByte(TAG_BIG_INTEGER);
+                fOutput.writeVarInt(bytes.length);
+                fOutput.writeBytes(bytes, 0, bytes.length);
+            } else {
+                result = false;
+            }
+            return result;
+        }
+
+        protected void writeReferenceable(Object aValue)
+                throws IOException {
+            Class<?> type = aValue.getClass();
+            if (type == byte[].class) {
+                byte[] bytes = (byte[]) aValue;
+                fOutput.writeByte(TAG_BYTES);
+                fOutput.writeVarInt(bytes.length);
+                fOutput.writeBytes(bytes, 0, bytes.length);
+            } else if (type.isArray()) {
+                fOutput.writeByte(TAG_ARRAY);
+                writeClass(type.getComponentType());
+                writeArray(aValue);
+            } else if (COLLECTION_TYPES.contains(type)) {
+                Collection<?> collection = (Collection<?>) aValue;
+                fOutput.writeByte(TAG_COLLECTION);
+                writeClass(type);
+                fOutput.writeVarInt(collection.size());
+                for (Object element : collection) {
+                    writeObject(element);
+                }
+            } else if (MAP_TYPES.contains(type)) {
+                Map<?, ?> map = (Map<?, ?>) aValue;
+                fOutput.writeByte(TAG_MAP);
+                writeClass(type);
+                fOutput.writeVarInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeObject(entry.getKey());
+                    writeObject(entry.getValue());
+                }
+            } else if (type == RemoteInvocation.class) {
+                RemoteInvocation invocation = (RemoteInvocation) aValue;
+                fOutput.writeByte(TAG_INVOCATION);
+                fOutput.writeString(invocation.getMethodName());
+                writeObject(invocation.getParameterTypes());
+                writeObject(invocation.getArguments());
+                writeObject(invocation.getAttributes());
+            } else if (type == RemoteInvocationResult.class) {
+                RemoteInvocationResult invocationResult = (RemoteInvocationResult) aValue;
+                fOutput.writeByte(TAG_RESULT);
+                writeObject(invocationResult.getValue());
+                writeObject(invocationResult.getException());
+            } else {
+                ClassMetadata metadata = obtainMetadata(type);
+                if (metadata.fCompact) {
+                    fOutput.writeByte(TAG_OBJECT);
+                    writeClass(type);
+                    if (fVerifiedClasses.add(type)) {
+                        fOutput.writeInt(metadata.fFingerprint);
+                    }
+                    writeFields(aValue, metadata);
+                } else {
+                    fOutput.writeByte(TAG_JAVA);
+                    writeSerialized(aValue);
+                }
+            }
+        }
+
+        protected void writeClass(Class<?> aClass) {
+            Integer id = fClassIds.get(aClass);
+            if (id == null) {
+                fClassIds.put(aClass, fClassIds.size());
+                fOutput.writeVarInt(0);
+                fOutput.writeString(aClass.getName());
+            } else {
+                fOutput.writeVarInt(id + 1);
+            }
+        }
+
+        protected void writeFields(Object aValue, ClassMetadata aMetadata)
+                throws IOException {
+            try {
+                for (Field field : aMetadata.fFields) {
+                    Class<?> fieldType = field.getType();
+                    if (fieldType.isPrimitive()) {
+                        writePrimitive(fieldType, field.get(aValue));
+                    } else {
+                        writeObject(field.get(aValue));
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new InvalidClassException(aMetadata.fType.getName(), e.getMessage());
+            }
+        }
+
+        protected void writePrimitive(Class<?> aType, Object aValue) {
+            if (aType == Integer.TYPE) {
+                fOutput.writeInt((Integer) aValue);
+            } else if (aType == Long.TYPE) {
+                fOutput.writeLong((Long) aValue);
+            } else if (aType == Boolean.TYPE) {
+                fOutput.writeByte((Boolean) aValue ? 1 : 0);
+            } else if (aType == Double.TYPE) {
+                fOutput.writeDouble((Double) aValue);
+            } else if (aType == Float.TYPE) {
+                fOutput.writeFloat((Float) aValue);
+            } else if (aType == Short.TYPE) {
+                fOutput.writeInt((Short) aValue);
+            } else if (aType == Byte.TYPE) {
+                fOutput.writeByte((Byte) aValue);
+            } else {
+                fOutput.writeVarInt((Character) aValue);
+            }
+        }
+
+        protected void writeArray(Object aArray)
+                throws IOException {
+            int length = Array.getLength(aArray);
+            fOutput.writeVarInt(length);
+            Class<?> componentType = aArray.getClass().getComponentType();
+            if (componentType == Integer.TYPE) {
+                for (int value : (int[]) aArray) {
+                    fOutput.writeInt(value);
+                }
+            } else if (componentType == Long.TYPE) {
+                for (long value : (long[]) aArray) {
+                    fOutput.writeLong(value);
+                }
+            } else if (componentType == Double.TYPE) {
+                for (double value : (double[]) aArray) {
+                    fOutput.writeDouble(value);
+                }
+            } else if (componentType.isPrimitive()) {
+                for (int i = 0; i < length; i++) {
+                    writePrimitive(componentType, Array.get(aArray, i));
+                }
+            } else {
+                for (Object value : (Object[]) aArray) {
+                    writeObject(value);
+                }
+            }
+        }
+
+        protected void writeSerialized(Object aValue)
+                throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            ObjectOutputStream output = new ObjectOutputStream(bytes);
+            output.writeObject(aValue);
+            output.close();
+            fOutput.writeVarInt(bytes.size());
+            fOutput.writeBytes(bytes.toByteArray(), 0, bytes.size());
+        }
+    }
+
+    /**
+     * Reads single message
+     */
+    protected class Reader {
+        protected final CompactInput fInput;
+        protected final List<Object> fReferences = new ArrayList<Object>();
+        protected final List<Class<?>> fClassIds = new ArrayList<Class<?>>();
+        protected final Set<Class<?>> fVerifiedClasses = new HashSet<Class<?>>();
+
+        protected Reader(CompactInput aInput) {
+            fInput = aInput;
+        }
+
+        @SuppressWarnings({"unchecked"})
+        protected Object readObject()
+                throws IOException, ClassNotFoundException {
+            int tag = fInput.readByte();
+            Object result = null;
+            switch (tag) {
+                case TAG_NULL:
+                    result = null;
+                    break;
+                case TAG_REFERENCE:
+                    int reference = fInput.readVarInt();
+                    if (reference < 0 || reference >= fReferences.size()) {
+                        throw new StreamCorruptedException("Invalid reference: " + reference);
+                    }
+                    result = fReferences.get(reference);
+                    break;
+                case TAG_TRUE:
+                    result = Boolean.TRUE;
+                    break;
+                case TAG_FALSE:
+                    result = Boolean.FALSE;
+                    break;
+                case TAG_BYTE:
+                    result = (byte) fInput.readByte();
+                    break;
+                case TAG_SHORT:
+                    result = (short) fInput.readInt();
+                    break;
+                case TAG_CHAR:
+                    result = (char) fInput.readVarInt();
+                    break;
+                case TAG_INT:
+                    result = fInput.readInt();
+                    break;
+                case TAG_LONG:
+                    result = fInput.readLong();
+                    break;
+                case TAG_FLOAT:
+                    result = fInput.readFloat();
+                    break;
+                case TAG_DOUBLE:
+                    result = fInput.readDouble();
+                    break;
+                case TAG_STRING:
+                    result = fInput.readString();
+                    break;
+                case TAG_ENUM:
+                    Class enumType = readClass();
+                    result = Enum.valueOf(enumType, fInput.readString());
+                    break;
+                case TAG_CLASS:
+                    result = readClass();
+                    break;
+                case TAG_DATE:
+                    result = new Date(fInput.readLong());
+                    break;
+                case TAG_BIG_DECIMAL:
+                    result = new BigDecimal(fInput.readString());
+                    break;
+                case TAG_BIG_INTEGER:
+                    result = new BigInteger(fInput.readBytes(fInput.readLength()));
+                    break;
+                default:
+                    result = readReferenceable(tag);
+            }
+            return result;
+        }
+
+        @SuppressWarnings({"unchecked"})
+        protected Object readReferenceable(int aTag)
+                throws IOException, ClassNotFoundException {
+            int reference = fReferences.size();
+            fReferences.add(null);
+            Object result = null;
+            switch (aTag) {
+                case TAG_BYTES:
+                    result = fInput.readBytes(fInput.readLength());
+                    fReferences.set(reference, result);
+                    break;
+                case TAG_ARRAY:
+                    Class<?> componentType = readClass();
+                    if (componentType == Void.TYPE) {
+                        throw new StreamCorruptedException("Invalid component type of array");
+                    }
+                    int length = fInput.readLength();
+                    result = Array.newInstance(componentType, length);
+                    fReferences.set(reference, result);
+                    readArray(result, componentType, length);
+                    break;
+                case TAG_COLLECTION:
+                    Collection<Object> collection = (Collection<Object>) instantiate(readClass(), COLLECTION_TYPES);
+                    fReferences.set(reference, collection);
+                    int size = fInput.readLength();
+                    for (int i = 0; i < size; i++) {
+                        collection.add(readObject());
+                    }
+                    result = collection;
+                    break;
+                case TAG_MAP:
+                    Map<Object, Object> map = (Map<Object, Object>) instantiate(readClass(), MAP_TYPES);
+                    fReferences.set(reference, map);
+                    int entries = fInput.readLength();
+                    for (int i = 0; i < entries; i++) {
+                        Object key = readObject();
+                        map.put(key, readObject());
+                    }
+                    result = map;
+                    break;
+                case TAG_INVOCATION:
+                    RemoteInvocation invocation = new RemoteInvocation();
+                    fReferences.set(reference, invocation);
+                    invocation.setMethodName(fInput.readString());
+                    invocation.setParameterTypes((Class[]) readObject());
+                    invocation.setArguments((Object[]) readObject());
+                    invocation.setAttributes((Map<String, Serializable>) readObject());
+                    result = invocation;
+                    break;
+                case TAG_RESULT:
+                    Object value = readObject();
+                    Throwable exception = (Throwable) readObject();
+                    result = exception == null ? new RemoteInvocationResult(value) : new RemoteInvocationResult(exception);
+                    fReferences.set(reference, result);
+                    break;
+                case TAG_OBJECT:
+                    Class<?> type = readClass();
+                    ClassMetadata metadata = obtainMetadata(type);
+                    if (!metadata.fCompact) {
+                        throw new InvalidClassException(type.getName(), "Class could not be written in compact form");
+                    }
+                    if (fVerifiedClasses.add(type) && metadata.fFingerprint != fInput.readInt()) {
+                        throw new InvalidClassException(type.getName(), "Class differs from one used for encoding");
+                    }
+                    result = instantiate(metadata);
+                    fReferences.set(reference, result);
+                    readFields(result, metadata);
+                    break;
+                case TAG_JAVA:
+                    result = readSerialized();
+                    fReferences.set(reference, result);
+                    break;
+                default:
+                    throw new StreamCorruptedException("Unknown tag: " + aTag);
+            }
+            return result;
+        }
+
+        protected Class<?> readClass()
+                throws IOException, ClassNotFoundException {
+            int id = fInput.readVarInt();
+            Class<?> result = null;
+            if (id == 0) {
+                result = resolveClass(fInput.readString());
+                fClassIds.add(result);
+            } else if (id > 0 && id <= fClassIds.size()) {
+                result = fClassIds.get(id - 1);
+            } else {
+                throw new StreamCorruptedException("Invalid class reference: " + id);
+            }
+            return result;
+        }
+
+        /**
+         * Creates collection or map of given type. Only types which are written in compact
+         * form are allowed, so data could not instantiate arbitrary classes.
+         *
+         * @param aType type of collection or map
+         * @param aAllowedTypes types allowed for this tag
+         * @return created instance
+         * @throws IOException if type is not allowed or could not be instantiated
+         */
+        protected Object instantiate(Class<?> aType, Set<Class<?>> aAllowedTypes)
+                throws IOException {
+            if (!aAllowedTypes.contains(aType)) {
+                throw new InvalidClassException(aType.getName(), "Type is not supported in compact form");
+            }
+            Object result = instantiate(obtainMetadata(aType));
+            return result;
+        }
+
+        protected Object instantiate(ClassMetadata aMetadata)
+                throws IOException {
+            Object result = null;
+            try {
+                Constructor<?> constructor = aMetadata.fConstructor;
+                if (constructor == null) {
+                    constructor = aMetadata.fType.getDeclaredConstructor();
+                }
+                result = constructor.newInstance();
+            } catch (Exception e) {
+                throw new InvalidClassException(aMetadata.fType.getName(), "Unable to instantiate: " + e);
+            }
+            return result;
+        }
+
+        protected void readFields(Object aValue, ClassMetadata aMetadata)
+                throws IOException, ClassNotFoundException {
+            try {
+                for (Field field : aMetadata.fFields) {
+                    Class<?> fieldType = field.getType();
+                    if (fieldType.isPrimitive()) {
+                        field.set(aValue, readPrimitive(fieldType));
+                    } else {
+                        field.set(aValue, readObject());
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new InvalidClassException(aMetadata.fType.getName(), e.getMessage());
+            } catch (IllegalArgumentException e) {
+                throw new InvalidClassException(aMetadata.fType.getName(), e.getMessage());
+            }
+        }
+
+        protected Object readPrimitive(Class<?> aType)
+                throws IOException {
+            Object result = null;
+            if (aType == Integer.TYPE) {
+                result = fInput.readInt();
+            } else if (aType == Long.TYPE) {
+                result = fInput.readLong();
+            } else if (aType == Boolean.TYPE) {
+                result = fInput.readByte() != 0;
+            } else if (aType == Double.TYPE) {
+                result = fInput.readDouble();
+            } else if (aType == Float.TYPE) {
+                result = fInput.readFloat();
+            } else if (aType == Short.TYPE) {
+                result = (short) fInput.readInt();
+            } else if (aType == Byte.TYPE) {
+                result = (byte) fInput.readByte();
+            } else {
+                result = (char) fInput.readVarInt();
+            }
+            return result;
+        }
+
+        protected void readArray(Object aArray, Class<?> aComponentType, int aLength)
+                throws IOException, ClassNotFoundException {
+            if (aComponentType == Integer.TYPE) {
+                int[] values = (int[]) aArray;
+                for (int i = 0; i < aLength; i++) {
+                    values[i] = fInput.readInt();
+                }
+            } else if (aComponentType == Long.TYPE) {
+                long[] values = (long[]) aArray;
+                for (int i = 0; i < aLength; i++) {
+                    values[i] = fInput.readLong();
+                }
+            } else if (aComponentType == Double.TYPE) {
+                double[] values = (double[]) aArray;
+                for (int i = 0; i < aLength; i++) {
+                    values[i] = fInput.readDouble();
+                }
+            } else if (aComponentType.isPrimitive()) {
+                for (int i = 0; i < aLength; i++) {
+                    Array.set(aArray, i, readPrimitive(aComponentType));
+                }
+            } else {
+                Object[] values = (Object[]) aArray;
+                for (int i = 0; i < aLength; i++) {
+                    values[i] = readObject();
+                }
+            }
+        }
+
+        protected Object readSerialized()
+                throws IOException, ClassNotFoundException {
+            byte[] bytes = fInput.readBytes(fInput.readLength());
+            ClassLoader classLoader = fClassLoader == null ? ClassUtils.getDefaultClassLoader() : fClassLoader;
+            ObjectInputStream input = new ConfigurableObjectInputStream(new ByteArrayInputStream(bytes), classLoader);
+            Object result = null;
+            try {
+                result = input.readObject();
+            } finally {
+                input.close();
+            }
+            return result;
+        }
+    }
+}
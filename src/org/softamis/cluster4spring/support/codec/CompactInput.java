@@ -0,0 +1,165 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.codec;
+
+import java.io.EOFException;
+import java.io.StreamCorruptedException;
+
+/**
+ * Reader of data written by <code>CompactOutput</code>
+ *
+ * @version 1.0
+ * @see CompactOutput
+ */
+
+public class CompactInput {
+    protected final byte[] fData;
+    protected int fPosition;
+    protected final int fLimit;
+
+    public CompactInput(byte[] aData) {
+        this(aData, 0, aData.length);
+    }
+
+    public CompactInput(byte[] aData, int aOffset, int aLength) {
+        fData = aData;
+        fPosition = aOffset;
+        fLimit = aOffset + aLength;
+    }
+
+    protected void require(int aSize)
+            throws EOFException {
+        if (fPosition + aSize > fLimit) {
+            throw new EOFException("Unexpected end of encoded data");
+        }
+    }
+
+    public int readByte()
+            throws EOFException {
+        require(1);
+        return fData[fPosition++];
+    }
+
+    public byte[] readBytes(int aLength)
+            throws EOFException {
+        require(aLength);
+        byte[] result = new byte[aLength];
+        System.arraycopy(fData, fPosition, result, 0, aLength);
+        fPosition += aLength;
+        return result;
+    }
+
+    public int readVarInt()
+            throws EOFException, StreamCorruptedException {
+        int result = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 28) {
+                throw new StreamCorruptedException("Malformed variable length integer");
+            }
+            b = readByte();
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    /**
+     * Reads length of string, array or collection. Since every element takes at least one
+     * byte, length could not exceed amount of remaining bytes, so corrupted or malicious
+     * data does not cause huge allocations.
+     *
+     * @return length
+     * @throws EOFException if data is truncated
+     * @throws StreamCorruptedException if length is negative or exceeds remaining data
+     */
+    public int readLength()
+            throws EOFException, StreamCorruptedException {
+        int result = readVarInt();
+        if (result < 0 || result > fLimit - fPosition) {
+            throw new StreamCorruptedException("Invalid length: " + result);
+        }
+        return result;
+    }
+
+    public long readVarLong()
+            throws EOFException, StreamCorruptedException {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 63) {
+                throw new StreamCorruptedException("Malformed variable length long");
+            }
+            b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    public int readInt()
+            throws EOFException, StreamCorruptedException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public long readLong()
+            throws EOFException, StreamCorruptedException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public long readFixedLong()
+            throws EOFException {
+        require(8);
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (fData[fPosition++] & 0xFF);
+        }
+        return result;
+    }
+
+    public float readFloat()
+            throws EOFException {
+        require(4);
+        int bits = 0;
+        for (int i = 0; i < 4; i++) {
+            bits = (bits << 8) | (fData[fPosition++] & 0xFF);
+        }
+        return Float.intBitsToFloat(bits);
+    }
+
+    public double readDouble()
+            throws EOFException {
+        return Double.longBitsToDouble(readFixedLong());
+    }
+
+    public String readString()
+            throws EOFException, StreamCorruptedException {
+        int length = readLength();
+        String result = new String(fData, fPosition, length, CompactOutput.UTF8);
+        fPosition += length;
+        return result;
+    }
+
+    public boolean isEnd() {
+        return fPosition >= fLimit;
+    }
+}
@@ -0,0 +1,176 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.codec;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer used by <code>CompactCodec</code> to write primitive values.
+ * Integers are written as variable length values, so small numbers (which dominate
+ * in lengths, identifiers and typical DTOs) occupy one byte.
+ * <p/>
+ * Buffers are pooled per thread via {@link #obtain()}, so encoding does not allocate
+ * temporary buffers except of final array of exact size.
+ *
+ * @version 1.0
+ * @see CompactInput
+ */
+
+public class CompactOutput {
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Initial size of buffer
+     */
+    protected static final int INITIAL_SIZE = 512;
+
+    /**
+     * Buffers larger than this size are not kept in pool
+     */
+    protected static final int MAX_POOLED_SIZE = 1024 * 1024;
+
+    protected static final ThreadLocal<CompactOutput> fPool = new ThreadLocal<CompactOutput>();
+
+    protected byte[] fBuffer;
+    protected int fPosition = 0;
+
+    public CompactOutput() {
+        fBuffer = new byte[INITIAL_SIZE];
+    }
+
+    /**
+     * Obtains buffer of current thread. Buffer should be returned by <code>release()</code>.
+     *
+     * @return empty buffer
+     */
+    public static CompactOutput obtain() {
+        CompactOutput result = fPool.get();
+        if (result == null) {
+            result = new CompactOutput();
+        } else {
+            fPool.remove();
+        }
+        result.fPosition = 0;
+        return result;
+    }
+
+    /**
+     * Returns buffer to pool of current thread
+     */
+    public void release() {
+        if (fBuffer.length <= MAX_POOLED_SIZE) {
+            fPool.set(this);
+        }
+    }
+
+    protected void ensureCapacity(int aSize) {
+        int required = fPosition + aSize;
+        if (required > fBuffer.length) {
+            fBuffer = Arrays.copyOf(fBuffer, Math.max(required, fBuffer.length * 2));
+        }
+    }
+
+    public void writeByte(int aValue) {
+        ensureCapacity(1);
+        fBuffer[fPosition++] = (byte) aValue;
+    }
+
+    public void writeBytes(byte[] aValue, int aOffset, int aLength) {
+        ensureCapacity(aLength);
+        System.arraycopy(aValue, aOffset, fBuffer, fPosition, aLength);
+        fPosition += aLength;
+    }
+
+    /**
+     * Writes non-negative integer as variable length value
+     *
+     * @param aValue value to write
+     */
+    public void writeVarInt(int aValue) {
+        ensureCapacity(5);
+        int value = aValue;
+        while ((value & ~0x7F) != 0) {
+            fBuffer[fPosition++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        fBuffer[fPosition++] = (byte) value;
+    }
+
+    public void writeVarLong(long aValue) {
+        ensureCapacity(10);
+        long value = aValue;
+        while ((value & ~0x7FL) != 0) {
+            fBuffer[fPosition++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        fBuffer[fPosition++] = (byte) value;
+    }
+
+    /**
+     * Writes integer using zig-zag encoding, so small negative values are short too
+     *
+     * @param aValue value to write
+     */
+    public void writeInt(int aValue) {
+        writeVarInt((aValue << 1) ^ (aValue >> 31));
+    }
+
+    public void writeLong(long aValue) {
+        writeVarLong((aValue << 1) ^ (aValue >> 63));
+    }
+
+    public void writeFixedLong(long aValue) {
+        ensureCapacity(8);
+        for (int i = 56; i >= 0; i -= 8) {
+            fBuffer[fPosition++] = (byte) (aValue >>> i);
+        }
+    }
+
+    public void writeFloat(float aValue) {
+        int bits = Float.floatToIntBits(aValue);
+        ensureCapacity(4);
+        for (int i = 24; i >= 0; i -= 8) {
+            fBuffer[fPosition++] = (byte) (bits >>> i);
+        }
+    }
+
+    public void writeDouble(double aValue) {
+        writeFixedLong(Double.doubleToLongBits(aValue));
+    }
+
+    public void writeString(String aValue) {
+        byte[] bytes = aValue.getBytes(UTF8);
+        writeVarInt(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns copy of written data
+     *
+     * @return written bytes
+     */
+    public byte[] toByteArray() {
+        byte[] result = Arrays.copyOf(fBuffer, fPosition);
+        return result;
+    }
+
+    public int size() {
+        return fPosition;
+    }
+}
@@ -0,0 +1,399 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+/**
+ * Codec which compresses data produced by another codec using Deflater. Payloads smaller
+ * than threshold are not compressed, since for them compression costs more than it saves.
+ * Compression could also be switched on or off for particular methods.
+ * <p/>
+ * Every payload starts with a byte which indicates whether it is compressed, so decoding
+ * does not depend on settings of the codec and both sides may use different thresholds
+ * and policies. Name of codec is name of underlying codec with <code>+deflate</code>
+ * suffix; exporter supports compressing variants of built-in codecs by default.
+ * <p/>
+ * Results are encoded by server, which knows invoked method only if codec is called via
+ * {@link #encode(Object, String)}; otherwise only threshold is applied to them.
+ * <p/>
+ * Length of decompressed data is written before compressed data; it is not trusted by
+ * decoding, data is inflated into growing buffer and payloads which claim length larger than
+ * maximal payload size are rejected.
+ *
+ * @version 1.0
+ * @see CompressionStatistics
+ */
+
+public class CompressingCodec
+        implements InvocationCodec {
+    /**
+     * Suffix added to name of underlying codec
+     */
+    public static final String NAME_SUFFIX = "+deflate";
+
+    /**
+     * Marker of payload which is not compressed
+     */
+    protected static final byte PLAIN = 0;
+
+    /**
+     * Marker of compressed payload
+     */
+    protected static final byte DEFLATED = 1;
+
+    /**
+     * Deflaters reused by threads
+     */
+    protected static final ThreadLocal<Deflater> fDeflaters = new ThreadLocal<Deflater>();
+
+    /**
+     * Inflaters reused by threads
+     */
+    protected static final ThreadLocal<Inflater> fInflaters = new ThreadLocal<Inflater>();
+
+    /**
+     * Codec which produces data to compress
+     */
+    protected final InvocationCodec fCodec;
+
+    /**
+     * Minimal size of data (in bytes) which is compressed
+     */
+    protected int fThreshold = 1024;
+
+    /**
+     * Compression level used by Deflater
+     */
+    protected int fLevel = Deflater.BEST_SPEED;
+
+    /**
+     * Maximal size of decompressed data (in bytes)
+     */
+    protected int fMaxPayloadSize = 64 * 1024 * 1024;
+
+    /**
+     * Indicates whether data of methods not listed in <code>compressedMethods</code>
+     * and <code>uncompressedMethods</code> is compressed
+     */
+    protected boolean fCompressByDefault = true;
+
+    /**
+     * Names of methods which data is always considered for compression
+     */
+    protected Set<String> fCompressedMethods = new HashSet<String>();
+
+    /**
+     * Names of methods which data is never compressed
+     */
+    protected Set<String> fUncompressedMethods = new HashSet<String>();
+
+    /**
+     * Statistics of all payloads
+     */
+    protected final CompressionStatistics fStatistics = new CompressionStatistics();
+
+    /**
+     * Statistics per method name
+     */
+    protected final ConcurrentMap<String, CompressionStatistics> fMethodStatistics =
+            new ConcurrentHashMap<String, CompressionStatistics>();
+
+    /**
+     * Creates codec
+     *
+     * @param aCodec codec which produces data to compress
+     */
+    public CompressingCodec(InvocationCodec aCodec) {
+        fCodec = aCodec;
+    }
+
+    public String getName() {
+        return fCodec.getName() + NAME_SUFFIX;
+    }
+
+    public byte[] encode(Object aValue)
+            throws IOException {
+        String methodName = aValue instanceof RemoteInvocation ? ((RemoteInvocation) aValue).getMethodName() : null;
+        byte[] result = encode(aValue, methodName);
+        return result;
+    }
+
+    /**
+     * Encodes given value applying compression policy of given method
+     *
+     * @param aValue value to encode
+     * @param aMethodName name of invoked method or <code>null</code> if it is not known
+     * @return encoded value
+     * @throws IOException if value could not be encoded
+     */
+    public byte[] encode(Object aValue, String aMethodName)
+            throws IOException {
+        byte[] data = fCodec.encode(aValue);
+        CompressionStatistics methodStatistics = aMethodName == null ? null : obtainMethodStatistics(aMethodName);
+        byte[] result = null;
+        if (data.length >= fThreshold && isCompressed(aMethodName)) {
+            long startTime = System.nanoTime();
+            result = deflate(data);
+            long time = System.nanoTime() - startTime;
+            fStatistics.onCompressed(data.length, result.length, time);
+            if (methodStatistics != null) {
+                methodStatistics.onCompressed(data.length, result.length, time);
+            }
+        } else {
+            result = new byte[data.length + 1];
+            result[0] = PLAIN;
+            System.arraycopy(data, 0, result, 1, data.length);
+            fStatistics.onSkipped();
+            if (methodStatistics != null) {
+                methodStatistics.onSkipped();
+            }
+        }
+        return result;
+    }
+
+    public Object decode(byte[] aData)
+            throws IOException, ClassNotFoundException {
+        if (aData.length == 0) {
+            throw new IOException("Empty payload");
+        }
+        byte[] data = null;
+        if (aData[0] == DEFLATED) {
+            long startTime = System.nanoTime();
+            data = inflate(aData);
+            fStatistics.onDecompressed(System.nanoTime() - startTime);
+        } else if (aData[0] == PLAIN) {
+            data = Arrays.copyOfRange(aData, 1, aData.length);
+        } else {
+            throw new IOException("Unknown payload marker: " + aData[0]);
+        }
+        Object result = fCodec.decode(data);
+        return result;
+    }
+
+    /**
+     * Checks whether data of given method should be compressed
+     *
+     * @param aMethodName name of method or <code>null</code> if it is not known
+     * @return <code>true</code> if data should be compressed
+     */
+    protected boolean isCompressed(String aMethodName) {
+        boolean result = fCompressByDefault;
+        if (aMethodName != null) {
+            if (fUncompressedMethods.contains(aMethodName)) {
+                result = false;
+            } else if (fCompressedMethods.contains(aMethodName)) {
+                result = true;
+            }
+        }
+        return result;
+    }
+
+    protected byte[] deflate(byte[] aData) {
+        Deflater deflater = fDeflaters.get();
+        if (deflater == null) {
+            deflater = new Deflater(fLevel);
+            fDeflaters.set(deflater);
+        }
+        deflater.reset();
+        deflater.setLevel(fLevel);
+        deflater.setInput(aData);
+        deflater.finish();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(aData.length / 2 + 16);
+        output.write(DEFLATED);
+        output.write(aData.length >>> 24);
+        output.write(aData.length >>> 16);
+        output.write(aData.length >>> 8);
+        output.write(aData.length);
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            output.write(buffer, 0, count);
+        }
+        byte[] result = output.toByteArray();
+        return result;
+    }
+
+    protected byte[] inflate(byte[] aData)
+            throws IOException {
+        if (aData.length < 5) {
+            throw new IOException("Compressed payload is truncated");
+        }
+        int length = ((aData[1] & 0xFF) << 24) | ((aData[2] & 0xFF) << 16) | ((aData[3] & 0xFF) << 8) | (aData[4] & 0xFF);
+        if (length < 0 || length > fMaxPayloadSize) {
+            throw new IOException("Invalid length of compressed payload: " + length);
+        }
+        Inflater inflater = fInflaters.get();
+        if (inflater == null) {
+            inflater = new Inflater();
+            fInflaters.set(inflater);
+        }
+        inflater.reset();
+        inflater.setInput(aData, 5, aData.length - 5);
+
+        // length is not trusted, so buffer grows only as data is really inflated
+        byte[] result = new byte[Math.min(length, Math.max(4096, aData.length * 4))];
+        try {
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                if (offset == result.length) {
+                    result = Arrays.copyOf(result, (int) Math.min(length, result.length * 2L));
+                }
+                int count = inflater.inflate(result, offset, result.length - offset);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += count;
+            }
+            if (offset != length) {
+                throw new IOException("Compressed payload is truncated");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Compressed payload is corrupted", e);
+        }
+        return result;
+    }
+
+    protected CompressionStatistics obtainMethodStatistics(String aMethodName) {
+        CompressionStatistics result = fMethodStatistics.get(aMethodName);
+        if (result == null) {
+            CompressionStatistics statistics = new CompressionStatistics();
+            result = fMethodStatistics.putIfAbsent(aMethodName, statistics);
+            if (result == null) {
+                result = statistics;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns statistics of all payloads encoded and decoded by codec
+     *
+     * @return statistics
+     */
+    public CompressionStatistics getStatistics() {
+        return fStatistics;
+    }
+
+    /**
+     * Returns statistics of compression per method name
+     *
+     * @return statistics by method name
+     */
+    public Map<String, CompressionStatistics> getMethodStatistics() {
+        return fMethodStatistics;
+    }
+
+    public InvocationCodec getCodec() {
+        return fCodec;
+    }
+
+    public int getThreshold() {
+        return fThreshold;
+    }
+
+    /**
+     * Sets minimal size of data (in bytes) which is compressed
+     * <p/>
+     * Default is <code>1024</code>
+     *
+     * @param aThreshold size in bytes
+     */
+    public void setThreshold(int aThreshold) {
+        fThreshold = aThreshold;
+    }
+
+    public int getLevel() {
+        return fLevel;
+    }
+
+    /**
+     * Sets compression level (from <code>1</code> to <code>9</code>)
+     * <p/>
+     * Default is <code>1</code> (best speed)
+     *
+     * @param aLevel compression level
+     */
+    public void setLevel(int aLevel) {
+        fLevel = aLevel;
+    }
+
+    public int getMaxPayloadSize() {
+        return fMaxPayloadSize;
+    }
+
+    /**
+     * Sets maximal size (in bytes) of decompressed data. Compressed payloads which claim larger
+     * size are rejected.
+     * <p/>
+     * Default is <code>64</code> Mb
+     *
+     * @param aMaxPayloadSize size in bytes
+     */
+    public void setMaxPayloadSize(int aMaxPayloadSize) {
+        fMaxPayloadSize = aMaxPayloadSize;
+    }
+
+    public boolean isCompressByDefault() {
+        return fCompressByDefault;
+    }
+
+    /**
+     * Sets whether data of methods not listed in <code>compressedMethods</code> and
+     * <code>uncompressedMethods</code> is compressed. Could be set to <code>false</code>
+     * to compress only data of listed methods.
+     * <p/>
+     * Default is <code>true</code>
+     *
+     * @param aCompressByDefault <code>true</code> if data is compressed by default
+     */
+    public void setCompressByDefault(boolean aCompressByDefault) {
+        fCompressByDefault = aCompressByDefault;
+    }
+
+    /**
+     * Sets names of methods which data is compressed (if it is larger than threshold)
+     *
+     * @param aCompressedMethods names of methods
+     */
+    public void setCompressedMethods(String[] aCompressedMethods) {
+        fCompressedMethods = new HashSet<String>(Arrays.asList(aCompressedMethods));
+    }
+
+    /**
+     * Sets names of methods which data is never compressed
+     *
+     * @param aUncompressedMethods names of methods
+     */
+    public void setUncompressedMethods(String[] aUncompressedMethods) {
+        fUncompressedMethods = new HashSet<String>(Arrays.asList(aUncompressedMethods));
+    }
+}
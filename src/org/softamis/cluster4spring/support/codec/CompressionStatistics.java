@@ -0,0 +1,148 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.codec;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of compression performed by <code>CompressingCodec</code>, either for all
+ * payloads or for payloads of one method.
+ *
+ * @version 1.0
+ * @see CompressingCodec
+ */
+
+public class CompressionStatistics {
+    /**
+     * Amount of payloads compressed
+     */
+    protected final AtomicLong fCompressed = new AtomicLong();
+
+    /**
+     * Amount of payloads sent without compression (too small or switched off by policy)
+     */
+    protected final AtomicLong fSkipped = new AtomicLong();
+
+    /**
+     * Total size of compressed payloads before compression
+     */
+    protected final AtomicLong fBytesIn = new AtomicLong();
+
+    /**
+     * Total size of compressed payloads after compression
+     */
+    protected final AtomicLong fBytesOut = new AtomicLong();
+
+    /**
+     * Total time (in nanoseconds) spent on compression
+     */
+    protected final AtomicLong fCompressionTime = new AtomicLong();
+
+    /**
+     * Amount of payloads decompressed
+     */
+    protected final AtomicLong fDecompressed = new AtomicLong();
+
+    /**
+     * Total time (in nanoseconds) spent on decompression
+     */
+    protected final AtomicLong fDecompressionTime = new AtomicLong();
+
+    public CompressionStatistics() {
+    }
+
+    protected void onCompressed(int aBytesIn, int aBytesOut, long aTime) {
+        fCompressed.incrementAndGet();
+        fBytesIn.addAndGet(aBytesIn);
+        fBytesOut.addAndGet(aBytesOut);
+        fCompressionTime.addAndGet(aTime);
+    }
+
+    protected void onSkipped() {
+        fSkipped.incrementAndGet();
+    }
+
+    protected void onDecompressed(long aTime) {
+        fDecompressed.incrementAndGet();
+        fDecompressionTime.addAndGet(aTime);
+    }
+
+    public long getCompressed() {
+        return fCompressed.get();
+    }
+
+    public long getSkipped() {
+        return fSkipped.get();
+    }
+
+    public long getBytesIn() {
+        return fBytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return fBytesOut.get();
+    }
+
+    /**
+     * Returns ratio of size of compressed payloads after compression to their size before it
+     *
+     * @return compression ratio, <code>1</code> if nothing was compressed
+     */
+    public double getCompressionRatio() {
+        long bytesIn = fBytesIn.get();
+        double result = bytesIn == 0 ? 1 : (double) fBytesOut.get() / bytesIn;
+        return result;
+    }
+
+    /**
+     * Returns average time of compression of one payload
+     *
+     * @return time in nanoseconds
+     */
+    public long getAverageCompressionTime() {
+        long compressed = fCompressed.get();
+        long result = compressed == 0 ? 0 : fCompressionTime.get() / compressed;
+        return result;
+    }
+
+    public long getDecompressed() {
+        return fDecompressed.get();
+    }
+
+    /**
+     * Returns average time of decompression of one payload
+     *
+     * @return time in nanoseconds
+     */
+    public long getAverageDecompressionTime() {
+        long decompressed = fDecompressed.get();
+        long result = decompressed == 0 ? 0 : fDecompressionTime.get() / decompressed;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStatistics{" +
+                "compressed=" + fCompressed +
+                ", skipped=" + fSkipped +
+                ", ratio=" + getCompressionRatio() +
+                ", averageCompressionTime=" + getAverageCompressionTime() +
+                ", decompressed=" + fDecompressed +
+                '}';
+    }
+}
@@ -0,0 +1,56 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.codec;
+
+import java.io.Serializable;
+
+/**
+ * Result of <code>EncodedRemoteInvocation</code> - <code>RemoteInvocationResult</code>
+ * encoded by the same codec as invocation.
+ *
+ * @version 1.0
+ * @see EncodedRemoteInvocation
+ */
+
+public class EncodedInvocationResult
+        implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Name of codec used to encode result
+     */
+    protected String fCodecName = null;
+
+    /**
+     * Encoded result
+     */
+    protected byte[] fPayload = null;
+
+    public EncodedInvocationResult(String aCodecName, byte[] aPayload) {
+        fCodecName = aCodecName;
+        fPayload = aPayload;
+    }
+
+    public String getCodecName() {
+        return fCodecName;
+    }
+
+    public byte[] getPayload() {
+        return fPayload;
+    }
+}
@@ -0,0 +1,65 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.codec;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+/**
+ * Remote invocation which carries another invocation encoded by <code>InvocationCodec</code>.
+ * Server decodes invocation using codec with the same name and returns result as
+ * <code>EncodedInvocationResult</code>.
+ *
+ * @version 1.0
+ * @see InvocationCodec
+ */
+
+public class EncodedRemoteInvocation
+        extends RemoteInvocation {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Method name used to recognize encoded invocations
+     */
+    public static final String METHOD_NAME = "__cluster4springEncoded";
+
+    /**
+     * Name of codec used to encode invocation
+     */
+    protected String fCodecName = null;
+
+    /**
+     * Encoded invocation
+     */
+    protected byte[] fPayload = null;
+
+    public EncodedRemoteInvocation(String aCodecName, byte[] aPayload) {
+        fCodecName = aCodecName;
+        fPayload = aPayload;
+        setMethodName(METHOD_NAME);
+        setParameterTypes(new Class[0]);
+        setArguments(new Object[0]);
+    }
+
+    public String getCodecName() {
+        return fCodecName;
+    }
+
+    public byte[] getPayload() {
+        return fPayload;
+    }
+}
@@ -0,0 +1,63 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.codec;
+
+import java.io.IOException;
+
+/**
+ * Codec used to encode remote invocations and their results into bytes and to decode
+ * them on the other side. Codec is used by RMI invoker instead of default Java
+ * serialization if it is configured for endpoints of the service.
+ * <p/>
+ * Codec should be thread safe. Server should know codec used by client - codecs are
+ * identified by name.
+ *
+ * @version 1.0
+ * @see org.softamis.cluster4spring.rmi.support.RmiEndpointFactory#setCodec(InvocationCodec)
+ * @see org.softamis.cluster4spring.rmi.AbstractRmiServiceExporter#setCodecs(java.util.List)
+ */
+
+public interface InvocationCodec {
+    /**
+     * Returns name which identifies codec
+     *
+     * @return name of codec
+     */
+    public String getName();
+
+    /**
+     * Encodes given value (usually <code>RemoteInvocation</code> or <code>RemoteInvocationResult</code>)
+     *
+     * @param aValue value to encode
+     * @return encoded value
+     * @throws IOException if value could not be encoded
+     */
+    public byte[] encode(Object aValue)
+            throws IOException;
+
+    /**
+     * Decodes value encoded by <code>encode()</code>
+     *
+     * @param aData encoded value
+     * @return decoded value
+     * @throws IOException if data is corrupted
+     * @throws ClassNotFoundException if class of encoded value could not be found
+     */
+    public Object decode(byte[] aData)
+            throws IOException, ClassNotFoundException;
+}
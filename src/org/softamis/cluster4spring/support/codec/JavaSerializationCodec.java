@@ -0,0 +1,69 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Codec which uses standard Java serialization. Produces the same data as RMI itself,
+ * so it is mostly useful as fallback and as baseline for comparison with other codecs.
+ *
+ * @version 1.0
+ */
+
+public class JavaSerializationCodec
+        implements InvocationCodec {
+    public static final String NAME = "java";
+
+    public JavaSerializationCodec() {
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public byte[] encode(Object aValue)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(aValue);
+        output.close();
+        byte[] result = bytes.toByteArray();
+        return result;
+    }
+
+    public Object decode(byte[] aData)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream input = new ConfigurableObjectInputStream(new ByteArrayInputStream(aData),
+                ClassUtils.getDefaultClassLoader());
+        Object result = null;
+        try {
+            result = input.readObject();
+        } finally {
+            input.close();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,185 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.compact;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+/**
+ * Client side of session of compact invocations negotiated with one endpoint. Contains
+ * indexes of methods in table of server and client part of string dictionary.
+ * <p/>
+ * Only names of attributes are put into dictionary, since they are repeated by every
+ * invocation; values of attributes are often unique per invocation and would fill the
+ * dictionary, so they are sent as literals.
+ *
+ * @version 1.0
+ * @see CompactRemoteInvocation
+ */
+
+public class ClientInvocationSession {
+    /**
+     * Maximal amount of strings in dictionary
+     */
+    protected static final int MAX_DICTIONARY_SIZE = 1024;
+
+    /**
+     * Maximal length of string which is put into dictionary
+     */
+    protected static final int MAX_STRING_LENGTH = 256;
+
+    /**
+     * Identifier of session
+     */
+    protected final long fSessionId;
+
+    /**
+     * Indexes of methods in method table of server by signatures
+     */
+    protected final Map<String, Integer> fSignatureIndexes;
+
+    /**
+     * Indexes of methods in method table of server, <code>-1</code> if method is not known to server
+     */
+    protected final ConcurrentMap<Method, Integer> fMethodIndexes = new ConcurrentHashMap<Method, Integer>();
+
+    /**
+     * Identifiers of strings which server is known to have
+     */
+    protected final ConcurrentMap<String, Integer> fConfirmed = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Identifiers assigned to strings
+     */
+    protected final ConcurrentMap<String, Integer> fAssigned = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Last identifier assigned
+     */
+    protected final AtomicInteger fLastId = new AtomicInteger();
+
+    /**
+     * Creates session
+     *
+     * @param aSession session negotiated with server
+     */
+    public ClientInvocationSession(NegotiatedSession aSession) {
+        fSessionId = aSession.getSessionId();
+        String[] signatures = aSession.getSignatures();
+        fSignatureIndexes = new HashMap<String, Integer>(signatures.length * 2);
+        for (int i = 0; i < signatures.length; i++) {
+            fSignatureIndexes.put(signatures[i], i);
+        }
+    }
+
+    /**
+     * Converts invocation to compact form. Only plain <code>RemoteInvocation</code> is converted:
+     * subclasses could carry additional fields or override <code>invoke()</code> (for example,
+     * to propagate security context), which compact form would lose.
+     *
+     * @param aMethod invoked method
+     * @param aInvocation invocation
+     * @return compact invocation or <code>null</code> if method is not known to server or
+     *         invocation is not plain <code>RemoteInvocation</code>
+     */
+    public CompactRemoteInvocation compact(Method aMethod, RemoteInvocation aInvocation) {
+        CompactRemoteInvocation result = null;
+        int methodIndex = aInvocation.getClass() == RemoteInvocation.class ? getMethodIndex(aMethod) : -1;
+        if (methodIndex >= 0) {
+            Map<String, Serializable> attributes = aInvocation.getAttributes();
+            int size = attributes == null ? 0 : attributes.size() * 2;
+            int[] codes = new int[size];
+            Object[] values = new Object[size];
+            if (attributes != null) {
+                int i = 0;
+                for (Map.Entry<String, Serializable> entry : attributes.entrySet()) {
+                    encode(entry.getKey(), i++, codes, values);
+                    codes[i] = CompactRemoteInvocation.CODE_LITERAL;
+                    values[i++] = entry.getValue();
+                }
+            }
+            result = new CompactRemoteInvocation(fSessionId, methodIndex, aInvocation.getArguments(), codes, values);
+            // name is not sent to server, but allows codecs to apply policy of the method
+            result.setMethodName(aMethod.getName());
+        }
+        return result;
+    }
+
+    protected int getMethodIndex(Method aMethod) {
+        Integer result = fMethodIndexes.get(aMethod);
+        if (result == null) {
+            result = fSignatureIndexes.get(MethodTable.getSignature(aMethod));
+            if (result == null) {
+                result = -1;
+            }
+            fMethodIndexes.put(aMethod, result);
+        }
+        return result;
+    }
+
+    protected void encode(Object aValue, int aIndex, int[] aCodes, Object[] aValues) {
+        int code = CompactRemoteInvocation.CODE_LITERAL;
+        if (aValue instanceof String && ((String) aValue).length() <= MAX_STRING_LENGTH) {
+            Integer confirmed = fConfirmed.get(aValue);
+            if (confirmed != null) {
+                code = confirmed;
+            } else {
+                Integer assigned = fAssigned.get(aValue);
+                if (assigned == null && fLastId.get() < MAX_DICTIONARY_SIZE) {
+                    Integer id = fLastId.incrementAndGet();
+                    assigned = fAssigned.putIfAbsent((String) aValue, id);
+                    if (assigned == null) {
+                        assigned = id;
+                    }
+                }
+                if (assigned != null) {
+                    code = -assigned;
+                }
+            }
+        }
+        aCodes[aIndex] = code;
+        aValues[aIndex] = code > 0 ? null : aValue;
+    }
+
+    /**
+     * Called when compact invocation is received by server, so strings defined in it
+     * could be referred by identifiers
+     *
+     * @param aInvocation completed invocation
+     */
+    public void confirm(CompactRemoteInvocation aInvocation) {
+        int[] codes = aInvocation.getAttributeCodes();
+        Object[] values = aInvocation.getAttributeValues();
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] < 0) {
+                fConfirmed.put((String) values[i], -codes[i]);
+            }
+        }
+    }
+
+    public long getSessionId() {
+        return fSessionId;
+    }
+}
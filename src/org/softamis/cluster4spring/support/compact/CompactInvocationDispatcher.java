@@ -0,0 +1,138 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.compact;
+
+import java.lang.reflect.Method;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+/**
+ * Server side of compact invocations. Negotiates sessions with clients and restores
+ * compact invocations using method table of service interface, so method is not looked
+ * up by name and parameter types on every invocation.
+ *
+ * @version 1.0
+ * @see CompactRemoteInvocation
+ * @see org.softamis.cluster4spring.rmi.AbstractRmiServiceExporter
+ */
+
+public class CompactInvocationDispatcher {
+    protected static final Log fLog = LogFactory.getLog(CompactInvocationDispatcher.class);
+
+    /**
+     * Table of methods of service interface
+     */
+    protected final MethodTable fMethodTable;
+
+    /**
+     * Time (in milliseconds) after which unused session is removed
+     */
+    protected final long fSessionTimeout;
+
+    /**
+     * Sessions by identifiers
+     */
+    protected final ConcurrentMap<Long, ServerInvocationSession> fSessions =
+            new ConcurrentHashMap<Long, ServerInvocationSession>();
+
+    /**
+     * Last identifier of session. Initial value is random, so identifiers of sessions
+     * negotiated before restart of server are not reused.
+     */
+    protected final AtomicLong fLastSessionId = new AtomicLong(new SecureRandom().nextLong());
+
+    /**
+     * Creates dispatcher
+     *
+     * @param aServiceInterface service interface
+     * @param aSessionTimeout time (in milliseconds) after which unused session is removed
+     */
+    public CompactInvocationDispatcher(Class<?> aServiceInterface, long aSessionTimeout) {
+        fMethodTable = new MethodTable(aServiceInterface);
+        fSessionTimeout = aSessionTimeout;
+    }
+
+    /**
+     * Creates new session for client
+     *
+     * @return negotiated session
+     */
+    public NegotiatedSession negotiate() {
+        removeExpiredSessions();
+        long sessionId = fLastSessionId.incrementAndGet();
+        fSessions.put(sessionId, new ServerInvocationSession(sessionId));
+        NegotiatedSession result = new NegotiatedSession(sessionId, fMethodTable.getSignatures());
+        if (fLog.isDebugEnabled()) {
+            fLog.debug(format("Compact invocation session negotiated. Session: [{0}], Methods: [{1}]",
+                    sessionId, result.getSignatures().length));
+        }
+        return result;
+    }
+
+    /**
+     * Restores invocation from compact form
+     *
+     * @param aInvocation compact invocation
+     * @return restored invocation
+     * @throws UnknownSessionException if session of invocation is not known, so client should negotiate it again
+     */
+    public RemoteInvocation resolve(CompactRemoteInvocation aInvocation)
+            throws UnknownSessionException {
+        ServerInvocationSession session = fSessions.get(aInvocation.getSessionId());
+        if (session == null) {
+            throw new UnknownSessionException("Unknown compact invocation session: " + aInvocation.getSessionId());
+        }
+        Method method = fMethodTable.getMethod(aInvocation.getMethodIndex());
+        if (method == null) {
+            throw new UnknownSessionException("Unknown method index: " + aInvocation.getMethodIndex());
+        }
+        RemoteInvocation result = new ResolvedRemoteInvocation(method, aInvocation.getArguments(),
+                session.decodeAttributes(aInvocation));
+        return result;
+    }
+
+    protected void removeExpiredSessions() {
+        long expirationTime = System.currentTimeMillis() - fSessionTimeout;
+        Iterator<ServerInvocationSession> iterator = fSessions.values().iterator();
+        while (iterator.hasNext()) {
+            ServerInvocationSession session = iterator.next();
+            if (session.getLastAccessTime() < expirationTime) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns amount of active sessions
+     *
+     * @return amount of sessions
+     */
+    public int getSessionCount() {
+        return fSessions.size();
+    }
+}
@@ -0,0 +1,141 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.compact;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+/**
+ * Compact form of remote invocation. Instead of method name and parameter types it
+ * carries index of method in the table negotiated for session, and names of
+ * attributes are replaced by identifiers from dictionary of the session. So for small
+ * methods invocation contains little more than its arguments.
+ * <p/>
+ * String is sent as definition (identifier and value) until client knows that server
+ * received it, after that only identifier is sent. Since definition is repeated in every
+ * invocation until first of them is completed, concurrent invocations sent via different
+ * connections never refer to string unknown to server.
+ * <p/>
+ * On client, invocation also contains name of method (for codecs which apply per-method
+ * policies), but it is not sent to server.
+ *
+ * @version 1.0
+ * @see ClientInvocationSession
+ * @see ServerInvocationSession
+ */
+
+public class CompactRemoteInvocation
+        extends RemoteInvocation
+        implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Code of value which is not replaced by dictionary identifier
+     */
+    protected static final int CODE_LITERAL = 0;
+
+    /**
+     * Identifier of session
+     */
+    protected transient long fSessionId;
+
+    /**
+     * Index of method in method table
+     */
+    protected transient int fMethodIndex;
+
+    /**
+     * Codes of attribute keys and values: positive code is identifier of string in dictionary,
+     * negative code is definition of string with identifier <code>-code</code>, zero is literal value
+     */
+    protected transient int[] fAttributeCodes = new int[0];
+
+    /**
+     * Attribute keys and values: string for definition, value for literal and <code>null</code> for identifier
+     */
+    protected transient Object[] fAttributeValues = new Object[0];
+
+    public CompactRemoteInvocation() {
+    }
+
+    public CompactRemoteInvocation(long aSessionId, int aMethodIndex, Object[] aArguments, int[] aAttributeCodes,
+                                   Object[] aAttributeValues) {
+        fSessionId = aSessionId;
+        fMethodIndex = aMethodIndex;
+        fAttributeCodes = aAttributeCodes;
+        fAttributeValues = aAttributeValues;
+        setArguments(aArguments);
+    }
+
+    public long getSessionId() {
+        return fSessionId;
+    }
+
+    public int getMethodIndex() {
+        return fMethodIndex;
+    }
+
+    public int[] getAttributeCodes() {
+        return fAttributeCodes;
+    }
+
+    public Object[] getAttributeValues() {
+        return fAttributeValues;
+    }
+
+    public void writeExternal(ObjectOutput aOutput)
+            throws IOException {
+        aOutput.writeLong(fSessionId);
+        aOutput.writeInt(fMethodIndex);
+        aOutput.writeObject(getArguments());
+        aOutput.writeInt(fAttributeCodes.length);
+        for (int i = 0; i < fAttributeCodes.length; i++) {
+            int code = fAttributeCodes[i];
+            aOutput.writeInt(code);
+            if (code < 0) {
+                aOutput.writeUTF((String) fAttributeValues[i]);
+            } else if (code == CODE_LITERAL) {
+                aOutput.writeObject(fAttributeValues[i]);
+            }
+        }
+    }
+
+    public void readExternal(ObjectInput aInput)
+            throws IOException, ClassNotFoundException {
+        fSessionId = aInput.readLong();
+        fMethodIndex = aInput.readInt();
+        setArguments((Object[]) aInput.readObject());
+        int length = aInput.readInt();
+        fAttributeCodes = new int[length];
+        fAttributeValues = new Serializable[length];
+        for (int i = 0; i < length; i++) {
+            int code = aInput.readInt();
+            fAttributeCodes[i] = code;
+            if (code < 0) {
+                fAttributeValues[i] = aInput.readUTF();
+            } else if (code == CODE_LITERAL) {
+                fAttributeValues[i] = aInput.readObject();
+            }
+        }
+    }
+}
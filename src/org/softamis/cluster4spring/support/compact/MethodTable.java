@@ -0,0 +1,96 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.compact;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Table of methods of service interface. Methods are ordered by signature, so index of
+ * method in the table could be used instead of its name and parameter types.
+ *
+ * @version 1.0
+ * @see NegotiationRemoteInvocation
+ */
+
+public class MethodTable {
+    /**
+     * Methods ordered by signature
+     */
+    protected final Method[] fMethods;
+
+    /**
+     * Signatures of methods, in the same order
+     */
+    protected final String[] fSignatures;
+
+    /**
+     * Creates table of methods of given interface
+     *
+     * @param aServiceInterface service interface
+     */
+    public MethodTable(Class<?> aServiceInterface) {
+        Method[] methods = aServiceInterface.getMethods();
+        Arrays.sort(methods, new Comparator<Method>() {
+            public int compare(Method aMethod1, Method aMethod2) {
+                return getSignature(aMethod1).compareTo(getSignature(aMethod2));
+            }
+        });
+        fMethods = methods;
+        fSignatures = new String[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            fSignatures[i] = getSignature(methods[i]);
+        }
+    }
+
+    /**
+     * Returns signature of method which consists of method name and names of parameter types
+     *
+     * @param aMethod method
+     * @return signature
+     */
+    public static String getSignature(Method aMethod) {
+        StringBuilder result = new StringBuilder(64);
+        result.append(aMethod.getName()).append('(');
+        Class<?>[] parameterTypes = aMethod.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(parameterTypes[i].getName());
+        }
+        result.append(')');
+        return result.toString();
+    }
+
+    /**
+     * Returns method by its index
+     *
+     * @param aIndex index of method
+     * @return method or <code>null</code> if index is out of the table
+     */
+    public Method getMethod(int aIndex) {
+        Method result = aIndex >= 0 && aIndex < fMethods.length ? fMethods[aIndex] : null;
+        return result;
+    }
+
+    public String[] getSignatures() {
+        return fSignatures.clone();
+    }
+}
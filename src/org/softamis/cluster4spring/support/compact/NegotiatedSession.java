@@ -0,0 +1,55 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.compact;
+
+import java.io.Serializable;
+
+/**
+ * Answer of server to <code>NegotiationRemoteInvocation</code>
+ *
+ * @version 1.0
+ * @see NegotiationRemoteInvocation
+ */
+
+public class NegotiatedSession
+        implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Identifier of session
+     */
+    protected final long fSessionId;
+
+    /**
+     * Signatures of methods in the order of method table of server
+     */
+    protected final String[] fSignatures;
+
+    public NegotiatedSession(long aSessionId, String[] aSignatures) {
+        fSessionId = aSessionId;
+        fSignatures = aSignatures;
+    }
+
+    public long getSessionId() {
+        return fSessionId;
+    }
+
+    public String[] getSignatures() {
+        return fSignatures;
+    }
+}
@@ -0,0 +1,46 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.compact;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+/**
+ * Invocation sent by client once per endpoint to establish session for compact invocations.
+ * Server answers by <code>NegotiatedSession</code> which contains identifier of session and
+ * table of methods of the service.
+ *
+ * @version 1.0
+ * @see CompactRemoteInvocation
+ */
+
+public class NegotiationRemoteInvocation
+        extends RemoteInvocation {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Method name used to recognize negotiation (if server does not support compact
+     * invocations, it fails with <code>NoSuchMethodException</code>)
+     */
+    public static final String METHOD_NAME = "__cluster4springNegotiate";
+
+    public NegotiationRemoteInvocation() {
+        setMethodName(METHOD_NAME);
+        setParameterTypes(new Class[0]);
+        setArguments(new Object[0]);
+    }
+}
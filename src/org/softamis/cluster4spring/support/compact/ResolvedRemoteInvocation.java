@@ -0,0 +1,60 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.compact;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import org.springframework.remoting.support.RemoteInvocation;
+
+/**
+ * Invocation restored on server from compact invocation. Method is already resolved via
+ * method table, so it is invoked directly without lookup by name and parameter types.
+ *
+ * @version 1.0
+ * @see CompactRemoteInvocation
+ */
+
+public class ResolvedRemoteInvocation
+        extends RemoteInvocation {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Resolved method
+     */
+    protected final transient Method fMethod;
+
+    public ResolvedRemoteInvocation(Method aMethod, Object[] aArguments, Map<String, Serializable> aAttributes) {
+        fMethod = aMethod;
+        setMethodName(aMethod.getName());
+        setParameterTypes(aMethod.getParameterTypes());
+        setArguments(aArguments);
+        if (aAttributes != null) {
+            setAttributes(aAttributes);
+        }
+    }
+
+    @Override
+    public Object invoke(Object aTargetObject)
+            throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Object result = fMethod.invoke(aTargetObject, getArguments());
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.compact;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Server side of session of compact invocations - server part of string dictionary.
+ *
+ * @version 1.0
+ * @see CompactRemoteInvocation
+ */
+
+public class ServerInvocationSession {
+    /**
+     * Identifier of session
+     */
+    protected final long fSessionId;
+
+    /**
+     * Strings by identifiers
+     */
+    protected final ConcurrentMap<Integer, String> fStrings = new ConcurrentHashMap<Integer, String>();
+
+    /**
+     * Time (in milliseconds) session was used last time
+     */
+    protected volatile long fLastAccessTime = System.currentTimeMillis();
+
+    public ServerInvocationSession(long aSessionId) {
+        fSessionId = aSessionId;
+    }
+
+    /**
+     * Restores attributes of compact invocation, remembering strings defined in it
+     *
+     * @param aInvocation compact invocation
+     * @return attributes or <code>null</code> if invocation has no attributes
+     * @throws UnknownSessionException if invocation refers string unknown to session
+     */
+    public Map<String, Serializable> decodeAttributes(CompactRemoteInvocation aInvocation)
+            throws UnknownSessionException {
+        fLastAccessTime = System.currentTimeMillis();
+        int[] codes = aInvocation.getAttributeCodes();
+        Object[] values = aInvocation.getAttributeValues();
+        Map<String, Serializable> result = null;
+        if (codes.length > 0) {
+            result = new HashMap<String, Serializable>(codes.length);
+            for (int i = 0; i + 1 < codes.length; i += 2) {
+                String key = (String) decode(codes[i], values[i]);
+                result.put(key, (Serializable) decode(codes[i + 1], values[i + 1]));
+            }
+        }
+        return result;
+    }
+
+    protected Object decode(int aCode, Object aValue)
+            throws UnknownSessionException {
+        Object result = aValue;
+        if (aCode < 0) {
+            fStrings.put(-aCode, (String) aValue);
+        } else if (aCode > 0) {
+            result = fStrings.get(aCode);
+            if (result == null) {
+                throw new UnknownSessionException("Unknown string identifier: " + aCode);
+            }
+        }
+        return result;
+    }
+
+    public long getSessionId() {
+        return fSessionId;
+    }
+
+    public long getLastAccessTime() {
+        return fLastAccessTime;
+    }
+}
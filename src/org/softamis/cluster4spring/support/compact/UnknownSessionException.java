@@ -0,0 +1,52 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.compact;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown by server if it does not know session of compact invocation (for example, since
+ * server was restarted or session expired). Client should negotiate session again.
+ *
+ * @version 1.0
+ */
+
+public class UnknownSessionException
+        extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    public UnknownSessionException(String aMessage) {
+        super(aMessage);
+    }
+
+    /**
+     * Checks whether given exception (or its cause) indicates unknown session
+     *
+     * @param aException exception to check
+     * @return <code>true</code> if session should be negotiated again
+     */
+    public static boolean isUnknownSession(Throwable aException) {
+        boolean result = false;
+        Throwable exception = aException;
+        while (!result && exception != null) {
+            result = exception instanceof UnknownSessionException;
+            exception = exception.getCause();
+        }
+        return result;
+    }
+}
@@ -226,7 +226,7 @@ public abstract class AbstractDiscoveringEndpointProvider<E extends Endpoint<SI>
         List<SI> invalidURLs = new ArrayList<SI>(size); // here we collect URL's
         // for which creation of
         // endpoint is failed
-        for (SI serviceURL : serviceURLs) {
+        for (SI serviceURL : selectServerAddresses(serviceURLs)) {
             E endpoint = doCreateServiceEndpoint(aRemoteInvocationFactory,
                     aEndpointFactory, aBeanName, serviceURL);
             if (endpoint != null) {
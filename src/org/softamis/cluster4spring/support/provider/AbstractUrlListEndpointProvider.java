@@ -19,7 +19,9 @@ package org.softamis.cluster4spring.support.provider;
 
 import static java.text.MessageFormat.format;
 
+import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -35,6 +37,12 @@ import org.softamis.cluster4spring.support.ServiceMoniker;
  * Base abstract class to implement endpoint providers which provide endpoints based on
  * list of endpoints available for service and which maintains internal cache of
  * discovered endpoints.
+ * <p/>
+ * If server is available via several addresses (for example, multihome server publishes
+ * URL for every network interface), provider may race connections to all addresses of the
+ * server and create endpoint only for the address which responded first, so unreachable
+ * address does not cost full connect timeout. Addresses of the same server are recognized
+ * by server ID of <code>ServiceMoniker</code>.
  *
  * @param <SI> type of data used to invoke remote service (such as remote service URL)
  * @param <E>  type of endpoints that could be created by this factory
@@ -55,6 +63,26 @@ public abstract class AbstractUrlListEndpointProvider<E extends Endpoint<SI>, SI
      */
     protected final Object fCacheLock = new Object();
 
+    /**
+     * Indicates whether connections to addresses of the same server should be raced
+     */
+    protected boolean fRaceServerAddresses = false;
+
+    /**
+     * Delay (in milliseconds) before starting connection to the next address of server
+     */
+    protected long fAddressRaceStagger = 250;
+
+    /**
+     * Maximal duration (in milliseconds) of the race
+     */
+    protected long fAddressRaceTimeout = 5000;
+
+    /**
+     * URLs which won the last race, per server ID
+     */
+    protected final Map<Long, String> fPreferredServerUrls = new ConcurrentHashMap<Long, String>();
+
 
     protected AbstractUrlListEndpointProvider() {
         super();
@@ -185,6 +213,163 @@ public abstract class AbstractUrlListEndpointProvider<E extends Endpoint<SI>, SI
         }
     }
 
+    /**
+     * Selects service infos for which endpoints should be created. If addresses of servers
+     * should be raced, only the winning service info of every server is selected (if none of
+     * addresses of server is reachable, all its service infos are selected, so failures
+     * are handled as usual). Otherwise all service infos are selected.
+     *
+     * @param aServiceInfos discovered service infos
+     * @return service infos for which endpoints should be created
+     * @see #setRaceServerAddresses(boolean)
+     */
+    protected List<SI> selectServerAddresses(Collection<SI> aServiceInfos) {
+        List<SI> result = new ArrayList<SI>(aServiceInfos.size());
+        if (fRaceServerAddresses) {
+            Map<Long, List<SI>> servers = groupByServer(aServiceInfos, result);
+            ServerAddressRacer racer = new ServerAddressRacer(fAddressRaceStagger, fAddressRaceTimeout);
+            for (Map.Entry<Long, List<SI>> server : servers.entrySet()) {
+                List<SI> serviceInfos = server.getValue();
+                SI winner = serviceInfos.size() == 1 ? serviceInfos.get(0) : raceServerAddresses(racer, server.getKey(), serviceInfos);
+                if (winner == null) {
+                    result.addAll(serviceInfos);
+                } else {
+                    result.add(winner);
+                }
+            }
+        } else {
+            result.addAll(aServiceInfos);
+        }
+        return result;
+    }
+
+    /**
+     * Groups service infos by server ID. Service infos without server ID or with URL without
+     * address are not grouped.
+     *
+     * @param aServiceInfos service infos
+     * @param aUngrouped list where service infos which could not be grouped are added
+     * @return service infos per server ID
+     */
+    protected Map<Long, List<SI>> groupByServer(Collection<SI> aServiceInfos, List<SI> aUngrouped) {
+        Map<Long, List<SI>> result = new LinkedHashMap<Long, List<SI>>();
+        for (SI serviceInfo : aServiceInfos) {
+            long serverID = serviceInfo.getServerID();
+            if (isServerIdentified(serverID) && ServerAddressRacer.parseAddress(serviceInfo.getServiceURL()) != null) {
+                List<SI> serviceInfos = result.get(serverID);
+                if (serviceInfos == null) {
+                    serviceInfos = new ArrayList<SI>(2);
+                    result.put(serverID, serviceInfos);
+                }
+                serviceInfos.add(serviceInfo);
+            } else {
+                aUngrouped.add(serviceInfo);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether server ID is set explicitly, since servers without explicit ID share default one
+     *
+     * @param aServerID server ID
+     * @return <code>true</code> if server ID identifies server
+     */
+    protected boolean isServerIdentified(long aServerID) {
+        return ServiceMoniker.isServerIdentified(aServerID);
+    }
+
+    /**
+     * Races connections to addresses of server. Address which won previous race is tried first.
+     *
+     * @param aRacer racer
+     * @param aServerID ID of server
+     * @param aServiceInfos service infos of server
+     * @return service info which won the race or <code>null</code> if no address is reachable
+     */
+    protected SI raceServerAddresses(ServerAddressRacer aRacer, Long aServerID, List<SI> aServiceInfos) {
+        List<SI> candidates = new ArrayList<SI>(aServiceInfos);
+        String preferredUrl = fPreferredServerUrls.get(aServerID);
+        for (int i = 1; preferredUrl != null && i < candidates.size(); i++) {
+            if (preferredUrl.equals(candidates.get(i).getServiceURL())) {
+                candidates.add(0, candidates.remove(i));
+            }
+        }
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>(candidates.size());
+        for (SI candidate : candidates) {
+            addresses.add(ServerAddressRacer.parseAddress(candidate.getServiceURL()));
+        }
+        int winner = aRacer.race(addresses);
+        SI result = null;
+        if (winner >= 0) {
+            result = candidates.get(winner);
+            fPreferredServerUrls.put(aServerID, result.getServiceURL());
+        }
+        return result;
+    }
+
+    /**
+     * Returns amount of endpoints expected for given service infos
+     *
+     * @param aServiceInfos service infos
+     * @return amount of service infos or, if addresses of servers are raced, amount of servers
+     */
+    protected int countExpectedEndpoints(Collection<SI> aServiceInfos) {
+        int result = aServiceInfos.size();
+        if (fRaceServerAddresses) {
+            List<SI> ungrouped = new ArrayList<SI>();
+            result = groupByServer(aServiceInfos, ungrouped).size() + ungrouped.size();
+        }
+        return result;
+    }
+
+    public boolean isRaceServerAddresses() {
+        return fRaceServerAddresses;
+    }
+
+    /**
+     * Sets whether connections to addresses of the same server should be raced, so endpoint
+     * is created only for address which responds first
+     * <p/>
+     * Default is <code>false</code>
+     *
+     * @param aRaceServerAddresses <code>true</code> if addresses should be raced
+     * @see ServerAddressRacer
+     */
+    public void setRaceServerAddresses(boolean aRaceServerAddresses) {
+        fRaceServerAddresses = aRaceServerAddresses;
+    }
+
+    public long getAddressRaceStagger() {
+        return fAddressRaceStagger;
+    }
+
+    /**
+     * Sets delay (in milliseconds) before starting connection to the next address of server
+     * <p/>
+     * Default is <code>250</code>
+     *
+     * @param aAddressRaceStagger delay in milliseconds
+     */
+    public void setAddressRaceStagger(long aAddressRaceStagger) {
+        fAddressRaceStagger = aAddressRaceStagger;
+    }
+
+    public long getAddressRaceTimeout() {
+        return fAddressRaceTimeout;
+    }
+
+    /**
+     * Sets maximal duration (in milliseconds) of the race
+     * <p/>
+     * Default is <code>5000</code>
+     *
+     * @param aAddressRaceTimeout timeout in milliseconds
+     */
+    public void setAddressRaceTimeout(long aAddressRaceTimeout) {
+        fAddressRaceTimeout = aAddressRaceTimeout;
+    }
+
     /**
      * Creates list of endpoints available for service. Inherited classes will override it to
      * provide specific implementation.
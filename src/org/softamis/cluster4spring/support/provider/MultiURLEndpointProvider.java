@@ -29,6 +29,7 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.remoting.RemoteAccessException;
 import org.springframework.remoting.support.RemoteInvocationFactory;
 
+import org.softamis.cluster4spring.support.AdaptiveConcurrencyLimit;
 import org.softamis.cluster4spring.support.Endpoint;
 import org.softamis.cluster4spring.support.EndpointFactory;
 import org.softamis.cluster4spring.support.EndpointSelectionPolicy;
@@ -57,6 +58,12 @@ public abstract class MultiURLEndpointProvider<E extends Endpoint<SI>, SI extend
      */
     protected EndpointSelectionPolicy<E, SI> fEndpointSelectionPolicy = null;
 
+    /**
+     * Indicates whether endpoint is selected per server, so server available via several
+     * addresses does not obtain bigger share of invocations
+     */
+    protected boolean fServerAwareSelection = true;
+
     protected MultiURLEndpointProvider() {
         super();
     }
@@ -97,6 +104,32 @@ public abstract class MultiURLEndpointProvider<E extends Endpoint<SI>, SI extend
                          EndpointFactory<E, SI> aEndpointFactory,
                          String aBeanName)
             throws RemoteAccessException {
+        Set<Long> excludedServers = Collections.emptySet();
+        E result = getEndpoint(aRemoteInvocationFactory, aEndpointFactory, aBeanName, excludedServers);
+        return result;
+    }
+
+    /**
+     * Returns endpoint that will be used for remote service invocation, avoiding endpoints of
+     * given servers. First, method obtains list of available endpoints and excludes overloaded
+     * endpoints and endpoints of given servers (if there are other ones). If server aware
+     * selection is on, endpoints are grouped by server ID and the best address of every server
+     * is chosen, so <code>EndpointSelectionPolicy</code> selects server rather than address.
+     *
+     * @param aRemoteInvocationFactory factory used to create remote invocations
+     * @param aEndpointFactory         factory used to create endpoints
+     * @param aBeanName                name of bean that is used as proxy for remote service
+     * @param aExcludedServers         IDs of servers which should be avoided
+     * @return endpoint that should be used to remote invocation
+     * @throws RemoteAccessException thrown if endpoint could not be selected of if
+     *                               there are not currently available endpoints for remote service
+     * @see #setServerAwareSelection(boolean)
+     */
+    public E getEndpoint(RemoteInvocationFactory aRemoteInvocationFactory,
+                         EndpointFactory<E, SI> aEndpointFactory,
+                         String aBeanName,
+                         Set<Long> aExcludedServers)
+            throws RemoteAccessException {
         if (fLog.isTraceEnabled()) {
             String message = format("Starting obtaining service endpoint. Bean Name: [{0}]", aBeanName);
             fLog.trace(message);
@@ -115,9 +148,17 @@ public abstract class MultiURLEndpointProvider<E extends Endpoint<SI>, SI extend
 
         // if we are there, we have endpoints to invoke. So, now we had to select exact one that
         // will be actually invoked. We delegate this to EndpointSelectionPolicy
+        // overloaded endpoints are skipped while there are other ones
+        List<E> candidates = selectNotOverloadedEndpoints(serviceEndpoints);
+        // on failover, invocation goes to another server rather than to another address of failed one
+        candidates = excludeServers(candidates, aExcludedServers);
+        if (fServerAwareSelection) {
+            candidates = selectServerRepresentatives(candidates);
+        }
+
         E result = null;
         synchronized (this) {
-            result = fEndpointSelectionPolicy.selectServiceEndpoint(serviceEndpoints);
+            result = fEndpointSelectionPolicy.selectServiceEndpoint(candidates);
         }
 
         if (fLog.isTraceEnabled()) {
@@ -132,6 +173,126 @@ public abstract class MultiURLEndpointProvider<E extends Endpoint<SI>, SI extend
         return result;
     }
 
+    /**
+     * Excludes endpoints which are overloaded from the given list. If all endpoints
+     * are overloaded, returns original list.
+     *
+     * @param aServiceEndpoints endpoints available for service
+     * @return endpoints which could be used for invocation
+     * @see Endpoint#isOverloaded()
+     */
+    protected List<E> selectNotOverloadedEndpoints(List<E> aServiceEndpoints) {
+        List<E> result = new ArrayList<E>(aServiceEndpoints.size());
+        for (E endpoint : aServiceEndpoints) {
+            if (!endpoint.isOverloaded()) {
+                result.add(endpoint);
+            }
+        }
+        if (result.isEmpty()) {
+            if (fLog.isDebugEnabled()) {
+                fLog.debug("All service endpoints are overloaded");
+            }
+            result = aServiceEndpoints;
+        }
+        return result;
+    }
+
+    /**
+     * Excludes endpoints of given servers from the given list. If all endpoints belong to
+     * given servers, returns original list.
+     *
+     * @param aServiceEndpoints endpoints available for service
+     * @param aExcludedServers IDs of servers which should be avoided
+     * @return endpoints which could be used for invocation
+     */
+    protected List<E> excludeServers(List<E> aServiceEndpoints, Set<Long> aExcludedServers) {
+        List<E> result = aServiceEndpoints;
+        if (!aExcludedServers.isEmpty()) {
+            result = new ArrayList<E>(aServiceEndpoints.size());
+            for (E endpoint : aServiceEndpoints) {
+                if (!aExcludedServers.contains(endpoint.getServiceInfo().getServerID())) {
+                    result.add(endpoint);
+                }
+            }
+            if (result.isEmpty()) {
+                if (fLog.isDebugEnabled()) {
+                    String message = format("There are no endpoints of servers other than [{0}]", aExcludedServers);
+                    fLog.debug(message);
+                }
+                result = aServiceEndpoints;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Groups endpoints by server and selects single address for every server, so every server
+     * is represented by one endpoint regardless of amount of its network interfaces.
+     * Endpoints without server ID are considered as separate servers.
+     *
+     * @param aServiceEndpoints endpoints available for service
+     * @return one endpoint per server
+     * @see #selectServerAddress(List)
+     */
+    protected List<E> selectServerRepresentatives(List<E> aServiceEndpoints) {
+        List<E> result = new ArrayList<E>(aServiceEndpoints.size());
+        Map<Long, List<E>> servers = groupEndpointsByServer(aServiceEndpoints, result);
+        for (List<E> addresses : servers.values()) {
+            E address = addresses.size() == 1 ? addresses.get(0) : selectServerAddress(addresses);
+            result.add(address);
+        }
+        return result;
+    }
+
+    /**
+     * Groups endpoints by server ID. Endpoints without server ID are not grouped.
+     *
+     * @param aServiceEndpoints endpoints
+     * @param aUngrouped list where endpoints which could not be grouped are added
+     * @return endpoints per server ID
+     * @see ServiceMoniker#isServerIdentified()
+     */
+    protected Map<Long, List<E>> groupEndpointsByServer(List<E> aServiceEndpoints, List<E> aUngrouped) {
+        Map<Long, List<E>> result = new LinkedHashMap<Long, List<E>>();
+        for (E endpoint : aServiceEndpoints) {
+            SI serviceInfo = endpoint.getServiceInfo();
+            if (serviceInfo.isServerIdentified()) {
+                List<E> addresses = result.get(serviceInfo.getServerID());
+                if (addresses == null) {
+                    addresses = new ArrayList<E>(2);
+                    result.put(serviceInfo.getServerID(), addresses);
+                }
+                addresses.add(endpoint);
+            } else {
+                aUngrouped.add(endpoint);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Selects the best address of server - the one with minimal amount of invocations
+     * in progress. If amounts are equal (or concurrency of endpoints is not limited),
+     * the first address is selected, so connections to it are reused.
+     *
+     * @param aAddresses endpoints of the same server
+     * @return selected endpoint
+     * @see Endpoint#getConcurrencyLimit()
+     */
+    protected E selectServerAddress(List<E> aAddresses) {
+        E result = null;
+        int resultInFlight = Integer.MAX_VALUE;
+        for (E endpoint : aAddresses) {
+            AdaptiveConcurrencyLimit limit = endpoint.getConcurrencyLimit();
+            int inFlight = limit == null ? 0 : limit.getInFlight();
+            if (result == null || inFlight < resultInFlight) {
+                result = endpoint;
+                resultInFlight = inFlight;
+            }
+        }
+        return result;
+    }
+
     /**
      * Performs actual obtaining of list of available endpoints. Inherited classes will
      * implement it to provide implementation-specific functionality.
@@ -166,4 +327,23 @@ public abstract class MultiURLEndpointProvider<E extends Endpoint<SI>, SI extend
     public void setEndpointSelectionPolicy(EndpointSelectionPolicy<E, SI> aEndpointSelectionPolicy) {
         fEndpointSelectionPolicy = aEndpointSelectionPolicy;
     }
+
+    public boolean isServerAwareSelection() {
+        return fServerAwareSelection;
+    }
+
+    /**
+     * Sets whether endpoint is selected per server. If it is on, <code>EndpointSelectionPolicy</code>
+     * chooses among servers (every server is represented by its best address), so server
+     * exported via several network interfaces does not obtain bigger share of invocations.
+     * Endpoints without explicit server ID are considered as separate servers.
+     * <p/>
+     * Default is <code>true</code>
+     *
+     * @param aServerAwareSelection <code>true</code> if endpoint should be selected per server
+     * @see org.softamis.cluster4spring.rmi.MultihomeRmiServiceExporter
+     */
+    public void setServerAwareSelection(boolean aServerAwareSelection) {
+        fServerAwareSelection = aServerAwareSelection;
+    }
 }
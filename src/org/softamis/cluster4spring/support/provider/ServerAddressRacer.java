@@ -0,0 +1,246 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.provider;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.text.MessageFormat.format;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Races connection attempts to several addresses of the same server ("happy eyeballs").
+ * Connection to the first address is started immediately, connection to every next one -
+ * after short stagger or as soon as previous attempt fails. The first address to which
+ * connection is established wins, all other attempts are cancelled. Thus unreachable
+ * address (for example, black-holed network interface of multihome server) costs only
+ * stagger instead of full connect timeout.
+ * <p/>
+ * Connections are used only to probe addresses and are closed right after the race.
+ *
+ * @version 1.0
+ * @see AbstractUrlListEndpointProvider#setRaceServerAddresses(boolean)
+ */
+
+public class ServerAddressRacer {
+    protected static final Log fLog = LogFactory.getLog(ServerAddressRacer.class);
+
+    /**
+     * Delay (in milliseconds) before starting attempt to the next address
+     */
+    protected final long fStagger;
+
+    /**
+     * Maximal duration (in milliseconds) of the race
+     */
+    protected final long fTimeout;
+
+    /**
+     * Creates racer
+     *
+     * @param aStagger delay (in milliseconds) before starting attempt to the next address
+     * @param aTimeout maximal duration (in milliseconds) of the race
+     */
+    public ServerAddressRacer(long aStagger, long aTimeout) {
+        fStagger = aStagger;
+        fTimeout = aTimeout;
+    }
+
+    /**
+     * Races connection attempts to given addresses, addresses are tried in given order
+     *
+     * @param aAddresses addresses of server
+     * @return index of address to which connection was established first, <code>-1</code>
+     *         if connection could not be established to any of addresses
+     */
+    public int race(List<InetSocketAddress> aAddresses) {
+        int result = -1;
+        List<SocketChannel> channels = new ArrayList<SocketChannel>(aAddresses.size());
+        Selector selector = null;
+        try {
+            selector = Selector.open();
+            long now = System.currentTimeMillis();
+            long deadline = now + fTimeout;
+            long nextStart = now;
+            int pending = 0;
+            while (result < 0 && now < deadline && (channels.size() < aAddresses.size() || pending > 0)) {
+                if (channels.size() < aAddresses.size() && now >= nextStart) {
+                    int index = channels.size();
+                    SocketChannel channel = startConnect(aAddresses.get(index));
+                    channels.add(channel);
+                    nextStart = now + fStagger;
+                    if (channel == null) {
+                        // attempt failed immediately, so next one is started without waiting
+                        nextStart = now;
+                    } else if (channel.isConnected()) {
+                        result = index;
+                    } else {
+                        channel.register(selector, SelectionKey.OP_CONNECT, index);
+                        pending++;
+                    }
+                }
+                if (result < 0) {
+                    long wakeup = channels.size() < aAddresses.size() ? Math.min(nextStart, deadline) : deadline;
+                    long wait = wakeup - System.currentTimeMillis();
+                    if (wait > 0) {
+                        selector.select(wait);
+                    } else {
+                        selector.selectNow();
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        int index = (Integer) key.attachment();
+                        SocketChannel channel = (SocketChannel) key.channel();
+                        if (finishConnect(channel, aAddresses.get(index))) {
+                            if (result < 0) {
+                                result = index;
+                            }
+                        } else {
+                            key.cancel();
+                            pending--;
+                            nextStart = System.currentTimeMillis();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+                now = System.currentTimeMillis();
+            }
+        } catch (IOException e) {
+            if (fLog.isWarnEnabled()) {
+                fLog.warn(format("Unable to race connections to addresses [{0}]", aAddresses), e);
+            }
+        } finally {
+            // losing attempts are cancelled and winning connection is not needed anymore
+            for (SocketChannel channel : channels) {
+                close(channel);
+            }
+            if (selector != null) {
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // selector is not used anymore
+                }
+            }
+        }
+        if (fLog.isDebugEnabled()) {
+            fLog.debug(format("Address race finished. Addresses: [{0}], Winner: [{1}]", aAddresses,
+                    result < 0 ? null : aAddresses.get(result)));
+        }
+        return result;
+    }
+
+    /**
+     * Starts non-blocking connection attempt. Unresolved address is resolved first, so
+     * host name is looked up only when attempt to it is actually started
+     *
+     * @param aAddress address to connect to
+     * @return channel or <code>null</code> if attempt failed immediately
+     */
+    protected SocketChannel startConnect(InetSocketAddress aAddress) {
+        SocketChannel result = null;
+        InetSocketAddress address = aAddress;
+        if (address.isUnresolved()) {
+            address = new InetSocketAddress(address.getHostString(), address.getPort());
+        }
+        if (!address.isUnresolved()) {
+            try {
+                result = SocketChannel.open();
+                result.configureBlocking(false);
+                result.connect(address);
+            } catch (IOException e) {
+                close(result);
+                result = null;
+                if (fLog.isDebugEnabled()) {
+                    fLog.debug(format("Unable to connect to address [{0}]", aAddress), e);
+                }
+            }
+        }
+        return result;
+    }
+
+    protected boolean finishConnect(SocketChannel aChannel, InetSocketAddress aAddress) {
+        boolean result = false;
+        try {
+            result = aChannel.finishConnect();
+        } catch (IOException e) {
+            if (fLog.isDebugEnabled()) {
+                fLog.debug(format("Unable to connect to address [{0}]", aAddress), e);
+            }
+        }
+        return result;
+    }
+
+    protected static void close(SocketChannel aChannel) {
+        if (aChannel != null) {
+            try {
+                aChannel.close();
+            } catch (IOException e) {
+                // channel is not used anymore
+            }
+        }
+    }
+
+    /**
+     * Extracts address of server from URL of service. Both full (<code>protocol://host:port/name</code>)
+     * and short (<code>host:port/name</code>) forms of URL are supported. Host name is not
+     * resolved, so parsing is cheap and could be performed on every invocation.
+     *
+     * @param aServiceUrl URL of service
+     * @return unresolved address or <code>null</code> if URL does not contain host and port
+     */
+    public static InetSocketAddress parseAddress(String aServiceUrl) {
+        InetSocketAddress result = null;
+        String location = aServiceUrl;
+        int protocol = location.indexOf("://");
+        if (protocol >= 0) {
+            location = location.substring(protocol + 3);
+        }
+        int slash = location.indexOf('/');
+        if (slash >= 0) {
+            location = location.substring(0, slash);
+        }
+        int colon = location.lastIndexOf(':');
+        if (colon > 0 && colon > location.lastIndexOf(']')) {
+            String host = location.substring(0, colon);
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            try {
+                int port = Integer.parseInt(location.substring(colon + 1));
+                result = InetSocketAddress.createUnresolved(host, port);
+            } catch (IllegalArgumentException e) {
+                // port is not valid, so address could not be used in race
+            }
+        }
+        return result;
+    }
+
+    public long getStagger() {
+        return fStagger;
+    }
+
+    public long getTimeout() {
+        return fTimeout;
+    }
+}
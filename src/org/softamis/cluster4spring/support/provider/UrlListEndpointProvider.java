@@ -105,7 +105,7 @@ public class UrlListEndpointProvider<E extends Endpoint<SI>, SI extends ServiceM
 
         // simply walk over list of remote service locations and try to create endpoint for
         // every location
-        for (SI serviceInfo : fServiceMonikers) {
+        for (SI serviceInfo : selectServerAddresses(fServiceMonikers)) {
             if (fLog.isTraceEnabled()) {
                 String message =
                         format("Starting endpoint creation. Bean Name: [{0}]. Service Info: [{1}]", aBeanName, serviceInfo);
@@ -143,7 +143,7 @@ public class UrlListEndpointProvider<E extends Endpoint<SI>, SI extends ServiceM
             refresh(aRemoteInvocationFactory, aEndpointFactory, aBeanName);
         }else {
 
-            if(fServiceMonikers!= null && fEndpointsCache.size() < fServiceMonikers.size()) {
+            if(fServiceMonikers!= null && fEndpointsCache.size() < countExpectedEndpoints(fServiceMonikers)) {
 
                 String message = format("缓存中的对象数量少于配置的服务数,进行熔断保护检测，Bean Name: [{0}]);", aBeanName);
                 fLog.trace(message);
@@ -176,7 +176,7 @@ public class UrlListEndpointProvider<E extends Endpoint<SI>, SI extends ServiceM
                 }
             }else {
                 if(failTimes>0) {
-                    if (fEndpointsCache.size() == fServiceMonikers.size()) {
+                    if (fEndpointsCache.size() == countExpectedEndpoints(fServiceMonikers)) {
                         String message = format("缓存中的对象数量已经不少于配置的服务数,确认所有端点对象都正常后，退出熔断保护检测，Bean Name: [{0}]);", aBeanName);
                         fLog.trace(message);
                         failStartTime = null;
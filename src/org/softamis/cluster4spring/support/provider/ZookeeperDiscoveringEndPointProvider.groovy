@@ -9,6 +9,7 @@ import org.apache.zookeeper.CreateMode
 import org.apache.zookeeper.KeeperException
 import org.apache.zookeeper.ZooDefs
 import org.softamis.cluster4spring.rmi.ZookeeperFactoryBean
+import org.softamis.cluster4spring.rmi.support.RmiEndpointFactory
 import org.softamis.cluster4spring.support.Endpoint
 import org.softamis.cluster4spring.support.EndpointFactory
 import org.softamis.cluster4spring.support.PathChcker
@@ -40,6 +41,18 @@ public class ZookeeperDiscoveringEndPointProvider<E extends Endpoint<ServiceMoni
 
     PathChcker chcker
 
+    /**
+     * 本提供者可使用的url协议前缀，同一服务节点下可能同时发布了rmi://与nio://的url，
+     * 协议不符的url会被忽略；不带协议前缀的url视为rmi短格式url。为空时不过滤
+     */
+    String urlScheme = RmiEndpointFactory.RMI_PROTOCOL_PREFIX
+
+    /**
+     * 协同故障上报器，为空时不上报也不隔离端点
+     * @see ZookeeperFailureReporter
+     */
+    ZookeeperFailureReporter failureReporter
+
     /**
      * List of urls used to discover remote service and create service endpoints
      */
@@ -85,6 +98,9 @@ public class ZookeeperDiscoveringEndPointProvider<E extends Endpoint<ServiceMoni
             fLog.trace(message)
         }
 
+        //故障报告节点： /rmiRegistryRoot/consumer/serviceName
+        String reportNodePath = chcker.zkConsumerPath + "/" + watcherNodeName
+
         //跟换为节点路径
         //服务父节点： /rmiRegistryRoot/provider/com.hfzy.ihk.cloud.facade.callCenter.service.websocket.WebSocketService
         watcherNodeName = chcker.zkProviderPath+"/"+watcherNodeName
@@ -129,6 +145,13 @@ public class ZookeeperDiscoveringEndPointProvider<E extends Endpoint<ServiceMoni
 
         chcker.initOrCheckPath(zkClient)
 
+        if (failureReporter) {
+            failureReporter.zkClient = zkClient
+            failureReporter.reportNodePath = reportNodePath
+            failureReporter.quarantineListener = { String url -> removeQuarantinedEndpoints(url) }
+            failureReporter.start()
+        }
+
         String message = format("starting get rmi Url from watcherNodeName, watcherNodeName name:[{0}]",watcherNodeName)
         fLog.trace(message)
 
@@ -158,7 +181,12 @@ public class ZookeeperDiscoveringEndPointProvider<E extends Endpoint<ServiceMoni
 
             for (String node : nodeList) {
                 byte[] data = zkClient.readData(watcherNodeName + "/" + node) // 获取 /registry 的子节点中的数据
-                dataList.add(new String(data))
+                String url = new String(data)
+                if (acceptsUrl(url)) {
+                    dataList.add(url)
+                } else if (fLog.isDebugEnabled()) {
+                    fLog.debug(format("忽略协议不符的url: [{0}], 期望协议: [{1}]", url, urlScheme))
+                }
             }
 
              message = format("get node data from path:[{0}], data info: [{1}].", watcherNodeName, dataList)
@@ -175,6 +203,17 @@ public class ZookeeperDiscoveringEndPointProvider<E extends Endpoint<ServiceMoni
 
     }
 
+    /**
+     * 判断url的协议是否为本提供者可使用的协议
+     * @param aUrl 服务节点中发布的url
+     * @return 协议相符或url不带协议前缀时返回true
+     */
+    protected boolean acceptsUrl(String aUrl) {
+        boolean shortForm = !aUrl.contains("://") && urlScheme == RmiEndpointFactory.RMI_PROTOCOL_PREFIX
+        boolean result = !urlScheme || aUrl.startsWith(urlScheme) || shortForm
+        return result
+    }
+
     /**
      * Creates list of endpoints available for service. Inherited classes will override it to
      * provide specific implementation.
@@ -192,7 +231,7 @@ public class ZookeeperDiscoveringEndPointProvider<E extends Endpoint<ServiceMoni
 
         // simply walk over list of remote service locations and try to create endpoint for
         // every location
-        for (SI serviceInfo : fServiceMonikers) {
+        for (SI serviceInfo : selectNotQuarantinedMonikers()) {
             if (fLog.isTraceEnabled()) {
                 String message =
                         format("Starting endpoint creation. Bean Name: [{0}]. Service Info: [{1}]", aBeanName, serviceInfo)
@@ -222,8 +261,50 @@ public class ZookeeperDiscoveringEndPointProvider<E extends Endpoint<ServiceMoni
         return result
     }
 
+    /**
+     * 过滤掉被隔离的端点。如果所有端点都被隔离，则仍然返回全部端点，
+     * 避免因为误判导致整个服务不可用
+     */
+    protected List<SI> selectNotQuarantinedMonikers() {
+        List<SI> result = fServiceMonikers
+        if (failureReporter) {
+            List<SI> available = new ArrayList<SI>(fServiceMonikers.size())
+            for (SI serviceInfo : fServiceMonikers) {
+                if (!failureReporter.isQuarantined(serviceInfo.getServiceURL())) {
+                    available.add(serviceInfo)
+                }
+            }
+            if (available) {
+                result = available
+            } else {
+                fLog.warn(format("All endpoints are quarantined, ignoring quarantine. Node Path: [{0}]", watcherNodeName))
+            }
+        }
+        return result
+    }
+
+    /**
+     * 其他客户端报告的故障达到quorum后，从缓存中移除该url对应的端点
+     * @param aServiceUrl 被隔离的端点url
+     */
+    protected void removeQuarantinedEndpoints(String aServiceUrl) {
+        synchronized (fCacheLock) {
+            if (fEndpointsCache != null && fEndpointsCache.size() > 1) {
+                Iterator<E> endpoints = fEndpointsCache.iterator()
+                while (endpoints.hasNext() && fEndpointsCache.size() > 1) {
+                    E endpoint = endpoints.next()
+                    if (aServiceUrl == endpoint.getServiceInfo().getServiceURL()) {
+                        endpoints.remove()
+                        fLog.info("端点被隔离，从存根缓存中移除：" + aServiceUrl)
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Marks given endpoint invalid. This endpoint will not be later used for methods invocation.
+     * If failure reporter is configured, failure is also reported to other clients via zookeeper.
      *
      * @param aBeanName name of bean that is used as proxy for remote service
      * @param aEndpoint endpoint to be marked invalid
@@ -240,6 +321,9 @@ public class ZookeeperDiscoveringEndPointProvider<E extends Endpoint<ServiceMoni
         } else {
             // endpoints list will be selected during next invocation of remote service
         }
+        if (failureReporter) {
+            failureReporter.reportFailure(aEndpoint.getServiceInfo().getServiceURL())
+        }
     }
 
     /**
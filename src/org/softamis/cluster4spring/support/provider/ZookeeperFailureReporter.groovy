@@ -0,0 +1,347 @@
+package org.softamis.cluster4spring.support.provider
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+
+import org.I0Itec.zkclient.IZkChildListener
+import org.I0Itec.zkclient.IZkStateListener
+import org.I0Itec.zkclient.ZkClient
+import org.I0Itec.zkclient.exception.ZkNoNodeException
+import org.apache.commons.logging.Log
+import org.apache.commons.logging.LogFactory
+import org.apache.zookeeper.Watcher
+import org.apache.zookeeper.ZooDefs
+import org.apache.zookeeper.data.Stat
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory
+
+import static java.text.MessageFormat.format
+
+/**
+ * 客户端协同故障上报。
+ *
+ * 客户端在调用某个rmi服务端点失败时，在consumer路径下登记一条故障报告：
+ * /rmiRegistryRoot/consumer/serviceName/report_0000000001 (临时有序节点，数据为 "url\n上报者标识")
+ *
+ * 每个客户端对同一个端点的上报受 reportInterval 限制，并且只保留自己最新的一条报告。
+ * 所有客户端都监听该路径，当某个端点在 reportWindow 时间内被 quorum 个不同客户端报告失败时，
+ * 认为该端点已经故障，在 quarantineTime 时间内将其隔离，不再参与端点选择。
+ * 这样整个集群只需要一个上报周期就能发现故障端点，而不是每个客户端各自失败一次真实请求。
+ *
+ * 报告的写入由单独的线程完成，不占用调用线程。时间窗口以zookeeper服务器时间为准：
+ * 每个会话只向报告父节点写入一次，由写入后节点的修改时间得出本机时钟与服务器时钟的偏差，
+ * 之后评估报告时用本机时间加上该偏差，不再为每次评估写入zookeeper。
+ */
+class ZookeeperFailureReporter {
+
+    protected static final Log fLog = LogFactory.getLog(ZookeeperFailureReporter.class)
+
+    static final String REPORT_NODE_PREFIX = "report_"
+
+    ZkClient zkClient
+
+    //故障报告父节点：/rmiRegistryRoot/consumer/serviceName
+    String reportNodePath
+
+    //上报者标识，默认为 pid@host
+    String reporterId = ManagementFactory.getRuntimeMXBean().getName()
+
+    //同一客户端对同一端点两次上报的最小间隔(ms)
+    long reportInterval = 5000
+
+    //只统计该时间窗口内的报告(ms)，以zookeeper服务器的当前时间为准，避免各主机时钟不一致
+    long reportWindow = 30000
+
+    //判定端点故障所需的不同上报者数量
+    int quorum = 3
+
+    //端点被隔离的时间(ms)
+    long quarantineTime = 60000
+
+    //端点被隔离时的回调，参数为端点url
+    Closure quarantineListener
+
+    //url -> 本客户端最近一次上报时间
+    protected final Map<String, Long> fLastReportTimes = new ConcurrentHashMap<String, Long>()
+
+    //url -> 本客户端最近一次上报创建的节点
+    protected final Map<String, String> fOwnReportNodes = new ConcurrentHashMap<String, String>()
+
+    //url -> 隔离截止时间
+    protected final Map<String, Long> fQuarantined = new ConcurrentHashMap<String, Long>()
+
+    protected IZkChildListener fReportsListener = null
+
+    protected IZkStateListener fStateListener = null
+
+    //zookeeper服务器时钟与本机时钟的偏差(ms)
+    protected volatile long fZkClockOffset = 0
+
+    //写入和删除报告节点的线程，避免在调用线程上访问zookeeper
+    protected ExecutorService fReportExecutor = null
+
+    void start() {
+        if (!zkClient) {
+            throw new IllegalArgumentException("zkClient is require!")
+        }
+        if (!reportNodePath) {
+            throw new IllegalArgumentException("reportNodePath is require!")
+        }
+        if (quorum < 1) {
+            throw new IllegalArgumentException("quorum should be positive!")
+        }
+
+        if (!zkClient.exists(reportNodePath)) {
+            try {
+                zkClient.createPersistent(reportNodePath, true)
+            } catch (Exception e) {
+                // 其他客户端可能已经创建了该节点
+                if (!zkClient.exists(reportNodePath)) {
+                    throw e
+                }
+            }
+        }
+
+        fZkClockOffset = measureZkClockOffset()
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("cluster4spring-failure-reporter-")
+        threadFactory.setDaemon(true)
+        fReportExecutor = Executors.newSingleThreadExecutor(threadFactory)
+
+        fStateListener = new IZkStateListener() {
+            @Override
+            void handleStateChanged(Watcher.Event.KeeperState state) throws Exception {
+            }
+
+            /**
+             * 新会话中本客户端的临时报告节点已经不存在，重新测量时钟偏差
+             */
+            @Override
+            void handleNewSession() throws Exception {
+                fOwnReportNodes.clear()
+                fZkClockOffset = measureZkClockOffset()
+            }
+
+            @Override
+            void handleSessionEstablishmentError(Throwable error) throws Exception {
+            }
+        }
+        zkClient.subscribeStateChanges(fStateListener)
+
+        fReportsListener = new IZkChildListener() {
+            @Override
+            void handleChildChange(String parentPath, List<String> currentChilds) throws Exception {
+                evaluateReports(currentChilds)
+            }
+        }
+        zkClient.subscribeChildChanges(reportNodePath, fReportsListener)
+
+        evaluateReports(zkClient.getChildren(reportNodePath))
+
+        if (fLog.isInfoEnabled()) {
+            fLog.info(format("Failure reporter started. Report Path: [{0}], Reporter: [{1}], Quorum: [{2}]",
+                    reportNodePath, reporterId, quorum))
+        }
+    }
+
+    void stop() {
+        if (fReportsListener != null) {
+            zkClient.unsubscribeChildChanges(reportNodePath, fReportsListener)
+            fReportsListener = null
+        }
+        if (fStateListener != null) {
+            zkClient.unsubscribeStateChanges(fStateListener)
+            fStateListener = null
+        }
+        if (fReportExecutor != null) {
+            fReportExecutor.shutdownNow()
+            fReportExecutor = null
+        }
+        for (String node : fOwnReportNodes.values()) {
+            deleteSilently(node)
+        }
+        fOwnReportNodes.clear()
+    }
+
+    /**
+     * 上报端点故障。受 reportInterval 限制，间隔内的重复上报直接忽略。
+     * 报告由上报线程异步写入，调用线程不访问zookeeper。
+     * @param aServiceUrl 调用失败的端点url
+     * @return 如果本次报告被接受并交给上报线程，返回true
+     */
+    boolean reportFailure(final String aServiceUrl) {
+        long now = System.currentTimeMillis()
+        Long lastReportTime = fLastReportTimes.get(aServiceUrl)
+        if (lastReportTime != null && now - lastReportTime < reportInterval) {
+            return false
+        }
+        fLastReportTimes.put(aServiceUrl, now)
+
+        boolean result = false
+        ExecutorService executor = fReportExecutor
+        if (executor != null) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    void run() {
+                        writeReport(aServiceUrl)
+                    }
+                })
+                result = true
+            } catch (RejectedExecutionException ignored) {
+                // 上报者已经停止
+            }
+        }
+        return result
+    }
+
+    /**
+     * 写入故障报告节点，替换本客户端对该端点的上一条报告
+     * @param aServiceUrl 调用失败的端点url
+     * @return 如果报告写入成功，返回true
+     */
+    protected boolean writeReport(String aServiceUrl) {
+        boolean result = false
+        try {
+            // 每个客户端对同一端点只保留最新的一条报告
+            String previousNode = fOwnReportNodes.remove(aServiceUrl)
+            if (previousNode != null) {
+                deleteSilently(previousNode)
+            }
+            String data = aServiceUrl + "\n" + reporterId
+            String nodePath = zkClient.createEphemeralSequential(reportNodePath + "/" + REPORT_NODE_PREFIX, data,
+                    ZooDefs.Ids.OPEN_ACL_UNSAFE)
+            fOwnReportNodes.put(aServiceUrl, nodePath)
+            result = true
+            fLog.info("上报rmi服务端点故障：" + aServiceUrl + " => " + nodePath)
+        } catch (Exception e) {
+            fLog.error(format("Unable to report endpoint failure. Service URL: [{0}]", aServiceUrl), e)
+        }
+        return result
+    }
+
+    /**
+     * 端点是否处于隔离状态
+     */
+    boolean isQuarantined(String aServiceUrl) {
+        Long until = fQuarantined.get(aServiceUrl)
+        boolean result = false
+        if (until != null) {
+            if (until > System.currentTimeMillis()) {
+                result = true
+            } else {
+                fQuarantined.remove(aServiceUrl, until)
+            }
+        }
+        return result
+    }
+
+    /**
+     * 返回当前处于隔离状态的端点url
+     */
+    Set<String> getQuarantinedUrls() {
+        Set<String> result = new HashSet<String>()
+        for (String url : new ArrayList<String>(fQuarantined.keySet())) {
+            if (isQuarantined(url)) {
+                result.add(url)
+            }
+        }
+        return result
+    }
+
+    /**
+     * 统计时间窗口内每个端点的不同上报者数量，达到 quorum 的端点被隔离
+     */
+    protected void evaluateReports(List<String> aReportNodes) {
+        if (!aReportNodes) {
+            return
+        }
+
+        long now = currentZkTime()
+
+        Map<String, Set<String>> reportersByUrl = new HashMap<String, Set<String>>()
+        Map<String, Long> createTimes = new HashMap<String, Long>()
+        Map<String, String> datas = new HashMap<String, String>()
+
+        for (String node : aReportNodes) {
+            Stat stat = new Stat()
+            String data = null
+            try {
+                data = zkClient.readData(reportNodePath + "/" + node, stat)
+            } catch (ZkNoNodeException ignored) {
+                // 报告已经被上报者删除
+            }
+            if (data != null) {
+                createTimes.put(node, stat.getCtime())
+                datas.put(node, data)
+            }
+        }
+
+        for (String node : datas.keySet()) {
+            if (createTimes.get(node) < now - reportWindow) {
+                continue
+            }
+            String data = datas.get(node)
+            int separator = data.indexOf('\n')
+            String url = separator == -1 ? data : data.substring(0, separator)
+            String reporter = separator == -1 ? node : data.substring(separator + 1)
+            Set<String> reporters = reportersByUrl.get(url)
+            if (reporters == null) {
+                reporters = new HashSet<String>()
+                reportersByUrl.put(url, reporters)
+            }
+            reporters.add(reporter)
+        }
+
+        for (Map.Entry<String, Set<String>> entry : reportersByUrl.entrySet()) {
+            String url = entry.getKey()
+            int reports = entry.getValue().size()
+            if (reports >= quorum && !isQuarantined(url)) {
+                fQuarantined.put(url, System.currentTimeMillis() + quarantineTime)
+                fLog.warn(format("Endpoint quarantined by failure quorum. Service URL: [{0}], Reporters: [{1}]", url, reports))
+                if (quarantineListener != null) {
+                    quarantineListener.call(url)
+                }
+            }
+        }
+    }
+
+    /**
+     * 返回zookeeper服务器的当前时间：本机时间加上会话开始时测得的时钟偏差。
+     * 不能直接使用本机时间，报告的创建时间由服务器设置，而各主机时钟可能不一致；
+     * 也不能使用最新一条报告的创建时间，否则没有新报告时旧报告永远不会过期。
+     */
+    protected long currentZkTime() {
+        return System.currentTimeMillis() + fZkClockOffset
+    }
+
+    /**
+     * 测量zookeeper服务器时钟与本机时钟的偏差：向报告父节点写入上报者标识，
+     * 以写入后节点的修改时间与写入前后本机时间的中点之差为准。每个会话只调用一次。
+     * @return 偏差(ms)，无法测量时返回上一次测得的偏差
+     */
+    protected long measureZkClockOffset() {
+        long result = fZkClockOffset
+        try {
+            long before = System.currentTimeMillis()
+            Stat stat = zkClient.writeDataReturnStat(reportNodePath, reporterId, -1)
+            long after = System.currentTimeMillis()
+            result = stat.getMtime() - (before + after).intdiv(2)
+        } catch (Exception e) {
+            fLog.warn(format("Unable to measure zookeeper clock offset, previous one is used. Report Path: [{0}]",
+                    reportNodePath), e)
+        }
+        return result
+    }
+
+    protected void deleteSilently(String aNodePath) {
+        try {
+            zkClient.delete(aNodePath)
+        } catch (Exception e) {
+            if (fLog.isDebugEnabled()) {
+                fLog.debug("Unable to delete failure report node: " + aNodePath, e)
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.shm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of {@link MappedRingBuffer}
+ *
+ * @version 1.0
+ */
+
+public class MappedRingBufferTest {
+    protected static final int CAPACITY = 32;
+
+    protected MappedRingBuffer fBuffer = null;
+
+    @Before
+    public void setUp() {
+        assumeTrue(MappedRingBuffer.isSupported());
+        fBuffer = new MappedRingBuffer(ByteBuffer.allocateDirect(MappedRingBuffer.HEADER_SIZE + CAPACITY));
+    }
+
+    @Test
+    public void testFramesAreReadInOrder()
+            throws Exception {
+        assertTrue(fBuffer.isEmpty());
+        assertTrue(fBuffer.offer(frame(1, 2, 3)));
+        assertTrue(fBuffer.offer(frame(4)));
+
+        assertFrame(fBuffer.poll(), 1, 2, 3);
+        assertFrame(fBuffer.poll(), 4);
+        assertNull(fBuffer.poll());
+        assertTrue(fBuffer.isEmpty());
+    }
+
+    @Test
+    public void testFullBufferRejectsFrame()
+            throws Exception {
+        assertTrue(fBuffer.offer(frame(new byte[CAPACITY - 4])));
+        assertFalse(fBuffer.offer(frame(1)));
+
+        fBuffer.poll();
+        assertTrue(fBuffer.offer(frame(1)));
+    }
+
+    @Test
+    public void testFrameWrapsAroundEndOfBuffer()
+            throws Exception {
+        // moves positions close to end of data area
+        assertTrue(fBuffer.offer(frame(new byte[20])));
+        fBuffer.poll();
+
+        assertTrue(fBuffer.offer(frame(1, 2, 3, 4, 5, 6, 7, 8, 9, 10)));
+        assertFrame(fBuffer.poll(), 1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidFrameLengthIsRejected()
+            throws Exception {
+        ByteBuffer frame = ByteBuffer.allocate(8);
+        frame.putInt(1000).putInt(0);
+        frame.flip();
+        fBuffer.offer(frame);
+        fBuffer.poll();
+    }
+
+    protected static ByteBuffer frame(int... aBytes) {
+        byte[] body = new byte[aBytes.length];
+        for (int i = 0; i < aBytes.length; i++) {
+            body[i] = (byte) aBytes[i];
+        }
+        return frame(body);
+    }
+
+    protected static ByteBuffer frame(byte[] aBody) {
+        ByteBuffer result = ByteBuffer.allocate(4 + aBody.length);
+        result.putInt(aBody.length).put(aBody);
+        result.flip();
+        return result;
+    }
+
+    protected static void assertFrame(ByteBuffer aFrame, int... aExpected) {
+        assertEquals(aExpected.length, aFrame.remaining());
+        for (int expected : aExpected) {
+            assertEquals((byte) expected, aFrame.get());
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.nio.shm;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static java.text.MessageFormat.format;
+
+import org.softamis.cluster4spring.nio.NioProxyFactoryBean;
+import org.softamis.cluster4spring.nio.NioServiceExporter;
+import org.softamis.cluster4spring.nio.support.NioEndpoint;
+import org.softamis.cluster4spring.nio.support.NioEndpointFactory;
+import org.softamis.cluster4spring.rmi.RmiServiceExporter;
+import org.softamis.cluster4spring.rmi.RmiSingleUrlProxyFactoryBean;
+import org.softamis.cluster4spring.support.ServiceMoniker;
+import org.softamis.cluster4spring.support.provider.SingleUrlEndpointProvider;
+
+/**
+ * Simple benchmark which compares latency of invocations performed via shared memory
+ * transport with latency of invocations performed via RMI over loopback interface.
+ * Single thread invokes trivial method, so measured time is overhead of transport.
+ * <p/>
+ * Usage: <code>ShmLatencyBenchmark [directory] [iterations] [port]</code>. Directory
+ * should be located on memory backed file system (like <code>/dev/shm</code>) for
+ * representative results.
+ *
+ * @version 1.0
+ */
+
+public class ShmLatencyBenchmark {
+    /**
+     * Service used by benchmark
+     */
+    public interface Echo {
+        int echo(int aValue);
+    }
+
+    protected static class EchoImpl
+            implements Echo {
+        public int echo(int aValue) {
+            return aValue;
+        }
+    }
+
+    protected final String fDirectory;
+    protected final int fIterations;
+    protected final int fPort;
+
+    public ShmLatencyBenchmark(String aDirectory, int aIterations, int aPort) {
+        fDirectory = aDirectory;
+        fIterations = aIterations;
+        fPort = aPort;
+    }
+
+    @SuppressWarnings({"ProhibitedExceptionDeclared"})
+    public static void main(String[] aArgs)
+            throws Exception {
+        String directory = aArgs.length > 0 ? aArgs[0] : "/dev/shm/cluster4spring-benchmark";
+        int iterations = aArgs.length > 1 ? Integer.parseInt(aArgs[1]) : 100000;
+        int port = aArgs.length > 2 ? Integer.parseInt(aArgs[2]) : 17099;
+        ShmLatencyBenchmark benchmark = new ShmLatencyBenchmark(directory, iterations, port);
+        benchmark.runRmi();
+        benchmark.runShm(ShmWaitStrategy.PARK);
+        benchmark.runShm(ShmWaitStrategy.BUSY_SPIN);
+        System.exit(0);
+    }
+
+    /**
+     * Measures latency of RMI invocations over loopback interface
+     *
+     * @throws Exception if benchmark could not be performed
+     */
+    @SuppressWarnings({"ProhibitedExceptionDeclared"})
+    public void runRmi()
+            throws Exception {
+        RmiServiceExporter exporter = new RmiServiceExporter();
+        exporter.setService(new EchoImpl());
+        exporter.setServiceInterface(Echo.class);
+        exporter.setServiceName("echo");
+        exporter.setRegistryPort(fPort);
+        exporter.afterPropertiesSet();
+        try {
+            RmiSingleUrlProxyFactoryBean<ServiceMoniker> proxyFactory = new RmiSingleUrlProxyFactoryBean<ServiceMoniker>();
+            proxyFactory.setServiceUrl(exporter.provideExportedServiceURLs().get(0));
+            proxyFactory.setServiceInterface(Echo.class);
+            proxyFactory.setBeanName("echo");
+            proxyFactory.afterPropertiesSet();
+            measure("RMI loopback", (Echo) proxyFactory.getObject());
+        } finally {
+            exporter.destroy();
+        }
+    }
+
+    /**
+     * Measures latency of invocations performed via shared memory transport
+     *
+     * @param aWaitStrategy strategy used by both client and server to wait for messages
+     * @throws Exception if benchmark could not be performed
+     */
+    @SuppressWarnings({"ProhibitedExceptionDeclared"})
+    public void runShm(ShmWaitStrategy aWaitStrategy)
+            throws Exception {
+        ShmServer server = new ShmServer();
+        server.setDirectory(new File(fDirectory, aWaitStrategy.name().toLowerCase()).getPath());
+        server.setWaitStrategy(aWaitStrategy);
+        server.afterPropertiesSet();
+
+        NioServiceExporter exporter = new NioServiceExporter();
+        exporter.setService(new EchoImpl());
+        exporter.setServiceInterface(Echo.class);
+        exporter.setServiceName("echo");
+        exporter.setServiceHost("127.0.0.1");
+        exporter.setPort(fPort + 1 + aWaitStrategy.ordinal());
+        exporter.setShmServer(server);
+        exporter.afterPropertiesSet();
+
+        ShmClientTransport transport = new ShmClientTransport();
+        transport.setWaitStrategy(aWaitStrategy);
+        try {
+            SingleUrlEndpointProvider<NioEndpoint<ServiceMoniker>, ServiceMoniker> provider =
+                    new SingleUrlEndpointProvider<NioEndpoint<ServiceMoniker>, ServiceMoniker>();
+            provider.setServiceMoniker(new ServiceMoniker(exporter.provideExportedServiceURLs().get(0)));
+            provider.afterPropertiesSet();
+
+            NioEndpointFactory<ServiceMoniker> endpointFactory = new NioEndpointFactory<ServiceMoniker>();
+            endpointFactory.setPreferSharedMemory(true);
+            endpointFactory.setShmTransport(transport);
+
+            NioProxyFactoryBean<ServiceMoniker> proxyFactory = new NioProxyFactoryBean<ServiceMoniker>();
+            proxyFactory.setEndpointProvider(provider);
+            proxyFactory.setEndpointFactory(endpointFactory);
+            proxyFactory.setServiceInterface(Echo.class);
+            proxyFactory.setBeanName("echo");
+            proxyFactory.afterPropertiesSet();
+            measure(format("Shared memory ({0})", aWaitStrategy), (Echo) proxyFactory.getObject());
+        } finally {
+            transport.destroy();
+            exporter.destroy();
+            server.destroy();
+        }
+    }
+
+    protected void measure(String aName, Echo aEcho) {
+        // warm up, so JIT compilation does not affect results
+        for (int i = 0; i < fIterations; i++) {
+            aEcho.echo(i);
+        }
+        long[] latencies = new long[fIterations];
+        for (int i = 0; i < fIterations; i++) {
+            long start = System.nanoTime();
+            if (aEcho.echo(i) != i) {
+                throw new IllegalStateException("Unexpected result of invocation");
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        System.out.println(format("{0}: avg {1} us, p50 {2} us, p99 {3} us, p99.9 {4} us", aName,
+                micros(total / fIterations), micros(percentile(latencies, 0.5)), micros(percentile(latencies, 0.99)),
+                micros(percentile(latencies, 0.999))));
+    }
+
+    protected static long percentile(long[] aSortedLatencies, double aPercentile) {
+        int index = (int) Math.min(aSortedLatencies.length - 1, Math.floor(aSortedLatencies.length * aPercentile));
+        return aSortedLatencies[index];
+    }
+
+    protected static String micros(long aNanos) {
+        return String.format("%.1f", aNanos / 1000.0);
+    }
+}
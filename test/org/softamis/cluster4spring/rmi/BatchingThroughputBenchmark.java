@@ -0,0 +1,199 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi;
+
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.text.MessageFormat.format;
+
+import org.softamis.cluster4spring.support.RequestCollapser;
+import org.softamis.cluster4spring.support.ServiceMoniker;
+
+/**
+ * Simple benchmark which compares throughput of invocations performed via RMI invoker
+ * individually with throughput of the same invocations collapsed into batches. Several
+ * threads concurrently invoke trivial lookup method during given time.
+ * <p/>
+ * Usage: <code>BatchingThroughputBenchmark [threads] [seconds] [port] [batch size] [flush interval]</code>.
+ *
+ * @version 1.0
+ * @see RequestCollapser
+ */
+
+public class BatchingThroughputBenchmark {
+    /**
+     * Service used by benchmark
+     */
+    public interface UserService {
+        User getUser(long aId);
+    }
+
+    public static class User
+            implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        protected final long fId;
+        protected final String fName;
+
+        public User(long aId, String aName) {
+            fId = aId;
+            fName = aName;
+        }
+
+        public long getId() {
+            return fId;
+        }
+
+        public String getName() {
+            return fName;
+        }
+    }
+
+    protected static class UserServiceImpl
+            implements UserService {
+        public User getUser(long aId) {
+            return new User(aId, "user" + aId);
+        }
+    }
+
+    protected final int fThreads;
+    protected final long fDuration;
+    protected final int fPort;
+    protected final int fMaxBatchSize;
+    protected final long fFlushInterval;
+
+    public BatchingThroughputBenchmark(int aThreads, long aDuration, int aPort, int aMaxBatchSize,
+                                       long aFlushInterval) {
+        fThreads = aThreads;
+        fDuration = aDuration;
+        fPort = aPort;
+        fMaxBatchSize = aMaxBatchSize;
+        fFlushInterval = aFlushInterval;
+    }
+
+    @SuppressWarnings({"ProhibitedExceptionDeclared"})
+    public static void main(String[] aArgs)
+            throws Exception {
+        int threads = aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : 64;
+        long duration = aArgs.length > 1 ? Long.parseLong(aArgs[1]) * 1000 : 10000;
+        int port = aArgs.length > 2 ? Integer.parseInt(aArgs[2]) : 17199;
+        int batchSize = aArgs.length > 3 ? Integer.parseInt(aArgs[3]) : 32;
+        long flushInterval = aArgs.length > 4 ? Long.parseLong(aArgs[4]) : 2;
+        BatchingThroughputBenchmark benchmark =
+                new BatchingThroughputBenchmark(threads, duration, port, batchSize, flushInterval);
+        benchmark.run();
+        System.exit(0);
+    }
+
+    /**
+     * Exports service and measures throughput of individual and batched invocations
+     *
+     * @throws Exception if benchmark could not be performed
+     */
+    @SuppressWarnings({"ProhibitedExceptionDeclared"})
+    public void run()
+            throws Exception {
+        RmiServiceExporter exporter = new RmiServiceExporter();
+        exporter.setService(new UserServiceImpl());
+        exporter.setServiceInterface(UserService.class);
+        exporter.setServiceName("users");
+        exporter.setRegistryPort(fPort);
+        exporter.afterPropertiesSet();
+        try {
+            String url = exporter.provideExportedServiceURLs().get(0);
+            measure("Individual", createProxy(url, false));
+
+            RmiSingleUrlProxyFactoryBean<ServiceMoniker> batchedProxy = createProxy(url, true);
+            measure(format("Batched (size {0}, flush {1} ms)", fMaxBatchSize, fFlushInterval), batchedProxy);
+            RequestCollapser collapser = batchedProxy.getRequestCollapser();
+            if (collapser != null && collapser.getBatchesSent() > 0) {
+                System.out.println(format("Average batch size: {0}",
+                        String.format("%.1f", (double) collapser.getInvocationsBatched() / collapser.getBatchesSent())));
+            }
+        } finally {
+            exporter.destroy();
+        }
+    }
+
+    @SuppressWarnings({"ProhibitedExceptionDeclared"})
+    protected RmiSingleUrlProxyFactoryBean<ServiceMoniker> createProxy(String aUrl, boolean aBatched)
+            throws Exception {
+        RmiSingleUrlProxyFactoryBean<ServiceMoniker> result = new RmiSingleUrlProxyFactoryBean<ServiceMoniker>();
+        result.setServiceUrl(aUrl);
+        result.setServiceInterface(UserService.class);
+        result.setBeanName(aBatched ? "users-batched" : "users");
+        if (aBatched) {
+            result.setBatchMethods(new String[]{"getUser"});
+            result.setMaxBatchSize(fMaxBatchSize);
+            result.setBatchFlushInterval(fFlushInterval);
+        }
+        result.afterPropertiesSet();
+        return result;
+    }
+
+    @SuppressWarnings({"ProhibitedExceptionDeclared"})
+    protected void measure(String aName, RmiSingleUrlProxyFactoryBean<ServiceMoniker> aProxy)
+            throws Exception {
+        final UserService service = (UserService) aProxy.getObject();
+        // warm up, so JIT compilation does not affect results
+        runLoad(service, Math.min(fDuration, 2000));
+        long invocations = runLoad(service, fDuration);
+        System.out.println(format("{0}: {1} invocations/s", aName,
+                String.format("%.0f", invocations * 1000.0 / fDuration)));
+    }
+
+    /**
+     * Invokes service from several threads during given time
+     *
+     * @param aService service to invoke
+     * @param aDuration time (in milliseconds) of invoking
+     * @return amount of performed invocations
+     * @throws InterruptedException if thread was interrupted while waiting for invoking threads
+     */
+    protected long runLoad(final UserService aService, long aDuration)
+            throws InterruptedException {
+        final AtomicLong invocations = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(fThreads);
+        final long end = System.currentTimeMillis() + aDuration;
+        for (int i = 0; i < fThreads; i++) {
+            final long base = i * 1000000L;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        long id = base;
+                        while (System.currentTimeMillis() < end) {
+                            if (aService.getUser(id).getId() != id) {
+                                throw new IllegalStateException("Unexpected result of invocation");
+                            }
+                            id++;
+                            invocations.incrementAndGet();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "benchmark-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        return invocations.get();
+    }
+}
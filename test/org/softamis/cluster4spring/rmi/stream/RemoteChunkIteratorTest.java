@@ -0,0 +1,84 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of {@link RemoteChunkIterator}
+ *
+ * @version 1.0
+ */
+
+public class RemoteChunkIteratorTest {
+    @After
+    public void restoreFetchExecutor() {
+        synchronized (RemoteChunkIterator.class) {
+            RemoteChunkIterator.fFetchExecutor = null;
+        }
+    }
+
+    @Test
+    public void iteratesAllElementsOfSource() {
+        RemoteChunkIterator<Integer> iterator = new RemoteChunkIterator<Integer>(createSource(10), 3, 2);
+        assertEquals(createElements(10), drain(iterator));
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void consumerFetchesChunksIfThereIsNoFreeFetchThread() {
+        synchronized (RemoteChunkIterator.class) {
+            RemoteChunkIterator.fFetchExecutor = new Executor() {
+                public void execute(Runnable aCommand) {
+                    throw new RejectedExecutionException("No free thread");
+                }
+            };
+        }
+        RemoteChunkIterator<Integer> iterator = new RemoteChunkIterator<Integer>(createSource(10), 4, 2);
+        assertEquals(createElements(10), drain(iterator));
+    }
+
+    protected static ChunkSource createSource(int aSize) {
+        return new IteratorChunkSource(createElements(aSize).iterator(), 100, null);
+    }
+
+    protected static List<Integer> createElements(int aSize) {
+        List<Integer> result = new ArrayList<Integer>(aSize);
+        for (int i = 0; i < aSize; i++) {
+            result.add(i);
+        }
+        return result;
+    }
+
+    protected static List<Integer> drain(RemoteChunkIterator<Integer> aIterator) {
+        List<Integer> result = new ArrayList<Integer>();
+        while (aIterator.hasNext()) {
+            result.add(aIterator.next());
+        }
+        return result;
+    }
+}
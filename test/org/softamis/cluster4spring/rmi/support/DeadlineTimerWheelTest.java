@@ -0,0 +1,137 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of {@link DeadlineTimerWheel}
+ *
+ * @version 1.0
+ */
+
+public class DeadlineTimerWheelTest {
+    protected DeadlineTimerWheel fWheel = null;
+
+    @Before
+    public void setUp() {
+        fWheel = new DeadlineTimerWheel("test-deadline-timer", 10, 4);
+    }
+
+    @After
+    public void tearDown() {
+        fWheel.stop();
+    }
+
+    protected static Runnable countDown(final CountDownLatch aLatch, final AtomicLong aExecutionTime) {
+        return new Runnable() {
+            public void run() {
+                aExecutionTime.set(System.currentTimeMillis());
+                aLatch.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testTaskIsExecutedAfterDeadline()
+            throws Exception {
+        CountDownLatch executed = new CountDownLatch(1);
+        AtomicLong executionTime = new AtomicLong();
+        long deadline = System.currentTimeMillis() + 50;
+
+        fWheel.schedule(deadline, countDown(executed, executionTime));
+
+        assertTrue(executed.await(2, TimeUnit.SECONDS));
+        assertTrue(executionTime.get() >= deadline);
+    }
+
+    @Test
+    public void testTaskIsNotExecutedBeforeLaterRotation()
+            throws Exception {
+        CountDownLatch executed = new CountDownLatch(1);
+        AtomicLong executionTime = new AtomicLong();
+        // deadline is several rotations of the wheel ahead
+        long deadline = System.currentTimeMillis() + 200;
+
+        fWheel.schedule(deadline, countDown(executed, executionTime));
+
+        assertTrue(executed.await(2, TimeUnit.SECONDS));
+        assertTrue(executionTime.get() >= deadline);
+    }
+
+    @Test
+    public void testPassedDeadlineIsExecutedOnNextTicks()
+            throws Exception {
+        CountDownLatch executed = new CountDownLatch(1);
+
+        fWheel.schedule(System.currentTimeMillis() - 1000, countDown(executed, new AtomicLong()));
+
+        assertTrue(executed.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancelledTaskIsNotExecuted()
+            throws Exception {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch executed = new CountDownLatch(1);
+
+        DeadlineTimerWheel.Timeout timeout =
+                fWheel.schedule(System.currentTimeMillis() + 30, countDown(cancelled, new AtomicLong()));
+        timeout.cancel();
+        fWheel.schedule(System.currentTimeMillis() + 60, countDown(executed, new AtomicLong()));
+
+        assertTrue(executed.await(2, TimeUnit.SECONDS));
+        assertTrue(timeout.isCancelled());
+        assertFalse(cancelled.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFailedTaskDoesNotStopWheel()
+            throws Exception {
+        CountDownLatch executed = new CountDownLatch(1);
+
+        fWheel.schedule(System.currentTimeMillis() + 20, new Runnable() {
+            public void run() {
+                throw new IllegalStateException("Task failure");
+            }
+        });
+        fWheel.schedule(System.currentTimeMillis() + 80, countDown(executed, new AtomicLong()));
+
+        assertTrue(executed.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStoppedWheelDoesNotExecuteTasks()
+            throws Exception {
+        CountDownLatch executed = new CountDownLatch(1);
+
+        fWheel.schedule(System.currentTimeMillis() + 50, countDown(executed, new AtomicLong()));
+        fWheel.stop();
+
+        assertFalse(executed.await(200, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,161 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.softamis.cluster4spring.rmi.RmiServiceExporter;
+import org.softamis.cluster4spring.rmi.RmiUrlListProxyFactoryBean;
+import org.softamis.cluster4spring.support.EndpointSelectionPolicy;
+import org.softamis.cluster4spring.support.HedgingPolicy;
+import org.softamis.cluster4spring.support.ServiceMoniker;
+
+/**
+ * Tests of hedged invocations performed by {@link RmiClientInterceptor}
+ *
+ * @version 1.0
+ */
+
+public class HedgedRmiInvocationTest {
+    public interface EchoService {
+        String echo(String aMessage);
+    }
+
+    public static class EchoServiceImpl
+            implements EchoService {
+        protected final long fDelay;
+        protected final AtomicInteger fInvocations = new AtomicInteger();
+
+        public EchoServiceImpl(long aDelay) {
+            fDelay = aDelay;
+        }
+
+        public String echo(String aMessage) {
+            fInvocations.incrementAndGet();
+            try {
+                Thread.sleep(fDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return aMessage;
+        }
+    }
+
+    public static class PlainServerSocketFactory
+            implements RMIServerSocketFactory, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public ServerSocket createServerSocket(int aPort)
+                throws IOException {
+            return new ServerSocket(aPort);
+        }
+
+        @Override
+        public boolean equals(Object aObject) {
+            return aObject instanceof PlainServerSocketFactory;
+        }
+
+        @Override
+        public int hashCode() {
+            return PlainServerSocketFactory.class.hashCode();
+        }
+    }
+
+    public static class InTurnSelectionPolicy
+            implements EndpointSelectionPolicy<RmiEndpoint<ServiceMoniker>, ServiceMoniker> {
+        protected final AtomicInteger fSelections = new AtomicInteger();
+
+        public RmiEndpoint<ServiceMoniker> selectServiceEndpoint(List<RmiEndpoint<ServiceMoniker>> aEndpoints) {
+            return aEndpoints.get(fSelections.getAndIncrement() % aEndpoints.size());
+        }
+    }
+
+    protected final List<RmiServiceExporter> fExporters = new ArrayList<RmiServiceExporter>();
+
+    @After
+    public void destroyExporters()
+            throws Exception {
+        for (RmiServiceExporter exporter : fExporters) {
+            exporter.destroy();
+        }
+    }
+
+    @Test
+    public void slowInvocationIsAbandonedOnceHedgeCompletes()
+            throws Exception {
+        EchoServiceImpl slowService = new EchoServiceImpl(3000);
+        List<String> urls = new ArrayList<String>();
+        urls.add(export(slowService, 17431));
+        urls.add(export(new EchoServiceImpl(0), 17432));
+
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setBudgetPercent(100);
+        policy.setInitialHedgeDelay(50);
+        RmiEndpointFactory<ServiceMoniker> endpointFactory = new RmiEndpointFactory<ServiceMoniker>();
+        endpointFactory.setLocalInvocations(false);
+        RmiUrlListProxyFactoryBean<ServiceMoniker> proxyFactory = new RmiUrlListProxyFactoryBean<ServiceMoniker>();
+        proxyFactory.setServiceURLs(urls);
+        proxyFactory.setServiceInterface(EchoService.class);
+        proxyFactory.setBeanName("hedgedEchoService");
+        proxyFactory.setEndpointFactory(endpointFactory);
+        proxyFactory.setCacheEndpoints(true);
+        // endpoints are used in turn, so hedge is sent to another endpoint than original invocation
+        proxyFactory.setEndpointSelectionPolicy(new InTurnSelectionPolicy());
+        proxyFactory.setIdempotentMethods(new String[]{"echo"});
+        // attempt with timeout could be aborted by closing its socket
+        proxyFactory.setDefaultMethodTimeout(10000);
+        proxyFactory.setHedgingPolicy(policy);
+        proxyFactory.afterPropertiesSet();
+        EchoService service = (EchoService) proxyFactory.getObject();
+
+        for (int i = 0; i < 6; i++) {
+            long started = System.currentTimeMillis();
+            assertEquals("message" + i, service.echo("message" + i));
+            long duration = System.currentTimeMillis() - started;
+            assertTrue("Invocation took " + duration + " ms", duration < 2000);
+        }
+        assertEquals(slowService.fInvocations.get(), policy.getHedgesWon());
+        policy.shutdown();
+    }
+
+    protected String export(EchoService aService, int aPort)
+            throws Exception {
+        RmiServiceExporter exporter = new RmiServiceExporter();
+        exporter.setService(aService);
+        exporter.setServiceInterface(EchoService.class);
+        exporter.setServiceName("hedgedEchoService");
+        exporter.setRegistryPort(aPort);
+        exporter.setClientSocketFactory(new DeadlineAwareRmiClientSocketFactory());
+        exporter.setServerSocketFactory(new PlainServerSocketFactory());
+        exporter.afterPropertiesSet();
+        fExporters.add(exporter);
+        return exporter.provideExportedServiceURLs().get(0);
+    }
+}
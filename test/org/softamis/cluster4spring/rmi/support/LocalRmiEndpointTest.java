@@ -0,0 +1,106 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.rmi.ConnectException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.remoting.support.DefaultRemoteInvocationFactory;
+import org.springframework.remoting.support.RemoteInvocation;
+
+import org.softamis.cluster4spring.rmi.RmiServiceExporter;
+
+/**
+ * Tests of {@link LocalRmiEndpoint}
+ *
+ * @version 1.0
+ */
+
+public class LocalRmiEndpointTest {
+    public interface NameService {
+        String currentThreadName();
+    }
+
+    public static class NameServiceImpl
+            implements NameService {
+        public String currentThreadName() {
+            return Thread.currentThread().getName();
+        }
+    }
+
+    protected RmiServiceExporter fExporter = null;
+
+    @After
+    public void destroyExporter()
+            throws Exception {
+        if (fExporter != null) {
+            fExporter.destroy();
+        }
+    }
+
+    @Test
+    public void failsWithConnectExceptionOnceExporterIsDestroyed()
+            throws Exception {
+        LocalRmiEndpoint<String> endpoint = createEndpoint(null);
+        assertEquals(Thread.currentThread().getName(), endpoint.invokeLocally(createInvocation()));
+
+        fExporter.destroy();
+        fExporter = null;
+        try {
+            endpoint.invokeLocally(createInvocation());
+            fail("Invocation of destroyed exporter should fail");
+        } catch (ConnectException e) {
+            // expected - client invalidates endpoint on connect failure
+        }
+    }
+
+    @Test
+    public void performsInvocationByExecutorOfExporter()
+            throws Exception {
+        RmiInvocationExecutor executor = new RmiInvocationExecutor();
+        executor.setName("local-test-invoker");
+        executor.setThreads(1);
+        LocalRmiEndpoint<String> endpoint = createEndpoint(executor);
+
+        String threadName = (String) endpoint.invokeLocally(createInvocation());
+        assertTrue(threadName, threadName.startsWith("local-test-invoker"));
+        assertEquals(1, executor.getExecuted());
+    }
+
+    protected LocalRmiEndpoint<String> createEndpoint(RmiInvocationExecutor aExecutor)
+            throws Exception {
+        fExporter = new RmiServiceExporter();
+        fExporter.setService(new NameServiceImpl());
+        fExporter.setServiceInterface(NameService.class);
+        fExporter.setServiceName("localEndpointTest");
+        fExporter.setRegistryPort(17421);
+        fExporter.setInvocationExecutor(aExecutor);
+        fExporter.afterPropertiesSet();
+        return new LocalRmiEndpoint<String>(new DefaultRemoteInvocationFactory(), "localEndpointTest",
+                "localEndpointTest", fExporter.getExportedObject(), fExporter);
+    }
+
+    protected RemoteInvocation createInvocation() {
+        return new RemoteInvocation("currentThreadName", new Class[0], new Object[0]);
+    }
+}
@@ -0,0 +1,198 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.softamis.cluster4spring.support.InvocationPriority;
+
+/**
+ * Tests of {@link PriorityRmiInvocationExecutor}
+ *
+ * @version 1.0
+ */
+
+public class PriorityRmiInvocationExecutorTest {
+    protected PriorityRmiInvocationExecutor fExecutor = null;
+    protected ExecutorService fCallers = null;
+    protected final CountDownLatch fRelease = new CountDownLatch(1);
+
+    @Before
+    public void setUp()
+            throws Exception {
+        fExecutor = new PriorityRmiInvocationExecutor();
+        fExecutor.setName("priority-test");
+        fExecutor.setThreads(1);
+        fExecutor.setTargetDelay(10);
+        fExecutor.setInterval(50);
+        // only shedding by queueing delay is tested
+        fExecutor.setMaxQueueWaitTime(0);
+        fCallers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        fRelease.countDown();
+        fCallers.shutdownNow();
+        fExecutor.destroy();
+    }
+
+    /**
+     * Occupies the only thread of executor until <code>fRelease</code> is counted down
+     */
+    protected Future<String> occupyWorker()
+            throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        Future<String> result = submit(new Callable<String>() {
+            public String call()
+                    throws Exception {
+                started.countDown();
+                fRelease.await();
+                return "blocker";
+            }
+        }, InvocationPriority.CRITICAL);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return result;
+    }
+
+    protected Future<String> submit(final String aResult, int aPriority) {
+        return submit(new Callable<String>() {
+            public String call() {
+                return aResult;
+            }
+        }, aPriority);
+    }
+
+    protected Future<String> submit(final Callable<String> aTask, final int aPriority) {
+        return fCallers.submit(new Callable<String>() {
+            public String call()
+                    throws Exception {
+                return fExecutor.execute(aTask, aPriority);
+            }
+        });
+    }
+
+    protected void awaitQueueDepth(int aPriority, int aDepth)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fExecutor.getQueueDepth(aPriority) < aDepth && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(aDepth, fExecutor.getQueueDepth(aPriority));
+    }
+
+    protected static boolean isShed(Future<String> aFuture)
+            throws Exception {
+        boolean result = false;
+        try {
+            aFuture.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            result = e.getCause() instanceof ServerOverloadedException;
+            if (!result) {
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void shedsLowPriorityWhenQueueingDelayStaysAboveTarget()
+            throws Exception {
+        Future<String> blocker = occupyWorker();
+        Future<String> critical = submit("critical", InvocationPriority.CRITICAL);
+        awaitQueueDepth(InvocationPriority.CRITICAL, 1);
+
+        // standing queue: invocations keep arriving while worker does not take any of them
+        List<Future<String>> bulk = new ArrayList<Future<String>>();
+        for (int i = 0; i < 10; i++) {
+            bulk.add(submit("bulk", InvocationPriority.BULK));
+            Thread.sleep(20);
+        }
+
+        assertTrue(fExecutor.isOverloaded(InvocationPriority.BULK));
+        assertTrue(fExecutor.getShed(InvocationPriority.BULK) > 0);
+        assertEquals(0, fExecutor.getShed(InvocationPriority.CRITICAL));
+
+        fRelease.countDown();
+        assertEquals("blocker", blocker.get(5, TimeUnit.SECONDS));
+        // critical invocation waited longer than target too, but it is never shed by delay
+        assertEquals("critical", critical.get(5, TimeUnit.SECONDS));
+        int shed = 0;
+        for (Future<String> future : bulk) {
+            if (isShed(future)) {
+                shed++;
+            }
+        }
+        assertTrue(shed > 0);
+        assertEquals(shed, fExecutor.getShed(InvocationPriority.BULK));
+    }
+
+    @Test
+    public void absorbsBurstShorterThanInterval()
+            throws Exception {
+        fExecutor.setInterval(10000);
+        Future<String> blocker = occupyWorker();
+
+        List<Future<String>> bulk = new ArrayList<Future<String>>();
+        for (int i = 0; i < 5; i++) {
+            bulk.add(submit("bulk", InvocationPriority.BULK));
+            Thread.sleep(20);
+        }
+
+        assertFalse(fExecutor.isOverloaded(InvocationPriority.BULK));
+        fRelease.countDown();
+        assertEquals("blocker", blocker.get(5, TimeUnit.SECONDS));
+        for (Future<String> future : bulk) {
+            assertEquals("bulk", future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, fExecutor.getShed());
+    }
+
+    @Test
+    public void replacesLowerPriorityInvocationIfQueueIsFull()
+            throws Exception {
+        fExecutor.setQueueCapacity(1);
+        Future<String> blocker = occupyWorker();
+        Future<String> bulk = submit("bulk", InvocationPriority.BULK);
+        awaitQueueDepth(InvocationPriority.BULK, 1);
+
+        Future<String> high = submit("high", InvocationPriority.HIGH);
+
+        assertTrue(isShed(bulk));
+        assertEquals(1, fExecutor.getShed(InvocationPriority.BULK));
+        fRelease.countDown();
+        assertEquals("blocker", blocker.get(5, TimeUnit.SECONDS));
+        assertEquals("high", high.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,132 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.rmi.support;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link RmiInvocationExecutor}
+ *
+ * @version 1.0
+ */
+
+public class RmiInvocationExecutorTest {
+    @Test
+    public void limitsQueueWaitByDefault() {
+        RmiInvocationExecutor executor = new RmiInvocationExecutor();
+        assertTrue(executor.getMaxQueueWaitTime() > 0);
+    }
+
+    @Test
+    public void rejectsInvocationWhichWaitedTooLong()
+            throws Exception {
+        final RmiInvocationExecutor executor = new RmiInvocationExecutor();
+        executor.setName("queue-wait-test");
+        executor.setThreads(1);
+        executor.setMaxQueueWaitTime(50);
+        final CountDownLatch started = new CountDownLatch(1);
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+        Future<String> busy = callers.submit(new Callable<String>() {
+            public String call()
+                    throws Exception {
+                return executor.execute(new Callable<String>() {
+                    public String call()
+                            throws Exception {
+                        started.countDown();
+                        Thread.sleep(200);
+                        return "busy";
+                    }
+                });
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        try {
+            executor.execute(new Callable<String>() {
+                public String call() {
+                    return "stale";
+                }
+            });
+            fail("Invocation which waited longer than maxQueueWaitTime should be rejected");
+        } catch (ServerOverloadedException e) {
+            // expected
+        }
+        assertEquals("busy", busy.get(5, TimeUnit.SECONDS));
+        assertEquals(1, executor.getExpired());
+        callers.shutdown();
+        executor.destroy();
+    }
+
+    @Test
+    public void rejectsInvocationIfQueueIsFull()
+            throws Exception {
+        final RmiInvocationExecutor executor = new RmiInvocationExecutor();
+        executor.setThreads(1);
+        executor.setQueueCapacity(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        Callable<String> blocking = new Callable<String>() {
+            public String call()
+                    throws Exception {
+                return executor.execute(new Callable<String>() {
+                    public String call()
+                            throws Exception {
+                        started.countDown();
+                        release.await();
+                        return "done";
+                    }
+                });
+            }
+        };
+        Future<String> running = callers.submit(blocking);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<String> queued = callers.submit(blocking);
+        while (executor.getQueueDepth() < 1) {
+            Thread.sleep(1);
+        }
+
+        try {
+            executor.execute(new Callable<String>() {
+                public String call() {
+                    return "rejected";
+                }
+            });
+            fail("Invocation should be rejected since queue is full");
+        } catch (ServerOverloadedException e) {
+            // expected
+        }
+        assertEquals(1, executor.getRejected());
+        release.countDown();
+        assertEquals("done", running.get(5, TimeUnit.SECONDS));
+        assertEquals("done", queued.get(5, TimeUnit.SECONDS));
+        callers.shutdown();
+        executor.destroy();
+    }
+}
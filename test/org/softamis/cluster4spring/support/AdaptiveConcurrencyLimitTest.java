@@ -0,0 +1,125 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link AdaptiveConcurrencyLimit}
+ *
+ * @version 1.0
+ */
+
+public class AdaptiveConcurrencyLimitTest {
+    protected static final long RTT = 1000000;
+
+    protected static AdaptiveConcurrencyLimit createLimit(int aInitialLimit) {
+        AdaptiveConcurrencyLimit result = new AdaptiveConcurrencyLimit();
+        result.setInitialLimit(aInitialLimit);
+        return result;
+    }
+
+    protected static void acquire(AdaptiveConcurrencyLimit aLimit, int aAmount) {
+        for (int i = 0; i < aAmount; i++) {
+            assertTrue(aLimit.tryAcquire());
+        }
+    }
+
+    @Test
+    public void testInvocationsAboveLimitAreRejected() {
+        AdaptiveConcurrencyLimit limit = createLimit(2);
+        acquire(limit, 2);
+
+        assertTrue(limit.isOverloaded());
+        assertFalse(limit.tryAcquire());
+        assertEquals(1, limit.getRejected());
+
+        limit.release(RTT, false);
+        assertFalse(limit.isOverloaded());
+        assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    public void testLimitGrowsWhileLatencyDoesNotIncrease() {
+        AdaptiveConcurrencyLimit limit = createLimit(4);
+        acquire(limit, 4);
+
+        limit.release(RTT, false);
+
+        assertEquals(5, limit.getLimit());
+        assertEquals(RTT, limit.getRttNoLoad());
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyIncreases() {
+        AdaptiveConcurrencyLimit limit = createLimit(20);
+        acquire(limit, 20);
+        limit.release(RTT, false);
+        int limitBefore = limit.getLimit();
+
+        // estimated queue is limit * (1 - 1/10), well above beta
+        limit.release(RTT * 10, false);
+
+        assertEquals(limitBefore - 1, limit.getLimit());
+        assertEquals(RTT, limit.getRttNoLoad());
+    }
+
+    @Test
+    public void testLimitIsNotAdjustedIfItIsNotUsed() {
+        AdaptiveConcurrencyLimit limit = createLimit(20);
+        acquire(limit, 1);
+
+        limit.release(RTT, false);
+
+        assertEquals(20, limit.getLimit());
+    }
+
+    @Test
+    public void testLimitBacksOffOnDropsDownToMinimum() {
+        AdaptiveConcurrencyLimit limit = createLimit(10);
+        limit.setMinLimit(5);
+
+        acquire(limit, 1);
+        limit.release(RTT, true);
+        assertEquals(9, limit.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            acquire(limit, 1);
+            limit.release(RTT, true);
+        }
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void testNewInstanceHasOwnState() {
+        AdaptiveConcurrencyLimit template = createLimit(3);
+        template.setMaxLimit(50);
+        acquire(template, 3);
+
+        AdaptiveConcurrencyLimit limit = template.newInstance();
+
+        assertEquals(3, limit.getLimit());
+        assertEquals(50, limit.getMaxLimit());
+        assertEquals(0, limit.getInFlight());
+        assertTrue(limit.tryAcquire());
+    }
+}
@@ -0,0 +1,108 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link Bulkhead}
+ *
+ * @version 1.0
+ */
+
+public class BulkheadTest {
+    @Test
+    public void rejectsInvocationIfAllSlotsAreBusy() {
+        Bulkhead bulkhead = new Bulkhead("test", 2, 0, 0);
+        bulkhead.acquire();
+        bulkhead.acquire();
+        assertTrue(bulkhead.isSaturated());
+
+        try {
+            bulkhead.acquire();
+            fail("Invocation should be rejected");
+        } catch (BulkheadFullException e) {
+            assertEquals(0, e.getStackTrace().length);
+        }
+        assertEquals(2, bulkhead.getAccepted());
+        assertEquals(1, bulkhead.getRejected());
+
+        bulkhead.release();
+        assertFalse(bulkhead.isSaturated());
+        bulkhead.acquire();
+        assertEquals(2, bulkhead.getActiveCalls());
+    }
+
+    @Test
+    public void waitingInvocationObtainsReleasedSlot()
+            throws InterruptedException {
+        final Bulkhead bulkhead = new Bulkhead("test", 1, 1, 5000);
+        bulkhead.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiting = new Thread(new Runnable() {
+            public void run() {
+                bulkhead.acquire();
+                acquired.countDown();
+            }
+        });
+        waiting.start();
+        while (bulkhead.getWaitingCalls() == 0) {
+            Thread.sleep(1);
+        }
+
+        bulkhead.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(1, bulkhead.getAcceptedAfterWait());
+        assertEquals(0, bulkhead.getWaitingCalls());
+    }
+
+    @Test
+    public void rejectsInvocationIfWaitingTimeElapsed() {
+        Bulkhead bulkhead = new Bulkhead("test", 1, 1, 20);
+        bulkhead.acquire();
+        long start = System.currentTimeMillis();
+        try {
+            bulkhead.acquire();
+            fail("Invocation should be rejected");
+        } catch (BulkheadFullException e) {
+            assertTrue(System.currentTimeMillis() - start >= 15);
+        }
+        assertEquals(0, bulkhead.getWaitingCalls());
+    }
+
+    @Test
+    public void isIdleOnlyWithoutActiveInvocations()
+            throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead("test", 1, 0, 0);
+        bulkhead.acquire();
+        Thread.sleep(5);
+        assertFalse(bulkhead.isIdle(0));
+
+        bulkhead.release();
+        assertTrue(bulkhead.isIdle(0));
+        assertFalse(bulkhead.isIdle(60000));
+    }
+}
@@ -0,0 +1,105 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link HedgingPolicy}
+ *
+ * @version 1.0
+ */
+
+public class HedgingPolicyTest {
+    @Test
+    public void budgetLimitsAmountOfHedges() {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setBudgetPercent(50);
+        policy.onInvocation();
+        assertFalse(policy.tryAcquireHedge());
+        policy.onInvocation();
+        assertTrue(policy.tryAcquireHedge());
+        assertFalse(policy.tryAcquireHedge());
+        assertEquals(2, policy.getHedgesRejected());
+    }
+
+    @Test
+    public void schedulesTaskAfterDelay()
+            throws Exception {
+        HedgingPolicy policy = new HedgingPolicy();
+        final CountDownLatch executed = new CountDownLatch(1);
+        long started = System.nanoTime();
+        policy.schedule(new Runnable() {
+            public void run() {
+                executed.countDown();
+            }
+        }, 50);
+        assertTrue(executed.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) >= 50);
+        policy.shutdown();
+    }
+
+    @Test
+    public void refusesToCreateExecutorOnceShutDown() {
+        HedgingPolicy policy = new HedgingPolicy();
+        ExecutorService executor = policy.getExecutor();
+        policy.shutdown();
+        assertTrue(executor.isShutdown());
+
+        try {
+            policy.getExecutor();
+            fail("Executor should not be created again");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        try {
+            policy.schedule(new Runnable() {
+                public void run() {
+                }
+            }, 10);
+            fail("Hedge should not be scheduled");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void adaptsHedgeDelayToObservedLatencies()
+            throws Exception {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setMinSamples(10);
+        Method method = Object.class.getMethod("hashCode");
+        assertEquals(policy.getInitialHedgeDelay(), policy.getHedgeDelay(method));
+        for (int i = 1; i <= 100; i++) {
+            policy.recordLatency(method, i);
+        }
+        long delay = policy.getHedgeDelay(method);
+        assertTrue(String.valueOf(delay), delay >= 90 && delay <= 100);
+    }
+}
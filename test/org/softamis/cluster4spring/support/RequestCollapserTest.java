@@ -0,0 +1,157 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Tests of {@link RequestCollapser}
+ *
+ * @version 1.0
+ */
+
+public class RequestCollapserTest {
+    /**
+     * Handler which echoes first argument of every invocation
+     */
+    protected static class EchoHandler
+            implements RequestCollapser.BatchHandler {
+        protected final List<Integer> fBatchSizes = new ArrayList<Integer>();
+        protected final CountDownLatch fRelease;
+
+        protected EchoHandler(CountDownLatch aRelease) {
+            fRelease = aRelease;
+        }
+
+        public List<RemoteInvocationResult> invokeBatch(List<MethodInvocation> aInvocations)
+                throws Throwable {
+            fRelease.await();
+            synchronized (fBatchSizes) {
+                fBatchSizes.add(aInvocations.size());
+            }
+            List<RemoteInvocationResult> result = new ArrayList<RemoteInvocationResult>();
+            for (MethodInvocation invocation : aInvocations) {
+                result.add(new RemoteInvocationResult(invocation.getArguments()[0]));
+            }
+            return result;
+        }
+    }
+
+    @Test
+    public void collapsesConcurrentInvocationsIntoBatch()
+            throws Exception {
+        EchoHandler handler = new EchoHandler(new CountDownLatch(0));
+        final RequestCollapser collapser = new RequestCollapser(handler, 4, 10000, 1, "test");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Object>> results = new ArrayList<Future<Object>>();
+        for (int i = 0; i < 4; i++) {
+            final int argument = i;
+            results.add(executor.submit(new Callable<Object>() {
+                public Object call()
+                        throws Exception {
+                    return collapser.collapse(createInvocation(argument), 5000).getResult().getValue();
+                }
+            }));
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, results.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, collapser.getBatchesSent());
+        assertEquals(4, collapser.getInvocationsBatched());
+        executor.shutdown();
+        collapser.shutdown();
+    }
+
+    @Test
+    public void invocationWhichTimedOutIsRemovedFromBatch()
+            throws Exception {
+        EchoHandler handler = new EchoHandler(new CountDownLatch(0));
+        RequestCollapser collapser = new RequestCollapser(handler, 4, 10000, 1, "test");
+        try {
+            collapser.collapse(createInvocation(1), 50);
+            fail("Invocation should time out");
+        } catch (RemoteInvocationTimeoutException e) {
+            // expected
+        }
+        collapser.shutdown();
+        assertEquals(0, collapser.getBatchesSent());
+        assertEquals(0, handler.fBatchSizes.size());
+    }
+
+    @Test
+    public void waitingForSentBatchIsLimitedByTimeout()
+            throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        EchoHandler handler = new EchoHandler(release);
+        RequestCollapser collapser = new RequestCollapser(handler, 4, 1, 1, "test");
+        long started = System.nanoTime();
+        try {
+            collapser.collapse(createInvocation(1), 100);
+            fail("Invocation should time out");
+        } catch (RemoteInvocationTimeoutException e) {
+            // expected
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 5000);
+        release.countDown();
+        collapser.shutdown();
+    }
+
+    protected static MethodInvocation createInvocation(final Object aArgument)
+            throws Exception {
+        final Method method = Integer.class.getMethod("valueOf", int.class);
+        return new MethodInvocation() {
+            public Method getMethod() {
+                return method;
+            }
+
+            public Object[] getArguments() {
+                return new Object[]{aArgument};
+            }
+
+            public Object proceed() {
+                throw new UnsupportedOperationException();
+            }
+
+            public Object getThis() {
+                return null;
+            }
+
+            public AccessibleObject getStaticPart() {
+                return method;
+            }
+        };
+    }
+}
@@ -0,0 +1,97 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import org.springframework.aop.framework.ProxyFactory;
+
+/**
+ * Tests of {@link NearCacheInterceptor}
+ *
+ * @version 1.0
+ */
+
+public class NearCacheInterceptorTest {
+    public interface Catalog {
+        @NearCacheable
+        ArrayList<String> find(String aQuery);
+    }
+
+    protected static class CountingCatalog
+            implements Catalog {
+        protected final AtomicInteger fInvocations = new AtomicInteger();
+
+        public ArrayList<String> find(String aQuery) {
+            fInvocations.incrementAndGet();
+            return new ArrayList<String>(Collections.singletonList(aQuery));
+        }
+    }
+
+    protected Catalog createProxy(Catalog aTarget, NearCacheInterceptor aInterceptor) {
+        aInterceptor.afterPropertiesSet();
+        ProxyFactory factory = new ProxyFactory(aTarget);
+        factory.addInterface(Catalog.class);
+        factory.addAdvice(aInterceptor);
+        return (Catalog) factory.getProxy();
+    }
+
+    @Test
+    public void repeatedInvocationIsAnsweredFromCache() {
+        CountingCatalog target = new CountingCatalog();
+        NearCacheInterceptor interceptor = new NearCacheInterceptor();
+        Catalog catalog = createProxy(target, interceptor);
+
+        assertEquals(Collections.singletonList("x"), catalog.find("x"));
+        assertEquals(Collections.singletonList("x"), catalog.find("x"));
+        catalog.find("y");
+
+        assertEquals(2, target.fInvocations.get());
+        assertEquals(1, interceptor.getHits());
+    }
+
+    @Test
+    public void callerModifyingResultDoesNotAffectCache() {
+        Catalog catalog = createProxy(new CountingCatalog(), new NearCacheInterceptor());
+
+        List<String> first = catalog.find("x");
+        first.add("modified");
+        List<String> second = catalog.find("x");
+
+        assertEquals(Collections.singletonList("x"), second);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void cachedInstanceIsSharedIfCopyingIsSwitchedOff() {
+        NearCacheInterceptor interceptor = new NearCacheInterceptor();
+        interceptor.setCopyValues(false);
+        Catalog catalog = createProxy(new CountingCatalog(), interceptor);
+
+        assertSame(catalog.find("x"), catalog.find("x"));
+    }
+}
@@ -0,0 +1,93 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link SegmentedLruCache}
+ *
+ * @version 1.0
+ */
+
+public class SegmentedLruCacheTest {
+    @Test
+    public void evictsLeastRecentlyUsedEntryWhenFull() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(3, 0, 1);
+        cache.put("a", "A", 60000, 1);
+        cache.put("b", "B", 60000, 1);
+        cache.put("c", "C", 60000, 1);
+        cache.put("d", "D", 60000, 1);
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get("a"));
+        assertEquals("D", cache.get("d"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void entryReadTwiceSurvivesScan() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(5, 0, 1);
+        cache.put("hot", "H", 60000, 1);
+        assertNotNull(cache.get("hot"));
+        for (int i = 0; i < 20; i++) {
+            cache.put("scan" + i, "S", 60000, 1);
+        }
+
+        assertEquals("H", cache.get("hot"));
+        assertEquals(5, cache.size());
+    }
+
+    @Test
+    public void evictsByWeight() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(100, 10, 1);
+        cache.put("a", "A", 60000, 6);
+        cache.put("b", "B", 60000, 6);
+
+        assertNull(cache.get("a"));
+        assertEquals("B", cache.get("b"));
+        assertEquals(6, cache.weight());
+    }
+
+    @Test
+    public void expiredEntryIsNotReturned()
+            throws InterruptedException {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(10, 0, 2);
+        cache.put("a", "A", 1, 1);
+        Thread.sleep(5);
+
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void replacingEntryKeepsWeight() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(10, 0, 1);
+        cache.put("a", "A", 60000, 4);
+        cache.put("a", "A2", 60000, 3);
+
+        assertEquals(1, cache.size());
+        assertEquals(3, cache.weight());
+        assertEquals("A2", cache.get("a"));
+    }
+}
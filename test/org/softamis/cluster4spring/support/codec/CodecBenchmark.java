@@ -0,0 +1,142 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.codec;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static java.text.MessageFormat.format;
+
+import org.springframework.remoting.support.RemoteInvocation;
+import org.springframework.remoting.support.RemoteInvocationResult;
+
+/**
+ * Simple benchmark which compares codecs on payload size and CPU time. Invocation with
+ * several DTOs as argument and result containing list of DTOs are encoded and decoded
+ * repeatedly in single thread.
+ * <p/>
+ * Usage: <code>CodecBenchmark [iterations] [amount of DTOs]</code>.
+ *
+ * @version 1.0
+ * @see CompactCodec
+ */
+
+public class CodecBenchmark {
+    public static class Customer
+            implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        protected long fId;
+        protected String fName;
+        protected String fEmail;
+
+        public Customer() {
+        }
+
+        public Customer(long aId, String aName, String aEmail) {
+            fId = aId;
+            fName = aName;
+            fEmail = aEmail;
+        }
+    }
+
+    public static class Order
+            implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        protected long fId;
+        protected Customer fCustomer;
+        protected Date fCreated;
+        protected BigDecimal fAmount;
+        protected int fQuantity;
+        protected String fStatus;
+
+        public Order() {
+        }
+
+        public Order(long aId, Customer aCustomer, Date aCreated, BigDecimal aAmount, int aQuantity, String aStatus) {
+            fId = aId;
+            fCustomer = aCustomer;
+            fCreated = aCreated;
+            fAmount = aAmount;
+            fQuantity = aQuantity;
+            fStatus = aStatus;
+        }
+    }
+
+    protected final int fIterations;
+    protected final RemoteInvocation fInvocation;
+    protected final RemoteInvocationResult fResult;
+
+    public CodecBenchmark(int aIterations, int aOrders) {
+        fIterations = aIterations;
+        Customer customer = new Customer(42, "John Smith", "john.smith@example.com");
+        fInvocation = new RemoteInvocation("findOrders", new Class[]{Customer.class, Date.class, Date.class},
+                new Object[]{customer, new Date(0), new Date()});
+        List<Order> orders = new ArrayList<Order>(aOrders);
+        for (int i = 0; i < aOrders; i++) {
+            orders.add(new Order(i, customer, new Date(), BigDecimal.valueOf(i * 100 + 99, 2), i % 5 + 1,
+                    i % 3 == 0 ? "SHIPPED" : "OPEN"));
+        }
+        fResult = new RemoteInvocationResult((Serializable) orders);
+    }
+
+    @SuppressWarnings({"ProhibitedExceptionDeclared"})
+    public static void main(String[] aArgs)
+            throws Exception {
+        int iterations = aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : 20000;
+        int orders = aArgs.length > 1 ? Integer.parseInt(aArgs[1]) : 20;
+        CodecBenchmark benchmark = new CodecBenchmark(iterations, orders);
+        benchmark.measure(new JavaSerializationCodec());
+        benchmark.measure(new CompactCodec());
+        benchmark.measure(new CompressingCodec(new JavaSerializationCodec()));
+        benchmark.measure(new CompressingCodec(new CompactCodec()));
+    }
+
+    /**
+     * Measures size of encoded invocation and result and time of their encoding and decoding
+     *
+     * @param aCodec codec to measure
+     * @throws Exception if benchmark could not be performed
+     */
+    @SuppressWarnings({"ProhibitedExceptionDeclared"})
+    public void measure(InvocationCodec aCodec)
+            throws Exception {
+        // warm up, so JIT compilation does not affect results
+        roundTrip(aCodec, fIterations);
+        int invocationSize = aCodec.encode(fInvocation).length;
+        int resultSize = aCodec.encode(fResult).length;
+        long start = System.nanoTime();
+        roundTrip(aCodec, fIterations);
+        long time = (System.nanoTime() - start) / fIterations;
+        System.out.println(format("{0}: invocation {1} bytes, result {2} bytes, encode and decode both {3} us",
+                aCodec.getName(), invocationSize, resultSize, String.format("%.1f", time / 1000.0)));
+    }
+
+    protected void roundTrip(InvocationCodec aCodec, int aIterations)
+            throws IOException, ClassNotFoundException {
+        for (int i = 0; i < aIterations; i++) {
+            aCodec.decode(aCodec.encode(fInvocation));
+            aCodec.decode(aCodec.encode(fResult));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/******************************************************************************
+ * Copyright(c) 2005-2007 SoftAMIS (http://www.soft-amis.com)                 *
+ * All Rights Reserved.                                                       *
+ * *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * You may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ * *
+ * http://www.apache.org/licenses/LICENSE-2.0                               *
+ * *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ ******************************************************************************/
+
+package org.softamis.cluster4spring.support.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link CompactCodec}
+ *
+ * @version 1.0
+ */
+
+public class CompactCodecTest {
+    protected final CompactCodec fCodec = new CompactCodec();
+
+    @Test
+    @SuppressWarnings({"unchecked"})
+    public void testSharedReferencesAreRestored()
+            throws Exception {
+        List<String> shared = new ArrayList<String>(Arrays.asList("a", "b"));
+        List<Object> value = new ArrayList<Object>(Arrays.<Object>asList(shared, shared));
+
+        List<Object> decoded = (List<Object>) fCodec.decode(fCodec.encode(value));
+
+        assertEquals(value, decoded);
+        assertSame(decoded.get(0), decoded.get(1));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testLengthExceedingDataIsRejected()
+            throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(CompactCodec.TAG_BYTES);
+        writeVarInt(data, Integer.MAX_VALUE);
+        data.write(1);
+        fCodec.decode(data.toByteArray());
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testNegativeLengthIsRejected()
+            throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(CompactCodec.TAG_STRING);
+        writeVarInt(data, -1);
+        fCodec.decode(data.toByteArray());
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testCollectionSizeExceedingDataIsRejected()
+            throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(CompactCodec.TAG_COLLECTION);
+        writeVarInt(data, 0);
+        byte[] className = ArrayList.class.getName().getBytes(CompactOutput.UTF8);
+        writeVarInt(data, className.length);
+        data.write(className);
+        writeVarInt(data, 1000000);
+        data.write(CompactCodec.TAG_NULL);
+        fCodec.decode(data.toByteArray());
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testUnknownReferenceIsRejected()
+            throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(CompactCodec.TAG_REFERENCE);
+        writeVarInt(data, 5);
+        fCodec.decode(data.toByteArray());
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testUnknownClassReferenceIsRejected()
+            throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(CompactCodec.TAG_CLASS);
+        writeVarInt(data, 3);
+        fCodec.decode(data.toByteArray());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedDataIsRejected()
+            throws Exception {
+        byte[] encoded = fCodec.encode(Long.MAX_VALUE);
+        fCodec.decode(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+
+    @Test
+    public void testBytesRoundTrip()
+            throws Exception {
+        byte[] value = {1, 2, 3, 4};
+        assertArrayEquals(value, (byte[]) fCodec.decode(fCodec.encode(value)));
+    }
+
+    protected static void writeVarInt(ByteArrayOutputStream aData, int aValue) {
+        int value = aValue;
+        while ((value & ~0x7F) != 0) {
+            aData.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        aData.write(value);
+    }
+}